@@ -65,6 +65,13 @@ public class DiskBackedPointSetCache extends PointSetCache {
 	                LOG.warn("Failure, skipping this pointset.");
 	            }       	            
 	            return pset;
+	        } else if (name.endsWith(PointSetBinaryFormat.FILE_EXTENSION)) {
+	            LOG.info("loading '{}'", pointSetData);
+	            try {
+	                return PointSetBinaryFormat.read(pointSetData);
+	            } catch (IOException ioex) {
+	                LOG.warn("Exception while loading pointset.", ioex);
+	            }
 	        }
 			return null;
 		}
@@ -98,6 +105,9 @@ public class DiskBackedPointSetCache extends PointSetCache {
 		        String baseName = name.substring(0, name.length() - 5);
 		        ids.add(baseName);
 			}
+			else if (name.endsWith(PointSetBinaryFormat.FILE_EXTENSION)) {
+				ids.add(name.substring(0, name.length() - PointSetBinaryFormat.FILE_EXTENSION.length()));
+			}
 		}
 
 		return ids;
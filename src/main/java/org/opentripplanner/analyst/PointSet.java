@@ -40,8 +40,11 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -51,6 +54,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
 
 /**
  * PointSets serve as named groups of destinations when calculating analyst one-to-many indicators. 
@@ -85,6 +91,9 @@ public class PointSet implements Serializable {
      */
     private Map<String, SampleSet> samples = new ConcurrentHashMap<String, SampleSet>();
 
+    /** Sample sets being made by getOrCreateSampleSet, so that concurrent calls for the same graph share one. */
+    private transient Map<Graph, FutureTask<SampleSet>> pendingSamples = new ConcurrentHashMap<>();
+
     /**
      * Map from string IDs to their array indices. This is a view into PointSet.ids, namely its reverse mapping.
      */
@@ -106,8 +115,17 @@ public class PointSet implements Serializable {
     // The characteristics of the features in this PointSet. This is a column store.
     // Each structured attribute must also contain an array of magnitudes with the same length as these arrays.
 
-    /** A unique identifier for each feature. */
-    protected String[] ids;
+    /**
+     * A unique identifier for each feature, or null if the features are identified by their index (as in a regular
+     * grid). Use getId rather than reading this directly, as it may also be decoded lazily from a binary pointset.
+     */
+    protected volatile String[] ids;
+
+    /**
+     * The IDs of a pointset loaded from the binary format, until they are first needed. This is only cleared once
+     * the decoded IDs have been stored, so a reader that finds it null will see them.
+     */
+    transient volatile ByteBuffer encodedIds;
 
     /** The latitude of each feature (or its centroid if it's not a point). */
     protected double[] lats;
@@ -115,8 +133,11 @@ public class PointSet implements Serializable {
     /** The longitude of each feature (or its centroid if it's not a point). */
     protected double[] lons;
 
-    /** The polygon for each feature (which is reduced to a centroid point for routing purposes). */
-    protected Polygon[] polygons; // TODO what do we do when there are no polygons?
+    /**
+     * The polygon for each feature (which is reduced to a centroid point for routing purposes), or null if no
+     * feature has a polygon.
+     */
+    protected Polygon[] polygons;
 
     /**
      * Rather than trying to load anything any everything, we stick to a strict
@@ -459,6 +480,20 @@ public class PointSet implements Serializable {
         polygons = new Polygon[capacity];
     }
 
+    /**
+     * Create a PointSet holding only coordinates (and any properties added later), whose features are identified by
+     * their index and have no polygons. This is much smaller than a general PointSet with millions of features.
+     */
+    static PointSet coordinatesOnly(int capacity) {
+        PointSet ret = new PointSet(0);
+        ret.capacity = capacity;
+        ret.ids = null;
+        ret.polygons = null;
+        ret.lats = new double[capacity];
+        ret.lons = new double[capacity];
+        return ret;
+    }
+
     /**
      * Adds a graph service to allow for auto creation of SampleSets for a given
      * graph
@@ -484,12 +519,55 @@ public class PointSet implements Serializable {
 
     // TODO refactor the other getSampleSet methods in terms of this one.
     public SampleSet getOrCreateSampleSet(Graph graph) {
+        return getOrCreateSampleSet(graph, () -> new SampleSet(this, graph.getSampleFactory()));
+    }
+
+    /**
+     * Get the sample set linking this pointset to the given graph, making it with the given supplier if there is
+     * none. A sample set made for another graph with the same router ID (i.e. before the graph was rebuilt or
+     * reloaded) is replaced. Concurrent calls for the same graph wait for a single sample set to be made.
+     */
+    public SampleSet getOrCreateSampleSet(Graph graph, Supplier<SampleSet> linker) {
         SampleSet sampleSet = this.samples.get(graph.routerId);
-        if (sampleSet == null) {
-            sampleSet = new SampleSet(this, graph.getSampleFactory());
-            this.samples.put(graph.routerId, sampleSet);
+        if (sampleSet != null && sampleSet.graph == graph)
+            return sampleSet;
+
+        // Link outside the samples map, so that it is not locked for as long as linking takes. The first caller for
+        // a graph runs the task, and the others wait for its result.
+        FutureTask<SampleSet> task = new FutureTask<>(linker::get);
+        FutureTask<SampleSet> pending = pendingSamples.putIfAbsent(graph, task);
+        if (pending == null) {
+            pending = task;
+            try {
+                // another caller may have finished linking since we looked
+                sampleSet = this.samples.get(graph.routerId);
+                if (sampleSet != null && sampleSet.graph == graph)
+                    return sampleSet;
+                task.run();
+                sampleSet = getLinked(task);
+                this.samples.put(graph.routerId, sampleSet);
+                return sampleSet;
+            } finally {
+                pendingSamples.remove(graph, task);
+            }
+        }
+        return getLinked(pending);
+    }
+
+    /** Wait for a sample set being made, rethrowing any exception thrown while making it. */
+    private static SampleSet getLinked(FutureTask<SampleSet> task) {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         }
-        return sampleSet;
     }
 
     /** 
@@ -507,7 +585,37 @@ public class PointSet implements Serializable {
     }
 
     public int featureCount() {
-        return ids.length;
+        return capacity;
+    }
+
+    /** @return the ID of the feature at the given index, which is the index itself if the features have no IDs. */
+    public String getId(int index) {
+        String[] ids = getIds();
+        return ids == null ? Integer.toString(index) : ids[index];
+    }
+
+    /** @return the array of feature IDs, decoding it first if needed, or null if the features have no IDs. */
+    private String[] getIds() {
+        if (encodedIds != null) {
+            synchronized (this) {
+                if (encodedIds != null) {
+                    ids = PointSetBinaryFormat.decodeIds(encodedIds, capacity);
+                    encodedIds = null;
+                }
+            }
+        }
+        return ids;
+    }
+
+    /** The IDs may not have been decoded yet, and the buffer holding them cannot be serialized. */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getIds();
+        out.defaultWriteObject();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        pendingSamples = new ConcurrentHashMap<>();
     }
 
     /**
@@ -524,10 +632,22 @@ public class PointSet implements Serializable {
             throw new AssertionError("Number of features seems to have grown since validation.");
         }
 
-        polygons[index] = feat.getPolygon();
+        if (polygons == null && feat.getPolygon() != null) {
+            polygons = new Polygon[capacity];
+        }
+        if (polygons != null) {
+            polygons[index] = feat.getPolygon();
+        }
         lats[index] = feat.getLat();
         lons[index] = feat.getLon();
 
+        if (getIds() == null) {
+            // the features were identified by their index until now
+            ids = new String[capacity];
+            for (int i = 0; i < capacity; i++) {
+                ids[i] = Integer.toString(i);
+            }
+        }
         ids[index] = feat.getId();
 
         for (Entry<String,Integer> ad : feat.getProperties().entrySet()) {
@@ -539,9 +659,9 @@ public class PointSet implements Serializable {
     }
 
     public PointFeature getFeature(int index) {
-        PointFeature ret = new PointFeature(ids[index]);
+        PointFeature ret = new PointFeature(getId(index));
 
-        if (polygons[index] != null) {
+        if (polygons != null && polygons[index] != null) {
             try {
                 ret.setGeom(polygons[index]);
             } catch (Exception e) {	
@@ -679,7 +799,7 @@ public class PointSet implements Serializable {
             // a one-to-many indicator
             int t = times[i];
             if (t != Integer.MAX_VALUE)
-                jgen.writeNumberField(ids[i], t);
+                jgen.writeNumberField(getId(i), t);
         }
         jgen.writeEndObject();
     }
@@ -703,7 +823,7 @@ public class PointSet implements Serializable {
 
         jgen.writeStartObject();
         {
-            jgen.writeStringField("id", ids[i]);
+            jgen.writeStringField("id", getId(i));
             jgen.writeStringField("type", "Feature");
             jgen.writeFieldName("geometry");
             {
@@ -758,12 +878,12 @@ public class PointSet implements Serializable {
 
         int n = 0;
 
-        for (int i = 0; i < this.ids.length; i++) {
-            if(idsHashSet.contains(this.ids[i])) {	
+        for (int i = 0; i < this.capacity; i++) {
+            if(idsHashSet.contains(this.getId(i))) {
                 ret.lats[n] = this.lats[i];
                 ret.lons[n] = this.lons[i];
-                ret.ids[n] = this.ids[i];
-                ret.polygons[n] = this.polygons[i];
+                ret.ids[n] = this.getId(i);
+                ret.polygons[n] = this.polygons == null ? null : this.polygons[i];
                 n++;
             }
         }
@@ -782,8 +902,8 @@ public class PointSet implements Serializable {
         for (int i = start; i < end; i++) {
             ret.lats[n] = this.lats[i];
             ret.lons[n] = this.lons[i];
-            ret.ids[n] = this.ids[i];
-            ret.polygons[n] = this.polygons[i];
+            ret.ids[n] = this.getId(i);
+            ret.polygons[n] = this.polygons == null ? null : this.polygons[i];
             n++;
         }
 
@@ -808,7 +928,17 @@ public class PointSet implements Serializable {
      * @return the index, or -1 if there is no such index.
      */
     public int getIndexForFeature(String featureId) {
-        
+
+        // features identified by their index need no map
+        if (getIds() == null) {
+            try {
+                int index = Integer.parseInt(featureId);
+                return index >= 0 && index < capacity && Integer.toString(index).equals(featureId) ? index : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
         // this is called inside a conditional because the build method is synchronized,
         // and there is no need to synchronize if the map has already been built.
         if (idIndexMap == null)
@@ -826,8 +956,9 @@ public class PointSet implements Serializable {
         if (idIndexMap == null) {
             // make a local object, don't expose to public view until it's built
             TObjectIntMap idIndexMap = new TObjectIntHashMap<String>(this.capacity, 1f, -1);
-            
-            for (int i = 0; i < this.capacity; i++) {
+            String[] ids = getIds();
+
+            for (int i = 0; ids != null && i < this.capacity; i++) {
                 if (ids[i] != null) {
                     if (idIndexMap.containsKey(ids[i])) {
                         LOG.error("Duplicate ID {} in pointset.", ids[i]);
@@ -854,18 +985,22 @@ public class PointSet implements Serializable {
         double gridSizeLat = SphericalDistanceLibrary.metersToDegrees(gridSizeMeters);
         double gridSizeLon = SphericalDistanceLibrary.metersToLonDegrees(gridSizeMeters, (envelope.getMaxY() + envelope.getMinY()) / 2);
 
-        // how large will it be?
-        int npts = (int) (envelope.getHeight() / gridSizeLat + 1) * (int) (envelope.getWidth() / gridSizeLon + 1);
+        // how large will it be? count the steps of the loops below, as rounding can make them differ from the
+        // quotient of the sizes
+        int nLon = 0;
+        for (double lon = envelope.getMinX(); lon < envelope.getMaxX(); lon += gridSizeLon) nLon++;
+        int nLat = 0;
+        for (double lat = envelope.getMinY(); lat < envelope.getMaxY(); lat += gridSizeLat) nLat++;
 
-        PointSet ret = new PointSet(npts);
+        // Grid cells are identified by their index and have no polygon, so only the coordinates are stored
+        PointSet ret = coordinatesOnly(nLon * nLat);
 
         int idx = 0;
         for (double lon = envelope.getMinX(); lon < envelope.getMaxX(); lon += gridSizeLon) {
             for (double lat = envelope.getMinY(); lat < envelope.getMaxY(); lat += gridSizeLat) {
-                PointFeature pf = new PointFeature("" + idx);
-                pf.setLat(lat);
-                pf.setLon(lon);
-                ret.addFeature(pf, idx++);
+                ret.lats[idx] = lat;
+                ret.lons[idx] = lon;
+                idx++;
             }
         }
 
@@ -0,0 +1,228 @@
+package org.opentripplanner.analyst;
+
+import org.opentripplanner.analyst.pointset.PropertyMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A compact binary encoding of PointSets, which loads much faster and into much less memory than GeoJSON, CSV or
+ * shapefiles. A pointset is stored as columns: the coordinates and every property are arrays with one value per
+ * feature, which are read straight out of a memory-mapped file into the arrays of the PointSet. Feature IDs are
+ * stored last and only decoded when first asked for; features whose IDs are their indices (as in a regular grid)
+ * have no stored IDs at all. Polygons are not stored, as routing only uses the points.
+ *
+ * The layout is as follows; all numbers are big-endian, and strings are an int length (-1 for null) followed by that
+ * many bytes of UTF-8.
+ *
+ * <pre>
+ * "OTPPOINTS" version capacity
+ * id label description
+ * nMetadata (propertyId label nStyles (key value)*)*
+ * nProperties (name int[capacity])*
+ * lats: double[capacity] lons: double[capacity]
+ * hasIds (string[capacity] if hasIds is 1)
+ * </pre>
+ *
+ * Running main converts a pointset in any of the formats PointSet can read to this one.
+ */
+public class PointSetBinaryFormat {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PointSetBinaryFormat.class);
+
+    private static final byte[] HEADER = "OTPPOINTS".getBytes(StandardCharsets.US_ASCII);
+
+    /** Increment this when the layout changes. Readers reject versions they do not know. */
+    public static final int VERSION = 1;
+
+    public static final String FILE_EXTENSION = ".pointset";
+
+    public static void write (PointSet pointSet, File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.write(HEADER);
+            out.writeInt(VERSION);
+            out.writeInt(pointSet.capacity);
+            writeString(out, pointSet.id);
+            writeString(out, pointSet.label);
+            writeString(out, pointSet.description);
+
+            // sort the properties by name so that the same pointset always produces the same bytes
+            Map<String, PropertyMetadata> propMetadata = new TreeMap<>(pointSet.propMetadata);
+            out.writeInt(propMetadata.size());
+            for (Map.Entry<String, PropertyMetadata> entry : propMetadata.entrySet()) {
+                PropertyMetadata metadata = entry.getValue();
+                writeString(out, entry.getKey());
+                writeString(out, metadata.label);
+                Map<String, String> styles = metadata.style == null || metadata.style.attributes == null ?
+                        new TreeMap<>() : new TreeMap<>(metadata.style.attributes);
+                out.writeInt(styles.size());
+                for (Map.Entry<String, String> style : styles.entrySet()) {
+                    writeString(out, style.getKey());
+                    writeString(out, style.getValue());
+                }
+            }
+
+            Map<String, int[]> properties = new TreeMap<>(pointSet.properties);
+            out.writeInt(properties.size());
+            for (Map.Entry<String, int[]> property : properties.entrySet()) {
+                writeString(out, property.getKey());
+                for (int value : property.getValue()) {
+                    out.writeInt(value);
+                }
+            }
+
+            for (int i = 0; i < pointSet.capacity; i++) {
+                out.writeDouble(pointSet.getLat(i));
+            }
+            for (int i = 0; i < pointSet.capacity; i++) {
+                out.writeDouble(pointSet.getLon(i));
+            }
+
+            boolean hasIds = !hasImplicitIds(pointSet);
+            out.writeByte(hasIds ? 1 : 0);
+            if (hasIds) {
+                for (int i = 0; i < pointSet.capacity; i++) {
+                    writeString(out, pointSet.getId(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a pointset from the given file. The file is memory-mapped and the coordinates and properties are copied
+     * out of it in bulk; the IDs are left in the mapped file until they are used.
+     */
+    public static PointSet read (File file) throws IOException {
+        long start = System.currentTimeMillis();
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            byte[] header = new byte[HEADER.length];
+            buffer.get(header);
+            if (!Arrays.equals(HEADER, header))
+                throw new IOException("Not a binary pointset");
+            int version = buffer.getInt();
+            if (version != VERSION)
+                throw new IOException(String.format("Unsupported binary pointset version %d, expected %d", version, VERSION));
+
+            int capacity = buffer.getInt();
+            PointSet pointSet = PointSet.coordinatesOnly(capacity);
+            pointSet.id = readString(buffer);
+            pointSet.label = readString(buffer);
+            pointSet.description = readString(buffer);
+
+            int nMetadata = buffer.getInt();
+            for (int m = 0; m < nMetadata; m++) {
+                PropertyMetadata metadata = new PropertyMetadata(readString(buffer));
+                metadata.label = readString(buffer);
+                int nStyles = buffer.getInt();
+                for (int s = 0; s < nStyles; s++) {
+                    metadata.addStyle(readString(buffer), readString(buffer));
+                }
+                pointSet.propMetadata.put(metadata.id, metadata);
+            }
+
+            int nProperties = buffer.getInt();
+            for (int p = 0; p < nProperties; p++) {
+                String name = readString(buffer);
+                int[] values = new int[capacity];
+                buffer.asIntBuffer().get(values);
+                buffer.position(buffer.position() + capacity * 4);
+                pointSet.properties.put(name, values);
+            }
+
+            buffer.asDoubleBuffer().get(pointSet.lats);
+            buffer.position(buffer.position() + capacity * 8);
+            buffer.asDoubleBuffer().get(pointSet.lons);
+            buffer.position(buffer.position() + capacity * 8);
+
+            if (buffer.get() == 1) {
+                pointSet.encodedIds = buffer.slice();
+            }
+
+            LOG.info("Loaded {} points from {} in {} msec", capacity, file, System.currentTimeMillis() - start);
+            return pointSet;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated binary pointset", e);
+        }
+    }
+
+    /** Decode the IDs of a pointset, which start at the current position of the given buffer. */
+    static String[] decodeIds (ByteBuffer encodedIds, int capacity) {
+        ByteBuffer buffer = encodedIds.duplicate();
+        String[] ids = new String[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ids[i] = readString(buffer);
+        }
+        return ids;
+    }
+
+    /** @return whether the ID of every feature is its index, in which case the IDs need not be stored. */
+    private static boolean hasImplicitIds (PointSet pointSet) {
+        for (int i = 0; i < pointSet.capacity; i++) {
+            if (!Integer.toString(i).equals(pointSet.getId(i)))
+                return false;
+        }
+        return true;
+    }
+
+    private static void writeString (DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString (ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Convert a CSV, GeoJSON or shapefile pointset to the binary format. */
+    public static void main (String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("usage: PointSetBinaryFormat input.{csv,json,shp} output" + FILE_EXTENSION);
+            System.exit(1);
+        }
+        File input = new File(args[0]);
+        String name = input.getName().toLowerCase();
+        PointSet pointSet;
+        if (name.endsWith(".csv")) {
+            pointSet = PointSet.fromCsv(input);
+        } else if (name.endsWith(".shp")) {
+            pointSet = PointSet.fromShapefile(input);
+        } else {
+            pointSet = PointSet.fromGeoJson(input);
+        }
+        if (pointSet == null) {
+            LOG.error("Unable to read pointset from {}", input);
+            System.exit(1);
+        }
+        write(pointSet, new File(args[1]));
+        LOG.info("Wrote {} points to {}", pointSet.capacity, args[1]);
+    }
+}
@@ -2,15 +2,25 @@ package org.opentripplanner.analyst;
 
 import org.opentripplanner.analyst.core.Sample;
 import org.opentripplanner.analyst.request.SampleFactory;
+import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.stream.IntStream;
 
 /**
  * We never use samples in isolation, so let's store them as a column store.
  */
 public class SampleSet {
 
+    private static final Logger LOG = LoggerFactory.getLogger(SampleSet.class);
+
     public final PointSet pset;
 
+    /* The graph whose vertices the samples are linked to. A rebuilt graph needs new samples. */
+    public final Graph graph;
+
     /* Vertices at the two ends of a road, one per sample. */
     public Vertex[] v0s;
     public Vertex[] v1s;
@@ -19,24 +29,41 @@ public class SampleSet {
     public float[] d0s;
     public float[] d1s;
 
+    /**
+     * Link every point of the pointset to the street network. Points are linked in parallel, as pointsets can have
+     * millions of points and each one is linked independently of the others.
+     */
     public SampleSet (PointSet pset, SampleFactory sfac) {
         this.pset = pset;
+        this.graph = sfac.getGraph();
         v0s = new Vertex[pset.capacity];
         v1s = new Vertex[pset.capacity];
         d0s = new float[pset.capacity];
         d1s = new float[pset.capacity];
-        for (int i = 0; i < pset.capacity; i++) {
+        long start = System.currentTimeMillis();
+        IntStream.range(0, pset.capacity).parallel().forEach(i -> {
             Sample sample = sfac.getSample(pset.lons[i], pset.lats[i]);
             if (sample == null) {
                 d0s[i] = Float.NaN;
                 d1s[i] = Float.NaN;
-                continue;
+                return;
             }
             v0s[i] = sample.v0;
             v1s[i] = sample.v1;
             d0s[i] = sample.d0;
             d1s[i] = sample.d1;
-        }
+        });
+        LOG.info("Linked {} points to the street network in {} msec", pset.capacity, System.currentTimeMillis() - start);
+    }
+
+    /** Make a sample set from samples that were linked previously, e.g. loaded from a cache. */
+    public SampleSet (PointSet pset, Graph graph, Vertex[] v0s, Vertex[] v1s, float[] d0s, float[] d1s) {
+        this.pset = pset;
+        this.graph = graph;
+        this.v0s = v0s;
+        this.v1s = v1s;
+        this.d0s = d0s;
+        this.d1s = d1s;
     }
 
     public int[] eval (TimeSurface surf) {
@@ -13,12 +13,18 @@
 
 package org.opentripplanner.analyst.batch;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TimeZone;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opentripplanner.analyst.batch.aggregator.Aggregator;
 import org.opentripplanner.analyst.core.Sample;
@@ -26,7 +32,9 @@ import org.opentripplanner.analyst.request.SampleFactory;
 import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.routing.algorithm.AStar;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.error.VertexNotFoundException;
+import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.slf4j.Logger;
@@ -64,18 +72,44 @@ public class BatchProcessor {
     private String outputPath = "/tmp/analystOutput";
     private float checkpointIntervalMinutes = -1;
     
+    /**
+     * How results are saved when there is neither an aggregator nor an accumulator: one file per origin in the format
+     * of the destination population, or every origin streamed into a single CSV or binary file (see ResultSetWriter).
+     */
+    enum OutputFormat { PER_ORIGIN, CSV, BINARY };
+    private OutputFormat outputFormat = OutputFormat.PER_ORIGIN;
+
     enum Mode { BASIC, AGGREGATE, ACCUMULATE };
     private Mode mode;
     private long startTime = -1;
     private long lastLogTime = 0;
+    private int lastLogCompleted = 0;
     private long lastCheckpointTime = 0;
     private ResultSet aggregateResultSet = null;
-    
+    private ResultSetWriter resultSetWriter = null;
+
+    /** The destinations linked to the graph, shared by all searches. */
+    private DestinationSamples destinationSamples;
+
+    /** Travel times to the destinations, kept by each thread of the pool from one origin to the next. */
+    private final ThreadLocal<ResultSet> resultSets = ThreadLocal.withInitial(() -> new ResultSet(destinations));
+
+    // Totals over all threads, for the progress report.
+    private final AtomicInteger nUnlinkedOrigins = new AtomicInteger();
+    private final AtomicLong searchNanos = new AtomicLong();
+    private final AtomicLong evalNanos = new AtomicLong();
+    private final AtomicLong outputNanos = new AtomicLong();
+
     /** Cut off the search instead of building a full path tree. Can greatly improve run times. */
     public void setSearchCutoffMinutes(int minutes) {
         this.searchCutoffSeconds = minutes * 60;
     }
 
+    /** One of per-origin (the default), csv or binary. */
+    public void setOutputFormat(String format) {
+        this.outputFormat = OutputFormat.valueOf(format.toUpperCase().replace('-', '_'));
+    }
+
     /*
     public static void main(String[] args) throws IOException {
         org.springframework.core.io.Resource appContextResource;
@@ -103,6 +137,7 @@ public class BatchProcessor {
         origins.setup();
         destinations.setup();
         linkIntoGraph(destinations);
+        destinationSamples = new DestinationSamples(destinations);
         // Set up a thread pool to execute searches in parallel
         LOG.info("Number of threads: {}", nThreads);
         ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
@@ -120,12 +155,26 @@ public class BatchProcessor {
             /* neither aggregator nor accumulator, save a bunch of results */
             mode = Mode.BASIC;
             aggregateResultSet = null;
-            if (!outputPath.contains("{}")) {
-                LOG.error("output filename must contain origin placeholder.");
-                System.exit(-1);
+            if (outputFormat == OutputFormat.PER_ORIGIN) {
+                if (!outputPath.contains("{}")) {
+                    LOG.error("output filename must contain origin placeholder.");
+                    System.exit(-1);
+                }
+            } else {
+                /* stream the results of all origins into one file as they are completed */
+                try {
+                    if (outputFormat == OutputFormat.CSV)
+                        resultSetWriter = new ResultSetWriter.Csv(outputPath, destinationSamples.labels);
+                    else
+                        resultSetWriter = new ResultSetWriter.Binary(outputPath, destinationSamples.size);
+                } catch (IOException e) {
+                    LOG.error("unable to open output file {}: {}", outputPath, e);
+                    System.exit(-1);
+                }
             }
         }
         startTime = System.currentTimeMillis();
+        lastLogTime = startTime;
         int nTasks = 0;
         for (Individual oi : origins) { // using filtered iterator
             ecs.submit(new BatchAnalystTask(nTasks, oi), null);
@@ -155,6 +204,14 @@ public class BatchProcessor {
             accumulator.finish();
         if (aggregateResultSet != null)
             aggregateResultSet.writeAppropriateFormat(outputPath);
+        if (resultSetWriter != null) {
+            try {
+                resultSetWriter.close();
+            } catch (IOException e) {
+                LOG.error("unable to finish writing output file {}: {}", outputPath, e);
+            }
+        }
+        reportThroughput(nCompleted);
         LOG.info("DONE.");
     }
 
@@ -163,13 +220,34 @@ public class BatchProcessor {
         // not threadsafe, but the worst thing that will happen is a double log message 
         // anyway we are using this in the controller thread now
         if (currentTime > lastLogTime + logThrottleSeconds * 1000) {
+            // the recent rate reflects the current load better than the overall one, which includes warm-up
+            double recentRate = (current - lastLogCompleted) * 1000.0 / (currentTime - lastLogTime);
+            double overallRate = current * 1000.0 / (currentTime - startTime);
             lastLogTime = currentTime;
+            lastLogCompleted = current;
             double runTimeMin = (currentTime - startTime) / 1000.0 / 60.0;
-            double projectedMin = (total - current) * (runTimeMin / current);
-            LOG.info("received {} results out of {}", current, total);
+            double projectedMin = (total - current) / recentRate / 60.0;
+            LOG.info("received {} results out of {} ({}%)", current, total, current * 100 / total);
+            LOG.info("{} origins/sec recently, {} origins/sec overall", String.format("%.1f", recentRate),
+                    String.format("%.1f", overallRate));
             LOG.info("running {} min, {} min remaining (projected)", (int)runTimeMin, (int)projectedMin);
         }
     }
+
+    /** Summarize the throughput of the whole run and where the worker threads spent their time. */
+    private void reportThroughput(int nCompleted) {
+        double runTimeSec = (System.currentTimeMillis() - startTime) / 1000.0;
+        int nSearched = nCompleted - nUnlinkedOrigins.get();
+        LOG.info("{} origins in {} sec, {} origins/sec with {} threads", nCompleted, String.format("%.1f", runTimeSec),
+                String.format("%.1f", nCompleted / runTimeSec), nThreads);
+        LOG.info("{} origins could not be linked to the graph", nUnlinkedOrigins.get());
+        if (nSearched > 0) {
+            LOG.info("per origin: {} msec searching, {} msec evaluating {} destinations, {} msec saving results",
+                    String.format("%.1f", searchNanos.get() / 1e6 / nSearched),
+                    String.format("%.1f", evalNanos.get() / 1e6 / nSearched), destinationSamples.size,
+                    String.format("%.1f", outputNanos.get() / 1e6 / nSearched));
+        }
+    }
     
     private boolean checkpoint() {
         if (checkpointIntervalMinutes < 0 || aggregateResultSet == null)
@@ -209,21 +287,89 @@ public class BatchProcessor {
     /** 
      * Generate samples for (i.e. non-invasively link into the Graph) only those individuals that 
      * were not rejected by filters. Other Individuals will have null samples, indicating that they 
-     * should be skipped.
+     * should be skipped. Individuals are linked in parallel, as each one is linked independently.
      */
     private void linkIntoGraph(Population p) {
         LOG.info("linking population {} to the graph...", p);
-        int n = 0, nonNull = 0;
+        List<Individual> individuals = new ArrayList<Individual>();
         for (Individual i : p) {
-            Sample s = sampleFactory.getSample(i.lon, i.lat);
-            i.sample = s;
-            n += 1;
-            if (s != null)
+            individuals.add(i);
+        }
+        individuals.parallelStream().forEach(i -> i.sample = sampleFactory.getSample(i.lon, i.lat));
+        int nonNull = 0;
+        for (Individual i : individuals) {
+            if (i.sample != null)
                 nonNull += 1;
         }
-        LOG.info("successfully linked {} individuals out of {}", nonNull, n);
+        LOG.info("successfully linked {} individuals out of {}", nonNull, individuals.size());
     }
-        
+
+    /**
+     * The samples of the destinations that were not rejected by filters, as a column store in the order of the
+     * population's iterator. Evaluating a search at these arrays avoids going through the filter chain and the
+     * Sample objects of every destination for every origin.
+     */
+    private static class DestinationSamples {
+
+        final int size;
+        final String[] labels;
+        final Vertex[] v0s;
+        final Vertex[] v1s;
+        final int[] d0s;
+        final int[] d1s;
+        final boolean[] linked;
+
+        DestinationSamples(Population population) {
+            List<Individual> individuals = new ArrayList<Individual>();
+            for (Individual i : population) {
+                individuals.add(i);
+            }
+            size = individuals.size();
+            labels = new String[size];
+            v0s = new Vertex[size];
+            v1s = new Vertex[size];
+            d0s = new int[size];
+            d1s = new int[size];
+            linked = new boolean[size];
+            for (int d = 0; d < size; d++) {
+                Individual i = individuals.get(d);
+                labels[d] = i.label == null ? Integer.toString(d) : i.label;
+                Sample s = i.sample;
+                if (s != null) {
+                    linked[d] = true;
+                    v0s[d] = s.v0;
+                    v1s[d] = s.v1;
+                    d0s[d] = s.d0;
+                    d1s[d] = s.d1;
+                }
+            }
+        }
+
+        /**
+         * Fill in the travel time to each destination as ResultSet.forTravelTimes would: -2 for destinations that
+         * are not linked to the graph, -1 for destinations that were not reached.
+         */
+        void evalTravelTimes(ShortestPathTree spt, double[] results) {
+            double walkSpeed = spt.getOptions().walkSpeed;
+            for (int d = 0; d < size; d++) {
+                if (!linked[d]) {
+                    results[d] = -2;
+                    continue;
+                }
+                long m0 = Long.MAX_VALUE;
+                long m1 = Long.MAX_VALUE;
+                State s0 = v0s[d] == null ? null : spt.getState(v0s[d]);
+                if (s0 != null)
+                    m0 = (int) (s0.getActiveTime() + d0s[d] / walkSpeed);
+                State s1 = v1s[d] == null ? null : spt.getState(v1s[d]);
+                if (s1 != null)
+                    m1 = (int) (s1.getActiveTime() + d1s[d] / walkSpeed);
+                long t = (m0 < m1) ? m0 : m1;
+                results[d] = (t == Long.MAX_VALUE) ? -1 : t;
+            }
+        }
+    }
+
     /** 
      * A single computation to perform for a single origin.
      * Runnable, not Callable. We want accumulation to happen in the worker thread. 
@@ -244,11 +390,20 @@ public class BatchProcessor {
         public void run() {
             LOG.debug("calling origin : {}", oi);
             RoutingRequest req = buildRequest(oi);
-            if (req != null) {
+            if (req == null) {
+                nUnlinkedOrigins.incrementAndGet();
+                return;
+            }
+            try {
+                long searchStart = System.nanoTime();
+                // AStar keeps no buffers between searches, and would only hold on to the last tree and routing context
                 ShortestPathTree spt = new AStar().getShortestPathTree(req);
-                // ResultSet should be a local to avoid memory leak
-                ResultSet results = ResultSet.forTravelTimes(destinations, spt);
-                req.cleanup();
+                long evalStart = System.nanoTime();
+                // The result set is only used until this task returns (it is aggregated, accumulated or written out
+                // here) so the next origin on the same thread can overwrite it.
+                ResultSet results = resultSets.get();
+                destinationSamples.evalTravelTimes(spt, results.results);
+                long outputStart = System.nanoTime();
                 switch (mode) {
                 case ACCUMULATE:
                     synchronized (aggregateResultSet) {
@@ -259,13 +414,23 @@ public class BatchProcessor {
                     aggregateResultSet.results[i] = aggregator.computeAggregate(results);
                     break;
                 default:
-                    String subName = outputPath.replace("{}", String.format("%d_%s", i, oi.label));
-                    results.writeAppropriateFormat(subName);
+                    if (resultSetWriter != null) {
+                        resultSetWriter.write(i, oi, results);
+                    } else {
+                        String subName = outputPath.replace("{}", String.format("%d_%s", i, oi.label));
+                        results.writeAppropriateFormat(subName);
+                    }
                 }
-                    
+                long end = System.nanoTime();
+                searchNanos.addAndGet(evalStart - searchStart);
+                evalNanos.addAndGet(outputStart - evalStart);
+                outputNanos.addAndGet(end - outputStart);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                req.cleanup();
             }
         }        
     }    
     
 }
-
@@ -0,0 +1,112 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the travel times from every origin of a batch run into a single file, each origin as soon as its search is
+ * complete, so that results for millions of origin-destination pairs never have to be held in memory. Origins are
+ * written in the order they complete, so each record names its origin. Writes may come from several threads at once.
+ *
+ * Travel times are in seconds, -1 where the destination was not reached and -2 where it could not be linked to the
+ * street network (as in ResultSet.forTravelTimes).
+ */
+public abstract class ResultSetWriter implements Closeable {
+
+    /** Write the travel times from one origin to every destination. */
+    public abstract void write (int originIndex, Individual origin, ResultSet results) throws IOException;
+
+    /**
+     * One line per reachable origin-destination pair: origin label, destination label, travel time. Unreachable pairs
+     * are left out, as they are most of the pairs in a large region.
+     */
+    public static class Csv extends ResultSetWriter {
+
+        private final Writer writer;
+
+        private final String[] destinationLabels;
+
+        public Csv (String fileName, String[] destinationLabels) throws IOException {
+            this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8));
+            this.destinationLabels = destinationLabels;
+            writer.write("origin,destination,seconds\n");
+        }
+
+        @Override
+        public void write (int originIndex, Individual origin, ResultSet results) throws IOException {
+            // format the lines outside the lock so that threads only wait for each other to copy characters
+            String originLabel = origin.label == null ? Integer.toString(originIndex) : origin.label;
+            StringBuilder lines = new StringBuilder();
+            for (int d = 0; d < destinationLabels.length; d++) {
+                if (results.results[d] < 0)
+                    continue;
+                lines.append(originLabel).append(',').append(destinationLabels[d]).append(',')
+                        .append((long) results.results[d]).append('\n');
+            }
+            synchronized (this) {
+                writer.write(lines.toString());
+            }
+        }
+
+        @Override
+        public synchronized void close () throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * A header "OTPBATCH", a format version and the number of destinations, then for each origin its index in the
+     * origin population followed by one travel time per destination, all as big-endian ints.
+     */
+    public static class Binary extends ResultSetWriter {
+
+        private static final byte[] HEADER = "OTPBATCH".getBytes(StandardCharsets.US_ASCII);
+
+        public static final int VERSION = 1;
+
+        private final DataOutputStream out;
+
+        private final int nDestinations;
+
+        public Binary (String fileName, int nDestinations) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+            this.nDestinations = nDestinations;
+            out.write(HEADER);
+            out.writeInt(VERSION);
+            out.writeInt(nDestinations);
+        }
+
+        @Override
+        public synchronized void write (int originIndex, Individual origin, ResultSet results) throws IOException {
+            out.writeInt(originIndex);
+            for (int d = 0; d < nDestinations; d++) {
+                out.writeInt((int) results.results[d]);
+            }
+        }
+
+        @Override
+        public synchronized void close () throws IOException {
+            out.close();
+        }
+    }
+}
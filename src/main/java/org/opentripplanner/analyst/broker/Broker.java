@@ -9,10 +9,8 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.TreeMultimap;
-import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.TObjectLongMap;
-import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.map.hash.TObjectLongHashMap;
 import org.glassfish.grizzly.http.server.Request;
@@ -31,6 +29,13 @@ import java.io.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class tracks incoming requests from workers to consume Analyst tasks, and attempts to match those
@@ -42,6 +47,14 @@ import java.util.*;
  * When they are receiving no work, workers are expected to disconnect and re-poll occasionally, on the order of 30
  * seconds. This serves as a signal to the broker that they are still alive and waiting.
  *
+ * Job tasks are delivered without locking, on whichever HTTP handler thread registers a waiting worker or enqueues
+ * tasks. Each graph has a queue of waiting workers and a rotation of jobs that have tasks awaiting delivery; every time
+ * a thread adds to either side it hands tasks to workers until one side is empty. A waiting worker that finds no tasks
+ * is put back at the head of its queue, after which the thread checks again for tasks, so that a worker and a task
+ * arriving at the same time on two threads are never both left waiting. Delivery and completion state is tracked
+ * within each Job using atomic operations. Only high-priority tasks and worker startup still synchronize on the broker,
+ * as they are comparatively rare.
+ *
  * TODO if there is a backlog of work (the usual case when jobs are lined up) workers will constantly change graphs.
  * Because (at least currently) two users never share the same graph, we can get by with pulling tasks cyclically or
  * randomly from all the jobs, and just actively shaping the number of workers with affinity for each graph by forcing
@@ -63,7 +76,14 @@ public class Broker implements Runnable {
     /* How often we should check for delivered tasks that have timed out. */
     private static final int REDELIVERY_INTERVAL_SEC = 10;
 
-    public final CircularList<Job> jobs = new CircularList<>();
+    /** All jobs, keyed on their job ID. */
+    private final ConcurrentMap<String, Job> jobsById = new ConcurrentHashMap<>();
+
+    /** Jobs keyed on the first ID of each block of tasks they contain, to find the job containing a given task. */
+    private final ConcurrentNavigableMap<Integer, Job> jobsByFirstTaskId = new ConcurrentSkipListMap<>();
+
+    /** Waiting workers and deliverable tasks for each graph. When working offline there is a single shared queue. */
+    private final ConcurrentMap<String, GraphQueue> queuesByGraph = new ConcurrentHashMap<>();
 
     /** the most tasks to deliver to a worker at a time */
     public final int MAX_TASKS_PER_WORKER = 8;
@@ -74,19 +94,13 @@ public class Broker implements Runnable {
      */
     public static final long WORKER_STARTUP_TIME = 60 * 60 * 1000;
 
-    private int nUndeliveredTasks = 0; // Including normal priority jobs and high-priority tasks.
-
-    private int nWaitingConsumers = 0; // including some that might be closed
-
-    private int nextTaskId = 0;
+    private final AtomicInteger nextTaskId = new AtomicInteger();
 
     /** Maximum number of workers allowed */
     private int maxWorkers;
 
     private static final ObjectMapper mapper = new ObjectMapper();
 
-    private long nextRedeliveryCheckTime = System.currentTimeMillis();
-
     static {
         mapper.registerModule(AgencyAndIdSerializer.makeModule());
         mapper.registerModule(QualifiedModeSetSerializer.makeModule());
@@ -102,17 +116,6 @@ public class Broker implements Runnable {
 
     private WorkerCatalog workerCatalog = new WorkerCatalog();
 
-    /** The time at which each task was delivered to a worker, to allow re-delivery. */
-    TIntIntMap deliveryTimes = new TIntIntHashMap();
-
-    /**
-     * Requests that are not part of a job and can "cut in line" in front of jobs for immediate execution.
-     * When a high priority task is first received, we attempt to send it to a worker right away via
-     * the side channels. If that doesn't work, we put them here to be picked up the next time a worker
-     * is available via normal task distribution channels.
-     */
-    private ArrayListMultimap<String, AnalystClusterRequest> stalledHighPriorityTasks = ArrayListMultimap.create();
-
     /**
      * High priority requests that have just come and are about to be sent down a single point channel.
      * They put here for just 100 ms so that any that arrive together are batched to the same worker.
@@ -125,9 +128,6 @@ public class Broker implements Runnable {
     /** Priority requests that have already been farmed out to workers, and are awaiting a response. */
     private TIntObjectMap<Response> highPriorityResponses = new TIntObjectHashMap<>();
 
-    /** Outstanding requests from workers for tasks, grouped by worker graph affinity. */
-    Map<String, Deque<Response>> consumersByGraph = new HashMap<>();
-
     /**
      * Side channels used to send single point requests to workers, cutting in front of any other work on said workers.
      * We use a TreeMultimap because it is ordered, and the wrapped response defines an order based on
@@ -226,7 +226,7 @@ public class Broker implements Runnable {
         // note that this will mean that requests get delivered multiple times in offline mode,
         // so some unnecessary computation takes place
         if (workersAvailable || workOffline) {
-            task.taskId = nextTaskId++;
+            task.taskId = nextTaskId.getAndIncrement();
             newHighPriorityTasks.put(task.graphId, task);
             highPriorityResponses.put(task.taskId, response);
 
@@ -239,84 +239,88 @@ public class Broker implements Runnable {
             }, 100);
         }
 
-        // do not notify task delivery thread just yet as we haven't put anything in the task delivery queue yet.
+        // do not deliver anything just yet as we haven't put anything in the task delivery queues yet.
     }
 
     /** attempt to deliver high priority tasks via side channels, or move them into normal channels if need be */
-    public synchronized void deliverHighPriorityTasks (String graphId) {
-        Collection<AnalystClusterRequest> tasks = newHighPriorityTasks.get(graphId);
+    public void deliverHighPriorityTasks (String graphId) {
+        List<AnalystClusterRequest> tasks;
+        synchronized (this) {
+            tasks = new ArrayList<>(newHighPriorityTasks.get(graphId));
 
-        if (tasks.isEmpty())
-            // someone got here first
-            return;
+            if (tasks.isEmpty())
+                // someone got here first
+                return;
 
-        // try to deliver via side channels
-        Collection<WrappedResponse> wrs = singlePointChannels.get(graphId);
+            // try to deliver via side channels
+            Collection<WrappedResponse> wrs = singlePointChannels.get(graphId);
 
-        if (!wrs.isEmpty()) {
-            // there is (probably) a single point machine waiting to receive this
-            WrappedResponse wr = wrs.iterator().next();
+            if (!wrs.isEmpty()) {
+                // there is (probably) a single point machine waiting to receive this
+                WrappedResponse wr = wrs.iterator().next();
 
-            try {
-                wr.response.setContentType("application/json");
-                OutputStream os = wr.response.getOutputStream();
-                mapper.writeValue(os, tasks);
-                os.close();
-                wr.response.resume();
+                try {
+                    wr.response.setContentType("application/json");
+                    OutputStream os = wr.response.getOutputStream();
+                    mapper.writeValue(os, tasks);
+                    os.close();
+                    wr.response.resume();
 
-                newHighPriorityTasks.removeAll(graphId);
+                    newHighPriorityTasks.removeAll(graphId);
 
-                return;
-            } catch (Exception e) {
-                LOG.info("Failed to deliver single point job via side channel, reverting to normal channel", e);
-            } finally {
-                // remove responses whether they are dead or alive
-                removeSinglePointChannel(graphId, wr);
+                    return;
+                } catch (Exception e) {
+                    LOG.info("Failed to deliver single point job via side channel, reverting to normal channel", e);
+                } finally {
+                    // remove responses whether they are dead or alive
+                    removeSinglePointChannel(graphId, wr);
+                }
             }
+
+            newHighPriorityTasks.removeAll(graphId);
         }
 
         // if we got here we didn't manage to send it via side channel, put it in the rotation for normal channels
-        // not using putAll as it retains a link to the original collection and then we get a concurrent modification exception later.
-        tasks.forEach(t -> stalledHighPriorityTasks.put(graphId, t));
         LOG.info("No side channel available for graph {}, delivering {} tasks via normal channel",
                 graphId, tasks.size());
-        nUndeliveredTasks += tasks.size();
-        newHighPriorityTasks.removeAll(graphId);
-
-        // wake up delivery thread
-        notify();
+        GraphQueue queue = getGraphQueue(graphId);
+        queue.priorityTasks.addAll(tasks);
+        deliverTasks(queue);
     }
 
     /** Enqueue some tasks for queued execution possibly much later. Results will be saved to S3. */
-    public synchronized void enqueueTasks (List<AnalystClusterRequest> tasks) {
+    public void enqueueTasks (List<AnalystClusterRequest> tasks) {
         Job job = findJob(tasks.get(0)); // creates one if it doesn't exist
 
         if (!workersAvailableForGraph(job.graphId))
             createWorkersForGraph(job.graphId);
 
-        for (AnalystClusterRequest task : tasks) {
-            task.taskId = nextTaskId++;
-            job.addTask(task);
-            nUndeliveredTasks += 1;
-            LOG.debug("Enqueued task id {} in job {}", task.taskId, job.jobId);
+        // Give the tasks a block of consecutive IDs, so that the job can track them in arrays.
+        int firstTaskId = nextTaskId.getAndAdd(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            AnalystClusterRequest task = tasks.get(i);
+            task.taskId = firstTaskId + i;
             if ( ! task.graphId.equals(job.graphId)) {
                 LOG.warn("Task graph ID {} does not match job graph ID {}.", task.graphId, job.graphId);
             }
         }
-        // Wake up the delivery thread if it's waiting on input.
-        // This wakes whatever thread called wait() while holding the monitor for this Broker object.
-        notify();
+        // Make the tasks findable before they can be delivered, so that their completion can always be recorded.
+        jobsByFirstTaskId.put(firstTaskId, job);
+        job.addTasks(firstTaskId, tasks);
+        LOG.debug("Enqueued task ids {} to {} in job {}", firstTaskId, firstTaskId + tasks.size() - 1, job.jobId);
+
+        GraphQueue queue = getGraphQueue(job.graphId);
+        addToRotation(queue, job);
+        deliverTasks(queue);
     }
 
     public boolean workersAvailableForGraph (String graphId) {
         // make sure that we don't assign work to dead workers
-        workerCatalog.purgeDeadWorkers();
-
-        return !workerCatalog.workersByGraph.get(graphId).isEmpty();
+        return workerCatalog.hasWorkers(graphId);
     }
 
     /** Create workers for a given job, if need be */
-    public void createWorkersForGraph (String graphId) {
+    public synchronized void createWorkersForGraph (String graphId) {
         String clientToken = UUID.randomUUID().toString().replaceAll("-", "");
 
         if (workOffline) {
@@ -390,36 +394,32 @@ public class Broker implements Runnable {
     }
 
     /** Consumer long-poll operations are enqueued here. */
-    public synchronized void registerSuspendedResponse(String graphId, Response response) {
-        // Add this worker to our catalog, tracking its graph affinity and the last time it was seen.
+    public void registerSuspendedResponse(String graphId, Response response) {
         String workerId = response.getRequest().getHeader(AnalystWorker.WORKER_ID_HEADER);
+        registerConsumer(graphId, workerId, new ResponseConsumer(response));
+    }
+
+    /**
+     * Register a worker waiting for tasks on the given graph, delivering tasks to it right away if there are any.
+     * Otherwise it is shelved in a queue grouped by graph affinity until some tasks are enqueued.
+     */
+    public void registerConsumer(String graphId, String workerId, TaskConsumer consumer) {
+        // Add this worker to our catalog, tracking its graph affinity and the last time it was seen.
         if (workerId != null && !workerId.isEmpty()) {
             workerCatalog.catalog(workerId, graphId);
         } else {
             LOG.error("Worker did not supply a unique ID for itself . Ignoring it.");
             return;
         }
-        // Shelf this suspended response in a queue grouped by graph affinity.
-        Deque<Response> deque = consumersByGraph.get(graphId);
-        if (deque == null) {
-            deque = new ArrayDeque<>();
-            consumersByGraph.put(graphId, deque);
-        }
-        deque.addLast(response);
-        nWaitingConsumers += 1;
-        // Wake up the delivery thread if it's waiting on consumers.
-        // This is whatever thread called wait() while holding the monitor for this Broker object.
-        notify();
+        GraphQueue queue = getGraphQueue(graphId);
+        queue.consumers.addLast(consumer);
+        deliverTasks(queue);
     }
 
     /** When we notice that a long poll connection has closed, we remove it here. */
-    public synchronized boolean removeSuspendedResponse(String graphId, Response response) {
-        Deque<Response> deque = consumersByGraph.get(graphId);
-        if (deque == null) {
-            return false;
-        }
-        if (deque.remove(response)) {
-            nWaitingConsumers -= 1;
+    public boolean removeSuspendedResponse(String graphId, Response response) {
+        GraphQueue queue = getGraphQueue(graphId);
+        if (queue.consumers.removeIf(c -> c instanceof ResponseConsumer && ((ResponseConsumer) c).response == response)) {
             LOG.debug("Removed closed connection from queue.");
             logQueueStatus();
             return true;
@@ -433,7 +433,7 @@ public class Broker implements Runnable {
      */
     public synchronized void registerSinglePointChannel (String graphAffinity,WrappedResponse response) {
         singlePointChannels.put(graphAffinity, response);
-        // no need to notify as the side channels are not used by the normal task delivery loop
+        // no need to deliver tasks as the side channels are not used by the normal task delivery loop
     }
 
     /**
@@ -444,199 +444,127 @@ public class Broker implements Runnable {
     }
 
     private void logQueueStatus() {
-        LOG.info("{} undelivered, of which {} high-priority", nUndeliveredTasks,
-                stalledHighPriorityTasks.size());
-        LOG.info("{} producers waiting, {} consumers waiting", highPriorityResponses.size(), nWaitingConsumers);
+        int nUndelivered = 0, nHighPriority = 0, nConsumers = 0;
+        for (Job job : jobsById.values()) {
+            nUndelivered += job.getAwaitingDeliveryCount();
+        }
+        for (GraphQueue queue : queuesByGraph.values()) {
+            nHighPriority += queue.priorityTasks.size();
+            nConsumers += queue.consumers.size();
+        }
+        LOG.info("{} undelivered, of which {} high-priority", nUndelivered + nHighPriority, nHighPriority);
+        LOG.info("{} producers waiting, {} consumers waiting", highPriorityResponses.size(), nConsumers);
         LOG.info("{} total workers", workerCatalog.size());
     }
 
+    /** @return the queue for the given graph. When working offline all graphs share one queue, ignoring affinity. */
+    private GraphQueue getGraphQueue (String graphId) {
+        // don't respect graph affinity when working offline; we can't arbitrarily start more workers
+        return queuesByGraph.computeIfAbsent(workOffline ? "" : graphId, g -> new GraphQueue());
+    }
+
     /**
      *  Check whether there are any delivered tasks that have reached their invisibility timeout but have not yet been
-     *  marked complete. Enqueue those tasks for redelivery.
+     *  marked complete. Enqueue those tasks for redelivery. Also drop waiting consumers whose connections have closed.
      */
     private void redeliver() {
-        if (System.currentTimeMillis() > nextRedeliveryCheckTime) {
-            nextRedeliveryCheckTime += REDELIVERY_INTERVAL_SEC * 1000;
-            LOG.info("Scanning for redelivery...");
-            int nRedelivered = 0;
-            int nInvisible = 0;
-            for (Job job : jobs) {
-                nInvisible += job.invisibleUntil.size();
-                nRedelivered += job.redeliver();
+        LOG.info("Scanning for redelivery...");
+        int nRedelivered = 0;
+        int nInvisible = 0;
+        for (Job job : jobsById.values()) {
+            nInvisible += job.getInFlightTaskCount();
+            int n = job.redeliver();
+            if (n > 0) {
+                nRedelivered += n;
+                addToRotation(getGraphQueue(job.graphId), job);
             }
-            LOG.info("{} tasks enqueued for redelivery out of {} invisible tasks.", nRedelivered, nInvisible);
-            nUndeliveredTasks += nRedelivered;
+        }
+        LOG.info("{} tasks enqueued for redelivery out of {} invisible tasks.", nRedelivered, nInvisible);
+        for (GraphQueue queue : queuesByGraph.values()) {
+            queue.consumers.removeIf(c -> !c.isOpen());
+            deliverTasks(queue);
         }
     }
 
     /**
-     * This method checks whether there are any high-priority tasks or normal job tasks and attempts to match them with
-     * waiting workers. It blocks until there are tasks or workers available.
+     * Match waiting consumers of the given queue with tasks until one or the other runs out. High priority tasks cut
+     * in line in front of jobs, and jobs take turns delivering up to MAX_TASKS_PER_WORKER tasks to one consumer each,
+     * so that if there are multiple workers and multiple jobs the jobs will be fairly distributed, more or less.
+     * This is called by any thread that adds consumers or tasks, and may run on several threads at once.
      */
-    public synchronized void deliverTasks() throws InterruptedException {
-
-        // Wait until there are some undelivered tasks.
-        while (nUndeliveredTasks == 0) {
-            LOG.debug("Task delivery thread is going to sleep, there are no tasks waiting for delivery.");
-            logQueueStatus();
-            wait();
-            redeliver();
-        }
-        LOG.debug("Task delivery thread is awake and there are some undelivered tasks.");
-        logQueueStatus();
-
-        while (nWaitingConsumers == 0) {
-            LOG.debug("Task delivery thread is going to sleep, there are no consumers waiting.");
-            // Thread will be notified when there are new incoming consumer connections.
-            wait();
-        }
-
-        LOG.debug("Task delivery thread awake; consumers are waiting and tasks are available");
-
-        // Loop over all jobs and send them to consumers
-        // This makes for an as-fair-as-possible allocation: jobs are fairly allocated between
-        // workers on their graph.
-
-        // start with high-priority tasks
-        HIGHPRIORITY: for (Map.Entry<String, Collection<AnalystClusterRequest>> e : stalledHighPriorityTasks
-                .asMap().entrySet()) {
-            // the collection is an arraylist with the most recently added at the end
-            String graphId = e.getKey();
-            Collection<AnalystClusterRequest> tasks = e.getValue();
-
-            // see if there are any consumers for this
-            // don't respect graph affinity when working offline; we can't arbitrarily start more workers
-            Deque<Response> consumers;
-            if (!workOffline)
-                consumers = consumersByGraph.get(graphId);
-            else {
-                Optional<Deque<Response>> opt = consumersByGraph.values().stream().filter(c -> !c.isEmpty()).findFirst();
-                if (opt.isPresent()) consumers = opt.get();
-                else consumers = null;
+    private void deliverTasks (GraphQueue queue) {
+        while (true) {
+            TaskConsumer consumer = queue.consumers.pollFirst();
+            if (consumer == null) return;
+            if (!consumer.isOpen()) {
+                LOG.debug("Consumer connection was closed. It will be removed.");
+                continue;
             }
 
-            if (consumers == null || consumers.isEmpty()) {
-                LOG.warn("No consumer found for graph {}, needed for {} high-priority tasks", graphId, tasks.size());
-                continue HIGHPRIORITY;
+            // start with high-priority tasks
+            List<AnalystClusterRequest> tasks = new ArrayList<>();
+            AnalystClusterRequest priorityTask;
+            while (tasks.size() < MAX_TASKS_PER_WORKER && (priorityTask = queue.priorityTasks.poll()) != null) {
+                tasks.add(priorityTask);
             }
-
-            Iterator<AnalystClusterRequest> taskIt = tasks.iterator();
-            while (taskIt.hasNext() && !consumers.isEmpty()) {
-                Response consumer = consumers.pop();
-
-                // package tasks into a job
-                Job job = new Job("HIGH PRIORITY");
-                job.graphId = graphId;
-                for (int i = 0; i < MAX_TASKS_PER_WORKER && taskIt.hasNext(); i++) {
-                    job.addTask(taskIt.next());
-                    taskIt.remove();
-                }
-
+            if (!tasks.isEmpty()) {
                 // TODO inefficiency here: we should mix single point and multipoint in the same response
-                deliver(job, consumer);
-                nWaitingConsumers--;
+                if (!consumer.deliver(tasks)) {
+                    queue.priorityTasks.addAll(tasks);
+                }
+                continue;
             }
-        }
 
-        // deliver low priority tasks
-        while (nWaitingConsumers > 0) {
-            // ensure we advance at least one; advanceToElement will not advance if the predicate passes
-            // for the first element.
-            jobs.advance();
-
-            // find a job that both has visible tasks and has available workers
-            // We don't respect graph affinity when working offline, because we can't start more workers
-            Job current;
-            if (!workOffline) {
-                current = jobs.advanceToElement(e -> !e.tasksAwaitingDelivery.isEmpty() &&
-                        consumersByGraph.containsKey(e.graphId) &&
-                        !consumersByGraph.get(e.graphId).isEmpty());
-            }
-            else {
-                current = jobs.advanceToElement(e -> !e.tasksAwaitingDelivery.isEmpty());
+            Job job = nextJobWithTasks(queue);
+            if (job != null) {
+                tasks = job.takeTasks(MAX_TASKS_PER_WORKER);
+                if (!tasks.isEmpty()) {
+                    // Mark the tasks delivered before handing them off, so that a very fast worker cannot report them
+                    // completed before they are in flight.
+                    job.markTasksDelivered(tasks);
+                    if (consumer.deliver(tasks)) {
+                        LOG.debug("Delivery of {} tasks succeeded.", tasks.size());
+                    } else {
+                        // Delivery failed, put tasks back on (the end of) the queue.
+                        job.returnTasks(tasks);
+                        addToRotation(queue, job);
+                    }
+                    continue;
+                }
             }
 
-            // nothing to see here
-            if (current == null) break;
-
-            Deque<Response> consumers;
-            if (!workOffline)
-                consumers = consumersByGraph.get(current.graphId);
-            else {
-                Optional<Deque<Response>> opt = consumersByGraph.values().stream().filter(c -> !c.isEmpty()).findFirst();
-                if (opt.isPresent()) consumers = opt.get();
-                else consumers = null;
-            }
-            // deliver this job to only one consumer
-            // This way if there are multiple workers and multiple jobs the jobs will be fairly distributed, more or less
-            deliver(current, consumers.pop());
-            nWaitingConsumers--;
+            // There were no tasks. Put the consumer back where it was, then check again in case tasks were enqueued
+            // by another thread while we were holding the consumer (that thread would not have seen it).
+            queue.consumers.addFirst(consumer);
+            if (queue.priorityTasks.isEmpty() && queue.jobs.isEmpty()) return;
         }
-
-        // TODO: graph switching
-
-        // we've delivered everything we can, prevent anything else from happening until something changes
-        wait();
     }
 
     /**
-     * This uses a linear search through jobs, which should not be problematic unless there are thousands of
-     * simultaneous jobs.
-     * @return a Job object that contains the given task ID.
+     * Take the next job with tasks awaiting delivery from the rotation, putting it back at the end. Jobs found to have
+     * no tasks awaiting delivery leave the rotation until tasks are added to them again.
+     * @return the job, or null if no job has tasks awaiting delivery.
      */
-    public Job getJobForTask (int taskId) {
-        for (Job job : jobs) {
-            if (job.containsTask(taskId)) {
+    private Job nextJobWithTasks (GraphQueue queue) {
+        Job job;
+        while ((job = queue.jobs.poll()) != null) {
+            if (job.deleted) continue;
+            if (job.hasTasksAwaitingDelivery()) {
+                queue.jobs.offer(job);
                 return job;
             }
+            job.inRotation.set(false);
+            // Tasks may have been added after we checked, by a thread that saw the job still in rotation.
+            if (job.hasTasksAwaitingDelivery()) addToRotation(queue, job);
         }
         return null;
     }
 
-    /**
-     * Attempt to hand some tasks from the given job to a waiting consumer connection.
-     * The write will fail if the consumer has closed the connection but it hasn't been removed from the connection
-     * queue yet. This can happen because the Broker methods are synchronized, and the removal action may be waiting
-     * to get the monitor while we are trying to distribute tasks here.
-     * @return whether the handoff succeeded.
-     */
-    public synchronized boolean deliver (Job job, Response response) {
-
-        // Check up-front whether the connection is still open.
-        if (!response.getRequest().getRequest().getConnection().isOpen()) {
-            LOG.debug("Consumer connection was closed. It will be removed.");
-            return false;
-        }
-
-        // Get up to N tasks from the tasksAwaitingDelivery deque
-        List<AnalystClusterRequest> tasks = new ArrayList<>();
-        while (tasks.size() < MAX_TASKS_PER_WORKER && !job.tasksAwaitingDelivery.isEmpty()) {
-            tasks.add(job.tasksAwaitingDelivery.poll());
-        }
-
-        // Attempt to deliver the tasks to the given consumer.
-        try {
-            response.setStatus(HttpStatus.OK_200);
-            OutputStream out = response.getOutputStream();
-            mapper.writeValue(out, tasks);
-            response.resume();
-        } catch (IOException e) {
-            // The connection was probably closed by the consumer, but treat it as a server error.
-            LOG.debug("Consumer connection caused IO error, it will be removed.");
-            response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR_500);
-            response.resume();
-            // Delivery failed, put tasks back on (the end of) the queue.
-            job.tasksAwaitingDelivery.addAll(tasks);
-            return false;
+    /** Put a job into the rotation of its graph after tasks have been added to it, unless it is already there. */
+    private void addToRotation (GraphQueue queue, Job job) {
+        if (job.inRotation.compareAndSet(false, true)) {
+            queue.jobs.offer(job);
         }
-
-        // Delivery succeeded, move tasks from undelivered to delivered status
-        LOG.debug("Delivery of {} tasks succeeded.", tasks.size());
-        nUndeliveredTasks -= tasks.size();
-        job.markTasksDelivered(tasks);
-
-        return true;
-
     }
 
     /**
@@ -644,13 +572,12 @@ public class Broker implements Runnable {
      * TODO maybe use unique delivery receipts instead of task IDs to handle redelivered tasks independently
      * @return whether the task was found and removed.
      */
-    public synchronized boolean markTaskCompleted (int taskId) {
-        Job job = getJobForTask(taskId);
-        if (job == null) {
-            LOG.error("Could not find a job containing task {}, and therefore could not mark the task as completed.");
+    public boolean markTaskCompleted (int taskId) {
+        Map.Entry<Integer, Job> entry = jobsByFirstTaskId.floorEntry(taskId);
+        if (entry == null || !entry.getValue().markTaskCompleted(taskId)) {
+            LOG.error("Could not find a job containing task {}, and therefore could not mark the task as completed.", taskId);
             return false;
         }
-        job.markTaskCompleted(taskId);
         return true;
     }
 
@@ -665,59 +592,46 @@ public class Broker implements Runnable {
         return highPriorityResponses.remove(taskId);
     }
 
-    // TODO: occasionally purge closed connections from consumersByGraph
     // TODO: worker catalog and graph affinity homeostasis
 
+    /** Periodically re-deliver tasks that have timed out. Tasks themselves are delivered by the HTTP threads. */
     @Override
     public void run() {
         while (true) {
             try {
-                deliverTasks();
+                Thread.sleep(REDELIVERY_INTERVAL_SEC * 1000);
             } catch (InterruptedException e) {
-                LOG.info("Task pump thread was interrupted.");
+                LOG.info("Redelivery thread was interrupted.");
                 return;
             }
+            redeliver();
         }
     }
 
     /** find the job for a task, creating it if it does not exist */
     public Job findJob (AnalystClusterRequest task) {
-        Job job = findJob(task.jobId);
-
-        if (job != null)
-            return job;
-
-        job = new Job(task.jobId);
-        job.graphId = task.graphId;
-        jobs.insertAtTail(job);
-        return job;
+        return jobsById.computeIfAbsent(task.jobId, jobId -> new Job(jobId, task.graphId));
     }
 
     /** find the job for a jobId, or null if it does not exist */
     public Job findJob (String jobId) {
-        for (Job job : jobs) {
-            if (job.jobId.equals(jobId)) {
-                return job;
-            }
-        }
-        return null;
+        return jobsById.get(jobId);
     }
 
     /** delete a job */
-    public synchronized boolean deleteJob (String jobId) {
-        Job job = findJob(jobId);
+    public boolean deleteJob (String jobId) {
+        Job job = jobsById.remove(jobId);
         if (job == null) return false;
-        nUndeliveredTasks -= job.tasksAwaitingDelivery.size();
-        return jobs.remove(job);
+        // Tasks of the job that are being delivered right now will still be delivered.
+        job.deleted = true;
+        job.taskBlocks.keySet().forEach(jobsByFirstTaskId::remove);
+        return true;
     }
 
     private Multimap<String, String> activeJobsPerGraph = HashMultimap.create();
 
-    public synchronized boolean anyJobsActive() {
-        for (Job job : jobs) {
-            if (!job.isComplete()) return true;
-        }
-        return false;
+    public boolean anyJobsActive() {
+        return jobsById.values().stream().anyMatch(job -> !job.isComplete());
     }
 
     void activateJob (Job job) {
@@ -728,6 +642,60 @@ public class Broker implements Runnable {
         activeJobsPerGraph.remove(job.graphId, job.jobId);
     }
 
+    /** Workers and deliverable tasks for one graph. */
+    private static class GraphQueue {
+
+        /** Outstanding requests from workers for tasks, oldest first. */
+        final Deque<TaskConsumer> consumers = new ConcurrentLinkedDeque<>();
+
+        /**
+         * Requests that are not part of a job and can "cut in line" in front of jobs for immediate execution.
+         * When a high priority task is first received, we attempt to send it to a worker right away via
+         * the side channels. If that doesn't work, we put them here to be picked up the next time a worker
+         * is available via normal task distribution channels.
+         */
+        final Queue<AnalystClusterRequest> priorityTasks = new ConcurrentLinkedQueue<>();
+
+        /** Jobs that (probably) have tasks awaiting delivery, in the order they will take turns delivering them. */
+        final Queue<Job> jobs = new ConcurrentLinkedQueue<>();
+    }
+
+    /** A worker's suspended long-poll HTTP connection. */
+    static class ResponseConsumer implements TaskConsumer {
+
+        final Response response;
+
+        ResponseConsumer (Response response) {
+            this.response = response;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return response.getRequest().getRequest().getConnection().isOpen();
+        }
+
+        /**
+         * The write will fail if the consumer has closed the connection but it hasn't been removed from the
+         * connection queue yet.
+         */
+        @Override
+        public boolean deliver(List<AnalystClusterRequest> tasks) {
+            try {
+                response.setStatus(HttpStatus.OK_200);
+                OutputStream out = response.getOutputStream();
+                mapper.writeValue(out, tasks);
+                response.resume();
+                return true;
+            } catch (IOException e) {
+                // The connection was probably closed by the consumer, but treat it as a server error.
+                LOG.debug("Consumer connection caused IO error, it will be removed.");
+                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR_500);
+                response.resume();
+                return false;
+            }
+        }
+    }
+
     /**
      * We wrap responses in a class that has a machine ID, and then put them in a TreeSet so that
      * the machine with the lowest ID on a given graph always gets single-point work. The reason
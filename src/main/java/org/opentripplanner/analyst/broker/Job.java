@@ -1,69 +1,115 @@
 package org.opentripplanner.analyst.broker;
 
-import gnu.trove.iterator.TIntLongIterator;
-import gnu.trove.map.TIntLongMap;
-import gnu.trove.map.TIntObjectMap;
-import gnu.trove.map.hash.TIntLongHashMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
-import gnu.trove.set.TIntSet;
-import gnu.trove.set.hash.TIntHashSet;
 import org.opentripplanner.analyst.cluster.AnalystClusterRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
- * FIXME delivered tasks map is oblivious to multiple tasks having the same ID.
- * In fact we just generate numeric queue task IDs. Origin point IDs will be handled at the application layer.
+ * A job is a set of tasks on the same graph, whose results are saved to S3 by the workers.
+ *
+ * All methods of this class may be called concurrently by HTTP handler threads without locking. Tasks are stored in
+ * blocks of consecutive task IDs (one per call to the broker's enqueueTasks), and the delivery state of each task is
+ * kept in arrays within its block: a delivery deadline per task and a bitset of completed tasks, both updated with
+ * atomic operations.
  */
 public class Job {
 
     private static final Logger LOG = LoggerFactory.getLogger(Job.class);
 
-    /* How long until tasks are eligible for re-delivery. */
-    private static final int INVISIBLE_DURATION_SEC = 30;
+    /* How long each task delivered to a worker may take before the tasks delivered with it become eligible for
+     * re-delivery. */
+    static final int INVISIBLE_DURATION_SEC = 30;
 
     /* A unique identifier for this job, usually a random UUID. */
     public final String jobId;
 
     /* The graph needed to handle all tasks contained in this job. */
-    String graphId;
+    final String graphId;
 
     /* Tasks in this job that have yet to be delivered, or that will be re-delivered due to completion timeout. */
-    // maybe this should only be a list of IDs.
-    Queue<AnalystClusterRequest> tasksAwaitingDelivery = new ArrayDeque<>();
+    final Queue<AnalystClusterRequest> tasksAwaitingDelivery = new ConcurrentLinkedQueue<>();
 
-    /* The tasks in this job keyed on their task ID. */
-    TIntObjectMap<AnalystClusterRequest> tasksById = new TIntObjectHashMap<>();
+    /* The blocks of tasks in this job, keyed on the ID of their first task. */
+    final ConcurrentNavigableMap<Integer, TaskBlock> taskBlocks = new ConcurrentSkipListMap<>();
 
-    /*
-     * Completion timeouts for tasks that have been delivered.
-     * A task whose ID is in this map has been delivered, has not been reported completed,
-     * and is not awaiting re-delivery.
-     */
-    TIntLongMap invisibleUntil = new TIntLongHashMap();
+    private final AtomicInteger nTasks = new AtomicInteger();
+
+    private final AtomicInteger nCompletedTasks = new AtomicInteger();
+
+    /* The number of tasks that have been delivered, have not been completed and have not timed out. */
+    private final AtomicInteger nInFlightTasks = new AtomicInteger();
 
-    /* The IDs of all tasks that have been marked completed. */
-    TIntSet completedTasks = new TIntHashSet();
+    /* Set when the job is deleted, so that the broker drops it from the delivery rotation. */
+    volatile boolean deleted = false;
 
-    public Job (String jobId) {
+    /* Whether the job is in the broker's delivery rotation for its graph. Only the broker uses this. */
+    final AtomicBoolean inRotation = new AtomicBoolean(false);
+
+    public Job (String jobId, String graphId) {
         this.jobId = jobId;
+        this.graphId = graphId;
     }
 
-    /** Adds a task to this Job, assigning it a task ID number. */
-    public void addTask (AnalystClusterRequest task) {
-        tasksById.put(task.taskId, task);
-        tasksAwaitingDelivery.add(task);
+    /**
+     * Add some tasks to this job. They must already have been assigned consecutive task IDs starting at firstTaskId.
+     */
+    public void addTasks (int firstTaskId, List<AnalystClusterRequest> tasks) {
+        taskBlocks.put(firstTaskId, new TaskBlock(firstTaskId, tasks));
+        nTasks.addAndGet(tasks.size());
+        tasksAwaitingDelivery.addAll(tasks);
     }
 
-    public void markTasksDelivered(List<AnalystClusterRequest> tasks) {
+    /** Take up to maxTasks tasks awaiting delivery off the queue. The list is empty if there are none. */
+    public List<AnalystClusterRequest> takeTasks (int maxTasks) {
+        List<AnalystClusterRequest> tasks = new ArrayList<>(maxTasks);
+        AnalystClusterRequest task;
+        while (tasks.size() < maxTasks && (task = tasksAwaitingDelivery.poll()) != null) {
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    /**
+     * Put tasks that were marked delivered but could not be handed off back on (the end of) the queue, unless they
+     * have meanwhile been queued for redelivery.
+     */
+    public void returnTasks (List<AnalystClusterRequest> tasks) {
+        for (AnalystClusterRequest task : tasks) {
+            TaskBlock block = findBlock(task.taskId);
+            if (block != null && block.invisibleUntil.getAndSet(task.taskId - block.firstTaskId, 0) != 0) {
+                nInFlightTasks.decrementAndGet();
+                tasksAwaitingDelivery.add(task);
+            }
+        }
+    }
+
+    public boolean hasTasksAwaitingDelivery () {
+        return !tasksAwaitingDelivery.isEmpty();
+    }
+
+    /**
+     * Mark tasks delivered together to one worker as in flight. The worker may handle them one after another on the
+     * same thread, as a batch, so they are given time for all of them rather than for one.
+     */
+    public void markTasksDelivered (List<AnalystClusterRequest> tasks) {
         long deliveryTime = System.currentTimeMillis();
-        long visibleAt = deliveryTime + INVISIBLE_DURATION_SEC * 1000;
+        long visibleAt = deliveryTime + INVISIBLE_DURATION_SEC * 1000L * tasks.size();
         for (AnalystClusterRequest task : tasks) {
-            invisibleUntil.put(task.taskId, visibleAt);
+            TaskBlock block = findBlock(task.taskId);
+            if (block != null && block.invisibleUntil.getAndSet(task.taskId - block.firstTaskId, visibleAt) == 0) {
+                nInFlightTasks.incrementAndGet();
+            }
         }
     }
 
@@ -73,62 +119,116 @@ public class Job {
      * TODO maybe this should only be triggered when the awaiting delivery queue is empty to reduce double-delivery.
      */
     public int redeliver () {
+        if (nInFlightTasks.get() == 0) return 0;
         long now = System.currentTimeMillis();
-        TIntLongIterator invisibleIterator = invisibleUntil.iterator();
         int nRedelivered = 0;
-        while (invisibleIterator.hasNext()) {
-            invisibleIterator.advance();
-            int taskId = invisibleIterator.key();
-            long timeout = invisibleIterator.value();
-            if (now > timeout) {
-                invisibleIterator.remove();
-                tasksAwaitingDelivery.add(tasksById.get(taskId));
-                LOG.warn("Task {} of job {} was not completed in time, queueing it for re-delivery.", taskId, jobId);
-                nRedelivered += 1;
+        for (TaskBlock block : taskBlocks.values()) {
+            for (int i = 0; i < block.tasks.length; i++) {
+                long timeout = block.invisibleUntil.get(i);
+                // Only one thread can take the task out of the in-flight state, either this one or one completing it.
+                if (timeout != 0 && now > timeout && block.invisibleUntil.compareAndSet(i, timeout, 0)) {
+                    nInFlightTasks.decrementAndGet();
+                    tasksAwaitingDelivery.add(block.tasks[i]);
+                    LOG.warn("Task {} of job {} was not completed in time, queueing it for re-delivery.",
+                            block.tasks[i].taskId, jobId);
+                    nRedelivered += 1;
+                }
             }
         }
         return nRedelivered;
     }
 
-    public void markTaskCompleted (int taskId) {
-        if (tasksById.get(taskId) == null) {
+    /** @return whether the task was in this job. */
+    public boolean markTaskCompleted (int taskId) {
+        TaskBlock block = findBlock(taskId);
+        if (block == null) {
             LOG.error("Tried to mark task {} completed, but it was not in job {}.", taskId, jobId);
-            return;
+            return false;
         }
-        if (invisibleUntil.remove(taskId) != 0) {
-            // If the taskId was found in the invisibleUntil map, the task was delivered and has not been slated for
-            // re-delivery.
-            completedTasks.add(taskId);
+        int i = taskId - block.firstTaskId;
+        if (block.invisibleUntil.getAndSet(i, 0) != 0) {
+            // The task was delivered and has not been slated for re-delivery.
+            nInFlightTasks.decrementAndGet();
+            if (block.setCompleted(i)) {
+                nCompletedTasks.incrementAndGet();
+            }
         } else {
-            // If the taskId was not found in the invisibleUntil map, the task was never delivered, or timed out and was
-            // slated for redelivery. We should ignore the completion message and let the re-delivery proceed to avoid
-            // problems with redelivered tasks overwriting results in S3 after the job is considered finished.
-            // TODO verify that there are no race conditions here.
-            LOG.warn("Ignoring late task completion message, task {} was queued for re-delivery.");
+            // The task was never delivered, or timed out and was slated for redelivery. We should ignore the
+            // completion message and let the re-delivery proceed to avoid problems with redelivered tasks overwriting
+            // results in S3 after the job is considered finished.
+            LOG.warn("Ignoring late task completion message, task {} was queued for re-delivery.", taskId);
         }
+        return true;
+    }
+
+    /** @return the block of this job containing the given task ID, or null if there is none. */
+    private TaskBlock findBlock (int taskId) {
+        Map.Entry<Integer, TaskBlock> entry = taskBlocks.floorEntry(taskId);
+        if (entry == null || !entry.getValue().contains(taskId)) return null;
+        return entry.getValue();
     }
 
     public int getTotalTaskCount() {
-        return tasksById.size();
+        return nTasks.get();
     }
 
     public int getCompletedTaskCount() {
-        return completedTasks.size();
+        return nCompletedTasks.get();
+    }
+
+    public int getInFlightTaskCount() {
+        return nInFlightTasks.get();
+    }
+
+    public int getAwaitingDeliveryCount() {
+        return tasksAwaitingDelivery.size();
     }
 
     public boolean isComplete() {
-        return completedTasks.size() == tasksById.size();
+        return nCompletedTasks.get() == nTasks.get();
     }
 
     public boolean containsTask (int taskId) {
-        AnalystClusterRequest req = tasksById.get(taskId);
-        if (req != null) {
-            if (!req.jobId.equals(this.jobId)) {
-                LOG.error("Task {} has a job ID that does not match the job in which it was discovered.");
+        return findBlock(taskId) != null;
+    }
+
+    /**
+     * Tasks with consecutive IDs that were enqueued together, with their delivery state. A delivery deadline of zero
+     * means the task is not in flight: it is awaiting delivery or has been completed.
+     */
+    static class TaskBlock {
+
+        final int firstTaskId;
+
+        final AnalystClusterRequest[] tasks;
+
+        /* The time after which each delivered task will be re-delivered if it has not been marked completed. */
+        final AtomicLongArray invisibleUntil;
+
+        /* One bit per task, set when the task is completed. */
+        private final AtomicLongArray completed;
+
+        TaskBlock (int firstTaskId, List<AnalystClusterRequest> tasks) {
+            this.firstTaskId = firstTaskId;
+            this.tasks = tasks.toArray(new AnalystClusterRequest[tasks.size()]);
+            this.invisibleUntil = new AtomicLongArray(this.tasks.length);
+            this.completed = new AtomicLongArray((this.tasks.length + 63) / 64);
+        }
+
+        boolean contains (int taskId) {
+            return taskId >= firstTaskId && taskId - firstTaskId < tasks.length;
+        }
+
+        /** Set the completed bit for the task at the given index. @return false if it was already set. */
+        boolean setCompleted (int i) {
+            int word = i / 64;
+            long mask = 1L << (i % 64);
+            while (true) {
+                long bits = completed.get(word);
+                if ((bits & mask) != 0) return false;
+                if (completed.compareAndSet(word, bits, bits | mask)) return true;
             }
-            return true;
         }
-        return false;
     }
 
 }
@@ -0,0 +1,22 @@
+package org.opentripplanner.analyst.broker;
+
+import org.opentripplanner.analyst.cluster.AnalystClusterRequest;
+
+import java.util.List;
+
+/**
+ * Something waiting to receive tasks from the broker: normally a worker's suspended long-poll HTTP connection, but
+ * also a local stand-in for a worker when benchmarking the broker.
+ */
+public interface TaskConsumer {
+
+    /** @return false if the consumer is known to be gone, in which case it will be dropped without delivery. */
+    boolean isOpen();
+
+    /**
+     * Hand some tasks to this consumer. Each consumer receives at most one delivery.
+     * @return whether the handoff succeeded. If it did not, the tasks will be delivered to someone else.
+     */
+    boolean deliver(List<AnalystClusterRequest> tasks);
+
+}
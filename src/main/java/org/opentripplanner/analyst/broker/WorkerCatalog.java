@@ -47,6 +47,12 @@ public class WorkerCatalog {
         });
     }
 
+    /** Returns true if any worker that is still alive has affinity for this graphId. */
+    public synchronized boolean hasWorkers (String graphId) {
+        purgeDeadWorkers();
+        return !workersByGraph.get(graphId).isEmpty();
+    }
+
     public synchronized void updateTargetWorkerCounts (Multimap<String, String> activeJobsPerGraph) {
 
         final int activeWorkerCount = observationsByWorkerId.size(); // (plus outstanding instance requests)
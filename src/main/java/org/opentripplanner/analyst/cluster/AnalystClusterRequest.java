@@ -52,6 +52,12 @@ public class AnalystClusterRequest implements Serializable {
 
 	/** Should times be included in the results (i.e. ResultSetWithTimes rather than ResultSet) */
 	public boolean includeTimes = false;
+
+	/**
+	 * How the results saved to the output location are encoded. Single point results are always returned to the
+	 * broker as JSON.
+	 */
+	public OutputFormat outputFormat = OutputFormat.JSON;
 	
 	private AnalystClusterRequest(String destinationPointsetId, String graphId) {
 		this.destinationPointsetId = destinationPointsetId;
@@ -77,4 +83,11 @@ public class AnalystClusterRequest implements Serializable {
 	/** Used for deserialization from JSON */
 	public AnalystClusterRequest () { /* do nothing */ }
 
+	public static enum OutputFormat {
+		/** Gzipped JSON, in files ending in .json.gz */
+		JSON,
+		/** Delta and varint coded binary, see ResultEnvelopeBinaryFormat */
+		BINARY
+	}
+
 }
@@ -4,6 +4,7 @@ import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.conveyal.geojson.GeoJsonModule;
 import com.conveyal.r5.R5Main;
 import com.fasterxml.jackson.core.JsonParser;
@@ -11,8 +12,6 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
@@ -35,32 +34,39 @@ import org.opentripplanner.api.model.QualifiedModeSetSerializer;
 import org.opentripplanner.api.model.TraverseModeSetSerializer;
 import org.opentripplanner.common.MavenVersion;
 import org.opentripplanner.profile.RaptorWorkerData;
+import org.opentripplanner.profile.RaptorWorkspace;
 import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
 import org.opentripplanner.routing.graph.Graph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -113,10 +119,17 @@ public class AnalystWorker implements Runnable {
 
     static final HttpClient httpClient;
 
-    /** Cache RAPTOR data by Job ID */
-    private Cache<String, RaptorWorkerData> workerDataCache = CacheBuilder.newBuilder()
-            .maximumSize(200)
-            .build();
+    /** Cache RAPTOR data by graph, pointset, time window and scenario, in memory and on local disk */
+    private RaptorWorkerDataCache workerDataCache;
+
+    /** Save the linkage of pointsets to graphs on local disk */
+    private SampleSetCache sampleSetCache;
+
+    /** The most tasks of the same job to handle together on one thread. */
+    private final int batchSize;
+
+    /** Scratch structures for routing, kept by each executor thread from one origin to the next. */
+    private final ThreadLocal<RaptorWorkspace> workspaces = ThreadLocal.withInitial(RaptorWorkspace::new);
 
     static {
         PoolingHttpClientConnectionManager mgr = new PoolingHttpClientConnectionManager();
@@ -159,6 +172,12 @@ public class AnalystWorker implements Runnable {
      */
     private ThreadPoolExecutor highPriorityExecutor, batchExecutor;
 
+    /**
+     * Room for tasks waiting in the batch executor's queue. The queue holds batches of different sizes, so it is
+     * bounded in tasks with these permits rather than by its capacity.
+     */
+    private Semaphore queuedTaskPermits;
+
     public AnalystWorker(Properties config) {
         // print out date on startup so that CloudWatch logs has a unique fingerprint
         LOG.info("Analyst worker starting at {}", LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME));
@@ -191,6 +210,21 @@ public class AnalystWorker implements Runnable {
         this.pointSetDatastore = new PointSetDatastore(10, null, false, config.getProperty("pointsets-bucket"));
         this.clusterGraphBuilder = new ClusterGraphBuilder(config.getProperty("graphs-bucket"));
 
+        // an empty raptor data cache directory disables the on-disk cache
+        String raptorDataCacheDir = config.getProperty("raptor-data-cache", RaptorWorkerDataCache.DEFAULT_CACHE_DIR);
+        long raptorDataCacheMaxMb = Long.parseLong(config.getProperty("raptor-data-cache-max-mb",
+                Long.toString(RaptorWorkerDataCache.DEFAULT_MAX_DISK_MB)));
+        this.workerDataCache = new RaptorWorkerDataCache(raptorDataCacheDir.isEmpty() ? null : new File(raptorDataCacheDir),
+                raptorDataCacheMaxMb);
+
+        String sampleSetCacheDir = config.getProperty("sample-set-cache", SampleSetCache.DEFAULT_CACHE_DIR);
+        long sampleSetCacheMaxMb = Long.parseLong(config.getProperty("sample-set-cache-max-mb",
+                Long.toString(SampleSetCache.DEFAULT_MAX_DISK_MB)));
+        this.sampleSetCache = new SampleSetCache(sampleSetCacheDir.isEmpty() ? null : new File(sampleSetCacheDir),
+                sampleSetCacheMaxMb);
+
+        this.batchSize = Integer.parseInt(config.getProperty("batch-size", "4"));
+
         Boolean autoShutdown = Boolean.parseBoolean(config.getProperty("auto-shutdown"));
         this.autoShutdown = autoShutdown == null ? false : autoShutdown;
 
@@ -238,8 +272,9 @@ public class AnalystWorker implements Runnable {
         int nP = Runtime.getRuntime().availableProcessors();
         highPriorityExecutor = new ThreadPoolExecutor(1, nP, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(255));
         highPriorityExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
-        batchExecutor = new ThreadPoolExecutor(1, nP, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(nP * 2));
-        batchExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        // start all the batch threads right away, as the queue is unbounded and extra threads would never be started
+        batchExecutor = new ThreadPoolExecutor(nP, nP, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        queuedTaskPermits = new Semaphore(Math.max(nP * 2, batchSize));
 
         // Build a graph on startup, iff a graph ID was provided.
         if (graphId != null) {
@@ -290,21 +325,15 @@ public class AnalystWorker implements Runnable {
 
             logQueueStatus();
 
-            // enqueue low-priority tasks; note that this may block anywhere in the process
-            tasks.stream().filter(t -> t.outputLocation != null)
-                .forEach(t -> {
-                    // attempt to enqueue, waiting if the queue is full
-                    while (true) {
-                        try {
-                            batchExecutor.execute(() -> this.handleOneRequest(t));
-                            break;
-                        } catch (RejectedExecutionException e) {
-                            // queue is full, wait 200ms and try again
-                            try {
-                                Thread.sleep(200);
-                            } catch (InterruptedException e1) { /* nothing */}
-                        }
-                    }
+            // enqueue low-priority tasks in batches of origins of the same job, waiting if too many tasks are
+            // already queued; note that this may block anywhere in the process
+            makeBatches(tasks.stream().filter(t -> t.outputLocation != null).collect(Collectors.toList()), batchSize)
+                .forEach(batch -> {
+                    queuedTaskPermits.acquireUninterruptibly(batch.size());
+                    batchExecutor.execute(() -> {
+                        queuedTaskPermits.release(batch.size());
+                        this.handleBatch(batch);
+                    });
                 });
 
             logQueueStatus();
@@ -318,31 +347,45 @@ public class AnalystWorker implements Runnable {
      * It may be called several times simultaneously on different executor threads.
      */
     private void handleOneRequest(AnalystClusterRequest clusterRequest) {
+        handleBatch(Collections.singletonList(clusterRequest));
+    }
+
+    /**
+     * Process a batch of tasks of the same job, one origin after another, returning the results of each as soon as it
+     * is complete. The graph, the destinations and the RAPTOR data are looked up once for the whole batch, and the
+     * searches reuse the scratch structures of this thread's workspace. Statistics are reported for the whole batch.
+     * This may be called several times simultaneously on different executor threads.
+     */
+    private void handleBatch(List<AnalystClusterRequest> batch) {
 
         if (dryRunFailureRate >= 0) {
             // This worker is running in test mode.
             // It should report all work as completed without actually doing anything,
             // but will fail a certain percentage of the time.
-            if (random.nextInt(100) >= dryRunFailureRate) {
-                // Pretend to succeed.
-                deleteRequest(clusterRequest);
-            } else {
-                LOG.info("Intentionally failing on task {}", clusterRequest.taskId);
+            for (AnalystClusterRequest clusterRequest : batch) {
+                if (random.nextInt(100) >= dryRunFailureRate) {
+                    // Pretend to succeed.
+                    deleteRequest(clusterRequest);
+                } else {
+                    LOG.info("Intentionally failing on task {}", clusterRequest.taskId);
+                }
             }
             return;
         }
 
         try {
             long startTime = System.currentTimeMillis();
-            LOG.info("Handling message {}", clusterRequest.toString());
+            AnalystClusterRequest first = batch.get(0);
+            LOG.info("Handling batch of {} messages, starting with {}", batch.size(), first.toString());
 
             // We need to distinguish between and handle four different types of requests here:
             // Either vector isochrones or accessibility to a pointset,
             // as either a single-origin priority request (where the result is returned immediately)
             // or a job task (where the result is saved to output location on S3).
-            boolean isochrone = (clusterRequest.destinationPointsetId == null);
-            boolean singlePoint = (clusterRequest.outputLocation == null);
-            boolean transit = (clusterRequest.profileRequest.transitModes != null && clusterRequest.profileRequest.transitModes.isTransit());
+            // All the requests in a batch are of the same type, as they are from the same job.
+            boolean isochrone = (first.destinationPointsetId == null);
+            boolean singlePoint = (first.outputLocation == null);
+            boolean transit = (first.profileRequest.transitModes != null && first.profileRequest.transitModes.isTransit());
 
             if (singlePoint) {
                 lastHighPriorityRequestProcessed = startTime;
@@ -352,24 +395,26 @@ public class AnalystWorker implements Runnable {
             }
 
             TaskStatistics ts = new TaskStatistics();
-            ts.pointsetId = clusterRequest.destinationPointsetId;
-            ts.graphId = clusterRequest.graphId;
+            ts.pointsetId = first.destinationPointsetId;
+            ts.graphId = first.graphId;
             ts.awsInstanceType = instanceType;
-            ts.jobId = clusterRequest.jobId;
+            ts.jobId = first.jobId;
             ts.workerId = machineId;
             ts.single = singlePoint;
+            ts.batchSize = batch.size();
+            ts.success = true;
 
             // Get the graph object for the ID given in the request, fetching inputs and building as needed.
             // All requests handled together are for the same graph, and this call is synchronized so the graph will
             // only be built once.
             long graphStartTime = System.currentTimeMillis();
-            Graph graph = clusterGraphBuilder.getGraph(clusterRequest.graphId);
-            graphId = clusterRequest.graphId; // Record graphId so we "stick" to this same graph on subsequent polls
+            Graph graph = clusterGraphBuilder.getGraph(first.graphId);
+            graphId = first.graphId; // Record graphId so we "stick" to this same graph on subsequent polls
             ts.graphBuild = (int) (System.currentTimeMillis() - graphStartTime);
             ts.graphTripCount = graph.index.patternForTrip.size();
             ts.graphStopCount = graph.index.stopForId.size();
-            ts.lon = clusterRequest.profileRequest.fromLon;
-            ts.lat = clusterRequest.profileRequest.fromLat;
+            ts.lon = first.profileRequest.fromLon;
+            ts.lat = first.profileRequest.fromLat;
 
             final SampleSet sampleSet;
 
@@ -380,16 +425,10 @@ public class AnalystWorker implements Runnable {
                 sampleSet = null;
             } else {
                 // This is not an isochrone request. There is necessarily a destination point set supplied.
-                PointSet pointSet = pointSetDatastore.get(clusterRequest.destinationPointsetId);
-                sampleSet = pointSet.getOrCreateSampleSet(graph); // TODO this breaks if graph has been rebuilt
+                PointSet pointSet = pointSetDatastore.get(first.destinationPointsetId);
+                sampleSet = sampleSetCache.get(first.destinationPointsetId, first.graphId, graph, pointSet);
             }
 
-            // Note that all parameters to create the Raptor worker data are passed in the constructor except ts.
-            // Why not pass in ts as well since this is a throwaway calculator?
-            RepeatedRaptorProfileRouter router =
-                    new RepeatedRaptorProfileRouter(graph, clusterRequest.profileRequest, sampleSet);
-            router.ts = ts;
-
             // Produce RAPTOR data tables, going through a cache where relevant.
             // This is only used for multi-point requests. Single-point requests are assumed to be continually
             // changing, so we create throw-away RAPTOR tables for them.
@@ -397,67 +436,132 @@ public class AnalystWorker implements Runnable {
             // but the RepeatedRaptorProfileRouter doesn't know the job ID or other information from the cluster request.
             // It would be possible to just supply the cache _key_ as a way of saying that the cache should be used.
             // But then we'd need to pass in both the cache and the key, which is weird.
-            if (transit && !singlePoint) {
-                long dataStart = System.currentTimeMillis();
-                router.raptorWorkerData = workerDataCache.get(clusterRequest.jobId, () -> RepeatedRaptorProfileRouter
-                        .getRaptorWorkerData(clusterRequest.profileRequest, graph, sampleSet, ts));
-                ts.raptorData = (int) (System.currentTimeMillis() - dataStart);
-            } else {
-                // The worker will generate a one-time throw-away table.
-                router.raptorWorkerData = null;
-            }
+            // The data do not depend on the origin, so the tasks of a job normally share them. Each one still goes
+            // through the cache in case a job has tasks with different parameters, which is cheap after the first.
+            RaptorWorkspace workspace = workspaces.get();
+            handleOrigins(batch, (clusterRequest, originStatistics) -> {
+                RaptorWorkerData raptorWorkerData = null;
+                if (transit && !singlePoint) {
+                    long dataStart = System.currentTimeMillis();
+                    raptorWorkerData = workerDataCache.get(clusterRequest.graphId, graph,
+                            clusterRequest.destinationPointsetId, clusterRequest.profileRequest, sampleSet, ts);
+                    originStatistics.raptorData = (int) (System.currentTimeMillis() - dataStart);
+                }
+                handleOrigin(clusterRequest, graph, sampleSet, raptorWorkerData, workspace, originStatistics);
+            }, ts);
+
+            // Record information about the current batch so we can analyze usage and efficiency over time.
+            ts.total = (int) (System.currentTimeMillis() - startTime);
+            statsStore.store(ts);
 
-            // Run the core repeated-raptor analysis.
-            // This result envelope will contain the results of the one-to-many profile or single-departure-time search.
-            ResultEnvelope envelope = new ResultEnvelope();
+        } catch (Exception ex) {
+            LOG.error("An error occurred while routing", ex);
+        }
+
+    }
+
+    /** Handles the origin of one task of a batch, recording statistics about it. */
+    interface OriginHandler {
+        void handle (AnalystClusterRequest clusterRequest, TaskStatistics ts) throws Exception;
+    }
+
+    /**
+     * Handle each origin of a batch in turn, accumulating their statistics in ts. A failure on one origin is logged and
+     * recorded in the statistics, and does not keep the rest of the batch from being handled. The failed task is not
+     * deleted, so the broker will redeliver it.
+     */
+    static void handleOrigins (List<AnalystClusterRequest> batch, OriginHandler handler, TaskStatistics ts) {
+        for (AnalystClusterRequest clusterRequest : batch) {
+            TaskStatistics originStatistics = new TaskStatistics();
             try {
-                // TODO when router runs, if there are no transit modes defined it should just skip the transit work.
-                router.includeTimes = clusterRequest.includeTimes;
-                envelope = router.route();
-                envelope.id = clusterRequest.id;
-                ts.success = true;
+                handler.handle(clusterRequest, originStatistics);
             } catch (Exception ex) {
-                // An error occurred. Leave the envelope empty and TODO include error information.
-                LOG.error("Error occurred in profile request", ex);
-                ts.success = false;
+                LOG.error("An error occurred while handling task {}", clusterRequest.taskId, ex);
+                originStatistics.success = false;
             }
+            ts.accumulate(originStatistics);
+            ts.success &= originStatistics.success;
+        }
+    }
 
-            // Send the ResultEnvelope back to the user.
-            // The results are either stored on S3 (for multi-origin jobs) or sent back through the broker (for
-            // immediate interactive display of isochrones).
+    /**
+     * Route from the origin of one task and send its results back, either to S3 or through the broker.
+     * @param raptorWorkerData the RAPTOR data to use, or null to build throw-away data for this origin.
+     */
+    private void handleOrigin(AnalystClusterRequest clusterRequest, Graph graph, SampleSet sampleSet,
+            RaptorWorkerData raptorWorkerData, RaptorWorkspace workspace, TaskStatistics ts) throws IOException {
+
+        // Note that all parameters to create the Raptor worker data are passed in the constructor except ts.
+        // Why not pass in ts as well since this is a throwaway calculator?
+        RepeatedRaptorProfileRouter router =
+                new RepeatedRaptorProfileRouter(graph, clusterRequest.profileRequest, sampleSet);
+        router.ts = ts;
+        // If this is null, the worker will generate a one-time throw-away table.
+        router.raptorWorkerData = raptorWorkerData;
+        router.workspace = workspace;
+
+        // Run the core repeated-raptor analysis.
+        // This result envelope will contain the results of the one-to-many profile or single-departure-time search.
+        ResultEnvelope envelope = new ResultEnvelope();
+        try {
+            // TODO when router runs, if there are no transit modes defined it should just skip the transit work.
+            router.includeTimes = clusterRequest.includeTimes;
+            envelope = router.route();
             envelope.id = clusterRequest.id;
-            envelope.jobId = clusterRequest.jobId;
-            envelope.destinationPointsetId = clusterRequest.destinationPointsetId;
-            if (clusterRequest.outputLocation != null) {
-                // Convert the result envelope and its contents to JSON and gzip it in this thread.
-                // Transfer the results to Amazon S3 in another thread, piping between the two.
-                String s3key = String.join("/", clusterRequest.jobId, clusterRequest.id + ".json.gz");
-                PipedInputStream inPipe = new PipedInputStream();
-                PipedOutputStream outPipe = new PipedOutputStream(inPipe);
-                new Thread(() -> {
-                    s3.putObject(clusterRequest.outputLocation, s3key, inPipe, null);
-                }).start();
-                OutputStream gzipOutputStream = new GZIPOutputStream(outPipe);
-                // We could do the writeValue() in a thread instead, in which case both the DELETE and S3 options
-                // could consume it in the same way.
+            ts.success = true;
+        } catch (Exception ex) {
+            // An error occurred. Leave the envelope empty and TODO include error information.
+            LOG.error("Error occurred in profile request", ex);
+            ts.success = false;
+        }
+
+        // Send the ResultEnvelope back to the user.
+        // The results are either stored on S3 (for multi-origin jobs) or sent back through the broker (for
+        // immediate interactive display of isochrones).
+        envelope.id = clusterRequest.id;
+        envelope.jobId = clusterRequest.jobId;
+        envelope.destinationPointsetId = clusterRequest.destinationPointsetId;
+        if (clusterRequest.outputLocation != null) {
+            // Encode the result envelope into memory and upload it to Amazon S3 from this thread.
+            // Results are small enough to buffer, and this avoids starting a thread per result to drain a pipe.
+            // Giving the length up front also keeps the S3 client from buffering the stream a second time.
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            String s3key;
+            if (clusterRequest.outputFormat == AnalystClusterRequest.OutputFormat.BINARY) {
+                s3key = String.join("/", clusterRequest.jobId, clusterRequest.id + ResultEnvelopeBinaryFormat.FILE_EXTENSION);
+                ResultEnvelopeBinaryFormat.write(envelope, buffer);
+            } else {
+                s3key = String.join("/", clusterRequest.jobId, clusterRequest.id + ".json.gz");
+                OutputStream gzipOutputStream = new GZIPOutputStream(buffer);
                 objectMapper.writeValue(gzipOutputStream, envelope);
                 gzipOutputStream.close();
-                // Tell the broker the task has been handled and should not be re-delivered to another worker.
-                deleteRequest(clusterRequest);
-            } else {
-                // No output location was provided. Instead of saving the result on S3,
-                // return the result immediately via a connection held open by the broker and mark the task completed.
-                finishPriorityTask(clusterRequest, envelope);
             }
-
-            // Record information about the current task so we can analyze usage and efficiency over time.
-            ts.total = (int) (System.currentTimeMillis() - startTime);
-            statsStore.store(ts);
-
-        } catch (Exception ex) {
-            LOG.error("An error occurred while routing", ex);
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(buffer.size());
+            s3.putObject(clusterRequest.outputLocation, s3key, new ByteArrayInputStream(buffer.toByteArray()), metadata);
+            // Tell the broker the task has been handled and should not be re-delivered to another worker.
+            deleteRequest(clusterRequest);
+        } else {
+            // No output location was provided. Instead of saving the result on S3,
+            // return the result immediately via a connection held open by the broker and mark the task completed.
+            finishPriorityTask(clusterRequest, envelope);
         }
+    }
 
+    /**
+     * Split tasks into batches of at most batchSize tasks of the same job, in the order they were received. Tasks of
+     * the same job share their graph, destinations and RAPTOR data.
+     */
+    static List<List<AnalystClusterRequest>> makeBatches(List<AnalystClusterRequest> tasks, int batchSize) {
+        Map<String, List<AnalystClusterRequest>> tasksByJob = tasks.stream()
+                .collect(Collectors.groupingBy(t -> t.jobId, LinkedHashMap::new, Collectors.toList()));
+        List<List<AnalystClusterRequest>> batches = new ArrayList<>();
+        for (List<AnalystClusterRequest> jobTasks : tasksByJob.values()) {
+            for (int i = 0; i < jobTasks.size(); i += batchSize) {
+                batches.add(jobTasks.subList(i, Math.min(i + batchSize, jobTasks.size())));
+            }
+        }
+        return batches;
     }
 
     /** Open a single point channel to the broker to receive high-priority requests immediately */
@@ -619,6 +723,11 @@ public class AnalystWorker implements Runnable {
      * auto-shutdown                Should this worker shut down its machine if it is idle (e.g. on throwaway cloud instances)
      * statistics-queue             SQS queue to which to send statistics (optional)
      * initial-graph-id             The graph ID for this worker to start on
+     * raptor-data-cache            Directory in which to cache RAPTOR data, empty to cache in memory only
+     * raptor-data-cache-max-mb     The most disk space the RAPTOR data cache may use, default 10240
+     * sample-set-cache             Directory in which to save the linkage of pointsets to graphs, empty not to save it
+     * sample-set-cache-max-mb      The most disk space the saved linkage may use, default 2048
+     * batch-size                   The most tasks of the same job to handle together on one thread, default 4
      */
     public static void main(String[] args) {
         LOG.info("Starting analyst worker");
@@ -0,0 +1,86 @@
+package org.opentripplanner.analyst.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Helpers for the caches workers keep on local disk. A cache directory may be shared by several worker processes on
+ * the same machine, and may outlive any one of them, so files are written under unique temporary names and moved into
+ * place, and the directory is kept to a maximum size by deleting the least recently used files.
+ */
+public class DiskCacheFiles {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DiskCacheFiles.class);
+
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    /** Temporary files older than this were left behind by a worker that died while writing them. */
+    private static final long ABANDONED_TEMP_FILE_AGE_MSEC = 24 * 60 * 60 * 1000L;
+
+    /** Writes the contents of a cache file. */
+    public interface Writer {
+        void write (File file) throws IOException;
+    }
+
+    /**
+     * Write a file by writing a uniquely named temporary file in the same directory and moving it into place, so that
+     * other workers and restarts after a crash never see a partial file.
+     */
+    public static void writeAtomically (File file, Writer writer) throws IOException {
+        File temp = File.createTempFile(file.getName(), TEMP_EXTENSION, file.getParentFile());
+        try {
+            writer.write(temp);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // nothing to delete once the file has been moved into place
+            temp.delete();
+        }
+    }
+
+    /** Record that a cache file was used, so that it is among the last to be evicted. */
+    public static void touch (File file) {
+        file.setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Delete the least recently used files with the given extension in the given directory until the rest take up no
+     * more than maxBytes, along with any abandoned temporary files.
+     */
+    public static synchronized void evict (File dir, String extension, long maxBytes) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+
+        long now = System.currentTimeMillis();
+        long totalBytes = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_EXTENSION) && now - file.lastModified() > ABANDONED_TEMP_FILE_AGE_MSEC)
+                file.delete();
+            else if (file.getName().endsWith(extension))
+                totalBytes += file.length();
+        }
+        if (totalBytes <= maxBytes)
+            return;
+
+        File[] cached = dir.listFiles((d, name) -> name.endsWith(extension));
+        Arrays.sort(cached, Comparator.comparingLong(File::lastModified));
+        int nDeleted = 0;
+        for (File file : cached) {
+            if (totalBytes <= maxBytes)
+                break;
+            long length = file.length();
+            if (file.delete()) {
+                totalBytes -= length;
+                nDeleted++;
+            }
+        }
+        LOG.info("Evicted {} files from the cache in {}, which now holds {} MB", nDeleted, dir, totalBytes / 1024 / 1024);
+    }
+}
@@ -0,0 +1,48 @@
+package org.opentripplanner.analyst.cluster;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Identifies a graph and the numbering of its vertices, for caches of data that refer to vertices by index.
+ *
+ * Vertex indices depend on the order in which a graph was built (and on how many graphs this JVM built before it),
+ * so data built for one graph must never be used on a graph that numbers its vertices differently, even if both have
+ * the same ID. The fingerprint is a hash of the index and label of every vertex.
+ */
+public class GraphFingerprint {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GraphFingerprint.class);
+
+    /** Fingerprints of the graphs seen so far; weak so that replaced graphs can be garbage collected. */
+    private static final Map<Graph, String> fingerprints = new WeakHashMap<>();
+
+    /** @return the fingerprint of the given graph, computed once per graph. */
+    public static synchronized String get (Graph graph) {
+        String fingerprint = fingerprints.get(graph);
+        if (fingerprint == null) {
+            long start = System.currentTimeMillis();
+            List<Vertex> vertices = new ArrayList<>(graph.getVertices());
+            vertices.sort(Comparator.comparingInt(Vertex::getIndex));
+            Hasher hasher = Hashing.sha256().newHasher();
+            for (Vertex vertex : vertices) {
+                hasher.putInt(vertex.getIndex()).putString(vertex.getLabel(), StandardCharsets.UTF_8);
+            }
+            fingerprint = hasher.hash().toString();
+            fingerprints.put(graph, fingerprint);
+            LOG.info("Fingerprinted {} vertices in {} msec", vertices.size(), System.currentTimeMillis() - start);
+        }
+        return fingerprint;
+    }
+}
@@ -60,22 +60,7 @@ public class JobSimulator {
         mapper.registerModule(JodaLocalDateSerializer.makeModule());
         mapper.registerModule(TraverseModeSetSerializer.makeModule());
 
-        List<AnalystClusterRequest> requests = new ArrayList<>();
-
-        IntStream.range(0, nOrigins).forEach(i -> {
-            // Enqueue one fake origin
-            ProfileRequest profileRequest = new ProfileRequest();
-            profileRequest.fromLat = 45.515;
-            profileRequest.fromLon = -122.643;
-            profileRequest.transitModes = null; //new TraverseModeSet(TraverseMode.TRANSIT);
-            // profileRequest.accessModes ...
-            AnalystClusterRequest clusterRequest = new AnalystClusterRequest(pointSetId, graphId, profileRequest);
-            clusterRequest.jobId = jobId;
-            clusterRequest.id = Integer.toString(i);
-            clusterRequest.outputLocation = s3prefix + "_output";
-            clusterRequest.destinationPointsetId = pointSetId;
-            requests.add(clusterRequest);
-        });
+        List<AnalystClusterRequest> requests = makeFakeRequests(jobId);
 
 //        try {
 //            objectMapper.writeValue(System.out, requests);
@@ -97,6 +82,29 @@ public class JobSimulator {
 
     }
 
+    /** Make one fake request per origin, all in the given job. */
+    public List<AnalystClusterRequest> makeFakeRequests(String jobId) {
+
+        List<AnalystClusterRequest> requests = new ArrayList<>();
+
+        IntStream.range(0, nOrigins).forEach(i -> {
+            // Enqueue one fake origin
+            ProfileRequest profileRequest = new ProfileRequest();
+            profileRequest.fromLat = 45.515;
+            profileRequest.fromLon = -122.643;
+            profileRequest.transitModes = null; //new TraverseModeSet(TraverseMode.TRANSIT);
+            // profileRequest.accessModes ...
+            AnalystClusterRequest clusterRequest = new AnalystClusterRequest(pointSetId, graphId, profileRequest);
+            clusterRequest.jobId = jobId;
+            clusterRequest.id = Integer.toString(i);
+            clusterRequest.outputLocation = s3prefix + "_output";
+            clusterRequest.destinationPointsetId = pointSetId;
+            requests.add(clusterRequest);
+        });
+
+        return requests;
+    }
+
     public static String compactUUID() {
         UUID uuid = UUID.randomUUID();
         byte[] bytes = new byte[16];
@@ -11,7 +11,10 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.io.ByteStreams;
 import org.apache.commons.io.FileUtils;
 import org.opentripplanner.analyst.PointSet;
+import org.opentripplanner.analyst.PointSetBinaryFormat;
 import org.opentripplanner.analyst.PointSetCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -26,6 +29,8 @@ import java.util.zip.GZIPOutputStream;
  */
 public class PointSetDatastore extends PointSetCache {
 
+	private static final Logger LOG = LoggerFactory.getLogger(PointSetDatastore.class);
+
 	static private File POINT_DIR = new File("cache", "pointsets");
 	private String pointsetBucket;
 	
@@ -149,9 +154,25 @@ public class PointSetDatastore extends PointSetCache {
 			
 			
 			
-			// grab it from the cache
-			
-			return PointSet.fromGeoJson(cachedFile);	
+			// grab it from the cache, in the binary format if it has already been converted as it is much faster to load
+			File binaryFile = new File(POINT_DIR, pointSetId + PointSetBinaryFormat.FILE_EXTENSION);
+			if (binaryFile.exists() && binaryFile.lastModified() >= cachedFile.lastModified()) {
+				try {
+					return PointSetBinaryFormat.read(binaryFile);
+				} catch (IOException e) {
+					LOG.warn("Unable to read binary pointset {}, loading GeoJSON instead", binaryFile, e);
+				}
+			}
+
+			PointSet pointSet = PointSet.fromGeoJson(cachedFile);
+			if (pointSet != null) {
+				try {
+					DiskCacheFiles.writeAtomically(binaryFile, temp -> PointSetBinaryFormat.write(pointSet, temp));
+				} catch (IOException e) {
+					LOG.warn("Unable to save binary pointset {}", binaryFile, e);
+				}
+			}
+			return pointSet;
 		}
 	}
 
@@ -0,0 +1,175 @@
+package org.opentripplanner.analyst.cluster;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.opentripplanner.analyst.SampleSet;
+import org.opentripplanner.analyst.scenario.AddTripPattern;
+import org.opentripplanner.analyst.scenario.Scenario;
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.profile.ProfileRequest;
+import org.opentripplanner.profile.RaptorWorkerData;
+import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Caches RaptorWorkerData in memory and on local disk, keyed on everything the data is built from rather than on the
+ * job that asked for it. New jobs on the same graph, pointset, time window and scenario reuse the tables built for
+ * earlier ones, and so do workers restarted on the same machine.
+ *
+ * RaptorWorkerData refers to vertices by index, so the key includes the GraphFingerprint and tables are never reused
+ * on a graph that numbers its vertices differently.
+ */
+public class RaptorWorkerDataCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorWorkerDataCache.class);
+
+    public static final String DEFAULT_CACHE_DIR = "raptor_data_cache";
+
+    /** RAPTOR data for a city-sized graph and pointset run to a few hundred megabytes. */
+    public static final long DEFAULT_MAX_DISK_MB = 10 * 1024;
+
+    private static final String FILE_EXTENSION = ".dat";
+
+    /** Directory holding serialized RaptorWorkerData, or null to cache in memory only. */
+    private final File cacheDir;
+
+    /** The most the files in cacheDir may add up to, after which the least recently used are deleted. */
+    private final long maxDiskBytes;
+
+    private final Cache<String, RaptorWorkerData> memoryCache = CacheBuilder.newBuilder()
+            .maximumSize(200)
+            .build();
+
+    public RaptorWorkerDataCache (File cacheDir) {
+        this(cacheDir, DEFAULT_MAX_DISK_MB);
+    }
+
+    public RaptorWorkerDataCache (File cacheDir, long maxDiskMb) {
+        this.cacheDir = cacheDir;
+        this.maxDiskBytes = maxDiskMb * 1024 * 1024;
+        if (cacheDir != null) {
+            cacheDir.mkdirs();
+            LOG.info("Caching up to {} MB of RAPTOR data in {}", maxDiskMb, cacheDir.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Return the RAPTOR data for the given request, from memory or disk if it has already been built, building it
+     * (and saving it) otherwise. Concurrent requests for the same data wait for a single build.
+     */
+    public RaptorWorkerData get (String graphId, Graph graph, String pointSetId, ProfileRequest request,
+            SampleSet sampleSet, TaskStatistics ts) throws ExecutionException {
+        String key = getKey(graphId, graph, pointSetId, request);
+        return memoryCache.get(key, () -> {
+            boolean persist = cacheDir != null && isPersistable(request);
+            File file = persist ? new File(cacheDir, key + FILE_EXTENSION) : null;
+
+            if (persist && file.exists()) {
+                RaptorWorkerData data = read(file);
+                if (data != null) {
+                    DiskCacheFiles.touch(file);
+                    return data;
+                }
+            }
+
+            RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(request, graph, sampleSet, ts);
+            if (persist) {
+                write(data, file);
+                DiskCacheFiles.evict(cacheDir, FILE_EXTENSION, maxDiskBytes);
+            }
+            return data;
+        });
+    }
+
+    /**
+     * Make a key identifying everything RaptorWorkerData is built from: the graph and the numbering of its vertices,
+     * the destination pointset, the time window, the walk parameters, the boarding assumption and the scenario. The
+     * origin is deliberately not part of it, as the data are the same for every origin of a job.
+     */
+    public String getKey (String graphId, Graph graph, String pointSetId, ProfileRequest request) {
+        Hasher hasher = Hashing.sha256().newHasher()
+                .putString(String.valueOf(MavenVersion.VERSION.commit), StandardCharsets.UTF_8)
+                .putString(String.valueOf(graphId), StandardCharsets.UTF_8)
+                .putString(GraphFingerprint.get(graph), StandardCharsets.UTF_8)
+                .putString(String.valueOf(pointSetId), StandardCharsets.UTF_8)
+                .putString(String.valueOf(request.date), StandardCharsets.UTF_8)
+                .putInt(request.fromTime)
+                .putInt(request.toTime)
+                .putFloat(request.walkSpeed)
+                .putInt(request.maxWalkTime)
+                .putString(String.valueOf(request.boardingAssumption), StandardCharsets.UTF_8)
+                .putBytes(serializeScenario(request.scenario));
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Scenarios are Serializable but not necessarily comparable, so we hash their serialized form.
+     * Null scenarios hash to an empty array.
+     */
+    private static byte[] serializeScenario (Scenario scenario) {
+        if (scenario == null)
+            return new byte[0];
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(scenario);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to serialize scenario for cache key", e);
+        }
+    }
+
+    /**
+     * Added trip patterns create temporary stops that live in the graph rather than in the RAPTOR data, and which
+     * are not serializable, so data for scenarios that add patterns are only cached in memory.
+     */
+    private static boolean isPersistable (ProfileRequest request) {
+        return request.scenario == null || request.scenario.modifications == null ||
+                Iterables.isEmpty(Iterables.filter(request.scenario.modifications, AddTripPattern.class));
+    }
+
+    /** @return the data in the given file, or null (deleting the file) if it cannot be read. */
+    private static RaptorWorkerData read (File file) {
+        long start = System.currentTimeMillis();
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            RaptorWorkerData data = (RaptorWorkerData) in.readObject();
+            LOG.info("Loaded RAPTOR data from {} in {} msec", file, System.currentTimeMillis() - start);
+            return data;
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            LOG.warn("Unable to read cached RAPTOR data from {}, rebuilding it", file, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /** Save the data to the given file, see DiskCacheFiles.writeAtomically. */
+    private static void write (RaptorWorkerData data, File file) {
+        try {
+            DiskCacheFiles.writeAtomically(file, temp -> {
+                try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                    out.writeObject(data);
+                }
+            });
+        } catch (IOException e) {
+            LOG.warn("Unable to save RAPTOR data to {}", file, e);
+        }
+    }
+}
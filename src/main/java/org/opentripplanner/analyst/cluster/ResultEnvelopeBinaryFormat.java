@@ -0,0 +1,199 @@
+package org.opentripplanner.analyst.cluster;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+import org.opentripplanner.analyst.Histogram;
+import org.opentripplanner.analyst.ResultSet;
+import org.opentripplanner.analyst.core.IsochroneData;
+import org.opentripplanner.common.geometry.GeometryUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A compact binary encoding of ResultEnvelopes, as an alternative to gzipped JSON for the output of batch jobs.
+ * Most of a result envelope for a grid pointset is large arrays of travel times and histogram bins whose neighboring
+ * values are close to one another, so each array is stored as the differences between successive values, in
+ * zigzag varints (the variable length integers of protocol buffers). This is much smaller than JSON and much
+ * cheaper to produce than gzipping it.
+ *
+ * The layout is as follows; all integers are varints, strings are length-prefixed UTF-8 and nullable values are
+ * preceded by a boolean telling whether they are present.
+ *
+ * <pre>
+ * "OTPRESULT" version
+ * id? jobId? destinationPointsetId? profile
+ * for each ResultEnvelope.Which in declaration order: resultSet?
+ *
+ * resultSet: id? times? nHistograms (key counts? sums?)* nIsochrones (cutoffSec wkbGeometry)*
+ * int array: length, then the differences between successive values
+ * </pre>
+ *
+ * Unreachable times (Integer.MAX_VALUE) are stored as zero and every other time as the time plus one, so that they
+ * do not break up runs of small differences.
+ */
+public class ResultEnvelopeBinaryFormat {
+
+    private static final byte[] HEADER = "OTPRESULT".getBytes(StandardCharsets.US_ASCII);
+
+    /** Increment this when the layout changes. Readers reject versions they do not know. */
+    public static final int VERSION = 1;
+
+    public static final String FILE_EXTENSION = ".dat";
+
+    public static void write (ResultEnvelope envelope, OutputStream outputStream) throws IOException {
+        CodedOutputStream out = CodedOutputStream.newInstance(outputStream);
+        out.writeRawBytes(HEADER);
+        out.writeUInt32NoTag(VERSION);
+        writeString(out, envelope.id);
+        writeString(out, envelope.jobId);
+        writeString(out, envelope.destinationPointsetId);
+        out.writeBoolNoTag(envelope.profile);
+        for (ResultEnvelope.Which which : ResultEnvelope.Which.values()) {
+            ResultSet resultSet = envelope.get(which);
+            out.writeBoolNoTag(resultSet != null);
+            if (resultSet != null)
+                writeResultSet(out, resultSet);
+        }
+        out.flush();
+    }
+
+    public static ResultEnvelope read (InputStream inputStream) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(inputStream);
+        // results for large pointsets can exceed the default 64MB message size limit
+        in.setSizeLimit(Integer.MAX_VALUE);
+
+        if (!Arrays.equals(HEADER, in.readRawBytes(HEADER.length)))
+            throw new IOException("Not a binary result envelope");
+        int version = in.readUInt32();
+        if (version != VERSION)
+            throw new IOException(String.format("Unsupported binary result envelope version %d, expected %d", version, VERSION));
+
+        ResultEnvelope envelope = new ResultEnvelope();
+        envelope.id = readString(in);
+        envelope.jobId = readString(in);
+        envelope.destinationPointsetId = readString(in);
+        envelope.profile = in.readBool();
+        for (ResultEnvelope.Which which : ResultEnvelope.Which.values()) {
+            if (in.readBool())
+                envelope.put(which, readResultSet(in));
+        }
+        return envelope;
+    }
+
+    private static void writeResultSet (CodedOutputStream out, ResultSet resultSet) throws IOException {
+        writeString(out, resultSet.id);
+
+        int[] shifted = null;
+        if (resultSet.times != null) {
+            shifted = new int[resultSet.times.length];
+            for (int i = 0; i < shifted.length; i++) {
+                int time = resultSet.times[i];
+                shifted[i] = time == Integer.MAX_VALUE ? 0 : time + 1;
+            }
+        }
+        writeDeltas(out, shifted);
+
+        // sort the histograms by key so that the same results always produce the same bytes
+        Map<String, Histogram> histograms = resultSet.histograms == null ? new TreeMap<>() : new TreeMap<>(resultSet.histograms);
+        out.writeUInt32NoTag(histograms.size());
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            out.writeStringNoTag(entry.getKey());
+            writeDeltas(out, entry.getValue().counts);
+            writeDeltas(out, entry.getValue().sums);
+        }
+
+        IsochroneData[] isochrones = resultSet.isochrones == null ? new IsochroneData[0] : resultSet.isochrones;
+        out.writeUInt32NoTag(isochrones.length);
+        WKBWriter wkbWriter = new WKBWriter();
+        for (IsochroneData isochrone : isochrones) {
+            out.writeUInt32NoTag(isochrone.cutoffSec);
+            out.writeBytesNoTag(ByteString.copyFrom(wkbWriter.write(isochrone.geometry)));
+        }
+    }
+
+    private static ResultSet readResultSet (CodedInputStream in) throws IOException {
+        ResultSet resultSet = new ResultSet();
+        resultSet.id = readString(in);
+
+        int[] times = readDeltas(in);
+        if (times != null) {
+            for (int i = 0; i < times.length; i++) {
+                times[i] = times[i] == 0 ? Integer.MAX_VALUE : times[i] - 1;
+            }
+            resultSet.times = times;
+        }
+
+        int nHistograms = in.readUInt32();
+        resultSet.histograms = new HashMap<>();
+        for (int i = 0; i < nHistograms; i++) {
+            String key = in.readString();
+            Histogram histogram = new Histogram();
+            histogram.counts = readDeltas(in);
+            histogram.sums = readDeltas(in);
+            resultSet.histograms.put(key, histogram);
+        }
+
+        int nIsochrones = in.readUInt32();
+        if (nIsochrones > 0) {
+            resultSet.isochrones = new IsochroneData[nIsochrones];
+            WKBReader wkbReader = new WKBReader(GeometryUtils.getGeometryFactory());
+            for (int i = 0; i < nIsochrones; i++) {
+                int cutoffSec = in.readUInt32();
+                try {
+                    resultSet.isochrones[i] = new IsochroneData(cutoffSec, wkbReader.read(in.readBytes().toByteArray()));
+                } catch (ParseException e) {
+                    throw new IOException("Invalid isochrone geometry", e);
+                }
+            }
+        }
+
+        return resultSet;
+    }
+
+    /** Write a nullable int array as its length and the differences between successive values. */
+    private static void writeDeltas (CodedOutputStream out, int[] values) throws IOException {
+        out.writeBoolNoTag(values != null);
+        if (values == null)
+            return;
+        out.writeUInt32NoTag(values.length);
+        int previous = 0;
+        for (int value : values) {
+            // overflow wraps around and is undone by the same wrap-around when reading
+            out.writeSInt32NoTag(value - previous);
+            previous = value;
+        }
+    }
+
+    private static int[] readDeltas (CodedInputStream in) throws IOException {
+        if (!in.readBool())
+            return null;
+        int[] values = new int[in.readUInt32()];
+        int previous = 0;
+        for (int i = 0; i < values.length; i++) {
+            previous += in.readSInt32();
+            values[i] = previous;
+        }
+        return values;
+    }
+
+    private static void writeString (CodedOutputStream out, String value) throws IOException {
+        out.writeBoolNoTag(value != null);
+        if (value != null)
+            out.writeStringNoTag(value);
+    }
+
+    private static String readString (CodedInputStream in) throws IOException {
+        return in.readBool() ? in.readString() : null;
+    }
+}
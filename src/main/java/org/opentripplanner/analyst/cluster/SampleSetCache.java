@@ -0,0 +1,169 @@
+package org.opentripplanner.analyst.cluster;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.opentripplanner.analyst.PointSet;
+import org.opentripplanner.analyst.SampleSet;
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Saves the linkage of pointsets to the street network on local disk, so that a worker starting on a pointset it (or
+ * another worker sharing the directory) has already linked to the same graph loads the samples rather than linking
+ * millions of points again.
+ *
+ * Samples are saved as vertex indices and distances, keyed on the pointset ID and coordinates and on the graph ID and
+ * GraphFingerprint. A rebuilt graph that numbers its vertices differently, or a pointset whose points have moved,
+ * gets a different key and is linked again. Within a JVM, the sample sets are kept in their pointset, which replaces
+ * them when the graph object changes.
+ */
+public class SampleSetCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SampleSetCache.class);
+
+    public static final String DEFAULT_CACHE_DIR = "sample_set_cache";
+
+    /** Linkage takes 16 bytes per point, so this holds over a hundred pointsets of a million points. */
+    public static final long DEFAULT_MAX_DISK_MB = 2 * 1024;
+
+    private static final String FILE_EXTENSION = ".dat";
+
+    /** Index stored in place of a missing vertex. */
+    private static final int NO_VERTEX = -1;
+
+    /** Directory holding saved samples, or null to keep them in memory only. */
+    private final File cacheDir;
+
+    /** The most the files in cacheDir may add up to, after which the least recently used are deleted. */
+    private final long maxDiskBytes;
+
+    public SampleSetCache (File cacheDir) {
+        this(cacheDir, DEFAULT_MAX_DISK_MB);
+    }
+
+    public SampleSetCache (File cacheDir, long maxDiskMb) {
+        this.cacheDir = cacheDir;
+        this.maxDiskBytes = maxDiskMb * 1024 * 1024;
+        if (cacheDir != null) {
+            cacheDir.mkdirs();
+            LOG.info("Caching up to {} MB of pointset linkage in {}", maxDiskMb, cacheDir.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Return the sample set linking the given pointset to the given graph: the one already in the pointset if it was
+     * made for this graph, otherwise one loaded from disk, otherwise a newly linked one (which is then saved).
+     */
+    public SampleSet get (String pointSetId, String graphId, Graph graph, PointSet pointSet) {
+        return pointSet.getOrCreateSampleSet(graph, () -> {
+            if (cacheDir == null)
+                return new SampleSet(pointSet, graph.getSampleFactory());
+
+            File file = new File(cacheDir, getKey(pointSetId, graphId, graph, pointSet) + FILE_EXTENSION);
+            if (file.exists()) {
+                SampleSet sampleSet = read(file, pointSet, graph);
+                if (sampleSet != null) {
+                    DiskCacheFiles.touch(file);
+                    return sampleSet;
+                }
+            }
+
+            SampleSet sampleSet = new SampleSet(pointSet, graph.getSampleFactory());
+            write(sampleSet, file);
+            DiskCacheFiles.evict(cacheDir, FILE_EXTENSION, maxDiskBytes);
+            return sampleSet;
+        });
+    }
+
+    /**
+     * Make a key identifying everything the samples depend on: the code linking them, the graph and the numbering of
+     * its vertices, and the pointset and the position of its points.
+     */
+    public String getKey (String pointSetId, String graphId, Graph graph, PointSet pointSet) {
+        Hasher hasher = Hashing.sha256().newHasher()
+                .putString(String.valueOf(MavenVersion.VERSION.commit), StandardCharsets.UTF_8)
+                .putString(String.valueOf(graphId), StandardCharsets.UTF_8)
+                .putString(GraphFingerprint.get(graph), StandardCharsets.UTF_8)
+                .putString(String.valueOf(pointSetId), StandardCharsets.UTF_8)
+                .putInt(pointSet.capacity);
+        for (int i = 0; i < pointSet.capacity; i++) {
+            hasher.putDouble(pointSet.getLat(i)).putDouble(pointSet.getLon(i));
+        }
+        return hasher.hash().toString();
+    }
+
+    /** @return the samples in the given file, or null (deleting the file) if it cannot be read. */
+    private static SampleSet read (File file, PointSet pointSet, Graph graph) {
+        long start = System.currentTimeMillis();
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int[] v0Indices = (int[]) in.readObject();
+            int[] v1Indices = (int[]) in.readObject();
+            float[] d0s = (float[]) in.readObject();
+            float[] d1s = (float[]) in.readObject();
+            if (v0Indices.length != pointSet.capacity)
+                throw new IOException("Saved samples do not match the pointset");
+
+            Vertex[] verticesByIndex = new Vertex[Vertex.getMaxIndex()];
+            for (Vertex vertex : graph.getVertices()) {
+                verticesByIndex[vertex.getIndex()] = vertex;
+            }
+            SampleSet sampleSet = new SampleSet(pointSet, graph, toVertices(v0Indices, verticesByIndex),
+                    toVertices(v1Indices, verticesByIndex), d0s, d1s);
+            LOG.info("Loaded {} samples from {} in {} msec", pointSet.capacity, file, System.currentTimeMillis() - start);
+            return sampleSet;
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            LOG.warn("Unable to read cached samples from {}, linking the pointset again", file, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /** Save the samples to the given file, see DiskCacheFiles.writeAtomically. */
+    private static void write (SampleSet sampleSet, File file) {
+        try {
+            DiskCacheFiles.writeAtomically(file, temp -> {
+                try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                    out.writeObject(toIndices(sampleSet.v0s));
+                    out.writeObject(toIndices(sampleSet.v1s));
+                    out.writeObject(sampleSet.d0s);
+                    out.writeObject(sampleSet.d1s);
+                }
+            });
+        } catch (IOException e) {
+            LOG.warn("Unable to save samples to {}", file, e);
+        }
+    }
+
+    private static int[] toIndices (Vertex[] vertices) {
+        int[] indices = new int[vertices.length];
+        for (int i = 0; i < vertices.length; i++) {
+            indices[i] = vertices[i] == null ? NO_VERTEX : vertices[i].getIndex();
+        }
+        return indices;
+    }
+
+    private static Vertex[] toVertices (int[] indices, Vertex[] verticesByIndex) throws IOException {
+        Vertex[] vertices = new Vertex[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            if (indices[i] == NO_VERTEX)
+                continue;
+            if (indices[i] < 0 || indices[i] >= verticesByIndex.length || verticesByIndex[indices[i]] == null)
+                throw new IOException("Saved samples refer to a vertex that is not in the graph");
+            vertices[i] = verticesByIndex[indices[i]];
+        }
+        return vertices;
+    }
+}
@@ -5,7 +5,7 @@ import org.opentripplanner.common.MavenVersion;
 import java.io.Serializable;
 
 /**
- * Statistics about running a single task.
+ * Statistics about running a single task, or a batch of tasks handled together (see batchSize).
  * TODO add markField functions: "field = System.currentTimeMillis() - field;"
  * Every time it's called after the first time will record the elapsed time, assuming fields are initialized to 0.
  */
@@ -109,6 +109,12 @@ public class TaskStatistics implements Serializable{
     /** was this a single-point request */
     public boolean single;
 
+    /**
+     * number of tasks handled together in the batch these statistics describe. For batches of more than one task the
+     * timings and counts are totals over the batch, and the origin is that of the first task.
+     */
+    public int batchSize = 1;
+
     /** OTP commit used for computation */
     public String otpCommit;
 
@@ -119,4 +125,38 @@ public class TaskStatistics implements Serializable{
         otpCommit = MavenVersion.VERSION.commit;
         computeDate = System.currentTimeMillis();
     }
+
+    /**
+     * Add the timings and counts of one task of a batch to these statistics of the whole batch. Fields describing the
+     * data and the graph, which are the same for the whole batch, are taken from the first task.
+     */
+    public void accumulate (TaskStatistics task) {
+        compute = sum(compute, task.compute);
+        stopTreeCaching = sum(stopTreeCaching, task.stopTreeCaching);
+        transitSearch = sum(transitSearch, task.transitSearch);
+        initialStopSearch = sum(initialStopSearch, task.initialStopSearch);
+        walkSearch = sum(walkSearch, task.walkSearch);
+        propagation = sum(propagation, task.propagation);
+        resultSets = sum(resultSets, task.resultSets);
+        raptorData += task.raptorData;
+        searchCount += task.searchCount;
+        initialStopCount = sum(initialStopCount, task.initialStopCount);
+        targetsReached += task.targetsReached;
+        if (stopCount == -1) {
+            stopCount = task.stopCount;
+            patternCount = task.patternCount;
+            targetCount = task.targetCount;
+            scheduledTripCount = task.scheduledTripCount;
+            frequencyTripCount = task.frequencyTripCount;
+            frequencyEntryCount = task.frequencyEntryCount;
+            timeStep = task.timeStep;
+        }
+    }
+
+    /** Add two timings or counts, either of which may be -1 meaning not measured. */
+    private static int sum (int a, int b) {
+        if (a == -1) return b;
+        if (b == -1) return a;
+        return a + b;
+    }
 }
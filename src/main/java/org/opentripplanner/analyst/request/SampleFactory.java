@@ -49,6 +49,10 @@ public class SampleFactory implements SampleSource {
     /** When are two vertices considered equidistant and the origin should be moved slightly to avoid numerical issues? */
     private final double EPSILON = 1e-10;
 
+    public Graph getGraph() {
+        return graph;
+    }
+
     public void setSearchRadiusM(double radiusMeters) {
         this.searchRadiusM = radiusMeters;
         this.searchRadiusLat = SphericalDistanceLibrary.metersToDegrees(searchRadiusM);
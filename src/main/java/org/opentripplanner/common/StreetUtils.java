@@ -15,6 +15,8 @@ package org.opentripplanner.common;
 
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.Polygon;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import org.opentripplanner.common.geometry.Subgraph;
 import org.opentripplanner.graph_builder.annotation.GraphConnectivity;
 import org.opentripplanner.routing.core.RoutingRequest;
@@ -26,12 +28,14 @@ import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.routing.vertextype.TransitVertex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.PrintWriter;
 import java.util.*;
+import java.util.stream.Collectors;
 
 public class StreetUtils {
 
@@ -52,93 +56,181 @@ public class StreetUtils {
         if (islandLog != null) {
             islandLog.printf("%s\t%s\t%s\t%s\t%s\n","id","stopCount", "streetCount","wkt" ,"hadRemoved");
         }
-        Map<Vertex, Subgraph> subgraphs = new HashMap<Vertex, Subgraph>();
-        Map<Vertex, ArrayList<Vertex>> neighborsForVertex = new HashMap<Vertex, ArrayList<Vertex>>();
-
 //        RoutingRequest options = new RoutingRequest(new TraverseModeSet(TraverseMode.WALK, TraverseMode.TRANSIT));
         RoutingRequest options = new RoutingRequest(new TraverseModeSet(TraverseMode.WALK));
 
-        for (Vertex gv : graph.getVertices()) {
-            if (!(gv instanceof StreetVertex)) {
-                continue;
+        // Work on vertex indices rather than vertex objects. Indices are assigned sequentially when vertices are
+        // created, so within one graph they fall in a compact range that can address primitive arrays.
+        Collection<Vertex> vertices = graph.getVertices();
+        int minIndex = Integer.MAX_VALUE;
+        int maxIndex = -1;
+        for (Vertex v : vertices) {
+            minIndex = Math.min(minIndex, v.getIndex());
+            maxIndex = Math.max(maxIndex, v.getIndex());
+        }
+        if (maxIndex < 0) {
+            if (islandLog != null) {
+                islandLog.close();
             }
-            State s0 = new State(gv, options);
-            for (Edge e : gv.getOutgoing()) {
-                Vertex in = gv;
-                if (!(e instanceof StreetEdge || e instanceof StreetTransitLink || 
-                      e instanceof ElevatorEdge || e instanceof FreeEdge)) {
-                    continue;
-                }
-                State s1 = e.traverse(s0);
-                if (s1 == null) {
-                    continue;
-                }
-                Vertex out = s1.getVertex();
+            return;
+        }
+        final int offset = minIndex;
+        Vertex[] vertexForIndex = new Vertex[maxIndex - minIndex + 1];
+        for (Vertex v : vertices) {
+            vertexForIndex[v.getIndex() - offset] = v;
+        }
 
-                ArrayList<Vertex> vertexList = neighborsForVertex.get(in);
-                if (vertexList == null) {
-                    vertexList = new ArrayList<Vertex>();
-                    neighborsForVertex.put(in, vertexList);
-                }
-                vertexList.add(out);
+        // Traversing the edges is the expensive part and doesn't modify anything, so find the neighbors of all street
+        // vertices in parallel. Each vertex gets the indices of the vertices reachable from it in one step.
+        List<Vertex> streetVertices = vertices.stream()
+                .filter(v -> v instanceof StreetVertex)
+                .collect(Collectors.toList());
+        List<int[]> neighbors = streetVertices.parallelStream()
+                .map(v -> walkableNeighbors(v, options, offset))
+                .collect(Collectors.toList());
 
-                vertexList = neighborsForVertex.get(out);
-                if (vertexList == null) {
-                    vertexList = new ArrayList<Vertex>();
-                    neighborsForVertex.put(out, vertexList);
+        // Union-find over vertex indices, with union by size and path halving. Negative values are roots, holding
+        // minus the size of the set. Vertices that have no walkable edge in either direction are not part of any
+        // subgraph.
+        int[] parent = new int[vertexForIndex.length];
+        Arrays.fill(parent, -1);
+        BitSet connected = new BitSet(vertexForIndex.length);
+        for (int i = 0; i < streetVertices.size(); i++) {
+            int from = streetVertices.get(i).getIndex() - offset;
+            for (int to : neighbors.get(i)) {
+                if (to < 0 || to >= vertexForIndex.length || vertexForIndex[to] == null) {
+                    continue;
                 }
-                vertexList.add(in);
+                connected.set(from);
+                connected.set(to);
+                union(parent, from, to);
             }
         }
 
-        ArrayList<Subgraph> islands = new ArrayList<Subgraph>();
-        /* associate each node with a subgraph */
-        for (Vertex gv : graph.getVertices()) {
-            if (!(gv instanceof StreetVertex)) {
-                continue;
+        /* count the street vertices and stops in each subgraph, keyed by the root of its set */
+        int[] streetCount = new int[vertexForIndex.length];
+        int[] stopCount = new int[vertexForIndex.length];
+        for (int i = connected.nextSetBit(0); i >= 0; i = connected.nextSetBit(i + 1)) {
+            int root = find(parent, i);
+            if (vertexForIndex[i] instanceof TransitVertex) {
+                stopCount[root]++;
+            } else {
+                streetCount[root]++;
             }
-            Vertex vertex = gv;
-            if (subgraphs.containsKey(vertex)) {
+        }
+
+        /* decide the fate of each subgraph, in graph vertex order as before */
+        TIntList roots = new TIntArrayList();
+        BitSet seen = new BitSet(vertexForIndex.length);
+        BitSet removed = new BitSet(vertexForIndex.length);
+        for (Vertex v : streetVertices) {
+            int i = v.getIndex() - offset;
+            if (!connected.get(i)) {
                 continue;
             }
-            if (!neighborsForVertex.containsKey(vertex)) {
+            int root = find(parent, i);
+            if (seen.get(root)) {
                 continue;
             }
-            Subgraph subgraph = computeConnectedSubgraph(neighborsForVertex, vertex);
-            if (subgraph != null){
-                for (Iterator<Vertex> vIter = subgraph.streetIterator(); vIter.hasNext();) {
-                    Vertex subnode = vIter.next();
-                    subgraphs.put(subnode, subgraph);
+            seen.set(root);
+            roots.add(root);
+            if (stopCount[root] > 0) {
+                //for islands with stops
+                if (streetCount[root] < islandWithStopMaxSize) {
+                    removed.set(root);
+                }
+            } else {
+                //for islands without stops
+                if (streetCount[root] < maxIslandSize) {
+                    removed.set(root);
                 }
-                islands.add(subgraph);
             }
         }
-        LOG.info(islands.size() + " sub graphs found");
+        LOG.info(roots.size() + " sub graphs found, " + removed.cardinality() + " to be pruned");
+
+        /* only build the full subgraphs we need: the ones being removed, or all of them if they are to be logged */
+        Map<Integer, Subgraph> islands = new LinkedHashMap<Integer, Subgraph>();
+        for (int r = 0; r < roots.size(); r++) {
+            int root = roots.get(r);
+            if (islandLog != null || removed.get(root)) {
+                islands.put(root, new Subgraph());
+            }
+        }
+        for (int i = connected.nextSetBit(0); i >= 0; i = connected.nextSetBit(i + 1)) {
+            Subgraph island = islands.get(find(parent, i));
+            if (island != null) {
+                island.addVertex(vertexForIndex[i]);
+            }
+        }
+
         /* remove all tiny subgraphs and large subgraphs without stops */
-        for (Subgraph island : islands) {
-            boolean hadRemoved = false;
-            if(island.stopSize() > 0){
-            //for islands with stops
-                if (island.streetSize() < islandWithStopMaxSize) {
-                    depedestrianizeOrRemove(graph, island);
-                    hadRemoved = true;
-                }
-            }else{
-            //for islands without stops
-                if (island.streetSize() < maxIslandSize) {
-                    depedestrianizeOrRemove(graph, island);
-                    hadRemoved = true;
-                }
+        for (Map.Entry<Integer, Subgraph> entry : islands.entrySet()) {
+            Subgraph island = entry.getValue();
+            boolean hadRemoved = removed.get(entry.getKey());
+            if (hadRemoved) {
+                depedestrianizeOrRemove(graph, island);
             }
             if (islandLog != null) {
                 WriteNodesInSubGraph(island, islandLog, hadRemoved);
             }
         }
+        if (islandLog != null) {
+            islandLog.close();
+        }
         if (graph.removeEdgelessVertices() > 0) {
             LOG.warn("Removed edgeless vertices after pruning islands");
         }
     }
 
+    /**
+     * Return the indices (offset by the given amount) of the vertices that can be reached by walking a single street,
+     * transit link, elevator or free edge out of this vertex.
+     */
+    private static int[] walkableNeighbors(Vertex gv, RoutingRequest options, int offset) {
+        TIntList ret = new TIntArrayList();
+        State s0 = new State(gv, options);
+        for (Edge e : gv.getOutgoing()) {
+            if (!(e instanceof StreetEdge || e instanceof StreetTransitLink ||
+                  e instanceof ElevatorEdge || e instanceof FreeEdge)) {
+                continue;
+            }
+            State s1 = e.traverse(s0);
+            if (s1 == null) {
+                continue;
+            }
+            ret.add(s1.getVertex().getIndex() - offset);
+        }
+        return ret.toArray();
+    }
+
+    /** Find the root of the set containing element i, halving the path on the way */
+    private static int find(int[] parent, int i) {
+        while (parent[i] >= 0) {
+            if (parent[parent[i]] >= 0) {
+                parent[i] = parent[parent[i]];
+            }
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /** Merge the sets containing elements i and j, attaching the smaller set to the larger one */
+    private static void union(int[] parent, int i, int j) {
+        int ri = find(parent, i);
+        int rj = find(parent, j);
+        if (ri == rj) {
+            return;
+        }
+        // sizes are stored negated, so the larger set has the smaller value
+        if (parent[ri] > parent[rj]) {
+            int tmp = ri;
+            ri = rj;
+            rj = tmp;
+        }
+        parent[ri] += parent[rj];
+        parent[rj] = ri;
+    }
+
     private static void depedestrianizeOrRemove(Graph graph, Subgraph island) {
         //iterate over the street vertex of the subgraph
         for (Iterator<Vertex> vIter = island.streetIterator(); vIter.hasNext();) {
@@ -179,25 +271,6 @@ public class StreetUtils {
         LOG.debug(graph.addBuilderAnnotation(new GraphConnectivity(island.getRepresentativeVertex(), island.streetSize())));
     }
 
-    private static Subgraph computeConnectedSubgraph(
-            Map<Vertex, ArrayList<Vertex>> neighborsForVertex, Vertex startVertex) {
-        Subgraph subgraph = new Subgraph();
-        Queue<Vertex> q = new LinkedList<Vertex>();
-        q.add(startVertex);
-        while (!q.isEmpty()) {
-            Vertex vertex = q.poll();
-            for (Vertex neighbor : neighborsForVertex.get(vertex)) {
-                if (!subgraph.contains(neighbor)) {
-                    subgraph.addVertex(neighbor);
-                    q.add(neighbor);
-                }
-            }
-        }
-        return subgraph;
-//        if(subgraph.size()>1) return subgraph;
-//        return null;
-    }
-
     private static void WriteNodesInSubGraph(Subgraph subgraph, PrintWriter islandLog, boolean hadRemoved){
         Geometry convexHullGeom = subgraph.getConvexHull();
         if (convexHullGeom != null && !(convexHullGeom instanceof Polygon)) {
@@ -61,6 +61,9 @@ public class AnnotationsToHTML implements GraphBuilderModule {
     //Key is classname, value is annotation message
     //Multimap because there are multiple annotations for each classname
     private Multimap<String, String> annotations;
+
+    //Resource use of the modules that ran before this one, shown on the index page if present
+    private GraphBuildProfile profile;
   
     public AnnotationsToHTML (File outpath, int maxNumberOfAnnotationsPerFile) {
         this.outPath = outpath;
@@ -79,6 +82,8 @@ public class AnnotationsToHTML implements GraphBuilderModule {
             return;
         }
 
+        profile = (GraphBuildProfile) extra.get(GraphBuildProfile.class);
+
         outPath = new File(outPath, "report");
         if (outPath.exists()) {
             //Removes all files from report directory
@@ -293,6 +298,8 @@ public class AnnotationsToHTML implements GraphBuilderModule {
                 println("<ul id=\"log\">");
                 writeAnnotations();
                 println("</ul>");
+            } else if (profile != null) {
+                writeProfile();
             }
 
             println("</body></html>");
@@ -300,6 +307,28 @@ public class AnnotationsToHTML implements GraphBuilderModule {
             close();
         }
 
+        /**
+         * Writes the resource use of each graph builder module as a table
+         */
+        private void writeProfile() {
+            println("<h2>Build profile</h2>");
+            println("<table class='pure-table pure-table-striped'>");
+            println("<thead><tr><th>Module</th><th>Wall time (s)</th><th>CPU time (s)</th><th>Allocated (MB)</th>"
+                + "<th>Peak heap (MB)</th><th>Heap after (MB)</th><th>Vertices</th><th>Edges</th></tr></thead>");
+            println("<tbody>");
+            String rowFMT = "<tr><td>%s</td><td>%.1f</td><td>%.1f</td><td>%d</td><td>%d</td><td>%d</td>"
+                + "<td>%d (%+d)</td><td>%d (%+d)</td></tr>";
+            for (GraphBuildProfile.StepProfile step : profile.steps) {
+                println(String.format(rowFMT, step.name, step.wallMillis / 1000.0, step.cpuMillis / 1000.0,
+                    step.allocatedBytes >> 20, step.peakHeapBytes >> 20, step.heapUsedAfterBytes >> 20,
+                    step.vertices, step.vertexDelta, step.edges, step.edgeDelta));
+            }
+            println("</tbody></table>");
+            println(String.format("<p>Total %.1f minutes, peak heap %d MB. Details in %s next to the graph.</p>",
+                profile.getTotalWallMillis() / 60000.0, profile.getMaxPeakHeapBytes() >> 20,
+                GraphBuildProfile.FILENAME));
+        }
+
         /**
          * Writes annotations as LI html elements
          */
@@ -0,0 +1,160 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the resources used by each step of a graph build: wall clock and CPU time, memory allocated, heap use and
+ * how much the step changed the size of the graph. The GraphBuilder writes it as JSON next to the graph, so builds
+ * can be compared across data updates and used to size build machines, and it is summarized in the HTML report.
+ *
+ * CPU time is for the whole process, so it includes work done on other threads by modules that run in parallel.
+ * Allocation is summed over the threads alive at the start and end of the step, so it misses threads that exit during
+ * the step. Either is reported as -1 when the JVM can't measure it.
+ */
+public class GraphBuildProfile {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GraphBuildProfile.class);
+
+    public static final String FILENAME = "build-profile.json";
+
+    public final List<StepProfile> steps = new ArrayList<>();
+
+    /** Resource use of one graph builder module, or of saving the graph */
+    public static class StepProfile {
+        public String name;
+        public long wallMillis;
+        public long cpuMillis;
+        public long allocatedBytes;
+        /** highest heap use during the step */
+        public long peakHeapBytes;
+        /** heap use at the end of the step, including garbage that has not been collected yet */
+        public long heapUsedAfterBytes;
+        public int vertices;
+        public int vertexDelta;
+        public int edges;
+        public int edgeDelta;
+    }
+
+    /** Run a build step, recording its resource use under the given name */
+    public void profile(String name, Graph graph, Runnable step) {
+        StepProfile profile = new StepProfile();
+        profile.name = name;
+        int verticesBefore = graph.countVertices();
+        int edgesBefore = graph.countEdges();
+        for (MemoryPoolMXBean pool : heapPools()) {
+            pool.resetPeakUsage();
+        }
+        long cpuBefore = processCpuNanos();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+
+        step.run();
+
+        profile.wallMillis = (System.nanoTime() - start) / 1000000;
+        long cpuAfter = processCpuNanos();
+        profile.cpuMillis = cpuBefore < 0 || cpuAfter < 0 ? -1 : (cpuAfter - cpuBefore) / 1000000;
+        long allocatedAfter = allocatedBytes();
+        profile.allocatedBytes = allocatedBefore < 0 || allocatedAfter < 0 ? -1
+                : Math.max(0, allocatedAfter - allocatedBefore);
+        for (MemoryPoolMXBean pool : heapPools()) {
+            profile.peakHeapBytes += pool.getPeakUsage().getUsed();
+            profile.heapUsedAfterBytes += pool.getUsage().getUsed();
+        }
+        profile.vertices = graph.countVertices();
+        profile.vertexDelta = profile.vertices - verticesBefore;
+        profile.edges = graph.countEdges();
+        profile.edgeDelta = profile.edges - edgesBefore;
+        steps.add(profile);
+
+        LOG.info("{} took {} s ({} s CPU), allocated {} MB, peak heap {} MB, {} vertices ({}), {} edges ({})",
+                name, profile.wallMillis / 1000.0, profile.cpuMillis / 1000.0, profile.allocatedBytes >> 20,
+                profile.peakHeapBytes >> 20, profile.vertices, signed(profile.vertexDelta), profile.edges,
+                signed(profile.edgeDelta));
+    }
+
+    public long getTotalWallMillis() {
+        return steps.stream().mapToLong(s -> s.wallMillis).sum();
+    }
+
+    public long getMaxPeakHeapBytes() {
+        return steps.stream().mapToLong(s -> s.peakHeapBytes).max().orElse(0);
+    }
+
+    /** Write this profile as JSON, logging rather than failing the build if that is not possible */
+    public void writeJson(File file) {
+        try {
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, this);
+            LOG.info("Build profile written to {}", file);
+        } catch (IOException e) {
+            LOG.error("Failed to write build profile to {}", file, e);
+        }
+    }
+
+    private static String signed(int delta) {
+        return delta >= 0 ? "+" + delta : Integer.toString(delta);
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> ret = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                ret.add(pool);
+            }
+        }
+        return ret;
+    }
+
+    private static long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+        if (!sunThreads.isThreadAllocatedMemorySupported() || !sunThreads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (long allocated : sunThreads.getThreadAllocatedBytes(sunThreads.getAllThreadIds())) {
+            // -1 for threads that exited since their ids were listed
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+}
@@ -20,6 +20,7 @@ import org.opentripplanner.graph_builder.module.DirectTransferGenerator;
 import org.opentripplanner.graph_builder.module.EmbedConfig;
 import org.opentripplanner.graph_builder.module.GtfsModule;
 import org.opentripplanner.graph_builder.module.PruneFloatingIslands;
+import org.opentripplanner.graph_builder.module.SaveStreetGraph;
 import org.opentripplanner.graph_builder.module.StreetLinkerModule;
 import org.opentripplanner.graph_builder.module.TransitToTaggedStopsModule;
 import org.opentripplanner.graph_builder.module.map.BusRouteStreetMatcher;
@@ -64,6 +65,9 @@ public class GraphBuilder implements Runnable {
 
     public static final String BUILDER_CONFIG_FILENAME = "build-config.json";
 
+    /** The street network alone, saved by a full build for later transit-only builds. */
+    public static final String STREET_GRAPH_FILENAME = "StreetGraph.obj";
+
     private List<GraphBuilderModule> _graphBuilderModules = new ArrayList<GraphBuilderModule>();
 
     private File graphFile;
@@ -73,6 +77,8 @@ public class GraphBuilder implements Runnable {
     private List<RoutingRequest> _modeList;
     
     private String _baseGraph = null;
+
+    private File streetGraphFile = null;
     
     private Graph graph = new Graph();
 
@@ -100,6 +106,14 @@ public class GraphBuilder implements Runnable {
         }
     }
 
+    /**
+     * Start the build from a street graph saved by an earlier build (see {@link SaveStreetGraph}) rather than from an
+     * empty graph. The file is only read when the build is run.
+     */
+    public void setStreetGraph(File streetGraphFile) {
+        this.streetGraphFile = streetGraphFile;
+    }
+
     public void addMode(RoutingRequest mo) {
         _modeList.add(mo);
     }
@@ -152,25 +166,55 @@ public class GraphBuilder implements Runnable {
             builder.checkInputs();
         }
         
+        if (streetGraphFile != null) {
+            graph = loadStreetGraph(streetGraphFile);
+        }
+
         HashMap<Class<?>, Object> extra = new HashMap<Class<?>, Object>();
+        // modules that report on the build, like AnnotationsToHTML, can find the profile so far in the extra map
+        GraphBuildProfile profile = new GraphBuildProfile();
+        extra.put(GraphBuildProfile.class, profile);
         for (GraphBuilderModule load : _graphBuilderModules)
-            load.buildGraph(graph, extra);
+            profile.profile(load.getClass().getSimpleName(), graph, () -> load.buildGraph(graph, extra));
 
         graph.summarizeBuilderAnnotations();
         if (serializeGraph) {
-            try {
-                graph.save(graphFile);
-            } catch (Exception ex) {
-                throw new IllegalStateException(ex);
-            }
+            profile.profile("save graph", graph, () -> {
+                try {
+                    graph.save(graphFile);
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
         } else {
             LOG.info("Not saving graph to disk, as requested.");
         }
+        if (graphFile != null && graphFile.getParentFile().isDirectory()) {
+            profile.writeJson(new File(graphFile.getParentFile(), GraphBuildProfile.FILENAME));
+        }
 
         long endTime = System.currentTimeMillis();
         LOG.info(String.format("Graph building took %.1f minutes.", (endTime - startTime) / 1000 / 60.0));
     }
 
+    /**
+     * Load a saved street graph, keeping its graph builder annotations so they appear with those from the transit
+     * modules, as they would in a full build.
+     */
+    private static Graph loadStreetGraph(File file) {
+        Graph streetGraph;
+        try {
+            streetGraph = Graph.load(file, LoadLevel.DEBUG);
+        } catch (Exception e) {
+            throw new RuntimeException("Error loading street graph " + file + ", it may need to be rebuilt from OSM.", e);
+        }
+        // Loading indexes the graph, but these indexes don't know about the transit that is about to be added. Drop
+        // them so the graph is in the same state as at the same point in a full build, where modules that need an
+        // index build their own.
+        streetGraph.index = null;
+        streetGraph.streetIndex = null;
+        return streetGraph;
+    }
 
     /**
      * Factory method to create and configure a GraphBuilder with all the appropriate modules to build a graph from
@@ -223,7 +267,22 @@ public class GraphBuilder implements Runnable {
         }
         boolean hasOSM  = builderParams.streets && !osmFiles.isEmpty();
         boolean hasGTFS = builderParams.transit && !gtfsFiles.isEmpty();
-        if ( ! ( hasOSM || hasGTFS )) {
+        if (params.transitOnly) {
+            // Reuse the streets, pruned and with elevation, from an earlier build. Only the transit modules are run.
+            File streetGraphFile = new File(dir, STREET_GRAPH_FILENAME);
+            if ( ! streetGraphFile.canRead()) {
+                LOG.error("Transit-only build requested but there is no street graph at {}. Build once with " +
+                        "saveStreetGraph enabled first.", streetGraphFile);
+                return null;
+            }
+            LOG.info("Building transit on top of the street graph in {}, ignoring any OSM and DEM files.",
+                    streetGraphFile);
+            graphBuilder.setStreetGraph(streetGraphFile);
+            hasOSM = false;
+            demFile = null;
+        }
+        boolean hasStreets = hasOSM || params.transitOnly;
+        if ( ! ( hasStreets || hasGTFS )) {
             LOG.error("Found no input files from which to build a graph in {}", dir);
             return null;
         }
@@ -252,6 +311,45 @@ public class GraphBuilder implements Runnable {
             pruneFloatingIslands.setPruningThresholdIslandWithStops(builderParams.pruningThresholdIslandWithStops);
             graphBuilder.addModule(pruneFloatingIslands);
         }
+        // Load elevation data and apply it to the streets.
+        GraphBuilderModule elevationBuilder = null;
+        if (params.transitOnly) {
+            // elevation is already in the saved street graph
+        } else if (builderParams.elevationBucket != null) {
+            // Download the elevation tiles from an Amazon S3 bucket
+            S3BucketConfig bucketConfig = builderParams.elevationBucket;
+            File cacheDirectory = new File(params.cacheDirectory, "ned");
+            DegreeGridNEDTileSource awsTileSource = new DegreeGridNEDTileSource();
+            awsTileSource = new DegreeGridNEDTileSource();
+            awsTileSource.awsAccessKey = bucketConfig.accessKey;
+            awsTileSource.awsSecretKey = bucketConfig.secretKey;
+            awsTileSource.awsBucketName = bucketConfig.bucketName;
+            NEDGridCoverageFactoryImpl gcf = new NEDGridCoverageFactoryImpl(cacheDirectory);
+            gcf.tileSource = awsTileSource;
+            gcf.setTileCacheHeapFraction(builderParams.elevationTileCacheHeapFraction);
+            elevationBuilder = new ElevationModule(gcf);
+        } else if (builderParams.fetchElevationUS) {
+            // Download the elevation tiles from the official web service
+            File cacheDirectory = new File(params.cacheDirectory, "ned");
+            NEDGridCoverageFactoryImpl gcf = new NEDGridCoverageFactoryImpl(cacheDirectory);
+            gcf.setTileCacheHeapFraction(builderParams.elevationTileCacheHeapFraction);
+            elevationBuilder = new ElevationModule(gcf);
+        } else if (demFile != null) {
+            // Load the elevation from a file in the graph inputs directory
+            ElevationGridCoverageFactory gcf = new GeotiffGridCoverageFactoryImpl(demFile);
+            elevationBuilder = new ElevationModule(gcf);
+        }
+        // When the street graph is saved for transit-only builds, elevation is part of it, so it must run before any
+        // transit is loaded. That moves it before stop linking, which changes the split streets slightly (their halves
+        // inherit a safety factor that includes slope costs), so that order is only used when saving the street graph;
+        // transit-only builds then match the full build that saved it.
+        boolean saveStreetGraph = hasOSM && builderParams.saveStreetGraph;
+        if ( saveStreetGraph ) {
+            if (elevationBuilder != null) {
+                graphBuilder.addModule(elevationBuilder);
+            }
+            graphBuilder.addModule(new SaveStreetGraph(new File(dir, STREET_GRAPH_FILENAME)));
+        }
         if ( hasGTFS ) {
             List<GtfsBundle> gtfsBundles = Lists.newArrayList();
             for (File gtfsFile : gtfsFiles) {
@@ -268,7 +366,7 @@ public class GraphBuilder implements Runnable {
             GtfsModule gtfsModule = new GtfsModule(gtfsBundles);
             gtfsModule.setFareServiceFactory(builderParams.fareServiceFactory);
             graphBuilder.addModule(gtfsModule);
-            if ( hasOSM ) {
+            if ( hasStreets ) {
                 if (builderParams.matchBusRoutesToStreets) {
                     graphBuilder.addModule(new BusRouteStreetMatcher());
                 }
@@ -278,31 +376,8 @@ public class GraphBuilder implements Runnable {
         // This module is outside the hasGTFS conditional block because it also links things like bike rental
         // which need to be handled even when there's no transit.
         graphBuilder.addModule(new StreetLinkerModule());
-        // Load elevation data and apply it to the streets.
-        // We want to do run this module after loading the OSM street network but before finding transfers.
-        if (builderParams.elevationBucket != null) {
-            // Download the elevation tiles from an Amazon S3 bucket
-            S3BucketConfig bucketConfig = builderParams.elevationBucket;
-            File cacheDirectory = new File(params.cacheDirectory, "ned");
-            DegreeGridNEDTileSource awsTileSource = new DegreeGridNEDTileSource();
-            awsTileSource = new DegreeGridNEDTileSource();
-            awsTileSource.awsAccessKey = bucketConfig.accessKey;
-            awsTileSource.awsSecretKey = bucketConfig.secretKey;
-            awsTileSource.awsBucketName = bucketConfig.bucketName;
-            NEDGridCoverageFactoryImpl gcf = new NEDGridCoverageFactoryImpl(cacheDirectory);
-            gcf.tileSource = awsTileSource;
-            GraphBuilderModule elevationBuilder = new ElevationModule(gcf);
-            graphBuilder.addModule(elevationBuilder);
-        } else if (builderParams.fetchElevationUS) {
-            // Download the elevation tiles from the official web service
-            File cacheDirectory = new File(params.cacheDirectory, "ned");
-            ElevationGridCoverageFactory gcf = new NEDGridCoverageFactoryImpl(cacheDirectory);
-            GraphBuilderModule elevationBuilder = new ElevationModule(gcf);
-            graphBuilder.addModule(elevationBuilder);
-        } else if (demFile != null) {
-            // Load the elevation from a file in the graph inputs directory
-            ElevationGridCoverageFactory gcf = new GeotiffGridCoverageFactoryImpl(demFile);
-            GraphBuilderModule elevationBuilder = new ElevationModule(gcf);
+        // Otherwise elevation runs after loading the OSM street network and linking, but before finding transfers.
+        if ( ! saveStreetGraph && elevationBuilder != null) {
             graphBuilder.addModule(elevationBuilder);
         }
         if ( hasGTFS ) {
@@ -342,6 +417,7 @@ public class GraphBuilder implements Runnable {
             if (name.endsWith(".osm.xml")) return OSM;
             if (name.endsWith(".tif") || name.endsWith(".tiff")) return DEM; // Digital elevation model (elevation raster)
             if (name.equals("Graph.obj")) return GRAPH;
+            if (name.equals(STREET_GRAPH_FILENAME)) return GRAPH;
             if (name.equals(GraphBuilder.BUILDER_CONFIG_FILENAME) || name.equals(Router.ROUTER_CONFIG_FILENAME)) {
                 return CONFIG;
             }
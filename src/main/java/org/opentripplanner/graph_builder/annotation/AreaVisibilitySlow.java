@@ -0,0 +1,45 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.annotation;
+
+public class AreaVisibilitySlow extends GraphBuilderAnnotation {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String FMT = "Visibility graph of area %d (%d visibility nodes) took %d ms to compute.";
+    public static final String HTMLFMT = "Visibility graph of area <a href='http://www.openstreetmap.org/way/%d'>%d</a> (%d visibility nodes) took %d ms to compute.";
+
+    final long osmId;
+
+    final int visibilityNodes;
+
+    final long millis;
+
+    public AreaVisibilitySlow(long osmId, int visibilityNodes, long millis) {
+        this.osmId = osmId;
+        this.visibilityNodes = visibilityNodes;
+        this.millis = millis;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format(FMT, osmId, visibilityNodes, millis);
+    }
+
+    @Override
+    public String getHTMLMessage() {
+        return String.format(HTMLFMT, osmId, osmId, visibilityNodes, millis);
+    }
+
+}
@@ -44,7 +44,9 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -128,16 +130,130 @@ public class SimpleStreetSplitter {
         for (Vertex v : graph.getVertices()) {
             if (v instanceof TransitStop || v instanceof BikeRentalStationVertex || v instanceof BikeParkVertex)
                 if (!link(v)) {
-                    if (v instanceof TransitStop)
-                        LOG.warn(graph.addBuilderAnnotation(new StopUnlinked((TransitStop) v)));
-                    else if (v instanceof BikeRentalStationVertex)
-                        LOG.warn(graph.addBuilderAnnotation(new BikeRentalStationUnlinked((BikeRentalStationVertex) v)));
-                    else if (v instanceof BikeParkVertex)
-                        LOG.warn(graph.addBuilderAnnotation(new BikeParkUnlinked((BikeParkVertex) v)));
+                    annotateUnlinked(v);
                 };
         }
     }
 
+    /** Record that a vertex could not be linked to the street network */
+    private void annotateUnlinked (Vertex v) {
+        if (v instanceof TransitStop)
+            LOG.warn(graph.addBuilderAnnotation(new StopUnlinked((TransitStop) v)));
+        else if (v instanceof BikeRentalStationVertex)
+            LOG.warn(graph.addBuilderAnnotation(new BikeRentalStationUnlinked((BikeRentalStationVertex) v)));
+        else if (v instanceof BikeParkVertex)
+            LOG.warn(graph.addBuilderAnnotation(new BikeParkUnlinked((BikeParkVertex) v)));
+    }
+
+    /**
+     * Link all relevant vertices to the street network in bulk. This is equivalent to {@link #link()}, but
+     * rather than linking one vertex at a time it first finds the snap points of all vertices in parallel against the
+     * unmodified street network, then splits every street edge once at all the points snapped onto it and creates the
+     * link edges in a single serial pass. Vertices that snap to exactly the same point on an edge share a split vertex.
+     */
+    public void linkInBulk () {
+        if (!destructiveSplitting) {
+            throw new RuntimeException("Bulk linking is only possible with destructive splitting!");
+        }
+
+        List<Vertex> vertices = graph.getVertices().stream()
+            .filter(v -> v instanceof TransitStop || v instanceof BikeRentalStationVertex || v instanceof BikeParkVertex)
+            .collect(Collectors.toList());
+
+        // Nothing touches the graph or the spatial index until all the snap points have been found,
+        // so the searches can safely run in parallel.
+        List<List<SnapPoint>> snapPoints = vertices.parallelStream()
+            .map(this::findSnapPoints)
+            .collect(Collectors.toList());
+
+        // Group the points that require a split by edge, keeping vertex order so that the result is deterministic.
+        Map<StreetEdge, List<SnapPoint>> splitsByEdge = new LinkedHashMap<>();
+        for (int i = 0; i < vertices.size(); i++) {
+            Vertex v = vertices.get(i);
+            List<SnapPoint> points = snapPoints.get(i);
+            if (points.isEmpty()) {
+                annotateUnlinked(v);
+                continue;
+            }
+            for (SnapPoint point : points) {
+                StreetVertex end = getEndVertex(point.edge, point.location);
+                if (end != null) {
+                    makeLinkEdges(v, end);
+                } else {
+                    splitsByEdge.computeIfAbsent(point.edge, e -> new ArrayList<>()).add(point);
+                }
+            }
+        }
+
+        int nSplits = 0;
+        for (Map.Entry<StreetEdge, List<SnapPoint>> entry : splitsByEdge.entrySet()) {
+            nSplits += splitAll(entry.getKey(), entry.getValue());
+        }
+        LOG.info("Linked {} vertices, splitting {} street edges at {} points.", vertices.size(), splitsByEdge.size(),
+            nSplits);
+    }
+
+    /** Find where the vertex should be linked to the street network, without modifying anything */
+    private List<SnapPoint> findSnapPoints (Vertex vertex) {
+        final double radiusDeg = SphericalDistanceLibrary.metersToDegrees(MAX_SEARCH_RADIUS_METERS);
+        Envelope env = new Envelope(vertex.getCoordinate());
+        // local equirectangular projection
+        final double xscale = Math.cos(vertex.getLat() * Math.PI / 180);
+        env.expandBy(radiusDeg / xscale, radiusDeg);
+
+        List<SnapPoint> ret = new ArrayList<>();
+        for (StreetEdge edge : findClosestEdges(vertex, TraverseMode.WALK, env, xscale)) {
+            ret.add(new SnapPoint(vertex, edge, project(vertex, edge, xscale)));
+        }
+        return ret;
+    }
+
+    /**
+     * Split the edge at all the given points and link each vertex to its split vertex. The points are applied in
+     * order along the edge, each split being made on the part of the edge left over from the previous one.
+     * @return the number of split vertices created
+     */
+    private int splitAll (StreetEdge edge, List<SnapPoint> points) {
+        Collections.sort(points, (p1, p2) -> p1.location.compareTo(p2.location));
+        LineString geometry = edge.getGeometry();
+
+        StreetEdge remaining = edge;
+        SnapPoint previous = null;
+        SplitterVertex previousVertex = null;
+        int nSplits = 0;
+        for (SnapPoint point : points) {
+            if (previous != null && previous.location.getSegmentIndex() == point.location.getSegmentIndex() &&
+                point.location.getSegmentFraction() - previous.location.getSegmentFraction() < 1e-8) {
+                // same place on the street as the previous point, don't make a zero-length edge
+                makeLinkEdges(point.vertex, previousVertex);
+                continue;
+            }
+
+            SplitterVertex v = split(remaining, point.location.getCoordinate(geometry), false, false);
+            // the only street edge leaving a fresh split vertex is the second half of the edge just split
+            remaining = Iterables.getOnlyElement(Iterables.filter(v.getOutgoing(), StreetEdge.class));
+            makeLinkEdges(point.vertex, v);
+
+            previous = point;
+            previousVertex = v;
+            nSplits++;
+        }
+        return nSplits;
+    }
+
+    /** A place on a street edge where a vertex is to be linked, found before any edges are split */
+    private static class SnapPoint {
+        final Vertex vertex;
+        final StreetEdge edge;
+        final LinearLocation location;
+
+        SnapPoint(Vertex vertex, StreetEdge edge, LinearLocation location) {
+            this.vertex = vertex;
+            this.edge = edge;
+            this.location = location;
+        }
+    }
+
     /** Link this vertex into the graph to the closest walkable edge */
     public boolean link (Vertex vertex) {
         return link(vertex, TraverseMode.WALK, null);
@@ -145,10 +261,6 @@ public class SimpleStreetSplitter {
 
     /** Link this vertex into the graph */
     public boolean link(Vertex vertex, TraverseMode traverseMode, RoutingRequest options) {
-        // find nearby street edges
-        // TODO: we used to use an expanding-envelope search, which is more efficient in
-        // dense areas. but first let's see how inefficient this is. I suspect it's not too
-        // bad and the gains in simplicity are considerable.
         final double radiusDeg = SphericalDistanceLibrary.metersToDegrees(MAX_SEARCH_RADIUS_METERS);
 
         Envelope env = new Envelope(vertex.getCoordinate());
@@ -160,45 +272,10 @@ public class SimpleStreetSplitter {
 
         double duplicateDeg = SphericalDistanceLibrary.metersToDegrees(DUPLICATE_WAY_EPSILON_METERS);
 
-        final TraverseModeSet traverseModeSet;
-        if (traverseMode == TraverseMode.BICYCLE) {
-            traverseModeSet = new TraverseModeSet(traverseMode, TraverseMode.WALK);
-        } else {
-            traverseModeSet = new TraverseModeSet(traverseMode);
-        }
-        // We sort the list of candidate edges by distance to the stop
-        // This should remove any issues with things coming out of the spatial index in different orders
-        // Then we link to everything that is within DUPLICATE_WAY_EPSILON_METERS of of the best distance
-        // so that we capture back edges and duplicate ways.
-        List<StreetEdge> candidateEdges = idx.query(env).stream()
-            .filter(streetEdge -> streetEdge instanceof  StreetEdge)
-            .map(edge -> (StreetEdge) edge)
-            // note: not filtering by radius here as distance calculation is expensive
-            // we do that below.
-            .filter(edge -> edge.canTraverse(traverseModeSet) &&
-                // only link to edges still in the graph.
-                edge.getToVertex().getIncoming().contains(edge))
-            .collect(Collectors.toList());
-
-        // make a map of distances
-        final TIntDoubleMap distances = new TIntDoubleHashMap();
-
-        for (StreetEdge e : candidateEdges) {
-            distances.put(e.getId(), distance(vertex, e, xscale));
-        }
-
-        // sort the list
-        Collections.sort(candidateEdges, (o1, o2) -> {
-            double diff = distances.get(o1.getId()) - distances.get(o2.getId());
-            if (diff < 0)
-                return -1;
-            if (diff > 0)
-                return 1;
-            return 0;
-        });
+        List<StreetEdge> bestEdges = findClosestEdges(vertex, traverseMode, env, xscale);
 
         // find the closest candidate edges
-        if (candidateEdges.isEmpty() || distances.get(candidateEdges.get(0).getId()) > radiusDeg) {
+        if (bestEdges.isEmpty()) {
             //We only link to stops if we are searching for origin/destination and for that we need transitStopIndex
             if (destructiveSplitting || transitStopIndex == null) {
                 return false;
@@ -251,21 +328,6 @@ public class SimpleStreetSplitter {
                 return true;
             }
         } else {
-
-            // find the best edges
-            List<StreetEdge> bestEdges = Lists.newArrayList();
-
-            // add edges until there is a break of epsilon meters.
-            // we do this to enforce determinism. if there are a lot of edges that are all extremely close to each other,
-            // we want to be sure that we deterministically link to the same ones every time. Any hard cutoff means things can
-            // fall just inside or beyond the cutoff depending on floating-point operations.
-            int i = 0;
-            do {
-                bestEdges.add(candidateEdges.get(i++));
-            } while (i < candidateEdges.size() &&
-                distances.get(candidateEdges.get(i).getId()) - distances
-                    .get(candidateEdges.get(i - 1).getId()) < duplicateDeg);
-
             for (StreetEdge edge : bestEdges) {
                 link(vertex, edge, xscale, options);
             }
@@ -274,30 +336,86 @@ public class SimpleStreetSplitter {
         }
     }
 
-    /** split the edge and link in the transit stop */
-    private void link(Vertex tstop, StreetEdge edge, double xscale, RoutingRequest options) {
-        // TODO: we've already built this line string, we should save it
-        LineString orig = edge.getGeometry();
-        LineString transformed = equirectangularProject(orig, xscale);
-        LocationIndexedLine il = new LocationIndexedLine(transformed);
-        LinearLocation ll = il.project(new Coordinate(tstop.getLon() * xscale, tstop.getLat()));
+    /**
+     * Find the street edges this vertex should be linked to: the closest traversable edge and any others that are
+     * within DUPLICATE_WAY_EPSILON_METERS of it. Returns an empty list if there is no edge within the search radius.
+     * This does not modify the graph or the spatial index, so it is safe to call from several threads at once as long
+     * as nothing is splitting edges at the same time.
+     */
+    private List<StreetEdge> findClosestEdges(Vertex vertex, TraverseMode traverseMode, Envelope env, double xscale) {
+        // find nearby street edges
+        // TODO: we used to use an expanding-envelope search, which is more efficient in
+        // dense areas. but first let's see how inefficient this is. I suspect it's not too
+        // bad and the gains in simplicity are considerable.
+        final double radiusDeg = SphericalDistanceLibrary.metersToDegrees(MAX_SEARCH_RADIUS_METERS);
 
-        // if we're very close to one end of the line or the other, or endwise, don't bother to split,
-        // cut to the chase and link directly
-        // We use a really tiny epsilon here because we only want points that actually snap to exactly the same location on the
-        // street to use the same vertices. Otherwise the order the stops are loaded in will affect where they are snapped.
-        if (ll.getSegmentIndex() == 0 && ll.getSegmentFraction() < 1e-8) {
-            makeLinkEdges(tstop, (StreetVertex) edge.getFromVertex());
+        double duplicateDeg = SphericalDistanceLibrary.metersToDegrees(DUPLICATE_WAY_EPSILON_METERS);
+
+        final TraverseModeSet traverseModeSet;
+        if (traverseMode == TraverseMode.BICYCLE) {
+            traverseModeSet = new TraverseModeSet(traverseMode, TraverseMode.WALK);
+        } else {
+            traverseModeSet = new TraverseModeSet(traverseMode);
         }
-        // -1 converts from count to index. Because of the fencepost problem, npoints - 1 is the "segment"
-        // past the last point
-        else if (ll.getSegmentIndex() == orig.getNumPoints() - 1) {
-            makeLinkEdges(tstop, (StreetVertex) edge.getToVertex());
+        // We sort the list of candidate edges by distance to the stop
+        // This should remove any issues with things coming out of the spatial index in different orders
+        // Then we link to everything that is within DUPLICATE_WAY_EPSILON_METERS of of the best distance
+        // so that we capture back edges and duplicate ways.
+        List<StreetEdge> candidateEdges = idx.query(env).stream()
+            .filter(streetEdge -> streetEdge instanceof  StreetEdge)
+            .map(edge -> (StreetEdge) edge)
+            // note: not filtering by radius here as distance calculation is expensive
+            // we do that below.
+            .filter(edge -> edge.canTraverse(traverseModeSet) &&
+                // only link to edges still in the graph.
+                edge.getToVertex().getIncoming().contains(edge))
+            .collect(Collectors.toList());
+
+        // make a map of distances
+        final TIntDoubleMap distances = new TIntDoubleHashMap();
+
+        for (StreetEdge e : candidateEdges) {
+            distances.put(e.getId(), distance(vertex, e, xscale));
         }
 
-        // nPoints - 2: -1 to correct for index vs count, -1 to account for fencepost problem
-        else if (ll.getSegmentIndex() == orig.getNumPoints() - 2 && ll.getSegmentFraction() > 1 - 1e-8) {
-            makeLinkEdges(tstop, (StreetVertex) edge.getToVertex());
+        // sort the list
+        Collections.sort(candidateEdges, (o1, o2) -> {
+            double diff = distances.get(o1.getId()) - distances.get(o2.getId());
+            if (diff < 0)
+                return -1;
+            if (diff > 0)
+                return 1;
+            return 0;
+        });
+
+        if (candidateEdges.isEmpty() || distances.get(candidateEdges.get(0).getId()) > radiusDeg) {
+            return Collections.emptyList();
+        }
+
+        // find the best edges
+        List<StreetEdge> bestEdges = Lists.newArrayList();
+
+        // add edges until there is a break of epsilon meters.
+        // we do this to enforce determinism. if there are a lot of edges that are all extremely close to each other,
+        // we want to be sure that we deterministically link to the same ones every time. Any hard cutoff means things can
+        // fall just inside or beyond the cutoff depending on floating-point operations.
+        int i = 0;
+        do {
+            bestEdges.add(candidateEdges.get(i++));
+        } while (i < candidateEdges.size() &&
+            distances.get(candidateEdges.get(i).getId()) - distances
+                .get(candidateEdges.get(i - 1).getId()) < duplicateDeg);
+
+        return bestEdges;
+    }
+
+    /** split the edge and link in the transit stop */
+    private void link(Vertex tstop, StreetEdge edge, double xscale, RoutingRequest options) {
+        LinearLocation ll = project(tstop, edge, xscale);
+
+        StreetVertex end = getEndVertex(edge, ll);
+        if (end != null) {
+            makeLinkEdges(tstop, end);
         }
 
         else {
@@ -315,27 +433,58 @@ public class SimpleStreetSplitter {
                 options.canSplitEdge(edge);
             }
             // split the edge, get the split vertex
-            SplitterVertex v0 = split(edge, ll, temporaryVertex != null, endVertex);
+            SplitterVertex v0 = split(edge, ll.getCoordinate(edge.getGeometry()), temporaryVertex != null, endVertex);
             makeLinkEdges(tstop, v0);
         }
     }
 
+    /** Find the location on the edge closest to the given vertex, in the local equirectangular projection */
+    private static LinearLocation project(Vertex tstop, StreetEdge edge, double xscale) {
+        // TODO: we've already built this line string, we should save it
+        LineString transformed = equirectangularProject(edge.getGeometry(), xscale);
+        LocationIndexedLine il = new LocationIndexedLine(transformed);
+        // the projection scales x uniformly, so segment indices and fractions are also valid on the original geometry
+        return il.project(new Coordinate(tstop.getLon() * xscale, tstop.getLat()));
+    }
 
     /**
-     * Split the street edge at the given fraction
+     * If the location is at one end of the edge return the vertex at that end, otherwise return null meaning the edge
+     * has to be split.
+     */
+    private static StreetVertex getEndVertex(StreetEdge edge, LinearLocation ll) {
+        int nPoints = edge.getGeometry().getNumPoints();
+
+        // if we're very close to one end of the line or the other, or endwise, don't bother to split,
+        // cut to the chase and link directly
+        // We use a really tiny epsilon here because we only want points that actually snap to exactly the same location on the
+        // street to use the same vertices. Otherwise the order the stops are loaded in will affect where they are snapped.
+        if (ll.getSegmentIndex() == 0 && ll.getSegmentFraction() < 1e-8) {
+            return (StreetVertex) edge.getFromVertex();
+        }
+        // -1 converts from count to index. Because of the fencepost problem, npoints - 1 is the "segment"
+        // past the last point
+        else if (ll.getSegmentIndex() == nPoints - 1) {
+            return (StreetVertex) edge.getToVertex();
+        }
+
+        // nPoints - 2: -1 to correct for index vs count, -1 to account for fencepost problem
+        else if (ll.getSegmentIndex() == nPoints - 2 && ll.getSegmentFraction() > 1 - 1e-8) {
+            return (StreetVertex) edge.getToVertex();
+        }
+
+        return null;
+    }
+
+    /**
+     * Split the street edge at the given point
      *
      * @param edge to be split
-     * @param ll fraction at which to split the edge
+     * @param splitPoint point on the edge geometry at which to split the edge
      * @param temporarySplit if true this is temporary split at origin/destinations search and only temporary edges vertices are created
      * @param endVertex if this is temporary edge this is true if this is end vertex otherwise it doesn't matter
      * @return Splitter vertex with added new edges
      */
-    private SplitterVertex split (StreetEdge edge, LinearLocation ll, boolean temporarySplit, boolean endVertex) {
-        LineString geometry = edge.getGeometry();
-
-        // create the geometries
-        Coordinate splitPoint = ll.getCoordinate(geometry);
-
+    private SplitterVertex split (StreetEdge edge, Coordinate splitPoint, boolean temporarySplit, boolean endVertex) {
         // every edge can be split exactly once, so this is a valid label
         SplitterVertex v;
         if (temporarySplit) {
@@ -25,11 +25,14 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * {@link org.opentripplanner.graph_builder.services.GraphBuilderModule} module that links up the stops of a transit network among themselves. This is necessary for
@@ -69,16 +72,34 @@ public class DirectTransferGenerator implements GraphBuilderModule {
             LOG.info("Creating direct transfer edges between stops using straight line distance (not streets)...");
         }
 
-        int nTransfersTotal = 0;
-        int nLinkableStops = 0;
-
+        /* Skip stops that are entrances to stations or whose entrances are coded separately */
+        List<TransitStop> linkableStops = new ArrayList<TransitStop>();
         for (TransitStop ts0 : Iterables.filter(graph.getVertices(), TransitStop.class)) {
-
-            /* Skip stops that are entrances to stations or whose entrances are coded separately */
-            if (!ts0.isStreetLinkable()) continue;
-            if (++nLinkableStops % 1000 == 0) {
-                LOG.info("Linked {} stops", nLinkableStops);
+            if (ts0.isStreetLinkable()) {
+                linkableStops.add(ts0);
             }
+        }
+        int nLinkableStops = linkableStops.size();
+
+        /*
+         * The searches only read the graph, so they are run concurrently. All of them are complete
+         * before any transfer edge is created, so that no search sees the transfers of another stop.
+         */
+        AtomicInteger nSearched = new AtomicInteger();
+        List<Set<NearbyStopFinder.StopAtDistance>> nearbyStopsForStop = linkableStops.parallelStream()
+                .map(ts0 -> {
+                    Set<NearbyStopFinder.StopAtDistance> nearbyStops =
+                            nearbyStopFinder.findNearbyStopsConsideringPatterns(ts0);
+                    if (nSearched.incrementAndGet() % 1000 == 0) {
+                        LOG.info("Found nearby stops for {}/{} stops", nSearched.get(), nLinkableStops);
+                    }
+                    return nearbyStops;
+                })
+                .collect(Collectors.toList());
+
+        int nTransfersTotal = 0;
+        for (int i = 0; i < nLinkableStops; i++) {
+            TransitStop ts0 = linkableStops.get(i);
             LOG.debug("Linking stop '{}' {}", ts0.getStop(), ts0);
 
             /* Determine the set of stops that are already reachable via other pathways or transfers */
@@ -94,7 +115,7 @@ public class DirectTransferGenerator implements GraphBuilderModule {
 
             /* Make transfers to each nearby stop that is the closest stop on some trip pattern. */
             int n = 0;
-            for (NearbyStopFinder.StopAtDistance sd : nearbyStopFinder.findNearbyStopsConsideringPatterns(ts0)) {
+            for (NearbyStopFinder.StopAtDistance sd : nearbyStopsForStop.get(i)) {
                 /* Skip the origin stop, loop transfers are not needed. */
                 if (sd.tstop == ts0 || pathwayDestinations.contains(sd.tstop)) continue;
                 new SimpleTransfer(ts0, sd.tstop, sd.dist, sd.geom, sd.edges);
@@ -26,7 +26,6 @@ import java.util.Map;
 import java.util.Set;
 
 import org.onebusaway.csv_entities.EntityHandler;
-import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
 import org.onebusaway.gtfs.model.*;
 import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
 import org.onebusaway.gtfs.serialization.GtfsReader;
@@ -37,6 +36,7 @@ import org.opentripplanner.calendar.impl.MultiCalendarServiceImpl;
 import org.opentripplanner.graph_builder.model.GtfsBundle;
 import org.opentripplanner.graph_builder.services.GraphBuilderModule;
 import org.opentripplanner.gtfs.BikeAccess;
+import org.opentripplanner.gtfs.CompactGtfsRelationalDao;
 import org.opentripplanner.gtfs.GtfsContext;
 import org.opentripplanner.gtfs.GtfsLibrary;
 import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
@@ -103,7 +103,8 @@ public class GtfsModule implements GraphBuilderModule {
                     gtfsBundle.cacheDirectory = cacheDirectory;
                 if (useCached != null && gtfsBundle.useCached == null)
                     gtfsBundle.useCached = useCached;
-                GtfsMutableRelationalDao dao = new GtfsRelationalDaoImpl();
+                // stop times and shape points are kept packed, and only expanded one trip or shape at a time
+                CompactGtfsRelationalDao dao = new CompactGtfsRelationalDao();
                 GtfsContext context = GtfsLibrary.createContext(gtfsBundle.getFeedId(), dao, service);
                 GTFSPatternHopFactory hf = new GTFSPatternHopFactory(context);
                 hf.setStopContext(stopContext);
@@ -149,7 +150,7 @@ public class GtfsModule implements GraphBuilderModule {
      * Private Methods
      ****/
 
-    private void loadBundle(GtfsBundle gtfsBundle, Graph graph, GtfsMutableRelationalDao dao)
+    private void loadBundle(GtfsBundle gtfsBundle, Graph graph, CompactGtfsRelationalDao dao)
             throws IOException {
 
         StoreImpl store = new StoreImpl(dao);
@@ -200,9 +201,8 @@ public class GtfsModule implements GraphBuilderModule {
             }
         }
 
-        for (ShapePoint shapePoint : store.getAllEntitiesForType(ShapePoint.class)) {
-            shapePoint.getShapeId().setAgencyId(reader.getDefaultAgencyId());
-        }
+        // Shape points are not stored as entities. They take the shape id, with its agency, of the trip they are
+        // requested for.
         for (Route route : store.getAllEntitiesForType(Route.class)) {
             route.getId().setAgencyId(reader.getDefaultAgencyId());
             generateRouteColor(route);
@@ -227,6 +227,7 @@ public class GtfsModule implements GraphBuilderModule {
         }
 
         store.close();
+        LOG.info("Read {} stop times and {} shape points.", dao.getStopTimeCount(), dao.getShapePointCount());
 
     }
 
@@ -0,0 +1,43 @@
+package org.opentripplanner.graph_builder.module;
+
+import org.opentripplanner.graph_builder.services.GraphBuilderModule;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.HashMap;
+
+/**
+ * A graph builder that saves the graph as it stands, before any transit is loaded. It is placed after the street
+ * modules (OSM, island pruning and elevation) so that a later build can start from the saved street network and
+ * only run the transit modules, which is much faster when only the transit data has changed.
+ */
+public class SaveStreetGraph implements GraphBuilderModule {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SaveStreetGraph.class);
+
+    private final File file;
+
+    public SaveStreetGraph(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        LOG.info("Saving street graph to {} for later transit-only builds.", file);
+        try {
+            graph.save(file);
+        } catch (Exception ex) {
+            throw new RuntimeException("Cannot save street graph to " + file, ex);
+        }
+    }
+
+    @Override
+    public void checkInputs() {
+        if (file.getParentFile() != null && !file.getParentFile().canWrite()) {
+            throw new RuntimeException("Cannot write street graph to " + file);
+        }
+    }
+
+}
@@ -42,6 +42,12 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * {@link org.opentripplanner.graph_builder.services.GraphBuilderModule} plugin that applies elevation data to street data that has already
@@ -59,11 +65,19 @@ public class ElevationModule implements GraphBuilderModule {
 
     private ElevationGridCoverageFactory gridCoverageFactory;
 
-    private Coverage coverage;
-
     // Keep track of the proportion of elevation fetch operations that fail so we can issue warnings.
-    private int nPointsEvaluated = 0;
-    private int nPointsOutsideDEM = 0;
+    private final LongAdder nPointsEvaluated = new LongAdder();
+    private final LongAdder nPointsOutsideDEM = new LongAdder();
+
+    private final AtomicInteger nEdgesProcessed = new AtomicInteger();
+
+    /** Edges are handed to the sampling threads in chunks of this size. */
+    private static final int EDGES_PER_TASK = 1000;
+
+    private static final int EDGES_PER_PROGRESS_REPORT = 50000;
+
+    /** The number of threads sampling the elevation model. */
+    private int nThreads = Runtime.getRuntime().availableProcessors();
 
     /**
      * The distance between samples in meters. Defaults to 10m, the approximate resolution of 1/3
@@ -93,48 +107,135 @@ public class ElevationModule implements GraphBuilderModule {
         distanceBetweenSamplesM = distance;
     }
 
+    /**
+     * Sets the number of threads sampling the elevation model, which defaults to the number of
+     * available processors. Sampling is only parallelized for coverages that can be copied for
+     * each thread, see {@link #copyCoverage(Coverage)}.
+     */
+    public void setThreadCount(int nThreads) {
+        this.nThreads = Math.max(1, nThreads);
+    }
+
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
         gridCoverageFactory.setGraph(graph);
+        try {
+            setElevations(graph, extra);
+        } finally {
+            gridCoverageFactory.cleanup();
+        }
+    }
+
+    private void setElevations(Graph graph, HashMap<Class<?>, Object> extra) {
         Coverage gridCov = gridCoverageFactory.getGridCoverage();
 
         // If gridCov is a GridCoverage2D, apply a bilinear interpolator. Otherwise, just use the
         // coverage as is (note: UnifiedGridCoverages created by NEDGridCoverageFactoryImpl handle
         // interpolation internally)
-        coverage = (gridCov instanceof GridCoverage2D) ? Interpolator2D.create(
+        Coverage coverage = (gridCov instanceof GridCoverage2D) ? Interpolator2D.create(
                 (GridCoverage2D) gridCov, new InterpolationBilinear()) : gridCov;
         log.info("Setting street elevation profiles from digital elevation model...");
-        List<StreetEdge> edgesWithElevation = new ArrayList<StreetEdge>();
-        int nProcessed = 0;
-        int nTotal = graph.countEdges();
+        List<StreetWithElevationEdge> edges = new ArrayList<StreetWithElevationEdge>();
         for (Vertex gv : graph.getVertices()) {
             for (Edge ee : gv.getOutgoing()) {
                 if (ee instanceof StreetWithElevationEdge) {
-                    StreetWithElevationEdge edgeWithElevation = (StreetWithElevationEdge) ee;
-                    processEdge(graph, edgeWithElevation);
-                    if (edgeWithElevation.getElevationProfile() != null && !edgeWithElevation.isElevationFlattened()) {
-                        edgesWithElevation.add(edgeWithElevation);
-                    }
-                    nProcessed += 1;
-                    if (nProcessed % 50000 == 0) {
-                        log.info("set elevation on {}/{} edges", nProcessed, nTotal);
-                        double failurePercentage = nPointsOutsideDEM / nPointsEvaluated * 100;
-                        if (failurePercentage > 50) {
-                            log.warn("Fetching elevation failed at {}/{} points ({}%)",
-                                    nPointsOutsideDEM, nPointsEvaluated, failurePercentage);
-                            log.warn("Elevation is missing at a large number of points. DEM may be for the wrong region. " +
-                                    "If it is unprojected, perhaps the axes are not in (longitude, latitude) order.");
-                        }
-                    }
+                    edges.add((StreetWithElevationEdge) ee);
                 }
             }
         }
+        boolean[] flattened = new boolean[edges.size()];
+        if (nThreads > 1 && canCopyCoverage(gridCov)) {
+            log.info("Sampling elevations on {} threads", nThreads);
+            processEdgesInParallel(edges, flattened, gridCov);
+        } else {
+            for (int i = 0; i < edges.size(); i++) {
+                flattened[i] = processEdge(edges.get(i), coverage);
+                reportProgress(1, edges.size());
+            }
+        }
+
+        List<StreetEdge> edgesWithElevation = new ArrayList<StreetEdge>();
+        for (int i = 0; i < edges.size(); i++) {
+            StreetWithElevationEdge edgeWithElevation = edges.get(i);
+            if (flattened[i]) {
+                log.trace(graph.addBuilderAnnotation(new ElevationFlattened(edgeWithElevation)));
+            }
+            if (edgeWithElevation.getElevationProfile() != null && !edgeWithElevation.isElevationFlattened()) {
+                edgesWithElevation.add(edgeWithElevation);
+            }
+        }
 
         @SuppressWarnings("unchecked")
         HashMap<Vertex, Double> extraElevation = (HashMap<Vertex, Double>) extra.get(ElevationPoint.class);
         assignMissingElevations(graph, edgesWithElevation, extraElevation);
     }
 
+    /**
+     * Samples elevations for the given edges on a pool of threads. GeoTools coverages and their
+     * interpolators are not thread-safe, so each thread gets its own copy of the coverage; the
+     * decoded raster data underneath is shared between them.
+     */
+    private void processEdgesInParallel(final List<StreetWithElevationEdge> edges,
+            final boolean[] flattened, final Coverage gridCov) {
+        final ThreadLocal<Coverage> threadCoverage = ThreadLocal.withInitial(() -> copyCoverage(gridCov));
+        ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int start = 0; start < edges.size(); start += EDGES_PER_TASK) {
+            final int from = start;
+            final int to = Math.min(start + EDGES_PER_TASK, edges.size());
+            futures.add(threadPool.submit(() -> {
+                Coverage coverage = threadCoverage.get();
+                for (int i = from; i < to; i++) {
+                    flattened[i] = processEdge(edges.get(i), coverage);
+                }
+                reportProgress(to - from, edges.size());
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while sampling elevations", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error while sampling elevations", e.getCause());
+        } finally {
+            threadPool.shutdownNow();
+        }
+    }
+
+    private static boolean canCopyCoverage(Coverage gridCov) {
+        return gridCov instanceof UnifiedGridCoverage || gridCov instanceof GridCoverage2D;
+    }
+
+    /**
+     * @return a coverage over the same data as the given one, with its own interpolators.
+     */
+    private static Coverage copyCoverage(Coverage gridCov) {
+        if (gridCov instanceof UnifiedGridCoverage) {
+            return ((UnifiedGridCoverage) gridCov).copy();
+        }
+        return Interpolator2D.create((GridCoverage2D) gridCov, new InterpolationBilinear());
+    }
+
+    private void reportProgress(int nEdges, int nTotal) {
+        int nProcessed = nEdgesProcessed.addAndGet(nEdges);
+        if (nProcessed / EDGES_PER_PROGRESS_REPORT == (nProcessed - nEdges) / EDGES_PER_PROGRESS_REPORT) {
+            return;
+        }
+        log.info("set elevation on {}/{} edges", nProcessed, nTotal);
+        long nEvaluated = nPointsEvaluated.sum();
+        long nOutside = nPointsOutsideDEM.sum();
+        double failurePercentage = nEvaluated == 0 ? 0 : 100.0 * nOutside / nEvaluated;
+        if (failurePercentage > 50) {
+            log.warn("Fetching elevation failed at {}/{} points ({}%)",
+                    nOutside, nEvaluated, failurePercentage);
+            log.warn("Elevation is missing at a large number of points. DEM may be for the wrong region. " +
+                    "If it is unprojected, perhaps the axes are not in (longitude, latitude) order.");
+        }
+    }
+
     class ElevationRepairState {
         /* This uses an intuitionist approach to elevation inspection */
         public StreetEdge backEdge;
@@ -334,11 +435,12 @@ public class ElevationModule implements GraphBuilderModule {
      * Processes a single street edge, creating and assigning the elevation profile.
      * 
      * @param ee the street edge
-     * @param graph the graph (used only for error handling)
+     * @param coverage the coverage to sample, which must not be used by any other thread
+     * @return true if the elevation profile was flattened
      */
-    private void processEdge(Graph graph, StreetWithElevationEdge ee) {
+    private boolean processEdge(StreetWithElevationEdge ee, Coverage coverage) {
         if (ee.getElevationProfile() != null) {
-            return; /* already set up */
+            return false; /* already set up */
         }
         Geometry g = ee.getGeometry();
         Coordinate[] coords = g.getCoordinates();
@@ -353,7 +455,7 @@ public class ElevationModule implements GraphBuilderModule {
         }
 
         // initial sample (x = 0)
-        coordList.add(new Coordinate(0, getElevation(coords[0])));
+        coordList.add(new Coordinate(0, getElevation(coverage, coords[0])));
 
         // loop for edge-internal samples
         for (double x = distanceBetweenSamplesM; x < edgeLenM; x += distanceBetweenSamplesM) {
@@ -363,20 +465,18 @@ public class ElevationModule implements GraphBuilderModule {
             }
 
             Coordinate internal = getPointAlongEdge(coords, edgeLenM, x / edgeLenM);
-            coordList.add(new Coordinate(x, getElevation(internal)));
+            coordList.add(new Coordinate(x, getElevation(coverage, internal)));
         }
 
         // final sample (x = edge length)
-        coordList.add(new Coordinate(edgeLenM, getElevation(coords[coords.length - 1])));
+        coordList.add(new Coordinate(edgeLenM, getElevation(coverage, coords[coords.length - 1])));
 
         // construct the PCS
         Coordinate coordArr[] = new Coordinate[coordList.size()];
         PackedCoordinateSequence elevPCS = new PackedCoordinateSequence.Double(
                 coordList.toArray(coordArr));
 
-        if(ee.setElevationProfile(elevPCS, false)) {
-            log.trace(graph.addBuilderAnnotation(new ElevationFlattened(ee)));
-        }
+        return ee.setElevationProfile(elevPCS, false);
     }
 
     /**
@@ -427,21 +527,23 @@ public class ElevationModule implements GraphBuilderModule {
     /**
      * Method for retrieving the elevation at a given Coordinate.
      * 
+     * @param coverage the coverage to sample
      * @param c the coordinate (NAD83)
      * @return elevation in meters
      */
-    private double getElevation(Coordinate c) {
-        return getElevation(c.x, c.y);
+    private double getElevation(Coverage coverage, Coordinate c) {
+        return getElevation(coverage, c.x, c.y);
     }
 
     /**
      * Method for retrieving the elevation at a given (x, y) pair.
      * 
+     * @param coverage the coverage to sample
      * @param x the query longitude (NAD83)
      * @param y the query latitude (NAD83)
      * @return elevation in meters
      */
-    private double getElevation(double x, double y) {
+    private double getElevation(Coverage coverage, double x, double y) {
         double values[] = new double[1];
         try {
             // We specify a CRS here because otherwise the coordinates are assumed to be in the coverage's native CRS.
@@ -451,9 +553,9 @@ public class ElevationModule implements GraphBuilderModule {
             // rasters to also use (long, lat).
             coverage.evaluate(new DirectPosition2D(GeometryUtils.WGS84_XY, x, y), values);
         } catch (org.opengis.coverage.PointOutsideCoverageException e) {
-            nPointsOutsideDEM += 1;
+            nPointsOutsideDEM.increment();
         }
-        nPointsEvaluated += 1;
+        nPointsEvaluated.increment();
         return values[0];
     }
 
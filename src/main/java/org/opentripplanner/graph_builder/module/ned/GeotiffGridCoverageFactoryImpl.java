@@ -69,4 +69,9 @@ public class GeotiffGridCoverageFactoryImpl implements ElevationGridCoverageFact
         //nothing to do here
     }
 
+    @Override
+    public void cleanup() {
+        //nothing to do here
+    }
+
 }
\ No newline at end of file
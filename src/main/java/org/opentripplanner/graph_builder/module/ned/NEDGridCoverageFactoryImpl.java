@@ -15,7 +15,6 @@ package org.opentripplanner.graph_builder.module.ned;
 
 import com.google.common.io.ByteStreams;
 import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.coverage.grid.Interpolator2D;
 import org.opengis.coverage.Coverage;
 import org.opentripplanner.graph_builder.services.ned.ElevationGridCoverageFactory;
 import org.opentripplanner.graph_builder.services.ned.NEDTileSource;
@@ -23,7 +22,8 @@ import org.opentripplanner.routing.graph.Graph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.media.jai.InterpolationBilinear;
+import javax.media.jai.JAI;
+import javax.media.jai.TileCache;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -57,6 +57,14 @@ public class NEDGridCoverageFactoryImpl implements ElevationGridCoverageFactory
         this.cacheDirectory = cacheDirectory;
     }
 
+    /** Default fraction of the maximum heap size that may be used to cache decoded DEM tiles. */
+    public static final double DEFAULT_TILE_CACHE_HEAP_FRACTION = 0.25;
+
+    private double tileCacheHeapFraction = DEFAULT_TILE_CACHE_HEAP_FRACTION;
+
+    /** The capacity of the JAI tile cache before it was raised for sampling, or -1 if it was not raised. */
+    private long previousTileCacheCapacity = -1;
+
     private static final String[] DATUM_FILENAMES = {"g2012a00.gtx", "g2012g00.gtx", "g2012h00.gtx", "g2012p00.gtx", "g2012s00.gtx", "g2012u00.gtx"};
 
     /*
@@ -114,19 +122,21 @@ public class NEDGridCoverageFactoryImpl implements ElevationGridCoverageFactory
         }
     }
 
-    /** @return a GeoTools grid coverage for the entire area of interest, lazy-creating it on the first call. */
+    /**
+     * @return a GeoTools grid coverage for the entire area of interest, lazy-creating it on the first call.
+     * Use {@link UnifiedGridCoverage#copy()} to get a coverage for each thread sampling it.
+     */
     public Coverage getGridCoverage() {
         if (unifiedCoverage == null) {
             loadVerticalDatum();
             tileSource.setGraph(graph);
             tileSource.setCacheDirectory(cacheDirectory);
             List<File> paths = tileSource.getNEDTiles();
+            ensureTileCacheCapacity();
             // Make one grid coverage for each NED tile, adding them all to a single UnifiedGridCoverage.
             for (File path : paths) {
                 GeotiffGridCoverageFactoryImpl factory = new GeotiffGridCoverageFactoryImpl(path);
-                // TODO might bicubic interpolation give better results?
-                GridCoverage2D regionCoverage = Interpolator2D.create(factory.getGridCoverage(),
-                        new InterpolationBilinear());
+                GridCoverage2D regionCoverage = factory.getGridCoverage();
                 if (unifiedCoverage == null) {
                     unifiedCoverage = new UnifiedGridCoverage("unified", regionCoverage, datums);
                 } else {
@@ -137,6 +147,46 @@ public class NEDGridCoverageFactoryImpl implements ElevationGridCoverageFactory
         return unifiedCoverage;
     }
 
+    /**
+     * Sets the fraction of the maximum heap size that may be used to cache decoded DEM tiles while sampling, see
+     * {@link #ensureTileCacheCapacity()}. Zero leaves the tile cache as it is.
+     */
+    public void setTileCacheHeapFraction(double tileCacheHeapFraction) {
+        this.tileCacheHeapFraction = tileCacheHeapFraction;
+    }
+
+    /**
+     * The NED tiles are decoded lazily, and the decoded parts are kept in the JAI tile cache, which is
+     * shared by all coverages and threads. Its default capacity (16MB) is much smaller than a single
+     * 1/3 arc-second tile, so sampling a graph of any size would decode the same tiles over and over.
+     * The cache is shared by the whole process, so its capacity is put back by {@link #cleanup()}.
+     */
+    void ensureTileCacheCapacity() {
+        TileCache tileCache = JAI.getDefaultInstance().getTileCache();
+        long capacity = (long) (Runtime.getRuntime().maxMemory() * tileCacheHeapFraction);
+        if (tileCache.getMemoryCapacity() < capacity) {
+            LOG.info("Setting JAI tile cache capacity to {} MB", capacity / 1024 / 1024);
+            previousTileCacheCapacity = tileCache.getMemoryCapacity();
+            tileCache.setMemoryCapacity(capacity);
+        }
+    }
+
+    /**
+     * Drop the coverage and the decoded tiles, and put the capacity of the JAI tile cache back to what it was, so
+     * that a server built in memory does not keep a part of its heap reserved for elevation data.
+     */
+    @Override
+    public void cleanup() {
+        unifiedCoverage = null;
+        if (previousTileCacheCapacity >= 0) {
+            TileCache tileCache = JAI.getDefaultInstance().getTileCache();
+            tileCache.flush();
+            tileCache.setMemoryCapacity(previousTileCacheCapacity);
+            LOG.info("Restored JAI tile cache capacity to {} MB", previousTileCacheCapacity / 1024 / 1024);
+            previousTileCacheCapacity = -1;
+        }
+    }
+
     /**
      * Grab the rather voluminous vertical datum files from the OTP web server and save them in the NED cache directory.
      */
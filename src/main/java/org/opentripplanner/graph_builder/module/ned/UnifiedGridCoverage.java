@@ -13,8 +13,11 @@
 
 package org.opentripplanner.graph_builder.module.ned;
 
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import org.geotools.coverage.AbstractCoverage;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.Interpolator2D;
 import org.geotools.geometry.GeneralEnvelope;
 import org.opengis.coverage.CannotEvaluateException;
 import org.opengis.coverage.Coverage;
@@ -24,6 +27,7 @@ import org.opengis.geometry.DirectPosition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.media.jai.InterpolationBilinear;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -40,20 +44,55 @@ public class UnifiedGridCoverage extends AbstractCoverage {
 
     private static Logger log = LoggerFactory.getLogger(UnifiedGridCoverage.class);
     
+    /* The decoded tiles, shared by all copies of this coverage. */
+    private ArrayList<GridCoverage2D> sources;
+
+    /* An interpolator for each source. Interpolators keep state, so they are not shared. */
     private ArrayList<Coverage> regions;
 
     private List<VerticalDatum> datums;
 
+    /* For each region, the indexes of the earlier regions whose envelopes intersect it. Shared by all copies. */
+    private ArrayList<int[]> earlierOverlaps;
+
+    /*
+     * The region that served the previous sample, where consecutive samples usually fall. It only picks where the
+     * search starts, never which region is returned, so a stale value read by another thread is harmless.
+     */
+    private int lastRegion = 0;
+
     /**
      * It would be nice if we could construct this unified coverage with zero sub-coverages and add all sub-coverages
      * in the same way. However, the superclass constructor (AbstractCoverage) needs a coverage to copy properties from.
      * So the first sub-coverage needs to be passed in at construction time.
      */
-    protected UnifiedGridCoverage(CharSequence name, Coverage coverage, List<VerticalDatum> datums) {
+    protected UnifiedGridCoverage(CharSequence name, GridCoverage2D coverage, List<VerticalDatum> datums) {
         super(name, coverage);
+        sources = new ArrayList<GridCoverage2D>();
         regions = new ArrayList<Coverage>();
-        regions.add(coverage);
+        earlierOverlaps = new ArrayList<int[]>();
         this.datums = datums;
+        add(coverage);
+    }
+
+    private UnifiedGridCoverage(UnifiedGridCoverage other) {
+        super(other.getName(), other);
+        sources = other.sources;
+        regions = new ArrayList<Coverage>(sources.size());
+        for (GridCoverage2D source : sources) {
+            regions.add(interpolate(source));
+        }
+        earlierOverlaps = other.earlierOverlaps;
+        datums = other.datums;
+    }
+
+    /**
+     * @return a coverage over the same decoded tiles with its own interpolators, so that it can be
+     *         evaluated on another thread. Neither this coverage nor the copy may be modified
+     *         afterwards.
+     */
+    public UnifiedGridCoverage copy() {
+        return new UnifiedGridCoverage(this);
     }
 
     @Override
@@ -65,7 +104,8 @@ public class UnifiedGridCoverage extends AbstractCoverage {
     public double[] evaluate(DirectPosition point, double[] values)
             throws PointOutsideCoverageException, CannotEvaluateException {
 
-        for (Coverage region : regions) {
+        for (int r = searchStart(point); r < regions.size(); r++) {
+            Coverage region = regions.get(r);
             // GeneralEnvelope has a contains method, OpenGIS Envelope does not
             GeneralEnvelope env = ((GeneralEnvelope)region.getEnvelope());
             // Check envelope to avoid incurring exception construction overhead (PointOutsideCoverageException),
@@ -76,6 +116,7 @@ public class UnifiedGridCoverage extends AbstractCoverage {
                 double y = point.getOrdinate(1);
                 try {
                     result = region.evaluate(point, values);
+                    lastRegion = r;
                     // TODO It might be faster to put all the datums and Coverage regions into a spatial index instead of iterating.
                     for (VerticalDatum datum : datums) {
                         if (datum.covers(x, y)) {
@@ -97,6 +138,25 @@ public class UnifiedGridCoverage extends AbstractCoverage {
         return null;
     }
     
+    /**
+     * @return where to start searching the regions for the given point, such that the first region that can evaluate
+     * it is the same as when searching from the start of the list. That is the region that served the previous sample
+     * if it contains the point and none of the earlier regions overlapping it do, as all the regions before it would
+     * then be skipped anyway. Otherwise it is the start of the list.
+     */
+    private int searchStart(DirectPosition point) {
+        int start = lastRegion;
+        if (start == 0 || !((GeneralEnvelope) regions.get(start).getEnvelope()).contains(point)) {
+            return 0;
+        }
+        for (int earlier : earlierOverlaps.get(start)) {
+            if (((GeneralEnvelope) regions.get(earlier).getEnvelope()).contains(point)) {
+                return 0;
+            }
+        }
+        return start;
+    }
+
     @Override
     public int getNumSampleDimensions() {
         return regions.get(0).getNumSampleDimensions();
@@ -108,7 +168,22 @@ public class UnifiedGridCoverage extends AbstractCoverage {
     }
 
     public void add(GridCoverage2D regionCoverage) {
-        regions.add(regionCoverage);
+        Coverage region = interpolate(regionCoverage);
+        GeneralEnvelope env = (GeneralEnvelope) region.getEnvelope();
+        TIntList overlaps = new TIntArrayList();
+        for (int r = 0; r < regions.size(); r++) {
+            if (env.intersects(regions.get(r).getEnvelope(), true)) {
+                overlaps.add(r);
+            }
+        }
+        sources.add(regionCoverage);
+        regions.add(region);
+        earlierOverlaps.add(overlaps.toArray());
+    }
+
+    private static GridCoverage2D interpolate(GridCoverage2D source) {
+        // TODO might bicubic interpolation give better results?
+        return Interpolator2D.create(source, new InterpolationBilinear());
     }
 
 }
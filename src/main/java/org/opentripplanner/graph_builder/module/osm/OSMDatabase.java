@@ -17,6 +17,11 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 import com.vividsolutions.jts.geom.*;
+import gnu.trove.list.TLongList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import org.opentripplanner.common.RepeatingTimePeriod;
 import org.opentripplanner.common.TurnRestrictionType;
 import org.opentripplanner.common.geometry.GeometryUtils;
@@ -40,8 +45,11 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
 
     private static Logger LOG = LoggerFactory.getLogger(OSMDatabase.class);
 
-    /* Map of all nodes used in ways/areas keyed by their OSM ID */
-    private Map<Long, OSMNode> nodesById = new HashMap<Long, OSMNode>();
+    /*
+     * Map of all nodes used in ways/areas keyed by their OSM ID. Primitive-keyed, as this holds
+     * millions of entries on a large extract and boxed keys would dominate its footprint.
+     */
+    private TLongObjectMap<OSMNode> nodesById = new TLongObjectHashMap<OSMNode>();
 
     /* Map of all bike-rental nodes, keyed by their OSM ID */
     private Map<Long, OSMNode> bikeRentalNodes = new HashMap<Long, OSMNode>();
@@ -79,10 +87,10 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private Set<Long> areaWayIds = new HashSet<Long>();
 
     /* Set of all node IDs of kept ways. Needed to mark which nodes to keep in stage 3. */
-    private Set<Long> waysNodeIds = new HashSet<Long>();
+    private TLongSet waysNodeIds = new TLongHashSet();
 
     /* Set of all node IDs of kept areas. Needed to mark which nodes to keep in stage 3. */
-    private Set<Long> areaNodeIds = new HashSet<Long>();
+    private TLongSet areaNodeIds = new TLongHashSet();
 
     /* Track which vertical level each OSM way belongs to, for building elevators etc. */
     private Map<OSMWithTags, OSMLevel> wayLevels = new HashMap<OSMWithTags, OSMLevel>();
@@ -373,9 +381,10 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
             OSMLevel wayLevel = getLevelForWay(way);
 
             // For each segment of the way
-            for (int i = 0; i < way.getNodeRefs().size() - 1; i++) {                
-                OSMNode nA = nodesById.get(way.getNodeRefs().get(i));
-                OSMNode nB = nodesById.get(way.getNodeRefs().get(i + 1));
+            TLongList nodeRefs = way.getNodeRefList();
+            for (int i = 0; i < nodeRefs.size() - 1; i++) {
+                OSMNode nA = nodesById.get(nodeRefs.get(i));
+                OSMNode nB = nodesById.get(nodeRefs.get(i + 1));
                 if (nA == null || nB == null) {
                     continue;
                 }
@@ -460,7 +469,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                     	
                     	// don't insert the same node twice. This is not always safe; suppose a way crosses over the same node in the parking area twice.
                     	// but we assume it doesn't (and even if it does, it's not a huge deal, as it is still connected elsewhere on the same way).
-                    	if (way.getNodeRefs().contains(ringSegment.nA.getId()))
+                    	if (nodeRefs.contains(ringSegment.nA.getId()))
                     		continue;
                     	
                     	way.addNodeRef(ringSegment.nA.getId(), i + 1);
@@ -477,7 +486,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                     else if (checkIntersectionDistance(p, ringSegment.nB, epsilon)) {
                     	// insert node B into the road, if it's not already there
                     	
-                    	if (way.getNodeRefs().contains(ringSegment.nB.getId()))
+                    	if (nodeRefs.contains(ringSegment.nB.getId()))
                     		continue;
                     	
                     	way.addNodeRef(ringSegment.nB.getId(), i + 1);
@@ -582,11 +591,11 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         }
     }
 
-    private void markNodesForKeeping(Collection<OSMWay> osmWays, Set<Long> nodeSet) {
+    private void markNodesForKeeping(Collection<OSMWay> osmWays, TLongSet nodeSet) {
         for (Iterator<OSMWay> it = osmWays.iterator(); it.hasNext();) {
             OSMWay way = it.next();
             // Since the way is kept, update nodes-with-neighbors
-            List<Long> nodes = way.getNodeRefs();
+            TLongList nodes = way.getNodeRefList();
             if (nodes.size() > 1) {
                 nodeSet.addAll(nodes);
             }
@@ -601,10 +610,8 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
             if (processedAreas.contains(way)) {
                 continue;
             }
-            for (Long nodeRef : way.getNodeRefs()) {
-                if (!nodesById.containsKey(nodeRef)) {
-                    continue AREA;
-                }
+            if (!nodesById.keySet().containsAll(way.getNodeRefList())) {
+                continue AREA;
             }
             try {
                 newArea(new Area(way, Arrays.asList(way), Collections.<OSMWay> emptyList(), nodesById));
@@ -54,6 +54,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Builds a street graph from OpenStreetMap data.
@@ -407,8 +409,15 @@ public class OpenStreetMapModule implements GraphBuilderModule {
                     walkableAreaBuilder.buildWithoutVisibility(group);
                 }
             } else {
-                for (AreaGroup group : areaGroups) {
-                    walkableAreaBuilder.buildWithVisibility(group);
+                // Visibility computation is independent for each group and runs on the fork-join
+                // pool; edges are created on this thread, in group order, as results come in.
+                List<ForkJoinTask<WalkableAreaBuilder.GroupVisibility>> tasks = new ArrayList<>();
+                for (final AreaGroup group : areaGroups) {
+                    tasks.add(ForkJoinPool.commonPool().submit(
+                            () -> walkableAreaBuilder.computeVisibility(group)));
+                }
+                for (ForkJoinTask<WalkableAreaBuilder.GroupVisibility> task : tasks) {
+                    walkableAreaBuilder.buildWithVisibility(task.join());
                 }
             }
             // running a request caches the timezone; we need to clear it now so that when agencies are loaded
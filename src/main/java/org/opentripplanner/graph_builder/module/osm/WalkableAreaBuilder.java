@@ -24,6 +24,7 @@ import java.util.Set;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.model.P2;
+import org.opentripplanner.graph_builder.annotation.AreaVisibilitySlow;
 import org.opentripplanner.graph_builder.module.osm.OpenStreetMapModule.Handler;
 import org.opentripplanner.graph_builder.services.StreetEdgeFactory;
 import org.opentripplanner.openstreetmap.model.OSMNode;
@@ -86,6 +87,9 @@ public class WalkableAreaBuilder {
 
     private static final double VISIBILITY_EPSILON = 0.000000001;
 
+    /* Area groups whose visibility graph takes longer than this to compute get an annotation. */
+    private static final long SLOW_VISIBILITY_MILLIS = 1000;
+
     private Graph graph;
 
     private OSMDatabase osmdb;
@@ -148,14 +152,23 @@ public class WalkableAreaBuilder {
     }
 
     public void buildWithVisibility(AreaGroup group) {
-        Set<OSMNode> startingNodes = new HashSet<OSMNode>();
-        Set<Vertex> startingVertices = new HashSet<Vertex>();
-        Set<Edge> edges = new HashSet<Edge>();
+        buildWithVisibility(computeVisibility(group));
+    }
+
+    /**
+     * Computes the visibility graph of an area group without touching the graph, so that it can be
+     * called for several groups concurrently. The result is turned into edges by
+     * {@link #buildWithVisibility(GroupVisibility)}, which must be called on a single thread.
+     */
+    public GroupVisibility computeVisibility(AreaGroup group) {
+        long startTime = System.currentTimeMillis();
+        GroupVisibility result = new GroupVisibility(group);
 
         // create polygon and accumulate nodes for area
         for (Ring ring : group.outermostRings) {
 
-            AreaEdgeList edgeList = new AreaEdgeList();
+            RingVisibility ringVisibility = new RingVisibility(ring);
+            result.rings.add(ringVisibility);
             // the points corresponding to concave or hole vertices
             // or those linked to ways
             ArrayList<VLPoint> visibilityPoints = new ArrayList<VLPoint>();
@@ -176,7 +189,7 @@ public class WalkableAreaBuilder {
                 Collection<OSMNode> nodes = osmdb.getStopsInArea(area.parent);
                 if (nodes != null) {
                     for (OSMNode node : nodes) {
-                        addtoVisibilityAndStartSets(startingNodes, visibilityPoints,
+                        addtoVisibilityAndStartSets(result.startingNodes, visibilityPoints,
                                 visibilityNodes, node);
                     }
                 }
@@ -184,17 +197,15 @@ public class WalkableAreaBuilder {
                 for (Ring outerRing : area.outermostRings) {
                     for (int i = 0; i < outerRing.nodes.size(); ++i) {
                         OSMNode node = outerRing.nodes.get(i);
-                        createEdgesForRingSegment(edges, edgeList, area, outerRing, i,
-                                alreadyAddedEdges);
-                        addtoVisibilityAndStartSets(startingNodes, visibilityPoints,
+                        addRingSegment(ringVisibility, area, outerRing, i, alreadyAddedEdges);
+                        addtoVisibilityAndStartSets(result.startingNodes, visibilityPoints,
                                 visibilityNodes, node);
                     }
                     for (Ring innerRing : outerRing.holes) {
                         for (int j = 0; j < innerRing.nodes.size(); ++j) {
                             OSMNode node = innerRing.nodes.get(j);
-                            createEdgesForRingSegment(edges, edgeList, area, innerRing, j,
-                                    alreadyAddedEdges);
-                            addtoVisibilityAndStartSets(startingNodes, visibilityPoints,
+                            addRingSegment(ringVisibility, area, innerRing, j, alreadyAddedEdges);
+                            addtoVisibilityAndStartSets(result.startingNodes, visibilityPoints,
                                     visibilityNodes, node);
                         }
                     }
@@ -236,47 +247,151 @@ public class WalkableAreaBuilder {
                 continue;
             }
 
-            edgeList.setOriginalEdges(ring.toJtsPolygon());
-
-            createNamedAreas(edgeList, ring, group.areas);
-
-            OSMWithTags areaEntity = group.getSomeOSMObject();
+            ringVisibility.valid = true;
+            ringVisibility.visibilityNodes = visibilityNodes;
+            result.visibilityNodeCount += visibilityNodes.size();
 
+            GeometryFactory geometryFactory = GeometryUtils.getGeometryFactory();
             for (int i = 0; i < visibilityNodes.size(); ++i) {
                 OSMNode nodeI = visibilityNodes.get(i);
                 VisibilityPolygon visibilityPolygon = new VisibilityPolygon(
                         visibilityPoints.get(i), areaEnv, VISIBILITY_EPSILON);
                 Polygon poly = toJTSPolygon(visibilityPolygon);
+                if (poly == null) {
+                    continue;
+                }
                 for (int j = 0; j < visibilityNodes.size(); ++j) {
                     OSMNode nodeJ = visibilityNodes.get(j);
                     P2<OSMNode> nodePair = new P2<OSMNode>(nodeI, nodeJ);
                     if (alreadyAddedEdges.contains(nodePair))
                         continue;
 
-                    IntersectionVertex startEndpoint = __handler.getVertexForOsmNode(nodeI,
-                            areaEntity);
-                    IntersectionVertex endEndpoint = __handler.getVertexForOsmNode(nodeJ,
-                            areaEntity);
-
-                    Coordinate[] coordinates = new Coordinate[] { startEndpoint.getCoordinate(),
-                            endEndpoint.getCoordinate() };
-                    GeometryFactory geometryFactory = GeometryUtils.getGeometryFactory();
+                    // vertices for OSM nodes are always created at the node's coordinates
+                    Coordinate[] coordinates = new Coordinate[] {
+                            new Coordinate(nodeI.lon, nodeI.lat),
+                            new Coordinate(nodeJ.lon, nodeJ.lat) };
                     LineString line = geometryFactory.createLineString(coordinates);
-                    if (poly != null && poly.contains(line)) {
-
-                        createSegments(nodeI, nodeJ, startEndpoint, endEndpoint, group.areas,
-                                edgeList, edges);
-                        if (startingNodes.contains(nodeI)) {
-                            startingVertices.add(startEndpoint);
-                        }
-                        if (startingNodes.contains(nodeJ)) {
-                            startingVertices.add(endEndpoint);
-                        }
+                    if (poly.contains(line)) {
+                        ringVisibility.visiblePairs.add(nodePair);
                     }
                 }
             }
         }
+        result.computeMillis = System.currentTimeMillis() - startTime;
+        return result;
+    }
+
+    /**
+     * Creates the edges of a visibility graph computed by {@link #computeVisibility(AreaGroup)}.
+     */
+    public void buildWithVisibility(GroupVisibility visibility) {
+        AreaGroup group = visibility.group;
+        Set<Vertex> startingVertices = new HashSet<Vertex>();
+        Set<Edge> edges = new HashSet<Edge>();
+        OSMWithTags areaEntity = group.getSomeOSMObject();
+
+        for (RingVisibility ringVisibility : visibility.rings) {
+            AreaEdgeList edgeList = ringVisibility.edgeList;
+            for (RingSegment segment : ringVisibility.ringSegments) {
+                IntersectionVertex startEndpoint = __handler.getVertexForOsmNode(segment.from,
+                        segment.area.parent);
+                IntersectionVertex endEndpoint = __handler.getVertexForOsmNode(segment.to,
+                        segment.area.parent);
+                createSegments(segment.from, segment.to, startEndpoint, endEndpoint,
+                        Arrays.asList(segment.area), edgeList, edges);
+            }
+            if (!ringVisibility.valid) {
+                continue;
+            }
+
+            edgeList.setOriginalEdges(ringVisibility.ring.toJtsPolygon());
+
+            createNamedAreas(edgeList, ringVisibility.ring, group.areas);
+
+            // every visibility node gets a vertex, even if it ends up seeing no other node
+            for (OSMNode node : ringVisibility.visibilityNodes) {
+                __handler.getVertexForOsmNode(node, areaEntity);
+            }
+            for (P2<OSMNode> nodePair : ringVisibility.visiblePairs) {
+                OSMNode nodeI = nodePair.first;
+                OSMNode nodeJ = nodePair.second;
+                IntersectionVertex startEndpoint = __handler.getVertexForOsmNode(nodeI,
+                        areaEntity);
+                IntersectionVertex endEndpoint = __handler.getVertexForOsmNode(nodeJ,
+                        areaEntity);
+
+                createSegments(nodeI, nodeJ, startEndpoint, endEndpoint, group.areas,
+                        edgeList, edges);
+                if (visibility.startingNodes.contains(nodeI)) {
+                    startingVertices.add(startEndpoint);
+                }
+                if (visibility.startingNodes.contains(nodeJ)) {
+                    startingVertices.add(endEndpoint);
+                }
+            }
+        }
         pruneAreaEdges(startingVertices, edges);
+
+        if (visibility.computeMillis >= SLOW_VISIBILITY_MILLIS) {
+            LOG.info(graph.addBuilderAnnotation(new AreaVisibilitySlow(areaEntity.getId(),
+                    visibility.visibilityNodeCount, visibility.computeMillis)));
+        }
+    }
+
+    /** The visibility graph of an area group, computed but not yet added to the graph. */
+    public static class GroupVisibility {
+
+        final AreaGroup group;
+
+        final List<RingVisibility> rings = new ArrayList<RingVisibility>();
+
+        final Set<OSMNode> startingNodes = new HashSet<OSMNode>();
+
+        int visibilityNodeCount = 0;
+
+        long computeMillis;
+
+        GroupVisibility(AreaGroup group) {
+            this.group = group;
+        }
+    }
+
+    static class RingVisibility {
+
+        final Ring ring;
+
+        final AreaEdgeList edgeList = new AreaEdgeList();
+
+        /* The ring segments of the areas inside the ring, which get edges whether or not it is valid */
+        final List<RingSegment> ringSegments = new ArrayList<RingSegment>();
+
+        /* False if the ring is too complicated or invalid for visibility graph construction */
+        boolean valid = false;
+
+        /* The concave, shared and stop nodes of the ring, set once it is known to be valid */
+        List<OSMNode> visibilityNodes;
+
+        /* Pairs of visibility nodes which can see each other */
+        final List<P2<OSMNode>> visiblePairs = new ArrayList<P2<OSMNode>>();
+
+        RingVisibility(Ring ring) {
+            this.ring = ring;
+        }
+    }
+
+    static class RingSegment {
+
+        final Area area;
+
+        final OSMNode from;
+
+        final OSMNode to;
+
+        RingSegment(Area area, OSMNode from, OSMNode to) {
+            this.area = area;
+            this.from = from;
+            this.to = to;
+        }
     }
 
     class ListedEdgesOnly implements SkipEdgeStrategy {
@@ -369,6 +484,18 @@ public class WalkableAreaBuilder {
         return poly;
     }
 
+    private void addRingSegment(RingVisibility ringVisibility, Area area, Ring ring, int i,
+            HashSet<P2<OSMNode>> alreadyAddedEdges) {
+        OSMNode node = ring.nodes.get(i);
+        OSMNode nextNode = ring.nodes.get((i + 1) % ring.nodes.size());
+        P2<OSMNode> nodePair = new P2<OSMNode>(node, nextNode);
+        if (alreadyAddedEdges.contains(nodePair)) {
+            return;
+        }
+        alreadyAddedEdges.add(nodePair);
+        ringVisibility.ringSegments.add(new RingSegment(area, node, nextNode));
+    }
+
     private void createEdgesForRingSegment(Set<Edge> edges, AreaEdgeList edgeList, Area area,
             Ring ring, int i, HashSet<P2<OSMNode>> alreadyAddedEdges) {
         OSMNode node = ring.nodes.get(i);
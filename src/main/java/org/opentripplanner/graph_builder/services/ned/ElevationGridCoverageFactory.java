@@ -31,4 +31,7 @@ public interface ElevationGridCoverageFactory {
     public void checkInputs();
 
     public void setGraph(Graph graph);
+
+    /** Release anything kept for sampling the coverage, once the elevations have been applied. */
+    public void cleanup();
 }
\ No newline at end of file
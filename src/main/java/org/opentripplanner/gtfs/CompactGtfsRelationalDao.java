@@ -0,0 +1,213 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.gtfs;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TByteArrayList;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A GTFS DAO that does not keep stop times and shape points as objects. These two tables make up nearly all of a large
+ * feed, and as objects in the standard DAO (with its id maps and relational caches) a national feed with tens of
+ * millions of stop times needs an enormous heap. Here they are packed into primitive columns as the reader streams
+ * them in, grouped by trip or shape, and StopTime and ShapePoint objects are only created for one trip or shape at a
+ * time when the graph builder asks for them.
+ *
+ * Only getStopTimesForTrip, getShapePointsForShapeId and getAllStopTimes are supported for these entities. The other
+ * relational queries on stop times and shape points (by stop, all shape ids, etc.) will not see them.
+ */
+public class CompactGtfsRelationalDao extends GtfsRelationalDaoImpl {
+
+    /* Stop time columns, one row per stop time in the order they were read. */
+    private final TIntArrayList stopTimeIds = new TIntArrayList();
+    private final List<Stop> stops = new ArrayList<>();
+    private final TIntArrayList stopSequences = new TIntArrayList();
+    private final TIntArrayList arrivalTimes = new TIntArrayList();
+    private final TIntArrayList departureTimes = new TIntArrayList();
+    private final TIntArrayList timepoints = new TIntArrayList();
+    private final TByteArrayList pickupTypes = new TByteArrayList();
+    private final TByteArrayList dropOffTypes = new TByteArrayList();
+    private final TDoubleArrayList shapeDistTraveled = new TDoubleArrayList();
+    /* Most stop times have neither of these, so they are only stored for the rows that do. */
+    private final TIntObjectMap<String> stopHeadsigns = new TIntObjectHashMap<>();
+    private final TIntObjectMap<String> routeShortNames = new TIntObjectHashMap<>();
+
+    /* Trip identity rather than equality: trip ids are modified after loading, which would change their hash codes. */
+    private final Map<Trip, TIntList> stopTimeRowsForTrip = new IdentityHashMap<>();
+
+    /* Shape point columns, one row per shape point. */
+    private final TIntArrayList shapePointSequences = new TIntArrayList();
+    private final TDoubleArrayList shapePointLats = new TDoubleArrayList();
+    private final TDoubleArrayList shapePointLons = new TDoubleArrayList();
+    private final TDoubleArrayList shapePointDistTraveled = new TDoubleArrayList();
+
+    /* Keyed on the id string only, since all shapes in a feed get the same agency id after loading. */
+    private final Map<String, TIntList> shapePointRowsForShape = new HashMap<>();
+
+    private int nextId = 1;
+
+    @Override
+    public void saveEntity(Object entity) {
+        if (entity instanceof StopTime) {
+            addStopTime((StopTime) entity);
+        } else if (entity instanceof ShapePoint) {
+            addShapePoint((ShapePoint) entity);
+        } else {
+            super.saveEntity(entity);
+        }
+    }
+
+    private void addStopTime(StopTime st) {
+        int row = stopTimeIds.size();
+        stopTimeIds.add(nextId++);
+        stops.add(st.getStop());
+        stopSequences.add(st.getStopSequence());
+        arrivalTimes.add(st.getArrivalTime());
+        departureTimes.add(st.getDepartureTime());
+        timepoints.add(st.getTimepoint());
+        pickupTypes.add((byte) st.getPickupType());
+        dropOffTypes.add((byte) st.getDropOffType());
+        shapeDistTraveled.add(st.getShapeDistTraveled());
+        if (st.getStopHeadsign() != null) {
+            stopHeadsigns.put(row, st.getStopHeadsign());
+        }
+        if (st.getRouteShortName() != null) {
+            routeShortNames.put(row, st.getRouteShortName());
+        }
+        stopTimeRowsForTrip.computeIfAbsent(st.getTrip(), t -> new TIntArrayList()).add(row);
+    }
+
+    private void addShapePoint(ShapePoint sp) {
+        int row = shapePointSequences.size();
+        shapePointSequences.add(sp.getSequence());
+        shapePointLats.add(sp.getLat());
+        shapePointLons.add(sp.getLon());
+        shapePointDistTraveled.add(sp.getDistTraveled());
+        shapePointRowsForShape.computeIfAbsent(sp.getShapeId().getId(), s -> new TIntArrayList()).add(row);
+    }
+
+    /** Make StopTime objects for the given trip, sorted by stop sequence. */
+    @Override
+    public List<StopTime> getStopTimesForTrip(Trip trip) {
+        TIntList rows = stopTimeRowsForTrip.get(trip);
+        if (rows == null) {
+            return Collections.emptyList();
+        }
+        rows = sortedBy(rows, stopSequences);
+        List<StopTime> ret = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            int row = rows.get(i);
+            StopTime st = new StopTime();
+            st.setId(stopTimeIds.get(row));
+            st.setTrip(trip);
+            st.setStop(stops.get(row));
+            st.setStopSequence(stopSequences.get(row));
+            st.setArrivalTime(arrivalTimes.get(row));
+            st.setDepartureTime(departureTimes.get(row));
+            st.setTimepoint(timepoints.get(row));
+            st.setPickupType(pickupTypes.get(row));
+            st.setDropOffType(dropOffTypes.get(row));
+            st.setShapeDistTraveled(shapeDistTraveled.get(row));
+            st.setStopHeadsign(stopHeadsigns.get(row));
+            st.setRouteShortName(routeShortNames.get(row));
+            ret.add(st);
+        }
+        return Collections.unmodifiableList(ret);
+    }
+
+    /** Make StopTime objects for all trips. This defeats the purpose of this class and is only here for completeness. */
+    @Override
+    public Collection<StopTime> getAllStopTimes() {
+        List<StopTime> ret = new ArrayList<>(stopTimeIds.size());
+        for (Trip trip : stopTimeRowsForTrip.keySet()) {
+            ret.addAll(getStopTimesForTrip(trip));
+        }
+        return ret;
+    }
+
+    /** Make ShapePoint objects for the given shape, sorted by sequence. */
+    @Override
+    public List<ShapePoint> getShapePointsForShapeId(AgencyAndId shapeId) {
+        TIntList rows = shapePointRowsForShape.get(shapeId.getId());
+        if (rows == null) {
+            return Collections.emptyList();
+        }
+        rows = sortedBy(rows, shapePointSequences);
+        List<ShapePoint> ret = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            int row = rows.get(i);
+            ShapePoint sp = new ShapePoint();
+            sp.setId(nextId++);
+            sp.setShapeId(shapeId);
+            sp.setSequence(shapePointSequences.get(row));
+            sp.setLat(shapePointLats.get(row));
+            sp.setLon(shapePointLons.get(row));
+            sp.setDistTraveled(shapePointDistTraveled.get(row));
+            ret.add(sp);
+        }
+        return Collections.unmodifiableList(ret);
+    }
+
+    public int getStopTimeCount() {
+        return stopTimeIds.size();
+    }
+
+    public int getShapePointCount() {
+        return shapePointSequences.size();
+    }
+
+    /**
+     * Return the rows ordered by the given sequence column. Feeds are nearly always sorted already, in which case the
+     * rows are returned as they are.
+     */
+    private static TIntList sortedBy(TIntList rows, TIntList sequences) {
+        boolean sorted = true;
+        for (int i = 1; i < rows.size() && sorted; i++) {
+            sorted = sequences.get(rows.get(i - 1)) <= sequences.get(rows.get(i));
+        }
+        if (sorted) {
+            return rows;
+        }
+        // sort (sequence, row) pairs packed into longs, the row being non-negative it fits in the low bits
+        long[] keys = new long[rows.size()];
+        for (int i = 0; i < keys.length; i++) {
+            int row = rows.get(i);
+            keys[i] = ((long) sequences.get(row) << 32) | row;
+        }
+        Arrays.sort(keys);
+        TIntList ret = new TIntArrayList(keys.length);
+        for (long key : keys) {
+            ret.add((int) key);
+        }
+        return ret;
+    }
+}
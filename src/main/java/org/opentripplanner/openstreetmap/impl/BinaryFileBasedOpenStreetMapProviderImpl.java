@@ -13,49 +13,113 @@
 
 package org.opentripplanner.openstreetmap.impl;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import gnu.trove.list.array.TIntArrayList;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.opentripplanner.openstreetmap.model.OSMRelation;
+import org.opentripplanner.openstreetmap.model.OSMWay;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import crosby.binary.file.BlockInputStream;
+import crosby.binary.file.BlockReaderAdapter;
+import crosby.binary.file.FileBlock;
+import crosby.binary.file.FileBlockPosition;
 
 /**
  * Parser for the OpenStreetMap PBF format. Parses files in three passes:
  * First the relations, then the ways, then the nodes are also loaded.
  *
+ * Blobs are decompressed and decoded on a pool of threads, and the decoded entities are handed
+ * to the content handler on the calling thread in file order, so the handler does not need to be
+ * thread-safe. The first pass records which entity types each block contains; the later passes
+ * skip the blocks that cannot contain the entities they are looking for without decompressing
+ * them. In a standard sorted extract this means each block is only decoded twice at most.
+ *
  * @see http://wiki.openstreetmap.org/wiki/PBF_Format
  * @see org.opentripplanner.openstreetmap.services.graph_builder.services.osm.OpenStreetMapContentHandler#biPhase
  * @since 0.4
  */
 public class BinaryFileBasedOpenStreetMapProviderImpl implements OpenStreetMapProvider {
 
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryFileBasedOpenStreetMapProviderImpl.class);
+
+    /* Block contents for a data block which has not been decoded yet. */
+    private static final int UNKNOWN_CONTENTS = BinaryOpenStreetMapParser.NODES
+            | BinaryOpenStreetMapParser.WAYS | BinaryOpenStreetMapParser.RELATIONS;
+
     private File _path;
 
+    private int nThreads = Runtime.getRuntime().availableProcessors();
+
+    /* The entity types found in each block of the file by the last read, indexed by block position. */
+    TIntArrayList blockContents;
+
+    /* The number of data blocks decoded by each phase of the last read. */
+    final int[] decodedBlocks = new int[3];
+
     public void readOSM(OpenStreetMapContentHandler handler) {
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("osm-pbf-%d").build());
         try {
-            BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(handler);
+            blockContents = new TIntArrayList();
 
-            FileInputStream input = new FileInputStream(_path);
-            parser.setParseNodes(false);
-            parser.setParseWays(false);
-            (new BlockInputStream(input, parser)).process();
+            decodedBlocks[0] = readPhase(handler, executor, BinaryOpenStreetMapParser.RELATIONS);
             handler.doneFirstPhaseRelations();
 
-            input = new FileInputStream(_path);
-            parser.setParseRelations(false);
-            parser.setParseWays(true);
-            (new BlockInputStream(input, parser)).process();
+            decodedBlocks[1] = readPhase(handler, executor, BinaryOpenStreetMapParser.WAYS);
             handler.doneSecondPhaseWays();
 
-            input = new FileInputStream(_path);
-            parser.setParseNodes(true);
-            parser.setParseWays(false);
-            (new BlockInputStream(input, parser)).process();
+            decodedBlocks[2] = readPhase(handler, executor, BinaryOpenStreetMapParser.NODES);
             handler.doneThirdPhaseNodes();
         } catch (Exception ex) {
-            throw new IllegalStateException("error loading OSM from path " + _path, ex);        }
+            throw new IllegalStateException("error loading OSM from path " + _path, ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** @return the number of data blocks decoded. */
+    private int readPhase(OpenStreetMapContentHandler handler, ExecutorService executor,
+            int entityType) throws IOException {
+        InputStream input = new FileInputStream(_path);
+        try {
+            PhaseReader reader = new PhaseReader(handler, executor, entityType, blockContents);
+            (new BlockInputStream(input, reader)).process();
+            LOG.debug("Decoded {} of {} PBF blocks", reader.decodedBlocks, blockContents.size());
+            return reader.decodedBlocks;
+        } finally {
+            input.close();
+        }
+    }
+
+    /** Makes the parser that decodes one data block into the given buffer, on a thread of the pool. */
+    BinaryOpenStreetMapParser makeParser(OpenStreetMapContentHandler buffer) {
+        return new BinaryOpenStreetMapParser(buffer);
+    }
+
+    /**
+     * Sets the number of threads used to decode PBF blocks. Defaults to the number of available
+     * processors.
+     */
+    public void setThreadCount(int nThreads) {
+        this.nThreads = Math.max(1, nThreads);
     }
 
     public void setPath(File path) {
@@ -72,4 +136,157 @@ public class BinaryFileBasedOpenStreetMapProviderImpl implements OpenStreetMapPr
             throw new RuntimeException("Can't read OSM path: " + _path);
         }
     }
+
+    /**
+     * Reads the blocks of one pass over the file. Data blocks are decoded asynchronously and the
+     * results are replayed to the handler in order; the number of blocks in flight is bounded so
+     * that decoded entities do not pile up in memory when the handler is the bottleneck.
+     */
+    private class PhaseReader implements BlockReaderAdapter {
+
+        private final OpenStreetMapContentHandler handler;
+
+        private final ExecutorService executor;
+
+        private final int entityType;
+
+        private final TIntArrayList blockContents;
+
+        private final Deque<PendingBlock> pending = new ArrayDeque<PendingBlock>();
+
+        private int blockIndex = 0;
+
+        private int decodedBlocks = 0;
+
+        PhaseReader(OpenStreetMapContentHandler handler, ExecutorService executor,
+                int entityType, TIntArrayList blockContents) {
+            this.handler = handler;
+            this.executor = executor;
+            this.entityType = entityType;
+            this.blockContents = blockContents;
+        }
+
+        @Override
+        public boolean skipBlock(FileBlockPosition block) {
+            int index = blockIndex++;
+            boolean data = "OSMData".equals(block.getType());
+            if (index == blockContents.size()) {
+                // First time we see this block: the header is checked once, data is decoded.
+                blockContents.add(data ? UNKNOWN_CONTENTS : 0);
+                return !(data || "OSMHeader".equals(block.getType()));
+            }
+            return (blockContents.get(index) & entityType) == 0;
+        }
+
+        @Override
+        public void handleBlock(final FileBlock block) {
+            if (!"OSMData".equals(block.getType())) {
+                new BinaryOpenStreetMapParser(handler).handleBlock(block);
+                return;
+            }
+            Future<BlockBuffer> decoded = executor.submit(new Callable<BlockBuffer>() {
+                @Override
+                public BlockBuffer call() {
+                    BlockBuffer buffer = new BlockBuffer();
+                    BinaryOpenStreetMapParser parser = makeParser(buffer);
+                    parser.setParseNodes(entityType == BinaryOpenStreetMapParser.NODES);
+                    parser.setParseWays(entityType == BinaryOpenStreetMapParser.WAYS);
+                    parser.setParseRelations(entityType == BinaryOpenStreetMapParser.RELATIONS);
+                    parser.handleBlock(block);
+                    buffer.contents = parser.getBlockContents();
+                    return buffer;
+                }
+            });
+            pending.add(new PendingBlock(blockIndex - 1, decoded));
+            decodedBlocks++;
+            if (pending.size() > nThreads * 4) {
+                replayNext();
+            }
+        }
+
+        @Override
+        public void complete() {
+            while (!pending.isEmpty()) {
+                replayNext();
+            }
+        }
+
+        private void replayNext() {
+            PendingBlock next = pending.remove();
+            BlockBuffer buffer;
+            try {
+                buffer = next.decoded.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while decoding PBF blocks", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("error decoding PBF block " + next.index, e.getCause());
+            }
+            blockContents.set(next.index, buffer.contents);
+            buffer.replay(handler);
+        }
+    }
+
+    private static class PendingBlock {
+
+        final int index;
+
+        final Future<BlockBuffer> decoded;
+
+        PendingBlock(int index, Future<BlockBuffer> decoded) {
+            this.index = index;
+            this.decoded = decoded;
+        }
+    }
+
+    /** Collects the entities decoded from one block until they can be handed over in order. */
+    private static class BlockBuffer implements OpenStreetMapContentHandler {
+
+        private final List<OSMNode> nodes = new ArrayList<OSMNode>();
+
+        private final List<OSMWay> ways = new ArrayList<OSMWay>();
+
+        private final List<OSMRelation> relations = new ArrayList<OSMRelation>();
+
+        private int contents;
+
+        @Override
+        public void addNode(OSMNode node) {
+            nodes.add(node);
+        }
+
+        @Override
+        public void addWay(OSMWay way) {
+            ways.add(way);
+        }
+
+        @Override
+        public void addRelation(OSMRelation relation) {
+            relations.add(relation);
+        }
+
+        @Override
+        public void doneFirstPhaseRelations() {
+        }
+
+        @Override
+        public void doneSecondPhaseWays() {
+        }
+
+        @Override
+        public void doneThirdPhaseNodes() {
+        }
+
+        void replay(OpenStreetMapContentHandler handler) {
+            for (OSMRelation relation : relations) {
+                handler.addRelation(relation);
+            }
+            for (OSMWay way : ways) {
+                handler.addWay(way);
+            }
+            for (OSMNode node : nodes) {
+                handler.addNode(node);
+            }
+        }
+    }
 }
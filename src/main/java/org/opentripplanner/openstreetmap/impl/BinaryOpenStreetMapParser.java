@@ -16,9 +16,10 @@ package org.opentripplanner.openstreetmap.impl;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
 import org.opentripplanner.openstreetmap.model.*;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
 import crosby.binary.BinaryParser;
 import crosby.binary.Osmformat;
@@ -29,11 +30,20 @@ import crosby.binary.Osmformat;
  * @since 0.4
  */
 public class BinaryOpenStreetMapParser extends BinaryParser {
+
+    /** Bits of {@link #getBlockContents()}, one per entity type. */
+    public static final int NODES = 1;
+    public static final int WAYS = 2;
+    public static final int RELATIONS = 4;
+
+    /* Shared by the parsers decoding blocks in parallel, see BinaryFileBasedOpenStreetMapProviderImpl. */
+    private static final Interner<String> STRINGS = Interners.newWeakInterner();
+
     private OpenStreetMapContentHandler _handler;
     private boolean _parseWays = true;
     private boolean _parseRelations = true;
     private boolean _parseNodes = true;
-    private Map<String, String> stringTable = new HashMap<String, String>();
+    private int blockContents = 0;
 
     public BinaryOpenStreetMapParser(OpenStreetMapContentHandler handler) {
         _handler = handler;
@@ -42,14 +52,17 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
     // The strings are already being pulled from a string table in the PBF file,
     // but there appears to be a separate string table per 8k-entry PBF file block.
     // String.intern grinds to a halt on large PBF files (as it did on GTFS import), so 
-    // we implement our own. 
+    // we use our own, thread-safe one.
     public String internalize(String s) {
-        String fromTable = stringTable.get(s);
-        if (fromTable == null) {
-            stringTable.put(s, s);
-            return s;
-        } 
-        return fromTable;
+        return STRINGS.intern(s);
+    }
+
+    /**
+     * @return a bit mask of the entity types ({@link #NODES}, {@link #WAYS}, {@link #RELATIONS})
+     *         seen in the blocks parsed so far, whether or not they were passed to the handler.
+     */
+    public int getBlockContents() {
+        return blockContents;
     }
 
     public void complete() {
@@ -58,6 +71,9 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
 
     @Override
     protected void parseNodes(List<Osmformat.Node> nodes) {
+        if (!nodes.isEmpty()) {
+            blockContents |= NODES;
+        }
         if(!_parseNodes) {
             return;
         }
@@ -87,6 +103,9 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
         long lastId = 0, lastLat = 0, lastLon = 0;
         int j = 0; // Index into the keysvals array.
 
+        if (nodes.getIdCount() > 0) {
+            blockContents |= NODES;
+        }
         if(!_parseNodes) {
             return;
         }
@@ -128,6 +147,9 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
 
     @Override
     protected void parseWays(List<Osmformat.Way> ways) {
+        if (!ways.isEmpty()) {
+            blockContents |= WAYS;
+        }
         if(!_parseWays) {
             return;
         }
@@ -160,6 +182,9 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
 
     @Override
     protected void parseRelations(List<Osmformat.Relation> rels) {
+        if (!rels.isEmpty()) {
+            blockContents |= RELATIONS;
+        }
         if(!_parseRelations) {
             return;
         }
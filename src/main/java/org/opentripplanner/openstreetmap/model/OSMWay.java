@@ -16,12 +16,16 @@
 
 package org.opentripplanner.openstreetmap.model;
 
-import java.util.ArrayList;
+import gnu.trove.TDecorators;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+
 import java.util.List;
 
 public class OSMWay extends OSMWithTags {
 
-    private List<Long> _nodes = new ArrayList<Long>();
+    /* Node refs are kept unboxed; a planet-sized build holds hundreds of millions of them. */
+    private TLongArrayList _nodes = new TLongArrayList(4);
 
     public void addNodeRef(OSMNodeRef nodeRef) {
         _nodes.add(nodeRef.getRef());
@@ -32,10 +36,19 @@ public class OSMWay extends OSMWithTags {
     }
 
     public void addNodeRef(long nodeRef, int index) {
-        _nodes.add(index, nodeRef);
+        _nodes.insert(index, nodeRef);
     }
 
+    /**
+     * @return a boxing view of the node refs, backed by the primitive list. Prefer
+     *         {@link #getNodeRefList()} in loops over large numbers of ways.
+     */
     public List<Long> getNodeRefs() {
+        return TDecorators.wrap(_nodes);
+    }
+
+    /** @return the node refs of this way, without boxing. */
+    public TLongList getNodeRefList() {
         return _nodes;
     }
 
@@ -15,9 +15,14 @@
 
 package org.opentripplanner.openstreetmap.model;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 import org.opentripplanner.graph_builder.module.osm.TemplateLibrary;
 import org.opentripplanner.util.I18NString;
 import org.opentripplanner.util.NonLocalizedString;
@@ -29,8 +34,21 @@ import org.opentripplanner.util.TranslatedString;
 
 public class OSMWithTags {
 
-    /* To save memory this is only created when an entity actually has tags. */
-    private Map<String, String> _tags;
+    /**
+     * Interns tag keys and values. A large extract repeats the same few hundred keys and a small
+     * vocabulary of values ("yes", "residential"...) millions of times; the weak interner lets
+     * the strings be collected once the OSM entities are dropped at the end of the build.
+     */
+    private static final Interner<String> STRINGS = Interners.newWeakInterner();
+
+    /**
+     * Tags as a flat array of alternating keys and values, in insertion order. Entities carry a
+     * handful of tags at most, so a linear scan beats a HashMap and costs a fraction of its
+     * memory. To save memory this is only created when an entity actually has tags.
+     */
+    private String[] _tags;
+
+    private int _tagCount;
 
     protected long id;
 
@@ -54,10 +72,7 @@ public class OSMWithTags {
      * Adds a tag.
      */
     public void addTag(OSMTag tag) {
-        if (_tags == null)
-            _tags = new HashMap<String, String>();
-
-        _tags.put(tag.getK().toLowerCase(), tag.getV());
+        putTag(tag.getK().toLowerCase(), tag.getV());
     }
 
     /**
@@ -67,17 +82,46 @@ public class OSMWithTags {
         if (key == null || value == null)
             return;
 
-        if (_tags == null)
-            _tags = new HashMap<String, String>();
+        putTag(key.toLowerCase(), value);
+    }
+
+    private void putTag(String key, String value) {
+        int i = indexOfTag(key);
+        if (i >= 0) {
+            _tags[i + 1] = STRINGS.intern(value);
+            return;
+        }
+        if (_tags == null) {
+            _tags = new String[4];
+        } else if (_tagCount * 2 == _tags.length) {
+            _tags = Arrays.copyOf(_tags, _tags.length * 2);
+        }
+        _tags[_tagCount * 2] = STRINGS.intern(key);
+        _tags[_tagCount * 2 + 1] = STRINGS.intern(value);
+        _tagCount++;
+    }
 
-        _tags.put(key.toLowerCase(), value);
+    /** @return the position of the key in the tag array, or -1 if the key is not present. */
+    private int indexOfTag(String key) {
+        for (int i = 0; i < _tagCount * 2; i += 2) {
+            if (_tags[i].equals(key))
+                return i;
+        }
+        return -1;
     }
 
     /**
-     * The tags of an entity.
+     * The tags of an entity. This is a copy built on each call, or null if the entity has no tags.
      */
     public Map<String, String> getTags() {
-        return _tags;
+        if (_tags == null)
+            return null;
+
+        Map<String, String> tags = new LinkedHashMap<String, String>(_tagCount * 2);
+        for (int i = 0; i < _tagCount * 2; i += 2) {
+            tags.put(_tags[i], _tags[i + 1]);
+        }
+        return tags;
     }
 
     /**
@@ -85,7 +129,7 @@ public class OSMWithTags {
      */
     public boolean hasTag(String tag) {
         tag = tag.toLowerCase();
-        return _tags != null && _tags.containsKey(tag);
+        return indexOfTag(tag) >= 0;
     }
 
     /**
@@ -126,10 +170,8 @@ public class OSMWithTags {
     /** @return a tag's value, converted to lower case. */
     public String getTag(String tag) {
         tag = tag.toLowerCase();
-        if (_tags != null && _tags.containsKey(tag)) {
-            return _tags.get(tag);
-        }
-        return null;
+        int i = indexOfTag(tag);
+        return i >= 0 ? _tags[i + 1] : null;
     }
 
     /**
@@ -137,8 +179,9 @@ public class OSMWithTags {
      */
     public Boolean isTag(String tag, String value) {
         tag = tag.toLowerCase();
-        if (_tags != null && _tags.containsKey(tag) && value != null)
-            return value.equals(_tags.get(tag));
+        int i = indexOfTag(tag);
+        if (i >= 0 && value != null)
+            return value.equals(_tags[i + 1]);
 
         return false;
     }
@@ -148,30 +191,30 @@ public class OSMWithTags {
      * {@link org.opentripplanner.graph_builder.module.osm.OpenStreetMapModule#processRelations processRelations}
      */
     public I18NString getAssumedName() {
-        if (_tags.containsKey("name"))
+        if (hasTag("name"))
             return TranslatedString.getI18NString(TemplateLibrary.generateI18N("{name}", this));
 
-        if (_tags.containsKey("otp:route_name"))
-            return new NonLocalizedString(_tags.get("otp:route_name"));
+        if (hasTag("otp:route_name"))
+            return new NonLocalizedString(getTag("otp:route_name"));
 
         if (this.creativeName != null)
             return this.creativeName;
 
-        if (_tags.containsKey("otp:route_ref"))
-            return new NonLocalizedString(_tags.get("otp:route_ref"));
+        if (hasTag("otp:route_ref"))
+            return new NonLocalizedString(getTag("otp:route_ref"));
 
-        if (_tags.containsKey("ref"))
-            return new NonLocalizedString(_tags.get("ref"));
+        if (hasTag("ref"))
+            return new NonLocalizedString(getTag("ref"));
 
         return null;
     }
 
     public Map<String, String> getTagsByPrefix(String prefix) {
         Map<String, String> out = new HashMap<String, String>();
-        for (Map.Entry<String, String> entry : _tags.entrySet()) {
-            String k = entry.getKey();
+        for (int i = 0; i < _tagCount * 2; i += 2) {
+            String k = _tags[i];
             if (k.equals(prefix) || k.startsWith(prefix + ":")) {
-                out.put(k, entry.getValue());
+                out.put(k, _tags[i + 1]);
             }
         }
 
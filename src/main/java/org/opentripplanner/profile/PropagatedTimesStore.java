@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
@@ -50,6 +51,11 @@ import static org.apache.commons.math3.util.FastMath.toRadians;
  *
  * When exploring single-point (one-to-many) query results it would be great to have all these stored or produced on
  * demand for visualization.
+ *
+ * Results can be supplied all at once with setFromArray, or streamed in one search at a time with beginIterations,
+ * addIteration and finishIterations. The streaming form keeps only running statistics per target (and, for the
+ * percentile and bootstrap methods, a histogram of one-minute bins), so its memory use does not depend on the number
+ * of searches. The price is that percentiles and bootstrapped means are only accurate to the bin width.
  */
 public class PropagatedTimesStore {
 
@@ -69,6 +75,20 @@ public class PropagatedTimesStore {
 
     private static final Random random = new Random();
 
+    /** Width of the histogram bins used to compute percentiles and bootstraps when streaming, in seconds. */
+    public static final int HISTOGRAM_BIN_SECONDS = 60;
+
+    /** Number of histogram bins per target. Times beyond the maximum search duration go in the last bin. */
+    private static final int N_HISTOGRAM_BINS = RaptorWorker.MAX_DURATION / HISTOGRAM_BIN_SECONDS + 1;
+
+    // Running statistics used when results are streamed in, null otherwise.
+    private ConfidenceCalculationMethod streamingMethod;
+    private int iterationCount, averageIterationCount;
+    private int[] reachedCounts, averageCounts;
+    private long[] sums;
+    /** Flattened per-target histograms, N_HISTOGRAM_BINS consecutive counts for each target. */
+    private int[] histograms;
+
     public PropagatedTimesStore(Graph graph, ProfileRequest req) {
         this(graph, req, Vertex.getMaxIndex());
     }
@@ -223,6 +243,152 @@ public class PropagatedTimesStore {
         }
     }
 
+    /**
+     * Prepare to receive the results of searches one at a time through addIteration. This gives the same results as
+     * setFromArray for the MIN_MAX and NONE methods; percentiles and bootstraps are computed from histograms.
+     */
+    public void beginIterations (ConfidenceCalculationMethod confidenceCalculationMethod) {
+        beginIterations(confidenceCalculationMethod, null);
+    }
+
+    /**
+     * As beginIterations above, keeping the running statistics in the given buffers rather than allocating them, so
+     * that one set of buffers can be used for one origin after another. They must not be shared between stores that
+     * are receiving iterations at the same time.
+     */
+    public void beginIterations (ConfidenceCalculationMethod confidenceCalculationMethod, IterationBuffers buffers) {
+        boolean useHistograms = confidenceCalculationMethod == ConfidenceCalculationMethod.PERCENTILE ||
+                confidenceCalculationMethod == ConfidenceCalculationMethod.BOOTSTRAP;
+        if (buffers == null || buffers.size != size)
+            buffers = new IterationBuffers(size);
+        buffers.clear(useHistograms);
+
+        streamingMethod = confidenceCalculationMethod;
+        iterationCount = 0;
+        averageIterationCount = 0;
+        reachedCounts = buffers.reachedCounts;
+        averageCounts = buffers.averageCounts;
+        sums = buffers.sums;
+        histograms = useHistograms ? buffers.histograms : null;
+        // mins and maxs hold the running extrema until finishIterations
+        Arrays.fill(mins, Integer.MAX_VALUE);
+        Arrays.fill(maxs, Integer.MIN_VALUE);
+        Arrays.fill(avgs, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Merge the travel times to each target from one search into the running statistics. The array is not retained
+     * and may be reused by the caller.
+     *
+     * @param includeInAverages whether this search should be included in average calculations (see setFromArray).
+     */
+    public void addIteration (int[] times, boolean includeInAverages) {
+        if (streamingMethod == null)
+            throw new IllegalStateException("addIteration called before beginIterations");
+
+        iterationCount++;
+        if (includeInAverages) averageIterationCount++;
+
+        // bootstraps resample the averaged times only, percentiles use every search
+        boolean addToHistogram = histograms != null &&
+                (includeInAverages || streamingMethod == ConfidenceCalculationMethod.PERCENTILE);
+
+        for (int target = 0; target < times.length; target++) {
+            int time = times[target];
+            if (time == RaptorWorker.UNREACHED)
+                continue;
+
+            reachedCounts[target]++;
+            if (time < mins[target]) mins[target] = time;
+            if (time > maxs[target]) maxs[target] = time;
+
+            if (includeInAverages) {
+                sums[target] += time;
+                averageCounts[target]++;
+            }
+
+            if (addToHistogram)
+                histograms[target * N_HISTOGRAM_BINS + Math.min(time / HISTOGRAM_BIN_SECONDS, N_HISTOGRAM_BINS - 1)]++;
+        }
+    }
+
+    /** Compute the final statistics once all searches have been added, and release the running statistics. */
+    public void finishIterations () {
+        if (streamingMethod == null)
+            throw new IllegalStateException("finishIterations called before beginIterations");
+
+        IntStream.range(0, size).parallel().forEach(target -> {
+            int count = averageCounts[target];
+
+            // never reachable
+            if (count == 0) {
+                mins[target] = maxs[target] = Integer.MAX_VALUE;
+                return;
+            }
+
+            // see setFromArray for why partially reachable destinations are considered unreachable on average
+            if (count >= averageIterationCount * req.reachabilityThreshold)
+                avgs[target] = (int) (sums[target] / count);
+
+            switch (streamingMethod) {
+            case BOOTSTRAP:
+                // expand the histogram back into (binned) samples
+                int[] samples = new int[count];
+                for (int bin = 0, i = 0; bin < N_HISTOGRAM_BINS; bin++) {
+                    for (int c = histograms[target * N_HISTOGRAM_BINS + bin]; c > 0; c--) {
+                        samples[i++] = bin * HISTOGRAM_BIN_SECONDS + HISTOGRAM_BIN_SECONDS / 2;
+                    }
+                }
+
+                int[] bootMeans = new int[N_BOOTSTRAPS];
+                ThreadLocalRandom threadRandom = ThreadLocalRandom.current();
+                for (int boot = 0; boot < N_BOOTSTRAPS; boot++) {
+                    long bsum = 0;
+                    // sample from the Monte Carlo distribution with replacement
+                    for (int iter = 0; iter < count; iter++) {
+                        bsum += samples[threadRandom.nextInt(count)];
+                    }
+                    bootMeans[boot] = (int) (bsum / count);
+                }
+                Arrays.sort(bootMeans);
+                mins[target] = bootMeans[N_BOOTSTRAPS / 40];
+                maxs[target] = bootMeans[N_BOOTSTRAPS - N_BOOTSTRAPS / 40];
+                break;
+            case PERCENTILE:
+                int reached = reachedCounts[target];
+                // keep the binned percentiles within the exact extrema
+                int min = mins[target], max = maxs[target];
+                mins[target] = Math.max(min, Math.min(max, histogramQuantile(target, reached / 40)));
+                maxs[target] = Math.max(min, Math.min(max, histogramQuantile(target, 39 * reached / 40)));
+                break;
+            case NONE:
+                mins[target] = maxs[target] = avgs[target];
+                break;
+            case MIN_MAX:
+            default:
+                // worst case: if it is sometimes unreachable, worst case is unreachable
+                if (reachedCounts[target] != iterationCount)
+                    maxs[target] = Integer.MAX_VALUE;
+                break;
+            }
+        });
+
+        streamingMethod = null;
+        reachedCounts = averageCounts = histograms = null;
+        sums = null;
+    }
+
+    /** @return the travel time at the given rank in the histogram of the given target, as the middle of its bin. */
+    private int histogramQuantile (int target, int rank) {
+        int offset = target * N_HISTOGRAM_BINS;
+        for (int bin = 0; bin < N_HISTOGRAM_BINS; bin++) {
+            rank -= histograms[offset + bin];
+            if (rank < 0)
+                return bin * HISTOGRAM_BIN_SECONDS + HISTOGRAM_BIN_SECONDS / 2;
+        }
+        throw new IllegalArgumentException("Rank is beyond the number of times in the histogram");
+    }
+
     /**
      * Make a ResultEnvelope directly from a given SampleSet.
      * The RaptorWorkerData must have been constructed from the same SampleSet.
@@ -363,6 +529,35 @@ public class PropagatedTimesStore {
         return count;
     }
 
+    /** Running statistics for streamed searches, which can be reused from one store to the next. */
+    public static class IterationBuffers {
+
+        final int size;
+        final int[] reachedCounts, averageCounts;
+        final long[] sums;
+        /** Flattened per-target histograms, allocated the first time they are needed. */
+        int[] histograms;
+
+        public IterationBuffers (int size) {
+            this.size = size;
+            reachedCounts = new int[size];
+            averageCounts = new int[size];
+            sums = new long[size];
+        }
+
+        void clear (boolean useHistograms) {
+            Arrays.fill(reachedCounts, 0);
+            Arrays.fill(averageCounts, 0);
+            Arrays.fill(sums, 0);
+            if (useHistograms) {
+                if (histograms == null)
+                    histograms = new int[size * N_HISTOGRAM_BINS];
+                else
+                    Arrays.fill(histograms, 0);
+            }
+        }
+    }
+
     public static enum ConfidenceCalculationMethod {
         /** Do not calculate confidence intervals */
         NONE,
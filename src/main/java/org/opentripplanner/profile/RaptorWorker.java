@@ -15,6 +15,8 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.stream.IntStream;
 
 /**
@@ -111,22 +113,86 @@ public class RaptorWorker {
 
     private long totalPropagationTime = 0;
 
+    /** Time spent in frequency draws by this worker, used to apportion the wall clock time of parallel draws. */
+    private long totalDrawTime = 0;
+
     private FrequencyRandomOffsets offsets;
 
+    /**
+     * The boarding assumption used for frequency trips in the current search. This is a copy of the one in the
+     * request, because the extrema draws temporarily replace it and the request is shared between threads.
+     */
+    private RaptorWorkerTimetable.BoardingAssumption boardingAssumption;
+
+    /** Whether the frequency draws of each minute are run in parallel; turned off in tests to compare results. */
+    boolean parallelDraws = true;
+
+    // Scratch space for runRaptor, allocated on first use and kept so that a worker reset for another origin does
+    // not allocate it again. Scratch workers are owned by this worker rather than by the threads that run the draws,
+    // so they are released along with it: every one made is in scratchWorkers, those not running a draw are also in
+    // idleScratchWorkers.
+    private final Queue<RaptorWorker> scratchWorkers = new ConcurrentLinkedQueue<>();
+    private final Queue<RaptorWorker> idleScratchWorkers = new ConcurrentLinkedQueue<>();
+    private int[][] timesAtTargetsThisMinute;
+    private boolean[] includeDrawInAverages;
+    private int[] scheduledTimesAtTargets;
+    private PropagatedTimesStore.IterationBuffers iterationBuffers;
+
     public RaptorWorker(RaptorWorkerData data, ProfileRequest req) {
         this.data = data;
         // these should only reflect the results of the (deterministic) scheduled search
         this.bestTimes = new int[data.nStops];
         this.bestNonTransferTimes = new int[data.nStops];
         this.previousPatterns = new int[data.nStops];
-        Arrays.fill(previousPatterns, -1);
         allStopsTouched = new BitSet(data.nStops);
         stopsTouched = new BitSet(data.nStops);
         patternsTouched = new BitSet(data.nPatterns);
-        this.req = req; 
+        offsets = new FrequencyRandomOffsets(data);
+        reset(req);
+    }
+
+    /**
+     * Make a scratch worker for running frequency draws on another thread. It shares the (read-only) data and
+     * request with the given worker, but has its own state arrays, touched-stop and pattern sets and random offsets,
+     * so any number of them can search concurrently.
+     */
+    private RaptorWorker (RaptorWorker parent) {
+        this(parent.data, parent.req);
+    }
+
+    /** @return an idle scratch worker, making a new one if all of them are running draws. */
+    private RaptorWorker borrowScratchWorker () {
+        RaptorWorker worker = idleScratchWorkers.poll();
+        if (worker == null) {
+            worker = new RaptorWorker(this);
+            scratchWorkers.add(worker);
+        }
+        return worker;
+    }
+
+    /**
+     * Prepare this worker to search from another origin on the same data, keeping all its arrays. The request may
+     * differ in its origin but should otherwise have the same parameters as the one the data were made for.
+     */
+    public void reset (ProfileRequest req) {
+        this.req = req;
+        this.boardingAssumption = req.boardingAssumption;
         Arrays.fill(bestTimes, UNREACHED); // initialize once here and reuse on subsequent iterations.
         Arrays.fill(bestNonTransferTimes, UNREACHED);
-        offsets = new FrequencyRandomOffsets(data);
+        Arrays.fill(previousPatterns, -1);
+        allStopsTouched.clear();
+        stopsTouched.clear();
+        patternsTouched.clear();
+        round = 0;
+        max_time = 0;
+        totalPropagationTime = 0;
+        totalDrawTime = 0;
+        // scratch workers copy their state from this one before each draw, they only need the new request
+        for (RaptorWorker worker : scratchWorkers) {
+            worker.req = req;
+            worker.totalPropagationTime = 0;
+            worker.totalDrawTime = 0;
+        }
     }
 
     public void advance () {
@@ -154,6 +220,9 @@ public class RaptorWorker {
         }
 
         PropagatedTimesStore propagatedTimesStore = new PropagatedTimesStore(graph, this.req, data.nTargets);
+        // Results of a previous origin are in the store returned for it, the buffers below are only scratch space.
+        if (iterationBuffers == null)
+            iterationBuffers = new PropagatedTimesStore.IterationBuffers(data.nTargets);
 
         // optimization: if no schedules, only run Monte Carlo
         int fromTime = req.fromTime;
@@ -177,24 +246,42 @@ public class RaptorWorker {
 
         ts.searchCount = iterations;
 
-        // Iterate backward through minutes (range-raptor) taking a snapshot of router state after each call
-        int[][] timesAtTargetsEachIteration = new int[iterations][data.nTargets];
-
-        // for each iteration, whether it is the result of a schedule or Monte Carlo search, or whether it is an extrema.
-        // extrema are not included in averages.
-        boolean[] includeIterationInAverages = new boolean[iterations];
-        Arrays.fill(includeIterationInAverages, true);
+        // Iterate backward through minutes (range-raptor) taking a snapshot of router state after each call.
+        // Each snapshot is merged into the summary statistics as soon as it is made, so we only need room for the
+        // searches of a single minute rather than for the whole time window.
+        // we can use min_max here as we've also run it once with best case and worst case board,
+        // so the best and worst cases are meaningful.
+        propagatedTimesStore.beginIterations(PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX, iterationBuffers);
+        // the number of draws only depends on the data, so these can be kept from one origin to the next
+        int nDraws = data.hasFrequencies ? monteCarloDraws + 2 : 1;
+        if (timesAtTargetsThisMinute == null || timesAtTargetsThisMinute.length != nDraws) {
+            timesAtTargetsThisMinute = new int[nDraws][data.nTargets];
+            // for each draw, whether it is the result of a Monte Carlo search, or whether it is an extrema.
+            // extrema are not included in averages.
+            includeDrawInAverages = new boolean[nDraws];
+        }
+        final int[][] timesAtTargetsThisMinute = this.timesAtTargetsThisMinute;
+        final boolean[] includeDrawInAverages = this.includeDrawInAverages;
 
         // TODO don't hardwire timestep below
         ts.timeStep = 60;
 
         // times at targets from scheduled search
-        int[] scheduledTimesAtTargets = new int[data.nTargets];
+        if (scheduledTimesAtTargets == null)
+            scheduledTimesAtTargets = new int[data.nTargets];
+        final int[] scheduledTimesAtTargets = this.scheduledTimesAtTargets;
         Arrays.fill(scheduledTimesAtTargets, UNREACHED);
 
         // current iteration
         int iteration = 0;
 
+        // Frequency draws within a minute are independent of one another given the state of the scheduled search,
+        // so they are run in parallel. Each draw borrows a scratch worker from this one and returns it when done, so
+        // there are never more of them than draws running at once, and they are reused across draws, minutes and
+        // origins.
+        final int drawsPerMinute = monteCarloDraws + 2;
+        long frequencyWallTime = 0;
+
         // FIXME this should be changed to tolerate a zero-width time range
         for (int departureTime = req.toTime - 60, n = 0; departureTime >= fromTime; departureTime -= 60, n++) {
             if (n % 15 == 0) {
@@ -214,68 +301,53 @@ public class RaptorWorker {
 
             // run the frequency searches
             if (data.hasFrequencies) {
-                for (int i = 0; i < monteCarloDraws + 2; i++) {
-                    // make copies for just this search. We need copies because we can't use dynamic
-                    // programming/range-raptor with randomized schedules
-                    int[] bestTimesCopy = Arrays.copyOf(bestTimes, bestTimes.length);
-                    int[] bestNonTransferTimesCopy = Arrays
-                            .copyOf(bestNonTransferTimes, bestNonTransferTimes.length);
-                    int[] previousPatternsCopy = Arrays
-                            .copyOf(previousPatterns, previousPatterns.length);
-
-                    // special cases: calculate the best and the worst cases as well
-                    // Note that this (intentionally) does not affect searches where the user has requested
-                    // an assumption other than RANDOM, or stops with transfer rules.
-                    RaptorWorkerTimetable.BoardingAssumption requestedBoardingAssumption = req.boardingAssumption;
-
-                    if (i == 0 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
-                        // don't include extrema in averages
-                        includeIterationInAverages[iteration] = false;
-                    }
-                    else if (i == 1 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
+                final int dt = departureTime;
+                long beginFrequencyTime = System.currentTimeMillis();
+                IntStream draws = IntStream.range(0, drawsPerMinute);
+                (parallelDraws ? draws.parallel() : draws).forEach(i -> {
+                    RaptorWorker worker = borrowScratchWorker();
+                    try {
+                        // results go in a row fixed by the draw number, so the output does not depend on which
+                        // scratch worker or thread runs the draw
                         // don't include extrema in averages
-                        includeIterationInAverages[iteration] = false;
-                    }
-                    else if (requestedBoardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM)
-                        // use a new Monte Carlo draw each time
-                        // included in averages by default
-                        offsets.randomize();
-
-                    this.runRaptorFrequency(departureTime, bestTimesCopy, bestNonTransferTimesCopy,
-                            previousPatternsCopy);
-
-                    req.boardingAssumption = requestedBoardingAssumption;
-
-                    // do propagation
-                    int[] frequencyTimesAtTargets = timesAtTargetsEachIteration[iteration++];
-                    System.arraycopy(scheduledTimesAtTargets, 0, frequencyTimesAtTargets, 0,
-                            scheduledTimesAtTargets.length);
-                    // updates timesAtTargetsEachIteration directly because it has a reference into the array.
-                    this.doPropagation(bestNonTransferTimesCopy, frequencyTimesAtTargets,
-                            departureTime);
-
-                    // convert to elapsed time
-                    for (int t = 0; t < frequencyTimesAtTargets.length; t++) {
-                        if (frequencyTimesAtTargets[t] != UNREACHED)
-                            frequencyTimesAtTargets[t] -= departureTime;
+                        includeDrawInAverages[i] = !worker.runFrequencyDraw(this, i, scheduledTimesAtTargets,
+                                timesAtTargetsThisMinute[i], dt);
+                    } finally {
+                        idleScratchWorkers.add(worker);
                     }
+                });
+                frequencyWallTime += System.currentTimeMillis() - beginFrequencyTime;
+
+                for (int i = 0; i < drawsPerMinute; i++) {
+                    propagatedTimesStore.addIteration(timesAtTargetsThisMinute[i], includeDrawInAverages[i]);
                 }
+                iteration += drawsPerMinute;
             } else {
-                final int dt = departureTime;
-                timesAtTargetsEachIteration[iteration++] = IntStream.of(scheduledTimesAtTargets)
-                        .map(i -> i != UNREACHED ? i - dt : i)
-                        .toArray();
+                int[] elapsedTimesAtTargets = timesAtTargetsThisMinute[0];
+                for (int t = 0; t < elapsedTimesAtTargets.length; t++) {
+                    int time = scheduledTimesAtTargets[t];
+                    elapsedTimesAtTargets[t] = time != UNREACHED ? time - departureTime : time;
+                }
+                propagatedTimesStore.addIteration(elapsedTimesAtTargets, true);
+                iteration++;
             }
         }
 
-        // make sure we filled the array, otherwise results are garbage.
+        // make sure we ran the expected number of searches, otherwise the statistics are garbage.
         // This implies a bug in OTP, but it has happened in the past when we did
         // not set the number of iterations correctly.
-        // iteration should be incremented past end of array by ++ in assignment above
         if (iteration != iterations)
-            throw new IllegalStateException("Iterations did not completely fill output array");
+            throw new IllegalStateException("Number of searches run does not match the expected number of iterations");
+
+        // Propagation in the frequency draws happens on several threads at once, so rather than summing it we
+        // apportion the wall clock time of the parallel draws according to the share of it each thread spent propagating.
+        long drawTime = 0, drawPropagationTime = 0;
+        for (RaptorWorker worker : scratchWorkers) {
+            drawTime += worker.totalDrawTime;
+            drawPropagationTime += worker.totalPropagationTime;
+        }
+        if (drawTime > 0)
+            totalPropagationTime += frequencyWallTime * drawPropagationTime / drawTime;
 
         long calcTime = System.currentTimeMillis() - beginCalcTime;
         LOG.info("calc time {}sec", calcTime / 1000.0);
@@ -283,14 +355,62 @@ public class RaptorWorker {
         LOG.info("  raptor {}sec", (calcTime - totalPropagationTime) / 1000.0);
         ts.propagation = (int) totalPropagationTime;
         ts.transitSearch = (int) (calcTime - totalPropagationTime);
-        //dumpVariableByte(timesAtTargetsEachMinute);
-        // we can use min_max here as we've also run it once with best case and worst case board,
-        // so the best and worst cases are meaningful.
-        propagatedTimesStore.setFromArray(timesAtTargetsEachIteration, includeIterationInAverages,
-                PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
+        propagatedTimesStore.finishIterations();
         return propagatedTimesStore;
     }
 
+    /**
+     * Run one frequency draw on this scratch worker, starting from the state of the scheduled search in the given
+     * worker. Draws 0 and 1 are the worst and best cases when the requested boarding assumption is RANDOM; other
+     * draws use new random offsets.
+     *
+     * @param timesAtTargets receives the elapsed times to each target, which are the scheduled times improved by this draw.
+     * @return true if this draw is an extremum, which should not be included in averages.
+     */
+    private boolean runFrequencyDraw (RaptorWorker scheduled, int draw, int[] scheduledTimesAtTargets,
+            int[] timesAtTargets, int departureTime) {
+        long beginDrawTime = System.currentTimeMillis();
+
+        // make copies for just this search. We need copies because we can't use dynamic
+        // programming/range-raptor with randomized schedules
+        System.arraycopy(scheduled.bestTimes, 0, bestTimes, 0, bestTimes.length);
+        System.arraycopy(scheduled.bestNonTransferTimes, 0, bestNonTransferTimes, 0, bestNonTransferTimes.length);
+        System.arraycopy(scheduled.previousPatterns, 0, previousPatterns, 0, previousPatterns.length);
+
+        // special cases: calculate the best and the worst cases as well
+        // Note that this (intentionally) does not affect searches where the user has requested
+        // an assumption other than RANDOM, or stops with transfer rules.
+        boolean extremum = false;
+        boardingAssumption = req.boardingAssumption;
+        if (draw == 0 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
+            boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
+            extremum = true;
+        }
+        else if (draw == 1 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
+            boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
+            extremum = true;
+        }
+        else if (req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM)
+            // use a new Monte Carlo draw each time
+            // included in averages by default
+            offsets.randomize();
+
+        this.runRaptorFrequency(departureTime, bestTimes, bestNonTransferTimes, previousPatterns);
+
+        // do propagation
+        System.arraycopy(scheduledTimesAtTargets, 0, timesAtTargets, 0, scheduledTimesAtTargets.length);
+        this.doPropagation(bestNonTransferTimes, timesAtTargets, departureTime);
+
+        // convert to elapsed time
+        for (int t = 0; t < timesAtTargets.length; t++) {
+            if (timesAtTargets[t] != UNREACHED)
+                timesAtTargets[t] -= departureTime;
+        }
+
+        totalDrawTime += System.currentTimeMillis() - beginDrawTime;
+        return extremum;
+    }
+
     public void dumpVariableByte(int[][] array) {
         try {
             FileOutputStream fos = new FileOutputStream("/Users/abyrd/results.dat");
@@ -391,7 +511,7 @@ public class RaptorWorker {
                         for (int trip = 0; trip < timetable.getFrequencyTripCount(); trip++) {
                             int boardTime = timetable
                                     .getFrequencyDeparture(trip, stopPositionInPattern,
-                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, req.boardingAssumption);
+                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, boardingAssumption);
 
                             if (boardTime != -1 && boardTime < remainOnBoardTime) {
                                 // make sure we board the best frequency entry at a stop
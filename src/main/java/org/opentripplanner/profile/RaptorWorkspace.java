@@ -0,0 +1,41 @@
+package org.opentripplanner.profile;
+
+/**
+ * Scratch structures for repeated RAPTOR searches that are kept from one origin to the next, so that a worker
+ * routing a batch of origins on the same RAPTOR data does not reallocate them for every origin: the RAPTOR worker with
+ * its state arrays and running statistics, and the array of street travel times to every vertex.
+ *
+ * Results are never left in a workspace, so it can be reused as soon as a search has returned. A workspace must
+ * only be used by one thread at a time.
+ */
+public class RaptorWorkspace {
+
+    private RaptorWorker raptorWorker;
+
+    private int[] vertexTimes;
+
+    /**
+     * @return a RAPTOR worker for the given data, ready to search from the origin of the given request. The worker
+     * from the previous search is reset and returned if it was for the same data.
+     */
+    public RaptorWorker getRaptorWorker (RaptorWorkerData data, ProfileRequest req) {
+        if (raptorWorker == null || raptorWorker.data != data) {
+            raptorWorker = new RaptorWorker(data, req);
+        } else {
+            raptorWorker.reset(req);
+        }
+        return raptorWorker;
+    }
+
+    /**
+     * @return an array with at least the given number of elements, with unspecified contents. Every search adds a
+     * few temporary vertices to the graph, so a larger array than needed is allocated to avoid doing so again for
+     * every origin.
+     */
+    public int[] getVertexTimes (int minLength) {
+        if (vertexTimes == null || vertexTimes.length < minLength) {
+            vertexTimes = new int[minLength + minLength / 16 + 1024];
+        }
+        return vertexTimes;
+    }
+}
@@ -89,6 +89,12 @@ public class RepeatedRaptorProfileRouter {
     // Set this field to true before routing if you want the full travel times included in your response.
     public boolean includeTimes = false;
 
+    /**
+     * Set this field before routing to reuse scratch structures from previous searches on the same thread, e.g. when
+     * routing a batch of origins. If it is null everything is allocated for this search only.
+     */
+    public RaptorWorkspace workspace;
+
     /**
      * Make a router to use for making time surfaces only.
      *
@@ -149,7 +155,10 @@ public class RepeatedRaptorProfileRouter {
         // This will return null if we have no transit data, but will leave behind a pre-transit SPT.
         TIntIntMap transitStopAccessTimes = findInitialStops(false, raptorWorkerData);
         // Create an array containing the best travel time in seconds to each vertex in the graph when not using transit.
-        int[] nonTransitTimes = new int[Vertex.getMaxIndex()];
+        // When the times will be evaluated at samples, the array is only scratch space and can come from the workspace
+        // (where it may be longer than needed). Otherwise the array itself is used as the times at the targets.
+        int[] nonTransitTimes = (workspace != null && sampleSet != null) ?
+                workspace.getVertexTimes(Vertex.getMaxIndex()) : new int[Vertex.getMaxIndex()];
         Arrays.fill(nonTransitTimes, Integer.MAX_VALUE);
         for (State state : preTransitSpt.getAllStates()) {
             // Note that we are using the walk distance divided by speed here in order to be consistent with the
@@ -176,7 +185,8 @@ public class RepeatedRaptorProfileRouter {
         ts.walkSearch = (int) (System.currentTimeMillis() - walkSearchStart);
 
         if (transit) {
-            RaptorWorker worker = new RaptorWorker(raptorWorkerData, request);
+            RaptorWorker worker = workspace != null ?
+                    workspace.getRaptorWorker(raptorWorkerData, request) : new RaptorWorker(raptorWorkerData, request);
             propagatedTimesStore = worker.runRaptor(graph, transitStopAccessTimes, nonTransitTimes, ts);
             ts.initialStopCount = transitStopAccessTimes.size();
         } else {
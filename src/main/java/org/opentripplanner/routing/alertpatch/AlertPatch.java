@@ -86,11 +86,13 @@ public class AlertPatch implements Serializable {
     }
 
     public boolean displayDuring(State state) {
+        // Time periods are sorted by start time, see setTimePeriods
         for (TimePeriod timePeriod : timePeriods) {
-            if (state.getTimeSeconds() >= timePeriod.startTime) {
-                if (state.getStartTimeSeconds() < timePeriod.endTime) {
-                    return true;
-                }
+            if (state.getTimeSeconds() < timePeriod.startTime) {
+                break;
+            }
+            if (state.getStartTimeSeconds() < timePeriod.endTime) {
+                return true;
             }
         }
         return false;
@@ -238,8 +240,13 @@ public class AlertPatch implements Serializable {
         os.defaultWriteObject();
     }
 
+    /**
+     * Set the periods during which this patch is displayed, kept sorted by start time. Null, as
+     * passed by patches built without periods, means no periods.
+     */
     public void setTimePeriods(List<TimePeriod> periods) {
-        timePeriods = periods;
+        timePeriods = periods == null ? new ArrayList<TimePeriod>() : new ArrayList<TimePeriod>(periods);
+        timePeriods.sort(Comparator.comparingLong((TimePeriod period) -> period.startTime));
     }
 
     public String getAgency() {
@@ -0,0 +1,86 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.alertpatch;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import org.onebusaway.gtfs.model.AgencyAndId;
+
+import java.util.Collection;
+
+/**
+ * An immutable index of alert patches by stop, route, trip and agency. A new index is built
+ * whenever the set of active patches changes and swapped in as a whole, so readers never need to
+ * lock and always see a consistent set of patches.
+ */
+public class AlertPatchIndex {
+
+    public static final AlertPatchIndex EMPTY = new AlertPatchIndex(ImmutableList.<AlertPatch>of());
+
+    private final ImmutableList<AlertPatch> all;
+
+    private final ImmutableListMultimap<AgencyAndId, AlertPatch> byStop;
+
+    private final ImmutableListMultimap<AgencyAndId, AlertPatch> byRoute;
+
+    private final ImmutableListMultimap<AgencyAndId, AlertPatch> byTrip;
+
+    private final ImmutableListMultimap<String, AlertPatch> byAgency;
+
+    public AlertPatchIndex(Collection<AlertPatch> patches) {
+        ImmutableListMultimap.Builder<AgencyAndId, AlertPatch> stops = ImmutableListMultimap.builder();
+        ImmutableListMultimap.Builder<AgencyAndId, AlertPatch> routes = ImmutableListMultimap.builder();
+        ImmutableListMultimap.Builder<AgencyAndId, AlertPatch> trips = ImmutableListMultimap.builder();
+        ImmutableListMultimap.Builder<String, AlertPatch> agencies = ImmutableListMultimap.builder();
+        for (AlertPatch patch : patches) {
+            if (patch.getStop() != null) {
+                stops.put(patch.getStop(), patch);
+            }
+            if (patch.getRoute() != null) {
+                routes.put(patch.getRoute(), patch);
+            }
+            if (patch.getTrip() != null) {
+                trips.put(patch.getTrip(), patch);
+            }
+            if (patch.getAgency() != null) {
+                agencies.put(patch.getAgency(), patch);
+            }
+        }
+        all = ImmutableList.copyOf(patches);
+        byStop = stops.build();
+        byRoute = routes.build();
+        byTrip = trips.build();
+        byAgency = agencies.build();
+    }
+
+    public Collection<AlertPatch> getAll() {
+        return all;
+    }
+
+    public Collection<AlertPatch> getStopPatches(AgencyAndId stop) {
+        return byStop.get(stop);
+    }
+
+    public Collection<AlertPatch> getRoutePatches(AgencyAndId route) {
+        return byRoute.get(route);
+    }
+
+    public Collection<AlertPatch> getTripPatches(AgencyAndId trip) {
+        return byTrip.get(trip);
+    }
+
+    public Collection<AlertPatch> getAgencyPatches(String agency) {
+        return byAgency.get(agency);
+    }
+}
@@ -78,6 +78,7 @@ public class StreetEdge extends Edge implements Cloneable {
     private static final int STAIRS_FLAG_INDEX = 4;
     private static final int SLOPEOVERRIDE_FLAG_INDEX = 5;
     private static final int WHEELCHAIR_ACCESSIBLE_FLAG_INDEX = 6;
+    private static final int TURNRESTRICTIONS_FLAG_INDEX = 7;
 
     /** back, roundabout, stairs, ... */
     private byte flags;
@@ -759,6 +760,19 @@ public class StreetEdge extends Edge implements Cloneable {
 		this.carSpeed = carSpeed;
 	}
 
+	/**
+	 * True if the graph holds turn restrictions starting on this edge. Maintained by
+	 * {@link Graph#addTurnRestriction} and {@link Graph#removeTurnRestriction}, and used to skip
+	 * the restriction lookup for the vast majority of edges.
+	 */
+	public boolean hasTurnRestrictions() {
+	    return BitSetUtils.get(flags, TURNRESTRICTIONS_FLAG_INDEX);
+	}
+
+	public void setHasTurnRestrictions(boolean hasTurnRestrictions) {
+	    flags = BitSetUtils.set(flags, TURNRESTRICTIONS_FLAG_INDEX, hasTurnRestrictions);
+	}
+
 	public boolean isSlopeOverride() {
 	    return BitSetUtils.get(flags, SLOPEOVERRIDE_FLAG_INDEX);
 	}
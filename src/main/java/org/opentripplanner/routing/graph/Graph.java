@@ -55,6 +55,7 @@ import org.opentripplanner.traffic.StreetSpeedSnapshotSource;
 import org.opentripplanner.updater.GraphUpdaterConfigurator;
 import org.opentripplanner.updater.GraphUpdaterManager;
 import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
+import org.opentripplanner.util.ArrayUtils;
 import org.opentripplanner.util.WorldEnvelope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -77,9 +78,23 @@ public class Graph implements Serializable {
     // TODO Remove this field, use Router.routerId ?
     public String routerId;
 
-    private final Map<Edge, Set<AlertPatch>> alertPatches = new HashMap<Edge, Set<AlertPatch>>(0);
+    /**
+     * Alert patches by edge. The arrays are never modified once stored, they are replaced on every
+     * change, so that routing and itinerary building threads can read them without locking.
+     * Writers synchronize on the map.
+     */
+    private final Map<Edge, AlertPatch[]> alertPatches = new ConcurrentHashMap<Edge, AlertPatch[]>(0);
 
-    private final Map<Edge, List<TurnRestriction>> turnRestrictions = Maps.newHashMap();
+    private static final AlertPatch[] NO_ALERT_PATCHES = new AlertPatch[0];
+
+    /**
+     * Turn restrictions by from-edge. The lists stored here are immutable and are replaced as a
+     * whole when a restriction is added or removed, so they can be handed out to routing threads
+     * without copying. Street edges having an entry are also flagged (see
+     * {@link StreetEdge#hasTurnRestrictions()}) so that the common case of an unrestricted edge
+     * never touches this map.
+     */
+    private final Map<Edge, List<TurnRestriction>> turnRestrictions = new ConcurrentHashMap<>();
 
     public final StreetNotesService streetNotesService = new StreetNotesService();
 
@@ -333,29 +348,27 @@ public class Graph implements Serializable {
     }
 
     /**
-     * Add an {@link AlertPatch} to the {@link AlertPatch} {@link Set} belonging to an {@link Edge}.
+     * Add an {@link AlertPatch} to the {@link AlertPatch} array belonging to an {@link Edge}, unless
+     * an equal patch is already present.
      * @param edge
      * @param alertPatch
      */
     public void addAlertPatch(Edge edge, AlertPatch alertPatch) {
         if (edge == null || alertPatch == null) return;
         synchronized (alertPatches) {
-            Set<AlertPatch> alertPatches = this.alertPatches.get(edge);
+            AlertPatch[] alertPatches = this.alertPatches.get(edge);
             if (alertPatches == null) {
-                this.alertPatches.put(edge, Collections.singleton(alertPatch));
-            } else if (alertPatches instanceof HashSet) {
-                alertPatches.add(alertPatch);
-            } else {
-                alertPatches = new HashSet<AlertPatch>(alertPatches);
-                if (alertPatches.add(alertPatch)) {
-                    this.alertPatches.put(edge, alertPatches);
-                }
+                this.alertPatches.put(edge, new AlertPatch[] { alertPatch });
+            } else if (!ArrayUtils.contains(alertPatches, alertPatch)) {
+                AlertPatch[] newAlertPatches = Arrays.copyOf(alertPatches, alertPatches.length + 1);
+                newAlertPatches[alertPatches.length] = alertPatch;
+                this.alertPatches.put(edge, newAlertPatches);
             }
         }
     }
 
     /**
-     * Remove an {@link AlertPatch} from the {@link AlertPatch} {@link Set} belonging to an
+     * Remove an {@link AlertPatch} from the {@link AlertPatch} array belonging to an
      * {@link Edge}.
      * @param edge
      * @param alertPatch
@@ -363,53 +376,59 @@ public class Graph implements Serializable {
     public void removeAlertPatch(Edge edge, AlertPatch alertPatch) {
         if (edge == null || alertPatch == null) return;
         synchronized (alertPatches) {
-            Set<AlertPatch> alertPatches = this.alertPatches.get(edge);
-            if (alertPatches != null && alertPatches.contains(alertPatch)) {
-                if (alertPatches.size() < 2) {
+            AlertPatch[] alertPatches = this.alertPatches.get(edge);
+            if (alertPatches != null && ArrayUtils.contains(alertPatches, alertPatch)) {
+                if (alertPatches.length < 2) {
                     this.alertPatches.remove(edge);
                 } else {
-                    alertPatches.remove(alertPatch);
+                    List<AlertPatch> remaining = Lists.newArrayList(alertPatches);
+                    remaining.remove(alertPatch);
+                    this.alertPatches.put(edge, remaining.toArray(new AlertPatch[remaining.size()]));
                 }
             }
         }
     }
 
     /**
-     * Get the {@link AlertPatch} {@link Set} that belongs to an {@link Edge} and build a new array.
+     * Get the {@link AlertPatch} array that belongs to an {@link Edge}. This does not lock or
+     * allocate: the returned array is shared and must not be modified by the caller.
      * @param edge
      * @return The {@link AlertPatch} array that belongs to the {@link Edge}
      */
     public AlertPatch[] getAlertPatches(Edge edge) {
         if (edge != null) {
-            synchronized (alertPatches) {
-                Set<AlertPatch> alertPatches = this.alertPatches.get(edge);
-                if (alertPatches != null) {
-                    return alertPatches.toArray(new AlertPatch[alertPatches.size()]);
-                }
+            AlertPatch[] alertPatches = this.alertPatches.get(edge);
+            if (alertPatches != null) {
+                return alertPatches;
             }
         }
-        return new AlertPatch[0];
+        return NO_ALERT_PATCHES;
     }
 
     /**
      * Add a {@link TurnRestriction} to the {@link TurnRestriction} {@link List} belonging to an
-     * {@link Edge}. This method is not thread-safe.
+     * {@link Edge}. The list is copied on write, so this may be called while routing is in progress,
+     * but concurrent calls to addTurnRestriction and removeTurnRestriction must be serialized by
+     * the caller.
      * @param edge
      * @param turnRestriction
      */
     public void addTurnRestriction(Edge edge, TurnRestriction turnRestriction) {
         if (edge == null || turnRestriction == null) return;
         List<TurnRestriction> turnRestrictions = this.turnRestrictions.get(edge);
-        if (turnRestrictions == null) {
-            turnRestrictions = Lists.newArrayList();
-            this.turnRestrictions.put(edge, turnRestrictions);
+        ImmutableList.Builder<TurnRestriction> builder = ImmutableList.builder();
+        if (turnRestrictions != null) {
+            builder.addAll(turnRestrictions);
+        }
+        this.turnRestrictions.put(edge, builder.add(turnRestriction).build());
+        if (edge instanceof StreetEdge) {
+            ((StreetEdge) edge).setHasTurnRestrictions(true);
         }
-        turnRestrictions.add(turnRestriction);
     }
 
     /**
      * Remove a {@link TurnRestriction} from the {@link TurnRestriction} {@link List} belonging to
-     * an {@link Edge}. This method is not thread-safe.
+     * an {@link Edge}. The same thread-safety rules as for addTurnRestriction apply.
      * @param edge
      * @param turnRestriction
      */
@@ -419,24 +438,33 @@ public class Graph implements Serializable {
         if (turnRestrictions != null && turnRestrictions.contains(turnRestriction)) {
             if (turnRestrictions.size() < 2) {
                 this.turnRestrictions.remove(edge);
+                if (edge instanceof StreetEdge) {
+                    ((StreetEdge) edge).setHasTurnRestrictions(false);
+                }
             } else {
-                turnRestrictions.remove(turnRestriction);
+                List<TurnRestriction> remaining = Lists.newArrayList(turnRestrictions);
+                remaining.remove(turnRestriction);
+                this.turnRestrictions.put(edge, ImmutableList.copyOf(remaining));
             }
         }
     }
 
     /**
-     * Get the {@link TurnRestriction} {@link List} that belongs to an {@link Edge} and return an
-     * immutable copy. This method is thread-safe when used by itself, but not if addTurnRestriction
-     * or removeTurnRestriction is called concurrently.
+     * Get the {@link TurnRestriction} {@link List} that belongs to an {@link Edge}. The returned
+     * list is immutable and is never modified afterwards, so this method does not allocate and is
+     * safe to call from routing threads even while restrictions are being updated.
      * @param edge
      * @return The {@link TurnRestriction} {@link List} that belongs to the {@link Edge}
      */
     public List<TurnRestriction> getTurnRestrictions(Edge edge) {
         if (edge != null) {
+            // Fast path: street edges know whether they have any restriction at all.
+            if (edge instanceof StreetEdge && !((StreetEdge) edge).hasTurnRestrictions()) {
+                return Collections.emptyList();
+            }
             List<TurnRestriction> turnRestrictions = this.turnRestrictions.get(edge);
             if (turnRestrictions != null) {
-                return ImmutableList.copyOf(turnRestrictions);
+                return turnRestrictions;
             }
         }
         return Collections.emptyList();
@@ -703,6 +731,13 @@ public class Graph implements Serializable {
      * TODO: do we really need a factory for different street vertex indexes?
      */
     public void index(StreetVertexIndexFactory indexFactory) {
+        // Make sure the turn restriction flags agree with the restriction table (e.g. for graphs
+        // saved before the flag existed).
+        for (Edge edge : turnRestrictions.keySet()) {
+            if (edge instanceof StreetEdge) {
+                ((StreetEdge) edge).setHasTurnRestrictions(true);
+            }
+        }
         streetIndex = indexFactory.newIndex(this);
         LOG.debug("street index built.");
         LOG.debug("Rebuilding edge and vertex indices.");
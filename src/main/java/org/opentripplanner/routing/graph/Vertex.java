@@ -232,6 +232,11 @@ public abstract class Vertex implements Serializable, Cloneable {
         return this.name.toString(locale);
     }
 
+    /** Rename this vertex, for vertices whose name comes from a real-time feed such as bike rental stations */
+    public void setName(I18NString name) {
+        this.name = name;
+    }
+
     /* FIELD ACCESSOR METHODS : READ ONLY */
 
     /** Every vertex has a label which is globally unique. */
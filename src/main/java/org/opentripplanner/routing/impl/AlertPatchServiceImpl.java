@@ -15,33 +15,30 @@ package org.opentripplanner.routing.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
-import javax.ws.rs.core.Context;
-
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
+import org.opentripplanner.routing.alertpatch.AlertPatchIndex;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.services.AlertPatchService;
-import org.opentripplanner.routing.services.GraphService;
-
-import com.google.common.collect.LinkedListMultimap;
-import com.google.common.collect.ListMultimap;
-import org.opentripplanner.standalone.OTPApplication;
-import org.opentripplanner.standalone.OTPServer;
 
+/**
+ * Keeps track of the active alert patches. Modifications are serialized and each one publishes a
+ * new immutable {@link AlertPatchIndex}, so the lookup methods never block, even while a large
+ * batch of alerts is being applied.
+ */
 public class AlertPatchServiceImpl implements AlertPatchService {
 
     private Graph graph;
 
-    private Map<String, AlertPatch> alertPatches = new HashMap<String, AlertPatch>();
-    private ListMultimap<AgencyAndId, AlertPatch> patchesByRoute = LinkedListMultimap.create();
-    private ListMultimap<AgencyAndId, AlertPatch> patchesByStop = LinkedListMultimap.create();
+    /** The active patches by id. Only accessed by threads holding the lock on this service. */
+    private Map<String, AlertPatch> alertPatches = new LinkedHashMap<String, AlertPatch>();
+
+    private volatile AlertPatchIndex index = AlertPatchIndex.EMPTY;
 
     public AlertPatchServiceImpl(Graph graph) {
         this.graph = graph;
@@ -49,90 +46,95 @@ public class AlertPatchServiceImpl implements AlertPatchService {
 
     @Override
     public Collection<AlertPatch> getAllAlertPatches() {
-        return alertPatches.values();
+        return index.getAll();
     }
 
     @Override
     public Collection<AlertPatch> getStopPatches(AgencyAndId stop) {
-        List<AlertPatch> result = patchesByStop.get(stop);
-        if (result == null) {
-            result = Collections.emptyList();
-        }
-        return result;
+        return index.getStopPatches(stop);
     }
 
     @Override
     public Collection<AlertPatch> getRoutePatches(AgencyAndId route) {
-        List<AlertPatch> result = patchesByRoute.get(route);
-        if (result == null) {
-            result = Collections.emptyList();
-        }
-        return result;
-
+        return index.getRoutePatches(route);
     }
 
     @Override
-    public synchronized void apply(AlertPatch alertPatch) {
-        if (alertPatches.containsKey(alertPatch.getId())) {
-            expire(alertPatches.get(alertPatch.getId()));
-        }
+    public Collection<AlertPatch> getTripPatches(AgencyAndId trip) {
+        return index.getTripPatches(trip);
+    }
 
-        alertPatch.apply(graph);
-        alertPatches.put(alertPatch.getId(), alertPatch);
+    @Override
+    public Collection<AlertPatch> getAgencyPatches(String agency) {
+        return index.getAgencyPatches(agency);
+    }
 
-        AgencyAndId stop = alertPatch.getStop();
-        if (stop != null) {
-            patchesByStop.put(stop, alertPatch);
-        }
-        AgencyAndId route = alertPatch.getRoute();
-        if (route != null) {
-            patchesByRoute.put(route, alertPatch);
-        }
+    @Override
+    public synchronized void apply(AlertPatch alertPatch) {
+        applyWithoutPublishing(alertPatch);
+        publish();
     }
 
     @Override
-    public void expire(Set<String> purge) {
-        for (String patchId : purge) {
-            if (alertPatches.containsKey(patchId)) {
-                expire(alertPatches.get(patchId));
-            }
+    public synchronized void expireAndApply(Set<String> purge, Collection<AlertPatch> patches) {
+        expireWithoutPublishing(purge);
+        for (AlertPatch alertPatch : patches) {
+            applyWithoutPublishing(alertPatch);
         }
+        publish();
+    }
 
-        alertPatches.keySet().removeAll(purge);
+    @Override
+    public synchronized void expire(Set<String> purge) {
+        expireWithoutPublishing(purge);
+        publish();
     }
 
     @Override
-    public void expireAll() {
+    public synchronized void expireAll() {
         for (AlertPatch alertPatch : alertPatches.values()) {
-            expire(alertPatch);
+            alertPatch.remove(graph);
         }
         alertPatches.clear();
+        publish();
     }
 
     @Override
-    public void expireAllExcept(Set<String> retain) {
+    public synchronized void expireAllExcept(Set<String> retain) {
         ArrayList<String> toRemove = new ArrayList<String>();
 
         for (Entry<String, AlertPatch> entry : alertPatches.entrySet()) {
             final String key = entry.getKey();
             if (!retain.contains(key)) {
                 toRemove.add(key);
-                expire(entry.getValue());
+                entry.getValue().remove(graph);
             }
         }
         alertPatches.keySet().removeAll(toRemove);
+        publish();
     }
 
-    private void expire(AlertPatch alertPatch) {
-        AgencyAndId stop = alertPatch.getStop();
-        if (stop != null) {
-            patchesByStop.remove(stop, alertPatch);
+    private void applyWithoutPublishing(AlertPatch alertPatch) {
+        AlertPatch previous = alertPatches.remove(alertPatch.getId());
+        if (previous != null) {
+            previous.remove(graph);
         }
-        AgencyAndId route = alertPatch.getRoute();
-        if (route != null) {
-            patchesByRoute.remove(route, alertPatch);
+
+        alertPatch.apply(graph);
+        alertPatches.put(alertPatch.getId(), alertPatch);
+    }
+
+    private void expireWithoutPublishing(Set<String> purge) {
+        for (String patchId : purge) {
+            AlertPatch alertPatch = alertPatches.remove(patchId);
+            if (alertPatch != null) {
+                alertPatch.remove(graph);
+            }
         }
+    }
 
-        alertPatch.remove(graph);
+    /** Replace the index read by other threads with one reflecting the current patches. */
+    private void publish() {
+        index = new AlertPatchIndex(alertPatches.values());
     }
 }
@@ -26,8 +26,15 @@ public interface AlertPatchService {
 
     Collection<AlertPatch> getRoutePatches(AgencyAndId route);
 
+    Collection<AlertPatch> getTripPatches(AgencyAndId trip);
+
+    Collection<AlertPatch> getAgencyPatches(String agency);
+
     void apply(AlertPatch alertPatch);
 
+    /** Expire the given patches and apply new ones as a single update. */
+    void expireAndApply(Set<String> ids, Collection<AlertPatch> alertPatches);
+
     void expire(Set<String> ids);
 
     void expireAll();
@@ -30,9 +30,11 @@ public class BikeRentalStationVertex extends Vertex {
 
     private static final long serialVersionUID = MavenVersion.VERSION.getUID();
 
-    private int bikesAvailable;
-
-    private int spacesAvailable;
+    /**
+     * Bikes available in the upper 32 bits and spaces available in the lower 32 bits, so that an
+     * updater can replace both with a single write while routing threads are reading them.
+     */
+    private volatile long availability;
 
     private String id;
     
@@ -41,24 +43,28 @@ public class BikeRentalStationVertex extends Vertex {
         super(g, "bike rental station " + station.id, station.x, station.y,
                 station.name);
         this.setId(station.id);
-        this.setBikesAvailable(station.bikesAvailable);
-        this.setSpacesAvailable(station.spacesAvailable);
+        this.setAvailability(station.bikesAvailable, station.spacesAvailable);
     }
 
     public int getBikesAvailable() {
-        return bikesAvailable;
+        return (int) (availability >>> 32);
     }
 
     public int getSpacesAvailable() {
-        return spacesAvailable;
+        return (int) availability;
     }
 
     public void setBikesAvailable(int bikes) {
-        this.bikesAvailable = bikes;
+        setAvailability(bikes, getSpacesAvailable());
     }
 
     public void setSpacesAvailable(int spaces) {
-        this.spacesAvailable = spaces;
+        setAvailability(getBikesAvailable(), spaces);
+    }
+
+    /** Set both the number of bikes and spaces available at once. */
+    public void setAvailability(int bikes, int spaces) {
+        this.availability = ((long) bikes << 32) | (spaces & 0xFFFFFFFFL);
     }
 
     public String getId() {
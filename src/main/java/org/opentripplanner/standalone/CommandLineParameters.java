@@ -66,6 +66,11 @@ public class CommandLineParameters implements Cloneable {
             description = "Pass the graph to the server in-memory after building it, and saving to disk.")
     public boolean preFlight;
 
+    @Parameter(names = {"--transitOnly"},
+            description = "Start from the street graph saved by an earlier build with saveStreetGraph enabled, "
+                    + "and only load transit on top of it.")
+    public boolean transitOnly;
+
     @Parameter(names = { "--version", },
             description = "Print the version, and then exit.")
     public boolean version = false;
@@ -1,5 +1,6 @@
 package org.opentripplanner.standalone;
 
+import org.opentripplanner.graph_builder.module.ned.NEDGridCoverageFactoryImpl;
 import org.opentripplanner.graph_builder.services.osm.CustomNamer;
 import org.opentripplanner.routing.impl.DefaultFareServiceFactory;
 import org.opentripplanner.routing.services.FareServiceFactory;
@@ -87,6 +88,12 @@ public class GraphBuilderParameters {
     /** If specified, download NED elevation tiles from the given AWS S3 bucket. */
     public final S3BucketConfig elevationBucket;
 
+    /**
+     * The fraction of the maximum heap size that may be used to cache decoded NED tiles while applying elevation to
+     * the streets. The cache is put back to its previous size once elevation has been applied.
+     */
+    public final double elevationTileCacheHeapFraction;
+
     /**
      * A specific fares service to use.
      */
@@ -141,6 +148,13 @@ public class GraphBuilderParameters {
      */
     public final boolean banDiscouragedBiking;
 
+    /**
+     * Save the street network alone (after OSM loading, island pruning and elevation) next to the graph, so that
+     * later builds can reuse it with --transitOnly when only the transit data has changed. To include elevation in
+     * the saved streets, this also applies elevation before stops are linked rather than after.
+     */
+    public final boolean saveStreetGraph;
+
     /**
      * Set all parameters from the given Jackson JSON tree, applying defaults.
      * Supplying MissingNode.getInstance() will cause all the defaults to be applied.
@@ -162,6 +176,8 @@ public class GraphBuilderParameters {
         matchBusRoutesToStreets = config.path("matchBusRoutesToStreets").asBoolean(false);
         fetchElevationUS = config.path("fetchElevationUS").asBoolean(false);
         elevationBucket = S3BucketConfig.fromConfig(config.path("elevationBucket"));
+        elevationTileCacheHeapFraction = config.path("elevationTileCacheHeapFraction")
+                .asDouble(NEDGridCoverageFactoryImpl.DEFAULT_TILE_CACHE_HEAP_FRACTION);
         fareServiceFactory = DefaultFareServiceFactory.fromConfig(config.path("fares"));
         customNamer = CustomNamer.CustomNamerFactory.fromConfig(config.path("osmNaming"));
         staticBikeRental = config.path("staticBikeRental").asBoolean(false);
@@ -173,6 +189,7 @@ public class GraphBuilderParameters {
         pruningThresholdIslandWithStops = config.path("islandWithStopsMaxSize").asInt(5);
         banDiscouragedWalking = config.path("banDiscouragedWalking").asBoolean(false);
         banDiscouragedBiking = config.path("banDiscouragedBiking").asBoolean(false);
+        saveStreetGraph = config.path("saveStreetGraph").asBoolean(false);
     }
 
 }
@@ -0,0 +1,112 @@
+package org.opentripplanner.traffic;
+
+import com.csvreader.CsvReader;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Load recorded segment speeds from a CSV file, for use when no OpenTraffic tile tree is available.
+ * Each row gives a speed for one OSM way segment, either for a single hour of the week or overall:
+ *
+ * <pre>
+ * way_id,start_node_id,end_node_id,hour_of_week,speed_kmh
+ * 1234,56,78,,42.0
+ * 1234,56,78,8,17.5
+ * </pre>
+ *
+ * hour_of_week counts from 0 at midnight Monday morning GMT, as in {@link SegmentSpeedSample}. An
+ * empty hour_of_week gives the overall average for the segment; if it is missing, the mean of the
+ * hourly speeds is used instead. Hours without a speed use the average.
+ */
+public class SegmentSpeedCsvLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentSpeedCsvLoader.class);
+
+    private static final double KMH_TO_MS = 1000d / 3600d;
+
+    public static Map<Segment, SegmentSpeedSample> load (File file) throws IOException {
+        Map<Segment, double[]> hourlySpeeds = Maps.newHashMap();
+        Map<Segment, Double> averageSpeeds = Maps.newHashMap();
+
+        CsvReader reader = new CsvReader(file.getPath(), ',', Charset.forName("UTF-8"));
+        try {
+            reader.readHeaders();
+            while (reader.readRecord()) {
+                Segment segment;
+                double speed;
+                int hourOfWeek = -1;
+                String hour = reader.get("hour_of_week").trim();
+                try {
+                    if (!hour.isEmpty()) hourOfWeek = Integer.parseInt(hour);
+                    segment = new Segment(Long.parseLong(reader.get("way_id")),
+                            Long.parseLong(reader.get("start_node_id")),
+                            Long.parseLong(reader.get("end_node_id")));
+                    speed = Double.parseDouble(reader.get("speed_kmh")) * KMH_TO_MS;
+                } catch (NumberFormatException e) {
+                    LOG.warn("Skipping invalid speed record on line {}", reader.getCurrentRecord() + 2);
+                    continue;
+                }
+
+                if (Double.isNaN(speed) || speed < 0) {
+                    LOG.warn("Skipping invalid speed on line {}", reader.getCurrentRecord() + 2);
+                    continue;
+                }
+
+                if (hour.isEmpty()) {
+                    averageSpeeds.put(segment, speed);
+                    continue;
+                }
+
+                if (hourOfWeek < 0 || hourOfWeek >= SegmentSpeedSample.HOURS_PER_WEEK) {
+                    LOG.warn("Skipping speed for hour {} on line {}", hourOfWeek, reader.getCurrentRecord() + 2);
+                    continue;
+                }
+
+                double[] hours = hourlySpeeds.get(segment);
+                if (hours == null) {
+                    hours = new double[SegmentSpeedSample.HOURS_PER_WEEK];
+                    Arrays.fill(hours, Double.NaN);
+                    hourlySpeeds.put(segment, hours);
+                }
+                hours[hourOfWeek] = speed;
+            }
+        } finally {
+            reader.close();
+        }
+
+        Map<Segment, SegmentSpeedSample> samples = Maps.newHashMap();
+        for (Map.Entry<Segment, Double> e : averageSpeeds.entrySet()) {
+            double[] hours = hourlySpeeds.remove(e.getKey());
+            if (hours == null) {
+                // all hours will use the average
+                hours = new double[SegmentSpeedSample.HOURS_PER_WEEK];
+                Arrays.fill(hours, Double.NaN);
+            }
+            samples.put(e.getKey(), new SegmentSpeedSample(e.getValue(), hours));
+        }
+        for (Map.Entry<Segment, double[]> e : hourlySpeeds.entrySet()) {
+            samples.put(e.getKey(), new SegmentSpeedSample(mean(e.getValue()), e.getValue()));
+        }
+
+        LOG.info("Loaded {} speed samples from {}", samples.size(), file);
+        return samples;
+    }
+
+    /** The mean of the non-NaN values */
+    private static double mean (double[] values) {
+        double sum = 0;
+        int count = 0;
+        for (double value : values) {
+            if (Double.isNaN(value)) continue;
+            sum += value;
+            count++;
+        }
+        return sum / count;
+    }
+}
@@ -6,10 +6,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
-import java.time.DayOfWeek;
-import java.time.Instant;
-import java.time.OffsetDateTime;
-import java.time.ZoneOffset;
 
 /**
  * Represents speeds at particular times of day.
@@ -31,29 +27,41 @@ public class SegmentSpeedSample implements Serializable {
      */
     private final short[] hourBins;
 
+    /** Number of hour bins in a week */
+    public static final int HOURS_PER_WEEK = 7 * 24;
+
     /** Get a speed estimate in meters per second for the time specified (in milliseconds since the epoch) */
     public double getSpeed (long time) {
         if (hourBins == null)
             return decodeSpeed(average);
 
-        // figure out the hour bin
-        Instant instant = Instant.ofEpochMilli(time);
-
-        OffsetDateTime dt = instant.atOffset(ZoneOffset.UTC);
-
-        // 0 (Monday) to 6 (Sunday) after subtraction
-        int day = DayOfWeek.from(dt).getValue() - 1;
-        int hour = dt.getHour();
+        return decodeSpeed(hourBins[hourOfWeek(time)]);
+    }
 
-        int hourBin = day * 24 + hour;
-        return decodeSpeed(hourBins[hourBin]);
+    /**
+     * Get the hour bin for a time in milliseconds since the epoch, with 0 being midnight Monday
+     * morning GMT. The epoch was a Thursday, three days after the start of the week.
+     */
+    public static int hourOfWeek (long time) {
+        long hoursSinceEpoch = Math.floorDiv(time, 3600 * 1000L);
+        return (int) Math.floorMod(hoursSinceEpoch + 3 * 24, HOURS_PER_WEEK);
     }
 
     /** Decode a speed to meters per second from its short representation */
-    private double decodeSpeed (short speed) {
+    static double decodeSpeed (short speed) {
         return (((double) speed) - Short.MIN_VALUE) / 100d;
     }
 
+    /** The encoded overall average speed */
+    short getEncodedAverage () {
+        return average;
+    }
+
+    /** The encoded speed for an hour of the week, falling back to the average when there are no hourly data. */
+    short getEncodedSpeed (int hourOfWeek) {
+        return hourBins == null ? average : hourBins[hourOfWeek];
+    }
+
     /** Encode a speed stored as meters per second to its short representation. */
     private short encodeSpeed (double speed) {
         if (speed < 0)
@@ -81,7 +89,7 @@ public class SegmentSpeedSample implements Serializable {
 
         int count = stats.getHourOfWeekAveragesCount();
 
-        if (count == 7 * 24) {
+        if (count == HOURS_PER_WEEK) {
             hourBins = new short[count];
 
             for (int i = 0; i < count; i++) {
@@ -95,7 +103,7 @@ public class SegmentSpeedSample implements Serializable {
         }
         else {
             if (count > 0 )
-                LOG.error("Expected {} hours in speed sample, found {}", 7 * 24, count);
+                LOG.error("Expected {} hours in speed sample, found {}", HOURS_PER_WEEK, count);
 
             hourBins = null;
         }
@@ -112,9 +120,9 @@ public class SegmentSpeedSample implements Serializable {
 
         this.average = encodeSpeed(avg);
 
-        hourBins = new short[7 * 24];
+        hourBins = new short[HOURS_PER_WEEK];
 
-        for (int i = 0; i < 7 * 24; i++) {
+        for (int i = 0; i < HOURS_PER_WEEK; i++) {
             double speed = stats.getMean(); //TODO make it possible to grab summary by hour
 
             if (!Double.isNaN(speed))
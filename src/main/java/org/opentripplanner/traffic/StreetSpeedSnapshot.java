@@ -1,29 +1,116 @@
 package org.opentripplanner.traffic;
 
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Map;
 
 /**
  * A source of speeds for traversing streets.
+ *
+ * Speed samples are compiled into a flat array of encoded speeds, one profile of
+ * {@link SegmentSpeedSample#HOURS_PER_WEEK} speeds per distinct segment. When a graph is supplied,
+ * all of its street edges are additionally indexed by edge ID, so that looking up the
+ * speed of a graph edge is a couple of array accesses instead of a hash lookup on a newly
+ * allocated Segment. Edges that were not in the graph at compile time (e.g. temporary edges created
+ * by a search) fall back to the segment map.
  */
 public class StreetSpeedSnapshot {
-    private final Map<Segment, SegmentSpeedSample> samples;
+    private static final Logger LOG = LoggerFactory.getLogger(StreetSpeedSnapshot.class);
+
+    private static final int NO_PROFILE = -1;
+
+    /** Profile index for each segment. */
+    private final TObjectIntMap<Segment> profileForSegment;
+
+    /** Encoded speeds, profile-major: the speed for hour h of profile p is at p * HOURS_PER_WEEK + h. */
+    private final short[] speeds;
+
+    /** Profile index by edge ID, NO_PROFILE if the edge has no speed data. */
+    private final int[] profileForEdge;
+
+    /**
+     * The edge that the profile at the same index was compiled for. Edge IDs are not guaranteed to be
+     * unique once edges are created after graph loading, so the edge is checked before using the profile.
+     */
+    private final StreetEdge[] edgeForEdgeId;
 
     /** Get the speed for traversing the given edge with the given mode at the given time. Returns NaN if there is no speed information available. */
     public double getSpeed (StreetEdge edge, TraverseMode traverseMode, long timeMillis) {
         if (traverseMode != TraverseMode.CAR)
             return Double.NaN;
 
-        SegmentSpeedSample sample = samples.get(new Segment(edge));
+        int profile;
+        int edgeId = edge.getId();
+        if (edgeId >= 0 && edgeId < edgeForEdgeId.length && edgeForEdgeId[edgeId] == edge) {
+            profile = profileForEdge[edgeId];
+        } else {
+            profile = profileForSegment.get(new Segment(edge));
+        }
 
-        if (sample == null) return Double.NaN;
+        if (profile == NO_PROFILE) return Double.NaN;
 
-        return sample.getSpeed(timeMillis);
+        int hour = SegmentSpeedSample.hourOfWeek(timeMillis);
+        return SegmentSpeedSample.decodeSpeed(speeds[profile * SegmentSpeedSample.HOURS_PER_WEEK + hour]);
     }
 
+    /** Create a snapshot which is only indexed by segment. */
     public StreetSpeedSnapshot (Map<Segment, SegmentSpeedSample> samples) {
-        this.samples = samples;
+        this(samples, null);
+    }
+
+    /**
+     * Create a snapshot, indexing the street edges of the given graph that have speed samples.
+     * The graph is only read, so this can be done outside the graph writer thread.
+     */
+    public StreetSpeedSnapshot (Map<Segment, SegmentSpeedSample> samples, Graph graph) {
+        profileForSegment = new TObjectIntHashMap<>(samples.size(), 0.5f, NO_PROFILE);
+        speeds = new short[samples.size() * SegmentSpeedSample.HOURS_PER_WEEK];
+
+        int profile = 0;
+        for (Map.Entry<Segment, SegmentSpeedSample> e : samples.entrySet()) {
+            SegmentSpeedSample sample = e.getValue();
+            int offset = profile * SegmentSpeedSample.HOURS_PER_WEEK;
+            for (int hour = 0; hour < SegmentSpeedSample.HOURS_PER_WEEK; hour++) {
+                speeds[offset + hour] = sample.getEncodedSpeed(hour);
+            }
+            profileForSegment.put(e.getKey(), profile++);
+        }
+
+        if (graph == null || samples.isEmpty()) {
+            profileForEdge = new int[0];
+            edgeForEdgeId = new StreetEdge[0];
+            return;
+        }
+
+        Collection<StreetEdge> streetEdges = graph.getStreetEdges();
+        int maxEdgeId = -1;
+        for (StreetEdge edge : streetEdges) {
+            maxEdgeId = Math.max(maxEdgeId, edge.getId());
+        }
+
+        profileForEdge = new int[maxEdgeId + 1];
+        Arrays.fill(profileForEdge, NO_PROFILE);
+        edgeForEdgeId = new StreetEdge[maxEdgeId + 1];
+
+        int matched = 0;
+        for (StreetEdge edge : streetEdges) {
+            int id = edge.getId();
+            if (id < 0) continue;
+            // Edges without data are recorded as well, so that they don't fall back to the segment map
+            int edgeProfile = profileForSegment.get(new Segment(edge));
+            profileForEdge[id] = edgeProfile;
+            edgeForEdgeId[id] = edge;
+            if (edgeProfile != NO_PROFILE) matched++;
+        }
+
+        LOG.info("Compiled {} speed profiles, matched to {} street edges", samples.size(), matched);
     }
 }
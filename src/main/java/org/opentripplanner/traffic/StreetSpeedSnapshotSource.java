@@ -4,10 +4,10 @@ package org.opentripplanner.traffic;
  * Keeps track of street speed snapshots, handles concurrency.
  */
 public class StreetSpeedSnapshotSource {
-    private StreetSpeedSnapshot snapshot;
+    private volatile StreetSpeedSnapshot snapshot;
 
     /** Get a speed snapshot. */
-    // not synchronized; reference writes and reads are atomic in java
+    // not synchronized; reference writes and reads are atomic in java, volatile makes them visible
     public StreetSpeedSnapshot getSnapshot () {
         return this.snapshot;
     }
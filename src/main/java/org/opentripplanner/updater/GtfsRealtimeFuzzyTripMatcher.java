@@ -1,5 +1,7 @@
 package org.opentripplanner.updater;
 
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.Route;
@@ -12,6 +14,8 @@ import org.opentripplanner.routing.trippattern.TripTimes;
 
 import java.text.ParseException;
 import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class is used for matching TripDescriptors without trip_ids to scheduled GTFS data and to
@@ -19,11 +23,25 @@ import java.util.BitSet;
  *
  * The class should only be used if we know that the feed producer is unable to produce trip_ids
  * in the GTFS-RT feed.
+ *
+ * Matching is done against a lookup table from (route, direction, scheduled start time) to the
+ * scheduled TripTimes with that key, combined with a small cache of the services running on each
+ * requested service date. The table is built from the scheduled timetables, which are never
+ * modified by realtime updates (those only produce new Timetables in a TimetableSnapshot), so it
+ * stays valid across snapshot commits for the lifetime of the GraphIndex.
  */
 public class GtfsRealtimeFuzzyTripMatcher {
 
+    /** Service date caches larger than this are dropped and rebuilt, feeds only span a few dates. */
+    private static final int MAX_CACHED_SERVICE_DATES = 16;
+
     private GraphIndex index;
 
+    /** Scheduled TripTimes by (route, direction, start time), in pattern and timetable order. */
+    private ListMultimap<TripKey, TripTimes> tripTimesForKey;
+
+    private final Map<ServiceDate, BitSet> servicesForDate = new ConcurrentHashMap<>();
+
     public GtfsRealtimeFuzzyTripMatcher(GraphIndex index) {
         this.index = index;
     }
@@ -74,16 +92,74 @@ public class GtfsRealtimeFuzzyTripMatcher {
 
     public Trip getTrip (Route route, int direction,
                           int startTime, ServiceDate date) {
-        BitSet services = index.servicesRunning(date);
-        for (TripPattern pattern : index.patternsForRoute.get(route)) {
-            if (pattern.directionId != direction) continue;
-            for (TripTimes times : pattern.scheduledTimetable.tripTimes) {
-                if (times.getScheduledDepartureTime(0) == startTime &&
-                        services.get(times.serviceCode)) {
-                    return times.trip;
-                }
+        BitSet services = getServicesRunning(date);
+        for (TripTimes times : getTripTimesForKey().get(new TripKey(route, direction, startTime))) {
+            if (services.get(times.serviceCode)) {
+                return times.trip;
             }
         }
         return null;
     }
+
+    /**
+     * Lazily build the (route, direction, start time) lookup table. This is a single pass over
+     * all scheduled trips, done once instead of on every unmatched update.
+     */
+    private synchronized ListMultimap<TripKey, TripTimes> getTripTimesForKey() {
+        if (tripTimesForKey == null) {
+            ListMultimap<TripKey, TripTimes> table = ArrayListMultimap.create();
+            for (Route route : index.patternsForRoute.keySet()) {
+                for (TripPattern pattern : index.patternsForRoute.get(route)) {
+                    for (TripTimes times : pattern.scheduledTimetable.tripTimes) {
+                        TripKey key = new TripKey(route, pattern.directionId,
+                                times.getScheduledDepartureTime(0));
+                        table.put(key, times);
+                    }
+                }
+            }
+            tripTimesForKey = table;
+        }
+        return tripTimesForKey;
+    }
+
+    /** The set of service codes running on the given date, computed once per date. */
+    private BitSet getServicesRunning(ServiceDate date) {
+        BitSet services = servicesForDate.get(date);
+        if (services == null) {
+            if (servicesForDate.size() >= MAX_CACHED_SERVICE_DATES) {
+                servicesForDate.clear();
+            }
+            services = index.servicesRunning(date);
+            servicesForDate.put(date, services);
+        }
+        return services;
+    }
+
+    private static class TripKey {
+
+        private final Route route;
+
+        private final int direction;
+
+        private final int startTime;
+
+        private TripKey(Route route, int direction, int startTime) {
+            this.route = route;
+            this.direction = direction;
+            this.startTime = startTime;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TripKey)) return false;
+            TripKey other = (TripKey) o;
+            return route.equals(other.route) && direction == other.direction
+                    && startTime == other.startTime;
+        }
+
+        @Override
+        public int hashCode() {
+            return (route.hashCode() * 31 + direction) * 31 + startTime;
+        }
+    }
 }
@@ -54,8 +54,8 @@ public class AlertsUpdateHandler {
     private GtfsRealtimeFuzzyTripMatcher fuzzyTripMatcher;
 
     public void update(FeedMessage message) {
-        alertPatchService.expire(patchIds);
-        patchIds.clear();
+        List<AlertPatch> patches = new ArrayList<AlertPatch>();
+        Set<String> newPatchIds = new HashSet<String>();
 
         for (FeedEntity entity : message.getEntityList()) {
             if (!entity.hasAlert()) {
@@ -63,11 +63,16 @@ public class AlertsUpdateHandler {
             }
             GtfsRealtime.Alert alert = entity.getAlert();
             String id = entity.getId();
-            handleAlert(id, alert);
+            handleAlert(id, alert, patches, newPatchIds);
         }
+
+        // Replace all the patches from the previous message at once
+        alertPatchService.expireAndApply(patchIds, patches);
+        patchIds = newPatchIds;
     }
 
-    private void handleAlert(String id, GtfsRealtime.Alert alert) {
+    private void handleAlert(String id, GtfsRealtime.Alert alert, List<AlertPatch> patches,
+            Set<String> patchIds) {
         Alert alertText = new Alert();
         alertText.alertDescriptionText = deBuffer(alert.getDescriptionText());
         alertText.alertHeaderText = deBuffer(alert.getHeaderText());
@@ -156,7 +161,7 @@ public class AlertsUpdateHandler {
             patch.setId(patchId);
             patchIds.add(patchId);
 
-            alertPatchService.apply(patch);
+            patches.add(patch);
         }
     }
 
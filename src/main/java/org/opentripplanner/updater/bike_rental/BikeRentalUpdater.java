@@ -20,14 +20,18 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import com.fasterxml.jackson.databind.JsonNode;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.graph_builder.linking.SimpleStreetSplitter;
 import org.opentripplanner.routing.bike_rental.BikeRentalStation;
 import org.opentripplanner.routing.bike_rental.BikeRentalStationService;
+import org.opentripplanner.routing.edgetype.RentABikeAbstractEdge;
 import org.opentripplanner.routing.edgetype.RentABikeOffEdge;
 import org.opentripplanner.routing.edgetype.RentABikeOnEdge;
+import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.vertextype.BikeRentalStationVertex;
 import org.opentripplanner.updater.GraphUpdaterManager;
@@ -60,8 +64,17 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
 
     private static final String DEFAULT_NETWORK_LIST = "default";
 
+    /**
+     * Stations closer than this to the position they were linked at keep their vertex and street
+     * link, so that GPS jitter in a feed does not split the streets again on every poll.
+     */
+    static final double MOVED_STATION_TOLERANCE_METERS = 10;
+
     Map<BikeRentalStation, BikeRentalStationVertex> verticesByStation = new HashMap<BikeRentalStation, BikeRentalStationVertex>();
 
+    /** The station data last applied to the graph, to detect which stations changed in an update. */
+    Map<String, BikeRentalStation> lastStationById = new HashMap<String, BikeRentalStation>();
+
     private BikeRentalDataSource source;
 
     private Graph graph;
@@ -159,7 +172,7 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
     public void teardown() {
     }
 
-    private class BikeRentalGraphWriterRunnable implements GraphWriterRunnable {
+    class BikeRentalGraphWriterRunnable implements GraphWriterRunnable {
 
         private List<BikeRentalStation> stations;
 
@@ -167,34 +180,61 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
             this.stations = stations;
         }
 
+        /**
+         * Apply the difference between the stations in this update and the ones applied previously.
+         * Stations whose data did not change are not touched, availability changes are a single
+         * write on the vertex, and vertices are only created and linked to the street network for
+         * new stations or stations that moved further than MOVED_STATION_TOLERANCE_METERS. Smaller
+         * moves only update the station data shown to users; the vertex stays where it was linked.
+         */
 		@Override
         public void run(Graph graph) {
             // Apply stations to graph
             Set<BikeRentalStation> stationSet = new HashSet<BikeRentalStation>();
             Set<String> defaultNetworks = new HashSet<String>(Arrays.asList(network));
+            int added = 0, moved = 0, updated = 0;
             /* add any new stations and update bike counts for existing stations */
             for (BikeRentalStation station : stations) {
                 if (station.networks == null) {
                     /* API did not provide a network list, use default */
                     station.networks = defaultNetworks;
                 }
-                service.addBikeRentalStation(station);
                 stationSet.add(station);
+                BikeRentalStation previous = lastStationById.get(station.id);
                 BikeRentalStationVertex vertex = verticesByStation.get(station);
-                if (vertex == null) {
-                    vertex = new BikeRentalStationVertex(graph, station);
-                    if (!linker.link(vertex)) {
-                        // the toString includes the text "Bike rental station"
-                        LOG.warn("{} not near any streets; it will not be usable.", station);
+                if (vertex == null || previous == null) {
+                    vertex = createAndLinkVertex(graph, station);
+                    added++;
+                } else if (hasMoved(vertex, station)) {
+                    if (graph.containsVertex(vertex)) {
+                        graph.removeVertexAndEdges(vertex);
+                    }
+                    // TODO: need to unsplit any streets that were split
+                    vertex = createAndLinkVertex(graph, station);
+                    moved++;
+                } else if (hasChanged(previous, station)) {
+                    if (!Objects.equals(previous.networks, station.networks)
+                            || previous.allowDropoff != station.allowDropoff) {
+                        // Only the rental edges depend on these, the street links can be kept
+                        for (Edge edge : new ArrayList<Edge>(vertex.getOutgoing())) {
+                            if (edge instanceof RentABikeAbstractEdge) {
+                                graph.removeEdge(edge);
+                            }
+                        }
+                        makeRentalEdges(vertex, station);
                     }
-                    verticesByStation.put(station, vertex);
-                    new RentABikeOnEdge(vertex, vertex, station.networks);
-                    if (station.allowDropoff)
-                        new RentABikeOffEdge(vertex, vertex, station.networks);
+                    if (!Objects.equals(previous.name, station.name)) {
+                        vertex.setName(station.name);
+                    }
+                    vertex.setAvailability(station.bikesAvailable, station.spacesAvailable);
+                    updated++;
                 } else {
-                    vertex.setBikesAvailable(station.bikesAvailable);
-                    vertex.setSpacesAvailable(station.spacesAvailable);
+                    /* nothing changed for this station */
+                    continue;
                 }
+                verticesByStation.put(station, vertex);
+                lastStationById.put(station.id, station);
+                service.addBikeRentalStation(station);
             }
             /* remove existing stations that were not present in the update */
             List<BikeRentalStation> toRemove = new ArrayList<BikeRentalStation>();
@@ -213,7 +253,47 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
             for (BikeRentalStation station : toRemove) {
                 // post-iteration removal to avoid concurrent modification
                 verticesByStation.remove(station);
+                lastStationById.remove(station.id);
+            }
+            LOG.debug("Bike rental update: {} stations added, {} moved, {} updated, {} removed",
+                    added, moved, updated, toRemove.size());
+        }
+
+        private BikeRentalStationVertex createAndLinkVertex(Graph graph, BikeRentalStation station) {
+            BikeRentalStationVertex vertex = new BikeRentalStationVertex(graph, station);
+            if (!linker.link(vertex)) {
+                // the toString includes the text "Bike rental station"
+                LOG.warn("{} not near any streets; it will not be usable.", station);
             }
+            makeRentalEdges(vertex, station);
+            return vertex;
+        }
+
+        private void makeRentalEdges(BikeRentalStationVertex vertex, BikeRentalStation station) {
+            new RentABikeOnEdge(vertex, vertex, station.networks);
+            if (station.allowDropoff)
+                new RentABikeOffEdge(vertex, vertex, station.networks);
+        }
+
+        /**
+         * Compare with the position the vertex was linked at rather than the previous poll, so
+         * that a station cannot drift away from its link in many small steps.
+         */
+        private boolean hasMoved(BikeRentalStationVertex vertex, BikeRentalStation station) {
+            return SphericalDistanceLibrary.fastDistance(vertex.getLat(), vertex.getLon(), station.y, station.x)
+                    > MOVED_STATION_TOLERANCE_METERS;
+        }
+
+        /** @return whether any of the station data shown to users or used in routing differs. */
+        private boolean hasChanged(BikeRentalStation previous, BikeRentalStation station) {
+            return previous.x != station.x
+                    || previous.y != station.y
+                    || !Objects.equals(previous.name, station.name)
+                    || previous.bikesAvailable != station.bikesAvailable
+                    || previous.spacesAvailable != station.spacesAvailable
+                    || previous.allowDropoff != station.allowDropoff
+                    || previous.realTimeData != station.realTimeData
+                    || !Objects.equals(previous.networks, station.networks);
         }
     }
 }
@@ -5,6 +5,7 @@ import io.opentraffic.engine.data.pbf.ExchangeFormat;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.traffic.Segment;
+import org.opentripplanner.traffic.SegmentSpeedCsvLoader;
 import org.opentripplanner.traffic.SegmentSpeedSample;
 import org.opentripplanner.traffic.StreetSpeedSnapshot;
 import org.opentripplanner.traffic.StreetSpeedSnapshotSource;
@@ -16,6 +17,7 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
 
@@ -31,6 +33,9 @@ public class OpenTrafficUpdater extends PollingGraphUpdater {
     /** the tile directory to search through */
     private File tileDirectory;
 
+    /** a CSV file of recorded speeds, used instead of the tile directory when set */
+    private File csvFile;
+
     private boolean hasAlreadyRun = false;
 
     @Override
@@ -39,6 +44,21 @@ public class OpenTrafficUpdater extends PollingGraphUpdater {
 
         // Build a speed index now while we're running in our own thread. We'll swap it out
         // at the appropriate time with a GraphWriterRunnable, but no need to synchronize yet.
+        Map<Segment, SegmentSpeedSample> speedIndex =
+                csvFile != null ? SegmentSpeedCsvLoader.load(csvFile) : loadTiles();
+
+        LOG.info("Indexed {} speed samples", speedIndex.size());
+
+        // Compiling against the graph only reads it, so this is also done outside the writer thread.
+        StreetSpeedSnapshot snapshot = new StreetSpeedSnapshot(speedIndex, graph);
+
+        graphUpdaterManager.execute(graph -> {
+            graph.streetSpeedSource.setSnapshot(snapshot);
+        });
+    }
+
+    /** Read all the speed samples in the tile directory. */
+    private Map<Segment, SegmentSpeedSample> loadTiles() throws IOException {
         Map<Segment, SegmentSpeedSample> speedIndex = Maps.newHashMap();
 
         // search through the tile directory
@@ -72,17 +92,17 @@ public class OpenTrafficUpdater extends PollingGraphUpdater {
             }
         }
 
-        LOG.info("Indexed {} speed samples", speedIndex.size());
-
-        graphUpdaterManager.execute(graph -> {
-            graph.streetSpeedSource.setSnapshot(new StreetSpeedSnapshot(speedIndex));
-        });
+        return speedIndex;
     }
 
     @Override
     protected void configurePolling(Graph graph, JsonNode config) throws Exception {
         this.graph = graph;
-        tileDirectory = new File(config.get("tileDirectory").asText());
+        if (config.has("csvFile")) {
+            csvFile = new File(config.get("csvFile").asText());
+        } else {
+            tileDirectory = new File(config.get("tileDirectory").asText());
+        }
     }
 
     @Override
@@ -0,0 +1,106 @@
+package org.opentripplanner.analyst;
+
+import com.vividsolutions.jts.geom.Envelope;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Test that pointsets survive a round trip through the binary format.
+ */
+public class PointSetBinaryFormatTest extends TestCase {
+
+    private static PointSet roundTrip (PointSet pointSet) throws IOException {
+        File file = File.createTempFile("pointset", PointSetBinaryFormat.FILE_EXTENSION);
+        try {
+            PointSetBinaryFormat.write(pointSet, file);
+            return PointSetBinaryFormat.read(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void assertPointsEqual (PointSet expected, PointSet actual) {
+        assertEquals(expected.capacity, actual.capacity);
+        for (int i = 0; i < expected.capacity; i++) {
+            assertEquals(expected.getLat(i), actual.getLat(i));
+            assertEquals(expected.getLon(i), actual.getLon(i));
+            assertEquals(expected.getId(i), actual.getId(i));
+        }
+        assertEquals(expected.properties.keySet(), actual.properties.keySet());
+        for (String key : expected.properties.keySet()) {
+            assertTrue(Arrays.equals(expected.properties.get(key), actual.properties.get(key)));
+        }
+    }
+
+    @Test
+    public void testGeoJson () throws Exception {
+        PointSet points = PointSet.fromGeoJson(new File("src/test/resources/pointset/population.geo.json"));
+        PointSet read = roundTrip(points);
+        assertPointsEqual(points, read);
+        assertEquals(points.id, read.id);
+        assertEquals(points.label, read.label);
+        assertEquals(points.propMetadata.keySet(), read.propMetadata.keySet());
+        assertEquals(1, read.getIndexForFeature(points.getId(1)));
+        assertEquals("XYZ0001", read.getFeature(0).getId());
+        assertEquals(10, read.getFeature(0).getProperty("age"));
+    }
+
+    /** CSV pointsets have no IDs at all, which is not the same as having their indices as IDs. */
+    @Test
+    public void testCsv () throws Exception {
+        PointSet austin = PointSet.fromCsv(new File("src/test/resources/pointset/austin.csv"));
+        PointSet read = roundTrip(austin);
+        assertPointsEqual(austin, read);
+        assertNull(read.getId(1));
+        assertEquals(-1, read.getIndexForFeature("1"));
+    }
+
+    /** Grid cells are identified by their index, so no IDs are stored. */
+    @Test
+    public void testGrid () throws Exception {
+        PointSet grid = PointSet.regularGrid(new Envelope(-83.02, -83.00, 39.98, 40.00), 200);
+        assertNull(grid.ids);
+        assertEquals("3", grid.getId(3));
+        assertEquals(3, grid.getIndexForFeature("3"));
+        assertEquals(-1, grid.getIndexForFeature("03"));
+        assertEquals(-1, grid.getIndexForFeature(Integer.toString(grid.capacity)));
+
+        PointSet read = roundTrip(grid);
+        assertPointsEqual(grid, read);
+        assertNull(read.ids);
+        assertNull(read.encodedIds);
+    }
+
+    /** IDs are only decoded when they are first used. */
+    @Test
+    public void testLazyIds () throws Exception {
+        PointSet points = PointSet.fromGeoJson(new File("src/test/resources/pointset/population.geo.json"));
+        PointSet read = roundTrip(points);
+        assertNull(read.ids);
+        assertNotNull(read.encodedIds);
+        assertEquals(points.getId(1), read.getId(1));
+        assertNotNull(read.ids);
+        assertNull(read.encodedIds);
+    }
+
+    @Test
+    public void testRejectsOtherData () throws Exception {
+        File file = File.createTempFile("pointset", ".json");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("{\"type\": \"FeatureCollection\"}".getBytes("UTF-8"));
+        }
+        try {
+            PointSetBinaryFormat.read(file);
+            fail("JSON should not be read as a binary pointset");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.batch;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResultSetWriterTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final String[] DESTINATIONS = { "a", "b", "c" };
+
+    /** Only reachable pairs are written, one line each. */
+    @Test
+    public void testCsv() throws Exception {
+        File file = temporaryFolder.newFile("results.csv");
+        ResultSetWriter writer = new ResultSetWriter.Csv(file.getPath(), DESTINATIONS);
+        writer.write(0, new Individual("origin0", 0, 0, 0), new ResultSet(null, new double[] { 600, -1, 1200 }));
+        writer.write(1, new Individual(null, 0, 0, 0), new ResultSet(null, new double[] { -2, 300, -1 }));
+        writer.close();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList("origin,destination,seconds", "origin0,a,600", "origin0,c,1200", "1,b,300"), lines);
+    }
+
+    @Test
+    public void testBinary() throws Exception {
+        File file = temporaryFolder.newFile("results.dat");
+        ResultSetWriter writer = new ResultSetWriter.Binary(file.getPath(), DESTINATIONS.length);
+        writer.write(5, new Individual("origin5", 0, 0, 0), new ResultSet(null, new double[] { 600, -1, -2 }));
+        writer.close();
+
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            byte[] header = new byte[8];
+            in.readFully(header);
+            assertEquals("OTPBATCH", new String(header, StandardCharsets.US_ASCII));
+            assertEquals(ResultSetWriter.Binary.VERSION, in.readInt());
+            assertEquals(3, in.readInt());
+            assertEquals(5, in.readInt());
+            assertEquals(600, in.readInt());
+            assertEquals(-1, in.readInt());
+            assertEquals(-2, in.readInt());
+            assertEquals(-1, in.read());
+        }
+    }
+}
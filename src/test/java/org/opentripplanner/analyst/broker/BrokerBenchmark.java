@@ -0,0 +1,112 @@
+package org.opentripplanner.analyst.broker;
+
+import org.opentripplanner.analyst.cluster.AnalystClusterRequest;
+import org.opentripplanner.analyst.cluster.JobSimulator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This is not an automatic unit test. It is a benchmark that must be started manually, measuring how many tasks per
+ * second the broker can deliver to a large number of workers. The HTTP layer and the workers are replaced by local
+ * stand-ins that poll the broker in a loop and mark their tasks completed immediately, so that only the broker's own
+ * queueing and bookkeeping are measured.
+ *
+ * Parameters (all optional): number of workers, number of tasks, number of jobs.
+ */
+public class BrokerBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BrokerBenchmark.class);
+
+    static final String GRAPH_ID = "GRAPH";
+
+    /** One long poll of a stand-in worker, which hands the delivered tasks over to the worker thread. */
+    static class StandInWorker implements TaskConsumer {
+
+        final SynchronousQueue<List<AnalystClusterRequest>> delivery = new SynchronousQueue<>();
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public boolean deliver(List<AnalystClusterRequest> tasks) {
+            try {
+                return delivery.offer(tasks, 1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+    }
+
+    public static void main(String[] params) throws Exception {
+        int nWorkers = params.length > 0 ? Integer.parseInt(params[0]) : 2000;
+        int nTasks = params.length > 1 ? Integer.parseInt(params[1]) : 1000000;
+        int nJobs = params.length > 2 ? Integer.parseInt(params[2]) : 4;
+
+        Properties brokerConfig = new Properties();
+        brokerConfig.setProperty("graphs-bucket", "FAKE");
+        brokerConfig.setProperty("pointsets-bucket", "FAKE");
+        brokerConfig.setProperty("work-offline", "true");
+        Broker broker = new Broker(brokerConfig, "localhost", 9001);
+        Thread redeliveryThread = new Thread(broker);
+        redeliveryThread.setDaemon(true);
+        redeliveryThread.start();
+
+        AtomicInteger nCompleted = new AtomicInteger();
+        List<Thread> workerThreads = new ArrayList<>();
+        for (int w = 0; w < nWorkers; w++) {
+            String workerId = "worker-" + w;
+            Thread workerThread = new Thread(() -> {
+                try {
+                    while (true) {
+                        StandInWorker worker = new StandInWorker();
+                        broker.registerConsumer(GRAPH_ID, workerId, worker);
+                        for (AnalystClusterRequest task : worker.delivery.take()) {
+                            if (broker.markTaskCompleted(task.taskId)) nCompleted.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // benchmark is finished
+                }
+            });
+            workerThread.setDaemon(true);
+            workerThreads.add(workerThread);
+            workerThread.start();
+        }
+        // Let all the workers register before enqueueing, as with a cluster that has been waiting for work.
+        Thread.sleep(1000);
+
+        // Enqueue jobs in blocks, as a client posting a large job in several requests would.
+        long start = System.currentTimeMillis();
+        JobSimulator jobSimulator = new JobSimulator();
+        jobSimulator.graphId = GRAPH_ID;
+        jobSimulator.nOrigins = Math.min(10000, nTasks / nJobs);
+        int nEnqueued = 0;
+        for (int j = 0; j < nJobs; j++) {
+            String jobId = JobSimulator.compactUUID();
+            for (int t = 0; t < nTasks / nJobs; t += jobSimulator.nOrigins) {
+                broker.enqueueTasks(jobSimulator.makeFakeRequests(jobId));
+                nEnqueued += jobSimulator.nOrigins;
+            }
+        }
+        LOG.info("Enqueued {} tasks in {} msec", nEnqueued, System.currentTimeMillis() - start);
+
+        while (broker.anyJobsActive()) {
+            Thread.sleep(100);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        LOG.info("{} workers completed {} tasks in {} msec, {} tasks per second", nWorkers, nCompleted.get(), elapsed,
+                nCompleted.get() * 1000L / elapsed);
+
+        workerThreads.forEach(Thread::interrupt);
+    }
+
+}
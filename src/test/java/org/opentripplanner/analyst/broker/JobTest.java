@@ -0,0 +1,112 @@
+package org.opentripplanner.analyst.broker;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.analyst.cluster.AnalystClusterRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Test the delivery and completion bookkeeping of jobs, which the broker does without locking.
+ */
+public class JobTest extends TestCase {
+
+    private static List<AnalystClusterRequest> makeTasks (int firstTaskId, int nTasks) {
+        List<AnalystClusterRequest> tasks = new ArrayList<>();
+        for (int i = 0; i < nTasks; i++) {
+            AnalystClusterRequest task = new AnalystClusterRequest();
+            task.jobId = "job";
+            task.graphId = "graph";
+            task.taskId = firstTaskId + i;
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    @Test
+    public void testCompletion () {
+        Job job = new Job("job", "graph");
+        // two blocks of task IDs with a gap between them, as when another job is enqueued in between
+        job.addTasks(0, makeTasks(0, 100));
+        job.addTasks(150, makeTasks(150, 10));
+        assertEquals(110, job.getTotalTaskCount());
+        assertTrue(job.containsTask(99));
+        assertFalse(job.containsTask(100));
+        assertTrue(job.containsTask(159));
+        assertFalse(job.containsTask(160));
+
+        // completion messages for tasks that were never delivered are ignored
+        assertTrue(job.markTaskCompleted(5));
+        assertEquals(0, job.getCompletedTaskCount());
+        assertFalse(job.markTaskCompleted(120));
+
+        int nDelivered = 0;
+        List<AnalystClusterRequest> tasks;
+        while (!(tasks = job.takeTasks(8)).isEmpty()) {
+            job.markTasksDelivered(tasks);
+            nDelivered += tasks.size();
+        }
+        assertEquals(110, nDelivered);
+        assertEquals(110, job.getInFlightTaskCount());
+        assertFalse(job.hasTasksAwaitingDelivery());
+
+        for (int taskId = 0; taskId < 100; taskId++) job.markTaskCompleted(taskId);
+        // completing a task twice does not count it twice
+        job.markTaskCompleted(0);
+        assertEquals(100, job.getCompletedTaskCount());
+        assertFalse(job.isComplete());
+
+        for (int taskId = 150; taskId < 160; taskId++) job.markTaskCompleted(taskId);
+        assertTrue(job.isComplete());
+        assertEquals(0, job.getInFlightTaskCount());
+    }
+
+    /** Tasks that could not be handed off go back on the queue, and are no longer in flight. */
+    @Test
+    public void testReturnTasks () {
+        Job job = new Job("job", "graph");
+        job.addTasks(10, makeTasks(10, 5));
+        List<AnalystClusterRequest> tasks = job.takeTasks(8);
+        assertEquals(5, tasks.size());
+        job.markTasksDelivered(tasks);
+        job.returnTasks(tasks);
+        assertEquals(0, job.getInFlightTaskCount());
+        assertEquals(5, job.getAwaitingDeliveryCount());
+        // a completion message for a returned task is ignored, as it will be delivered again
+        job.markTaskCompleted(10);
+        assertEquals(0, job.getCompletedTaskCount());
+    }
+
+    /** Tasks delivered together are given time for the worker to handle all of them one after another. */
+    @Test
+    public void testInvisibleDuration () {
+        Job job = new Job("job", "graph");
+        job.addTasks(0, makeTasks(0, 5));
+        long before = System.currentTimeMillis();
+        job.markTasksDelivered(job.takeTasks(4));
+        job.markTasksDelivered(job.takeTasks(1));
+        long after = System.currentTimeMillis();
+
+        Job.TaskBlock block = job.taskBlocks.get(0);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(block.invisibleUntil.get(i) >= before + 4 * Job.INVISIBLE_DURATION_SEC * 1000L);
+            assertTrue(block.invisibleUntil.get(i) <= after + 4 * Job.INVISIBLE_DURATION_SEC * 1000L);
+        }
+        assertTrue(block.invisibleUntil.get(4) <= after + Job.INVISIBLE_DURATION_SEC * 1000L);
+        assertEquals(0, job.redeliver());
+    }
+
+    /** Many threads completing tasks at once must not lose any completions. */
+    @Test
+    public void testConcurrentCompletion () {
+        Job job = new Job("job", "graph");
+        int nTasks = 100000;
+        job.addTasks(0, makeTasks(0, nTasks));
+        job.markTasksDelivered(job.takeTasks(nTasks));
+        IntStream.range(0, nTasks).parallel().forEach(job::markTaskCompleted);
+        assertEquals(nTasks, job.getCompletedTaskCount());
+        assertTrue(job.isComplete());
+    }
+}
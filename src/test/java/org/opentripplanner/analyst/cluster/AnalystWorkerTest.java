@@ -0,0 +1,70 @@
+package org.opentripplanner.analyst.cluster;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Test how the worker splits the tasks it receives into batches and handles the origins of a batch.
+ */
+public class AnalystWorkerTest extends TestCase {
+
+    private static AnalystClusterRequest makeTask (String jobId, int taskId) {
+        AnalystClusterRequest task = new AnalystClusterRequest();
+        task.jobId = jobId;
+        task.taskId = taskId;
+        task.id = Integer.toString(taskId);
+        return task;
+    }
+
+    private static List<List<Integer>> taskIds (List<List<AnalystClusterRequest>> batches) {
+        return batches.stream()
+                .map(batch -> batch.stream().map(t -> t.taskId).collect(Collectors.toList()))
+                .collect(Collectors.toList());
+    }
+
+    /** Batches hold tasks of one job each, in the order they were received, and are no larger than the batch size. */
+    @Test
+    public void testMakeBatches () {
+        List<AnalystClusterRequest> tasks = Arrays.asList(makeTask("a", 0), makeTask("b", 10), makeTask("a", 1),
+                makeTask("a", 2), makeTask("b", 11), makeTask("a", 3), makeTask("a", 4));
+
+        assertEquals(Arrays.asList(Arrays.asList(0, 1, 2), Arrays.asList(3, 4), Arrays.asList(10, 11)),
+                taskIds(AnalystWorker.makeBatches(tasks, 3)));
+        assertEquals(Arrays.asList(Arrays.asList(0), Arrays.asList(1), Arrays.asList(2), Arrays.asList(3),
+                Arrays.asList(4), Arrays.asList(10), Arrays.asList(11)), taskIds(AnalystWorker.makeBatches(tasks, 1)));
+        assertTrue(AnalystWorker.makeBatches(new ArrayList<>(), 4).isEmpty());
+    }
+
+    /** A failure on one origin must not keep the rest of the batch from being handled and counted. */
+    @Test
+    public void testFailingOrigin () {
+        List<AnalystClusterRequest> batch = Arrays.asList(makeTask("a", 0), makeTask("a", 1), makeTask("a", 2));
+        List<Integer> handled = new ArrayList<>();
+        TaskStatistics ts = new TaskStatistics();
+        ts.success = true;
+
+        AnalystWorker.handleOrigins(batch, (task, originStatistics) -> {
+            handled.add(task.taskId);
+            if (task.taskId == 1)
+                throw new IOException("unable to upload results");
+            originStatistics.searchCount = 10;
+            originStatistics.success = true;
+        }, ts);
+
+        assertEquals(Arrays.asList(0, 1, 2), handled);
+        assertFalse(ts.success);
+        assertEquals(20, ts.searchCount);
+
+        // a batch without failures is a success
+        ts = new TaskStatistics();
+        ts.success = true;
+        AnalystWorker.handleOrigins(batch, (task, originStatistics) -> originStatistics.success = true, ts);
+        assertTrue(ts.success);
+    }
+}
@@ -0,0 +1,72 @@
+package org.opentripplanner.analyst.cluster;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Test that cache files are written atomically and evicted least recently used first.
+ */
+public class DiskCacheFilesTest extends TestCase {
+
+    private static File write (File dir, String name, int length, long lastModified) throws Exception {
+        File file = new File(dir, name);
+        DiskCacheFiles.writeAtomically(file, temp -> Files.write(temp.toPath(), new byte[length]));
+        file.setLastModified(lastModified);
+        return file;
+    }
+
+    public void testWriteAtomically () throws Exception {
+        File dir = Files.createTempDirectory("disk_cache").toFile();
+        try {
+            File file = write(dir, "a.dat", 100, System.currentTimeMillis());
+            assertEquals(100, file.length());
+            assertEquals(1, dir.listFiles().length);
+
+            // a failed write leaves neither the file nor a temporary file behind
+            try {
+                DiskCacheFiles.writeAtomically(new File(dir, "b.dat"), temp -> {
+                    Files.write(temp.toPath(), new byte[10]);
+                    throw new IOException("disk full");
+                });
+                fail();
+            } catch (IOException e) {
+                // expected
+            }
+            assertEquals(1, dir.listFiles().length);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    public void testEvict () throws Exception {
+        File dir = Files.createTempDirectory("disk_cache").toFile();
+        try {
+            long now = System.currentTimeMillis();
+            File a = write(dir, "a.dat", 100, now - 30000);
+            File b = write(dir, "b.dat", 100, now - 20000);
+            File c = write(dir, "c.dat", 100, now - 10000);
+            File other = write(dir, "other.txt", 1000, now - 40000);
+            File abandoned = new File(dir, "d.dat12345.tmp");
+            Files.write(abandoned.toPath(), new byte[10]);
+            abandoned.setLastModified(now - 2 * 24 * 60 * 60 * 1000L);
+
+            DiskCacheFiles.evict(dir, ".dat", 300);
+            assertTrue(a.exists() && b.exists() && c.exists() && other.exists());
+            assertFalse(abandoned.exists());
+
+            // reading a marks it as recently used, so b is now the oldest
+            DiskCacheFiles.touch(a);
+            DiskCacheFiles.evict(dir, ".dat", 250);
+            assertTrue(a.exists());
+            assertFalse(b.exists());
+            assertTrue(c.exists());
+            assertTrue(other.exists());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.opentripplanner.analyst.cluster;
+
+import gnu.trove.map.TIntIntMap;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.profile.ProfileRequest;
+import org.opentripplanner.profile.RaptorWorkerData;
+import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+/**
+ * Test that RAPTOR data are shared between requests that differ only in their origin, and survive a round trip to disk.
+ */
+public class RaptorWorkerDataCacheTest extends TestCase {
+
+    private static ProfileRequest makeRequest () {
+        ProfileRequest req = new ProfileRequest();
+        req.fromLon = req.toLon = -83.0118;
+        req.fromLat = req.toLat = 39.9908;
+        req.date = new LocalDate(2015, 9, 17);
+        req.walkSpeed = 1.3f;
+        req.fromTime = 7 * 3600;
+        req.toTime = 9 * 3600;
+        req.maxWalkTime = 20;
+        req.transitModes = new TraverseModeSet("TRANSIT");
+        req.accessModes = req.egressModes = req.directModes = new QualifiedModeSet("WALK");
+        return req;
+    }
+
+    @Test
+    public void testKey () throws Exception {
+        Graph g = buildGraphNoTransit();
+        addTransit(g);
+        link(g);
+
+        RaptorWorkerDataCache cache = new RaptorWorkerDataCache(null);
+        ProfileRequest req = makeRequest();
+        String key = cache.getKey("graph", g, "pointset", req);
+
+        // moving the origin does not change the data
+        req.fromLat += 0.01;
+        req.fromLon += 0.01;
+        assertEquals(key, cache.getKey("graph", g, "pointset", req));
+
+        // but changing the walk speed, time window or pointset does
+        req.walkSpeed = 2f;
+        assertFalse(key.equals(cache.getKey("graph", g, "pointset", req)));
+        req = makeRequest();
+        req.toTime += 60;
+        assertFalse(key.equals(cache.getKey("graph", g, "pointset", req)));
+        assertFalse(key.equals(cache.getKey("graph", g, "other-pointset", makeRequest())));
+    }
+
+    @Test
+    public void testPersistence () throws Exception {
+        Graph g = buildGraphNoTransit();
+        addRegularStopGrid(g);
+        addTransitMultipleLines(g);
+        link(g);
+        g.index(new DefaultStreetVertexIndexFactory());
+
+        File dir = Files.createTempDirectory("raptor_data_cache").toFile();
+        try {
+            ProfileRequest req = makeRequest();
+            RaptorWorkerData built = new RaptorWorkerDataCache(dir)
+                    .get("graph", g, null, req, null, new TaskStatistics());
+            assertEquals(1, dir.listFiles().length);
+
+            // a fresh cache (e.g. after a restart) should load the data from disk rather than building it
+            RaptorWorkerData loaded = new RaptorWorkerDataCache(dir)
+                    .get("graph", g, null, req, null, new TaskStatistics());
+            assertNotSame(built, loaded);
+            assertEquals(built.nStops, loaded.nStops);
+            assertEquals(built.nPatterns, loaded.nPatterns);
+            assertEquals(built.nTargets, loaded.nTargets);
+            for (int stop = 0; stop < built.nStops; stop++) {
+                assertTrue(Arrays.equals(built.targetsForStop.get(stop), loaded.targetsForStop.get(stop)));
+                assertTrue(Arrays.equals(built.transfersForStop.get(stop), loaded.transfersForStop.get(stop)));
+            }
+
+            // the loaded data must still be usable to find the initial stops of a new origin
+            RepeatedRaptorProfileRouter router = new RepeatedRaptorProfileRouter(g, req);
+            TIntIntMap builtStops = router.findInitialStops(false, built);
+            TIntIntMap loadedStops = router.findInitialStops(false, loaded);
+            assertFalse(builtStops.isEmpty());
+            assertEquals(builtStops, loadedStops);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.opentripplanner.analyst.cluster;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.analyst.Histogram;
+import org.opentripplanner.analyst.ResultSet;
+import org.opentripplanner.analyst.core.IsochroneData;
+import org.opentripplanner.common.geometry.GeometryUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Test that result envelopes survive a round trip through the binary format.
+ */
+public class ResultEnvelopeBinaryFormatTest extends TestCase {
+
+    private static ResultSet makeResultSet (int offset) {
+        ResultSet resultSet = new ResultSet();
+        resultSet.id = "origin";
+        resultSet.times = new int[] { 600 + offset, 620 + offset, Integer.MAX_VALUE, 0, 7199 + offset, Integer.MAX_VALUE };
+        Histogram histogram = new Histogram();
+        histogram.counts = new int[] { 0, 1, 5, 5, 12, 40 };
+        histogram.sums = new int[] { 0, 100, 2000000, Integer.MAX_VALUE, Integer.MIN_VALUE, 3 };
+        resultSet.histograms.put("jobs", histogram);
+        Histogram empty = new Histogram();
+        empty.counts = new int[0];
+        resultSet.histograms.put("schools", empty);
+        return resultSet;
+    }
+
+    private static ResultEnvelope roundTrip (ResultEnvelope envelope) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultEnvelopeBinaryFormat.write(envelope, out);
+        return ResultEnvelopeBinaryFormat.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static void assertResultSetEquals (ResultSet expected, ResultSet actual) {
+        assertEquals(expected.id, actual.id);
+        assertTrue(Arrays.equals(expected.times, actual.times));
+        assertEquals(expected.histograms.keySet(), actual.histograms.keySet());
+        for (String key : expected.histograms.keySet()) {
+            assertTrue(Arrays.equals(expected.histograms.get(key).counts, actual.histograms.get(key).counts));
+            assertTrue(Arrays.equals(expected.histograms.get(key).sums, actual.histograms.get(key).sums));
+        }
+    }
+
+    @Test
+    public void testRoundTrip () throws Exception {
+        ResultEnvelope envelope = new ResultEnvelope();
+        envelope.id = "origin";
+        envelope.jobId = "job";
+        envelope.destinationPointsetId = null;
+        envelope.profile = true;
+        envelope.bestCase = makeResultSet(0);
+        envelope.avgCase = makeResultSet(300);
+        envelope.worstCase = makeResultSet(600);
+        envelope.worstCase.times = null;
+
+        ResultEnvelope read = roundTrip(envelope);
+        assertEquals("origin", read.id);
+        assertEquals("job", read.jobId);
+        assertNull(read.destinationPointsetId);
+        assertTrue(read.profile);
+        assertNull(read.pointEstimate);
+        assertNull(read.spread);
+        assertResultSetEquals(envelope.bestCase, read.bestCase);
+        assertResultSetEquals(envelope.avgCase, read.avgCase);
+        assertResultSetEquals(envelope.worstCase, read.worstCase);
+    }
+
+    @Test
+    public void testIsochrones () throws Exception {
+        Geometry square = GeometryUtils.getGeometryFactory().createPolygon(new Coordinate[] {
+                new Coordinate(-83.01, 39.99), new Coordinate(-83.00, 39.99), new Coordinate(-83.00, 40.00),
+                new Coordinate(-83.01, 40.00), new Coordinate(-83.01, 39.99)
+        });
+        ResultEnvelope envelope = new ResultEnvelope();
+        envelope.pointEstimate = new ResultSet();
+        envelope.pointEstimate.isochrones = new IsochroneData[] { new IsochroneData(900, square) };
+
+        ResultEnvelope read = roundTrip(envelope);
+        assertEquals(1, read.pointEstimate.isochrones.length);
+        assertEquals(900, read.pointEstimate.isochrones[0].cutoffSec);
+        assertTrue(square.equalsExact(read.pointEstimate.isochrones[0].geometry));
+    }
+
+    /** Smoothly varying times, as on a grid, should take about a byte each. */
+    @Test
+    public void testCompactness () throws Exception {
+        ResultEnvelope envelope = new ResultEnvelope();
+        envelope.avgCase = new ResultSet();
+        envelope.avgCase.times = new int[100000];
+        for (int i = 0; i < envelope.avgCase.times.length; i++) {
+            envelope.avgCase.times[i] = 1800 + (int) (600 * Math.sin(i / 100.0));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultEnvelopeBinaryFormat.write(envelope, out);
+        assertTrue(out.size() < envelope.avgCase.times.length * 1.1);
+        assertTrue(Arrays.equals(envelope.avgCase.times, roundTrip(envelope).avgCase.times));
+    }
+
+    @Test
+    public void testRejectsOtherData () throws Exception {
+        try {
+            ResultEnvelopeBinaryFormat.read(new ByteArrayInputStream("{\"id\": \"origin\"}".getBytes("UTF-8")));
+            fail("JSON should not be read as a binary result envelope");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.opentripplanner.analyst.cluster;
+
+import com.vividsolutions.jts.geom.Envelope;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.opentripplanner.analyst.PointSet;
+import org.opentripplanner.analyst.SampleSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+/**
+ * Test that the linkage of pointsets survives a round trip to disk, and is redone when the graph changes.
+ */
+public class SampleSetCacheTest extends TestCase {
+
+    private static Graph makeGraph () throws Exception {
+        Graph g = buildGraphNoTransit();
+        g.index(new DefaultStreetVertexIndexFactory());
+        return g;
+    }
+
+    private static PointSet makePointSet () {
+        return PointSet.regularGrid(new Envelope(-83.02, -83.00, 39.98, 40.00), 200);
+    }
+
+    @Test
+    public void testPersistence () throws Exception {
+        Graph g = makeGraph();
+        File dir = Files.createTempDirectory("sample_set_cache").toFile();
+        try {
+            SampleSet linked = new SampleSetCache(dir).get("pointset", "graph", g, makePointSet());
+            assertEquals(1, dir.listFiles().length);
+
+            // a fresh cache and pointset (e.g. after a restart) should load the samples from disk rather than link them
+            PointSet pointSet = makePointSet();
+            SampleSet loaded = new SampleSetCache(dir).get("pointset", "graph", g, pointSet);
+            assertNotSame(linked, loaded);
+            assertSame(g, loaded.graph);
+            assertTrue(Arrays.equals(linked.v0s, loaded.v0s));
+            assertTrue(Arrays.equals(linked.v1s, loaded.v1s));
+            assertTrue(Arrays.equals(linked.d0s, loaded.d0s));
+            assertTrue(Arrays.equals(linked.d1s, loaded.d1s));
+            assertTrue(Arrays.stream(loaded.v0s).anyMatch(v -> v != null));
+
+            // once loaded, the samples are kept in the pointset
+            assertSame(loaded, pointSet.getOrCreateSampleSet(g));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testGraphChange () throws Exception {
+        Graph g = makeGraph();
+        PointSet pointSet = makePointSet();
+        SampleSet sampleSet = pointSet.getOrCreateSampleSet(g);
+        assertSame(sampleSet, pointSet.getOrCreateSampleSet(g));
+
+        // a rebuilt graph with the same router ID numbers its vertices differently, so the pointset must be relinked
+        Graph rebuilt = makeGraph();
+        assertEquals(g.routerId, rebuilt.routerId);
+        SampleSetCache cache = new SampleSetCache(null);
+        assertFalse(cache.getKey("pointset", "graph", g, pointSet).equals(cache.getKey("pointset", "graph", rebuilt, pointSet)));
+        SampleSet relinked = pointSet.getOrCreateSampleSet(rebuilt);
+        assertNotSame(sampleSet, relinked);
+        assertSame(rebuilt, relinked.graph);
+        assertTrue(Arrays.stream(relinked.v0s).filter(v -> v != null).allMatch(rebuilt::containsVertex));
+    }
+
+    /** Threads asking for the same samples at once wait for a single linking, which does not lock other graphs out. */
+    @Test
+    public void testConcurrentLinking () throws Exception {
+        Graph g = makeGraph();
+        Graph other = makeGraph();
+        other.routerId = "other";
+        PointSet pointSet = makePointSet();
+        AtomicInteger nLinked = new AtomicInteger();
+        CountDownLatch otherLinked = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<SampleSet>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> pointSet.getOrCreateSampleSet(g, () -> {
+                    nLinked.incrementAndGet();
+                    try {
+                        // linking another graph meanwhile must not wait for this one
+                        assertTrue(otherLinked.await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return new SampleSet(pointSet, g.getSampleFactory());
+                })));
+            }
+            pointSet.getOrCreateSampleSet(other);
+            otherLinked.countDown();
+
+            SampleSet sampleSet = results.get(0).get();
+            for (Future<SampleSet> result : results) {
+                assertSame(sampleSet, result.get());
+            }
+            assertEquals(1, nLinked.get());
+            assertSame(sampleSet, pointSet.getOrCreateSampleSet(g));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
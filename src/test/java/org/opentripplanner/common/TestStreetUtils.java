@@ -0,0 +1,74 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.graph_builder.annotation.GraphConnectivity;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import junit.framework.TestCase;
+
+public class TestStreetUtils extends TestCase {
+
+    @Test
+    public void testPruneFloatingIslands() {
+        Graph graph = new Graph();
+
+        // a main network of five intersections in a row
+        IntersectionVertex[] main = new IntersectionVertex[5];
+        for (int i = 0; i < main.length; i++) {
+            main[i] = new IntersectionVertex(graph, "main" + i, 0.001 * i, 0);
+        }
+        for (int i = 1; i < main.length; i++) {
+            street(main[i - 1], main[i], StreetTraversalPermission.PEDESTRIAN);
+        }
+
+        // a small pedestrian island, which should be removed
+        IntersectionVertex a = new IntersectionVertex(graph, "a", 0, 0.01);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", 0.001, 0.01);
+        street(a, b, StreetTraversalPermission.PEDESTRIAN);
+
+        // a small island that cars can also use, which should only lose its pedestrian permission
+        IntersectionVertex c = new IntersectionVertex(graph, "c", 0, 0.02);
+        IntersectionVertex d = new IntersectionVertex(graph, "d", 0.001, 0.02);
+        StreetEdge cd = street(c, d, StreetTraversalPermission.ALL);
+
+        StreetUtils.pruneFloatingIslands(graph, 3, 3, null);
+
+        for (IntersectionVertex v : main) {
+            assertNotNull(graph.getVertex(v.getLabel()));
+        }
+        assertNull(graph.getVertex("a"));
+        assertNull(graph.getVertex("b"));
+        assertNotNull(graph.getVertex("c"));
+        assertEquals(StreetTraversalPermission.CAR, cd.getPermission());
+
+        assertEquals(2, graph.getBuilderAnnotations().stream()
+                .filter(an -> an instanceof GraphConnectivity).count());
+    }
+
+    /** make a street in both directions, returning the forward edge */
+    private static StreetEdge street(IntersectionVertex from, IntersectionVertex to,
+            StreetTraversalPermission permission) {
+        double length = from.getCoordinate().distance(to.getCoordinate()) * 111111;
+        new StreetEdge(to, from, GeometryUtils.makeLineString(to.getX(), to.getY(), from.getX(), from.getY()),
+                "back", length, permission, true);
+        return new StreetEdge(from, to, GeometryUtils.makeLineString(from.getX(), from.getY(), to.getX(), to.getY()),
+                "forward", length, permission, false);
+    }
+}
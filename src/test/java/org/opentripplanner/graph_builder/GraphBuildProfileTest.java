@@ -0,0 +1,51 @@
+package org.opentripplanner.graph_builder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class GraphBuildProfileTest {
+
+    @Test
+    public void testProfile() throws Exception {
+        Graph graph = new Graph();
+        GraphBuildProfile profile = new GraphBuildProfile();
+
+        profile.profile("add street", graph, () -> {
+            IntersectionVertex v0 = new IntersectionVertex(graph, "v0", 0, 0);
+            IntersectionVertex v1 = new IntersectionVertex(graph, "v1", 0.001, 0);
+            new StreetEdge(v0, v1, GeometryUtils.makeLineString(0, 0, 0.001, 0), "street", 100,
+                    StreetTraversalPermission.ALL, false);
+        });
+        profile.profile("nothing", graph, () -> { });
+
+        assertEquals(2, profile.steps.size());
+        GraphBuildProfile.StepProfile step = profile.steps.get(0);
+        assertEquals("add street", step.name);
+        assertEquals(2, step.vertices);
+        assertEquals(2, step.vertexDelta);
+        assertEquals(1, step.edges);
+        assertEquals(1, step.edgeDelta);
+        assertTrue(step.wallMillis >= 0);
+        assertTrue(step.peakHeapBytes > 0);
+        assertEquals(0, profile.steps.get(1).vertexDelta);
+        assertEquals(0, profile.steps.get(1).edgeDelta);
+
+        File file = File.createTempFile("build-profile", ".json");
+        file.deleteOnExit();
+        profile.writeJson(file);
+        JsonNode json = new ObjectMapper().readTree(file);
+        assertEquals(2, json.get("steps").size());
+        assertEquals("nothing", json.get("steps").get(1).get("name").asText());
+        assertTrue(json.has("totalWallMillis"));
+    }
+}
@@ -0,0 +1,125 @@
+package org.opentripplanner.graph_builder;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.opentripplanner.standalone.CommandLineParameters;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test that building transit on top of a saved street graph gives the same graph as the full build that saved it.
+ */
+public class TransitOnlyBuildTest {
+
+    /** Stops along High Street in Columbus, which is covered by the OSM extract used in FakeGraph. */
+    private static final String[] STOPS = {
+        "s1,s1,39.9621,-83.0007",
+        "s2,s2,39.9700,-83.0030",
+        "s3,s3,39.9850,-83.0050",
+        "s4,s4,39.9900,-83.0100"
+    };
+
+    private static void writeGtfs (File file) throws Exception {
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            writeEntry(zip, "agency.txt", "agency_id,agency_name,agency_url,agency_timezone\n" +
+                    "agency,Agency,http://www.example.com,America/New_York\n");
+            writeEntry(zip, "calendar.txt",
+                    "service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date\n" +
+                    "daily,1,1,1,1,1,1,1,20150101,20301231\n");
+            writeEntry(zip, "routes.txt", "route_id,agency_id,route_short_name,route_long_name,route_type\n" +
+                    "route,agency,1,High Street,3\n");
+            StringBuilder stops = new StringBuilder("stop_id,stop_name,stop_lat,stop_lon\n");
+            for (String stop : STOPS) {
+                stops.append(stop).append('\n');
+            }
+            writeEntry(zip, "stops.txt", stops.toString());
+            StringBuilder trips = new StringBuilder("route_id,service_id,trip_id\n");
+            StringBuilder stopTimes = new StringBuilder("trip_id,arrival_time,departure_time,stop_id,stop_sequence\n");
+            for (int hour = 7; hour < 10; hour++) {
+                String tripId = "trip" + hour;
+                trips.append("route,daily,").append(tripId).append('\n');
+                for (int s = 0; s < STOPS.length; s++) {
+                    String time = String.format(Locale.US, "%02d:%02d:00", hour, s * 5);
+                    stopTimes.append(tripId).append(',').append(time).append(',').append(time).append(",s")
+                            .append(s + 1).append(',').append(s + 1).append('\n');
+                }
+            }
+            writeEntry(zip, "trips.txt", trips.toString());
+            writeEntry(zip, "stop_times.txt", stopTimes.toString());
+        }
+    }
+
+    private static void writeEntry (ZipOutputStream zip, String name, String contents) throws Exception {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(contents.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    private static Graph build (File dir, boolean transitOnly) {
+        CommandLineParameters params = new CommandLineParameters();
+        params.build = dir;
+        params.inMemory = true;
+        params.transitOnly = transitOnly;
+        GraphBuilder builder = GraphBuilder.forDirectory(params, dir);
+        assertNotNull(builder);
+        builder.run();
+        return builder.getGraph();
+    }
+
+    /**
+     * Describe the vertices and edges of a graph by their types and positions. Labels and IDs can't be compared, as
+     * those of vertices and edges made while linking depend on counters that differ between builds.
+     */
+    private static List<String> describe (Graph graph) {
+        List<String> items = new ArrayList<>();
+        for (Vertex v : graph.getVertices()) {
+            items.add(String.format(Locale.US, "%s %.7f,%.7f", v.getClass().getSimpleName(), v.getLon(), v.getLat()));
+        }
+        for (Edge e : graph.getEdges()) {
+            Vertex from = e.getFromVertex();
+            Vertex to = e.getToVertex();
+            items.add(String.format(Locale.US, "%s %.7f,%.7f %.7f,%.7f %.3f", e.getClass().getSimpleName(),
+                    from.getLon(), from.getLat(), to.getLon(), to.getLat(), e.getDistance()));
+        }
+        Collections.sort(items);
+        return items;
+    }
+
+    @Test
+    public void testTransitOnlyBuild () throws Exception {
+        File dir = Files.createTempDirectory("transit_only_build").toFile();
+        try {
+            FileUtils.copyURLToFile(FakeGraph.class.getResource("columbus.osm.pbf"), new File(dir, "columbus.osm.pbf"));
+            writeGtfs(new File(dir, "gtfs.zip"));
+            Files.write(new File(dir, GraphBuilder.BUILDER_CONFIG_FILENAME).toPath(),
+                    "{\"saveStreetGraph\": true}".getBytes(StandardCharsets.UTF_8));
+
+            Graph full = build(dir, false);
+            assertTrue(new File(dir, GraphBuilder.STREET_GRAPH_FILENAME).isFile());
+            assertEquals(STOPS.length, full.getVertices().stream().filter(v -> v instanceof TransitStop).count());
+
+            Graph transitOnly = build(dir, true);
+            assertEquals(full.countVertices(), transitOnly.countVertices());
+            assertEquals(full.countEdges(), transitOnly.countEdges());
+            assertEquals(describe(full), describe(transitOnly));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
@@ -14,6 +14,7 @@ import org.junit.Test;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.model.P2;
+import org.opentripplanner.graph_builder.linking.SimpleStreetSplitter;
 import org.opentripplanner.profile.StopTreeCache;
 import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.edgetype.StreetTransitLink;
@@ -29,8 +30,10 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 
 import java.io.UnsupportedEncodingException;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import static org.junit.Assert.*;
 import static org.opentripplanner.graph_builder.module.FakeGraph.*;
@@ -151,6 +154,52 @@ public class LinkingTest {
         }
     }
 
+    /**
+     * Test that linking all the stops in bulk links each stop to the same places on the street network as linking them
+     * one at a time.
+     */
+    @Test
+    public void testBulkLinking () throws UnsupportedEncodingException {
+        Graph g1 = buildGraphNoTransit();
+        addExtraStops(g1);
+        addRegularStopGrid(g1);
+        link(g1);
+
+        Graph g2 = buildGraphNoTransit();
+        addExtraStops(g2);
+        addRegularStopGrid(g2);
+        new SimpleStreetSplitter(g2).linkInBulk();
+
+        for (TransitStop ts : Iterables.filter(g1.getVertices(), TransitStop.class)) {
+            TransitStop other = (TransitStop) g2.getVertex(ts.getLabel());
+
+            Set<Coordinate> targets = linkTargets(ts);
+            assertFalse(targets.isEmpty());
+            assertEquals("Stop " + ts + " linked differently in bulk", targets, linkTargets(other));
+        }
+
+        // the street network should have the same total length
+        assertEquals(totalStreetLength(g1), totalStreetLength(g2), 1);
+    }
+
+    /** the locations the stop is linked to, rounded so that coincident split vertices compare equal */
+    private static Set<Coordinate> linkTargets (TransitStop ts) {
+        Set<Coordinate> ret = new HashSet<>();
+        for (Edge e : stls(ts.getOutgoing())) {
+            Vertex v = e.getToVertex();
+            ret.add(new Coordinate(Math.round(v.getLon() * 1e8) / 1e8, Math.round(v.getLat() * 1e8) / 1e8));
+        }
+        return ret;
+    }
+
+    private static double totalStreetLength (Graph g) {
+        double length = 0;
+        for (StreetEdge e : Iterables.filter(g.getEdges(), StreetEdge.class)) {
+            length += e.getDistance();
+        }
+        return length;
+    }
+
     private TObjectIntMap<String> jaggedArrayToVertexMap(int[] value, Graph g) {
         TObjectIntMap<String> ret = new TObjectIntHashMap<String>();
 
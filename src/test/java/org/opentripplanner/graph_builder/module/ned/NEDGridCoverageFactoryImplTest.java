@@ -0,0 +1,32 @@
+package org.opentripplanner.graph_builder.module.ned;
+
+import junit.framework.TestCase;
+
+import javax.media.jai.JAI;
+import javax.media.jai.TileCache;
+import java.io.File;
+
+/**
+ * Test that the JAI tile cache, which the whole process shares, is only enlarged while elevations are being sampled.
+ */
+public class NEDGridCoverageFactoryImplTest extends TestCase {
+
+    public void testTileCacheRestored() {
+        TileCache tileCache = JAI.getDefaultInstance().getTileCache();
+        long capacity = tileCache.getMemoryCapacity();
+        NEDGridCoverageFactoryImpl factory = new NEDGridCoverageFactoryImpl(new File("ned"));
+
+        // a fraction too small to enlarge the cache leaves it alone
+        factory.setTileCacheHeapFraction(0);
+        factory.ensureTileCacheCapacity();
+        assertEquals(capacity, tileCache.getMemoryCapacity());
+        factory.cleanup();
+        assertEquals(capacity, tileCache.getMemoryCapacity());
+
+        factory.setTileCacheHeapFraction(0.5);
+        factory.ensureTileCacheCapacity();
+        assertEquals((long) (Runtime.getRuntime().maxMemory() * 0.5), tileCache.getMemoryCapacity());
+        factory.cleanup();
+        assertEquals(capacity, tileCache.getMemoryCapacity());
+    }
+}
@@ -0,0 +1,101 @@
+package org.opentripplanner.graph_builder.module.ned;
+
+import junit.framework.TestCase;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.coverage.grid.Interpolator2D;
+import org.geotools.geometry.DirectPosition2D;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.coverage.Coverage;
+import org.opengis.coverage.PointOutsideCoverageException;
+import org.opentripplanner.common.geometry.GeometryUtils;
+
+import javax.media.jai.InterpolationBilinear;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test that a UnifiedGridCoverage always takes the first region and datum in list order that covers a point, whatever
+ * order the points are sampled in, even where regions and datums overlap.
+ */
+public class UnifiedGridCoverageTest extends TestCase {
+
+    private static GridCoverage2D grid (String name, double minLon, double minLat, float value) {
+        float[][] matrix = new float[20][20];
+        for (int row = 0; row < matrix.length; row++) {
+            for (int col = 0; col < matrix[row].length; col++) {
+                matrix[row][col] = value + row * 3 + col;
+            }
+        }
+        ReferencedEnvelope envelope = new ReferencedEnvelope(minLon, minLon + 1, minLat, minLat + 1, GeometryUtils.WGS84_XY);
+        return new GridCoverageFactory().create(name, matrix, envelope);
+    }
+
+    private static VerticalDatum datum (double minLon, double width, float offset) {
+        float[][] offsets = new float[4][4];
+        for (float[] row : offsets) {
+            Arrays.fill(row, offset);
+        }
+        return new VerticalDatum(minLon, 39, width, 3, offsets);
+    }
+
+    /** The search over regions and datums as it was before the search started at the previous region. */
+    private static double[] evaluateFirstMatch (List<Coverage> regions, List<VerticalDatum> datums, DirectPosition2D point) {
+        for (Coverage region : regions) {
+            if (((GeneralEnvelope) region.getEnvelope()).contains(point)) {
+                double[] result;
+                try {
+                    result = region.evaluate(point, (double[]) null);
+                    for (VerticalDatum datum : datums) {
+                        if (datum.covers(point.x, point.y)) {
+                            result[0] += datum.interpolatedHeight(point.x, point.y);
+                            return result;
+                        }
+                    }
+                } catch (PointOutsideCoverageException e) {
+                    continue;
+                }
+                return result;
+            }
+        }
+        return null;
+    }
+
+    public void testOverlappingRegionsAndDatums () {
+        // the second region overlaps the first, the third is the same area as the first and the fourth is apart
+        List<GridCoverage2D> grids = Arrays.asList(
+                grid("a", -83, 40, 100),
+                grid("b", -82.5, 40.5, 200),
+                grid("c", -83, 40, 300),
+                grid("d", -81, 40, 400));
+        // the datums overlap between -82.5 and -81.5
+        List<VerticalDatum> datums = Arrays.asList(datum(-84, 2.5, 10), datum(-82.5, 3.5, 20));
+
+        UnifiedGridCoverage unified = new UnifiedGridCoverage("unified", grids.get(0), datums);
+        List<Coverage> reference = new ArrayList<>();
+        for (GridCoverage2D grid : grids) {
+            if (grid != grids.get(0)) {
+                unified.add(grid);
+            }
+            reference.add(Interpolator2D.create(grid, new InterpolationBilinear()));
+        }
+        UnifiedGridCoverage copy = unified.copy();
+
+        // random points make consecutive samples alternate between regions, which is when a search that starts at
+        // the previous region could find a different one
+        Random random = new Random(42);
+        int found = 0;
+        for (int i = 0; i < 5000; i++) {
+            DirectPosition2D point = new DirectPosition2D(GeometryUtils.WGS84_XY,
+                    -83 + random.nextDouble() * 3, 40 + random.nextDouble() * 1.5);
+            double[] expected = evaluateFirstMatch(reference, datums, point);
+            assertTrue(Arrays.equals(expected, unified.evaluate(point, (double[]) null)));
+            assertTrue(Arrays.equals(expected, copy.evaluate(point, (double[]) null)));
+            if (expected != null) found++;
+        }
+        assertTrue(found > 2500);
+    }
+}
@@ -0,0 +1,122 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.gtfs;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+
+public class CompactGtfsRelationalDaoTest {
+
+    @Test
+    public void testStopTimes() {
+        CompactGtfsRelationalDao dao = new CompactGtfsRelationalDao();
+        Trip t1 = trip("t1");
+        Trip t2 = trip("t2");
+        Stop s1 = new Stop();
+        s1.setId(new AgencyAndId("a", "s1"));
+        Stop s2 = new Stop();
+        s2.setId(new AgencyAndId("a", "s2"));
+
+        // interleaved trips, one of them out of order
+        dao.saveEntity(stopTime(t1, s1, 1, 100, "headsign"));
+        dao.saveEntity(stopTime(t2, s2, 5, 300, null));
+        dao.saveEntity(stopTime(t1, s2, 2, 200, null));
+        dao.saveEntity(stopTime(t2, s1, 3, 250, null));
+
+        assertEquals(4, dao.getStopTimeCount());
+
+        List<StopTime> st1 = dao.getStopTimesForTrip(t1);
+        assertEquals(2, st1.size());
+        assertSame(t1, st1.get(0).getTrip());
+        assertSame(s1, st1.get(0).getStop());
+        assertEquals(100, st1.get(0).getArrivalTime());
+        assertEquals(110, st1.get(0).getDepartureTime());
+        assertEquals(1, st1.get(0).getPickupType());
+        assertEquals(2, st1.get(0).getDropOffType());
+        assertEquals(12.5, st1.get(0).getShapeDistTraveled(), 0);
+        assertEquals("headsign", st1.get(0).getStopHeadsign());
+        assertNull(st1.get(1).getStopHeadsign());
+        assertSame(s2, st1.get(1).getStop());
+
+        List<StopTime> st2 = dao.getStopTimesForTrip(t2);
+        assertEquals(2, st2.size());
+        assertEquals(3, st2.get(0).getStopSequence());
+        assertEquals(5, st2.get(1).getStopSequence());
+
+        // trip ids are changed after loading, which must not lose the stop times
+        t1.getId().setAgencyId("b");
+        assertEquals(2, dao.getStopTimesForTrip(t1).size());
+
+        assertTrue(dao.getStopTimesForTrip(trip("t3")).isEmpty());
+        assertEquals(4, dao.getAllStopTimes().size());
+    }
+
+    @Test
+    public void testShapePoints() {
+        CompactGtfsRelationalDao dao = new CompactGtfsRelationalDao();
+        dao.saveEntity(shapePoint("shape", 2, 1.0, 2.0));
+        dao.saveEntity(shapePoint("shape", 1, 3.0, 4.0));
+        dao.saveEntity(shapePoint("other", 1, 5.0, 6.0));
+
+        assertEquals(3, dao.getShapePointCount());
+
+        AgencyAndId shapeId = new AgencyAndId("b", "shape");
+        List<ShapePoint> points = dao.getShapePointsForShapeId(shapeId);
+        assertEquals(2, points.size());
+        assertEquals(1, points.get(0).getSequence());
+        assertEquals(3.0, points.get(0).getLat(), 0);
+        assertEquals(4.0, points.get(0).getLon(), 0);
+        assertEquals(2, points.get(1).getSequence());
+        assertEquals(shapeId, points.get(1).getShapeId());
+
+        assertTrue(dao.getShapePointsForShapeId(new AgencyAndId("b", "none")).isEmpty());
+    }
+
+    private static Trip trip(String id) {
+        Trip trip = new Trip();
+        trip.setId(new AgencyAndId("a", id));
+        return trip;
+    }
+
+    private static StopTime stopTime(Trip trip, Stop stop, int sequence, int time, String headsign) {
+        StopTime st = new StopTime();
+        st.setTrip(trip);
+        st.setStop(stop);
+        st.setStopSequence(sequence);
+        st.setArrivalTime(time);
+        st.setDepartureTime(time + 10);
+        st.setPickupType(1);
+        st.setDropOffType(2);
+        st.setShapeDistTraveled(12.5);
+        st.setStopHeadsign(headsign);
+        return st;
+    }
+
+    private static ShapePoint shapePoint(String shapeId, int sequence, double lat, double lon) {
+        ShapePoint sp = new ShapePoint();
+        sp.setShapeId(new AgencyAndId("a", shapeId));
+        sp.setSequence(sequence);
+        sp.setLat(lat);
+        sp.setLon(lon);
+        return sp;
+    }
+}
@@ -0,0 +1,183 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.openstreetmap.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.opentripplanner.openstreetmap.model.OSMRelation;
+import org.opentripplanner.openstreetmap.model.OSMWay;
+import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
+
+import crosby.binary.file.BlockInputStream;
+import crosby.binary.file.FileBlock;
+
+/**
+ * Test that decoding PBF blocks on several threads hands the handler the same entities in the same order as decoding
+ * them on one, skips the blocks a phase has no use for, and reports decoding failures.
+ */
+public class BinaryFileBasedOpenStreetMapProviderImplTest {
+
+    /** Records the entities and phase ends it is handed, in order. */
+    private static class RecordingHandler implements OpenStreetMapContentHandler {
+
+        final List<String> events = new ArrayList<String>();
+
+        int nWays = 0;
+
+        @Override
+        public void addNode(OSMNode node) {
+            events.add("n" + node.getId());
+        }
+
+        @Override
+        public void addWay(OSMWay way) {
+            events.add("w" + way.getId());
+            nWays++;
+        }
+
+        @Override
+        public void addRelation(OSMRelation relation) {
+            events.add("r" + relation.getId());
+        }
+
+        @Override
+        public void doneFirstPhaseRelations() {
+            events.add("relations done");
+        }
+
+        @Override
+        public void doneSecondPhaseWays() {
+            events.add("ways done");
+        }
+
+        @Override
+        public void doneThirdPhaseNodes() {
+            events.add("nodes done");
+        }
+    }
+
+    private static File getFile() throws Exception {
+        return new File(URLDecoder.decode(FakeGraph.class.getResource("columbus.osm.pbf").getPath(), "UTF-8"));
+    }
+
+    private static BinaryFileBasedOpenStreetMapProviderImpl makeProvider(int nThreads) throws Exception {
+        BinaryFileBasedOpenStreetMapProviderImpl provider = new BinaryFileBasedOpenStreetMapProviderImpl();
+        provider.setPath(getFile());
+        provider.setThreadCount(nThreads);
+        return provider;
+    }
+
+    @Test
+    public void testSameOrderOnAnyNumberOfThreads() throws Exception {
+        RecordingHandler sequential = new RecordingHandler();
+        makeProvider(1).readOSM(sequential);
+        assertTrue(sequential.events.size() > 1000);
+
+        // with more threads than blocks in flight, and with so many blocks in flight that some wait to be replayed
+        for (int nThreads : new int[] { 2, 4, 16 }) {
+            RecordingHandler parallel = new RecordingHandler();
+            makeProvider(nThreads).readOSM(parallel);
+            assertEquals(sequential.events, parallel.events);
+        }
+    }
+
+    @Test
+    public void testSkipBlocks() throws Exception {
+        BinaryFileBasedOpenStreetMapProviderImpl provider = makeProvider(4);
+        RecordingHandler handler = new RecordingHandler();
+        provider.readOSM(handler);
+
+        int nWayBlocks = 0, nNodeBlocks = 0, nDataBlocks = 0;
+        for (int i = 0; i < provider.blockContents.size(); i++) {
+            int contents = provider.blockContents.get(i);
+            if (contents != 0) nDataBlocks++;
+            if ((contents & BinaryOpenStreetMapParser.WAYS) != 0) nWayBlocks++;
+            if ((contents & BinaryOpenStreetMapParser.NODES) != 0) nNodeBlocks++;
+        }
+
+        // the first phase decodes every data block, the later ones only those holding their entity type
+        assertTrue(provider.decodedBlocks[0] >= nDataBlocks);
+        assertEquals(nWayBlocks, provider.decodedBlocks[1]);
+        assertEquals(nNodeBlocks, provider.decodedBlocks[2]);
+        // a sorted extract has blocks of nodes only, which the way phase must have skipped
+        assertTrue(provider.decodedBlocks[1] < provider.decodedBlocks[0]);
+        assertTrue(provider.decodedBlocks[2] < provider.decodedBlocks[0]);
+
+        // and skipping them loses no ways
+        RecordingHandler unskipped = new RecordingHandler();
+        BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(unskipped);
+        parser.setParseNodes(false);
+        parser.setParseRelations(false);
+        InputStream input = new FileInputStream(getFile());
+        try {
+            new BlockInputStream(input, parser).process();
+        } finally {
+            input.close();
+        }
+        assertTrue(unskipped.nWays > 0);
+        assertEquals(unskipped.nWays, handler.nWays);
+    }
+
+    @Test(timeout = 60000)
+    public void testDecodeFailure() throws Exception {
+        final AtomicInteger nParsers = new AtomicInteger();
+        final List<String> failingThreads = new ArrayList<String>();
+        BinaryFileBasedOpenStreetMapProviderImpl provider = new BinaryFileBasedOpenStreetMapProviderImpl() {
+            @Override
+            BinaryOpenStreetMapParser makeParser(OpenStreetMapContentHandler buffer) {
+                final boolean fail = nParsers.incrementAndGet() == 3;
+                return new BinaryOpenStreetMapParser(buffer) {
+                    @Override
+                    public void handleBlock(FileBlock block) {
+                        if (fail) {
+                            synchronized (failingThreads) {
+                                failingThreads.add(Thread.currentThread().getName());
+                            }
+                            throw new RuntimeException("corrupt block");
+                        }
+                        super.handleBlock(block);
+                    }
+                };
+            }
+        };
+        provider.setPath(getFile());
+        provider.setThreadCount(4);
+
+        try {
+            provider.readOSM(new RecordingHandler());
+            fail("a decoding failure must fail the read");
+        } catch (IllegalStateException e) {
+            Throwable cause = e;
+            while (cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            assertEquals("corrupt block", cause.getMessage());
+        }
+        assertEquals(1, failingThreads.size());
+        assertTrue(failingThreads.get(0).startsWith("osm-pbf-"));
+    }
+}
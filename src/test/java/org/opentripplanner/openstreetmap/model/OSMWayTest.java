@@ -24,6 +24,19 @@ import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
 
 public class OSMWayTest {
 
+    @Test
+    public void testNodeRefs() {
+        OSMWay way = new OSMWay();
+        way.addNodeRef(1);
+        way.addNodeRef(3);
+        way.addNodeRef(2, 1);
+
+        assertEquals(3, way.getNodeRefs().size());
+        assertEquals(2L, way.getNodeRefs().get(1).longValue());
+        assertTrue(way.getNodeRefs().contains(3L));
+        assertEquals(3L, way.getNodeRefList().get(2));
+    }
+
     @Test
     public void testIsBicycleDismountForced() {
         OSMWay way = new OSMWay();
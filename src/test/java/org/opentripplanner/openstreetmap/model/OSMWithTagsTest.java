@@ -41,6 +41,22 @@ public class OSMWithTagsTest {
         assertEquals("bar", o.getTag("FOO"));
     }
     
+    @Test
+    public void testManyTags() {
+        OSMWithTags o = new OSMWithTags();
+        assertNull(o.getTags());
+        for (int i = 0; i < 10; i++) {
+            o.addTag("key" + i, "value" + i);
+        }
+        o.addTag("KEY3", "other");
+
+        assertEquals("value0", o.getTag("key0"));
+        assertEquals("other", o.getTag("key3"));
+        assertEquals("value9", o.getTag("key9"));
+        assertEquals(10, o.getTags().size());
+        assertEquals("other", o.getTags().get("key3"));
+    }
+
     @Test
     public void testIsFalse() {
         assertTrue(OSMWithTags.isFalse("no"));
@@ -66,4 +66,72 @@ public class PropagatedTimesStoreTest extends TestCase {
         // 1000 should not be included in average
         assertEquals(1, pts.avgs[0]);
     }
-}
\ No newline at end of file
+
+    /**
+     * Test that streaming searches in one at a time gives the same results as supplying them all at once, for the
+     * reachability threshold, average inclusion and the worst case of sometimes-unreachable destinations.
+     */
+    @Test
+    public static void testStreamingMatchesArray () {
+        ProfileRequest pr = new ProfileRequest();
+        pr.reachabilityThreshold = 0.5f;
+        Graph g = new Graph();
+
+        int U = RaptorWorker.UNREACHED;
+        int[][] times = new int[][] {
+                new int[] { 1,    U, 600, U },
+                new int[] { 1000, U, 700, 50 },
+                new int[] { 30,   U, U,   U },
+                new int[] { 40,   5, 800, U }
+        };
+        boolean[] includeInAverages = new boolean[] { false, true, true, true };
+
+        PropagatedTimesStore fromArray = new PropagatedTimesStore(g, pr, 4);
+        fromArray.setFromArray(times, includeInAverages, PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
+
+        PropagatedTimesStore streamed = new PropagatedTimesStore(g, pr, 4);
+        streamed.beginIterations(PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
+        for (int i = 0; i < times.length; i++) {
+            streamed.addIteration(times[i], includeInAverages[i]);
+        }
+        streamed.finishIterations();
+
+        for (int target = 0; target < 4; target++) {
+            assertEquals(fromArray.mins[target], streamed.mins[target]);
+            assertEquals(fromArray.avgs[target], streamed.avgs[target]);
+            assertEquals(fromArray.maxs[target], streamed.maxs[target]);
+        }
+
+        // target 3 is only reached in an averaged search a third of the time, and is never reached in all searches
+        assertEquals(U, streamed.avgs[3]);
+        assertEquals(U, streamed.maxs[3]);
+    }
+
+    /** Test that streamed percentiles are within one histogram bin of the exact ones. */
+    @Test
+    public static void testStreamingPercentiles () {
+        ProfileRequest pr = new ProfileRequest();
+        Graph g = new Graph();
+
+        int[][] times = new int[200][1];
+        for (int i = 0; i < times.length; i++) {
+            times[i][0] = 600 + i * 17;
+        }
+        boolean[] includeInAverages = new boolean[times.length];
+        java.util.Arrays.fill(includeInAverages, true);
+
+        PropagatedTimesStore fromArray = new PropagatedTimesStore(g, pr, 1);
+        fromArray.setFromArray(times, includeInAverages, PropagatedTimesStore.ConfidenceCalculationMethod.PERCENTILE);
+
+        PropagatedTimesStore streamed = new PropagatedTimesStore(g, pr, 1);
+        streamed.beginIterations(PropagatedTimesStore.ConfidenceCalculationMethod.PERCENTILE);
+        for (int[] iteration : times) {
+            streamed.addIteration(iteration, true);
+        }
+        streamed.finishIterations();
+
+        assertEquals(fromArray.avgs[0], streamed.avgs[0]);
+        assertEquals(fromArray.mins[0], streamed.mins[0], PropagatedTimesStore.HISTOGRAM_BIN_SECONDS);
+        assertEquals(fromArray.maxs[0], streamed.maxs[0], PropagatedTimesStore.HISTOGRAM_BIN_SECONDS);
+    }
+}
@@ -0,0 +1,127 @@
+package org.opentripplanner.profile;
+
+import gnu.trove.list.array.TIntArrayList;
+import org.joda.time.LocalDate;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+/**
+ * This is not an automatic unit test. It is a benchmark that must be started manually, comparing the stop-major
+ * propagation in RaptorWorker.doPropagation, which loops over the targets reachable from each stop touched in a
+ * search, with a target-major layout, which loops over every target and the stops it can be reached from. Both run
+ * on the RAPTOR data for the grid of stops made by FakeGraph.addTransitMultipleLines, with every stop touched and
+ * with half of them touched, as happens when a search only reaches part of the network.
+ *
+ * Parameters (all optional): number of propagations timed per case, number of warm-up propagations per case.
+ */
+public class PropagationBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PropagationBenchmark.class);
+
+    /** For each target, a flat array of (stop, time) pairs: the transpose of RaptorWorkerData.targetsForStop. */
+    static int[][] makeStopsForTarget (RaptorWorkerData data) {
+        TIntArrayList[] stopsForTarget = new TIntArrayList[data.nTargets];
+        for (int stop = 0; stop < data.nStops; stop++) {
+            int[] targets = data.targetsForStop.get(stop);
+            for (int i = 0; i < targets.length; i += 2) {
+                if (stopsForTarget[targets[i]] == null)
+                    stopsForTarget[targets[i]] = new TIntArrayList();
+                stopsForTarget[targets[i]].add(stop);
+                stopsForTarget[targets[i]].add(targets[i + 1]);
+            }
+        }
+        int[][] flat = new int[data.nTargets][];
+        for (int target = 0; target < flat.length; target++)
+            flat[target] = stopsForTarget[target] == null ? null : stopsForTarget[target].toArray();
+        return flat;
+    }
+
+    /** Target-major propagation, giving the same result as RaptorWorker.doPropagation. */
+    static void propagateTargetMajor (int[][] stopsForTarget, int[] timesAtTransitStops, int[] timesAtTargets) {
+        for (int target = 0; target < stopsForTarget.length; target++) {
+            int[] stops = stopsForTarget[target];
+            if (stops == null)
+                continue;
+
+            int best = timesAtTargets[target];
+            for (int i = 0; i < stops.length; i += 2) {
+                int baseTimeSeconds = timesAtTransitStops[stops[i]];
+                if (baseTimeSeconds != RaptorWorker.UNREACHED && baseTimeSeconds + stops[i + 1] < best)
+                    best = baseTimeSeconds + stops[i + 1];
+            }
+            timesAtTargets[target] = best;
+        }
+    }
+
+    public static void main (String[] params) throws Exception {
+        int nCalls = params.length > 0 ? Integer.parseInt(params[0]) : 200;
+        int nWarmupCalls = params.length > 1 ? Integer.parseInt(params[1]) : 50;
+
+        Graph graph = buildGraphNoTransit();
+        addTransitMultipleLines(graph);
+        link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+
+        ProfileRequest request = new ProfileRequest();
+        request.date = new LocalDate(2015, 6, 10);
+        request.fromTime = 7 * 3600;
+        request.toTime = 9 * 3600;
+        request.accessModes = request.egressModes = request.directModes = new QualifiedModeSet("WALK");
+        request.transitModes = new TraverseModeSet("TRANSIT");
+
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(request, graph, null,
+                new TaskStatistics());
+        int[][] stopsForTarget = makeStopsForTarget(data);
+        LOG.info("RAPTOR data has {} stops and {} targets", data.nStops, data.nTargets);
+
+        for (double fractionTouched : new double[] { 1, 0.5 }) {
+            RaptorWorker worker = new RaptorWorker(data, request);
+            Random random = new Random(42);
+            int[] timesAtTransitStops = new int[data.nStops];
+            Arrays.fill(timesAtTransitStops, RaptorWorker.UNREACHED);
+            for (int stop = 0; stop < data.nStops; stop++) {
+                if (random.nextDouble() < fractionTouched) {
+                    timesAtTransitStops[stop] = request.fromTime + random.nextInt(3600);
+                    worker.allStopsTouched.set(stop);
+                }
+            }
+
+            int[] stopMajorTimes = new int[data.nTargets];
+            int[] targetMajorTimes = new int[data.nTargets];
+            long stopMajorNanos = 0, targetMajorNanos = 0;
+            for (int call = 0; call < nWarmupCalls + nCalls; call++) {
+                Arrays.fill(stopMajorTimes, RaptorWorker.UNREACHED);
+                long start = System.nanoTime();
+                worker.doPropagation(timesAtTransitStops, stopMajorTimes, request.fromTime);
+                long stopMajorElapsed = System.nanoTime() - start;
+
+                Arrays.fill(targetMajorTimes, RaptorWorker.UNREACHED);
+                start = System.nanoTime();
+                propagateTargetMajor(stopsForTarget, timesAtTransitStops, targetMajorTimes);
+                long targetMajorElapsed = System.nanoTime() - start;
+
+                if (call >= nWarmupCalls) {
+                    stopMajorNanos += stopMajorElapsed;
+                    targetMajorNanos += targetMajorElapsed;
+                }
+            }
+
+            if (!Arrays.equals(stopMajorTimes, targetMajorTimes))
+                throw new IllegalStateException("Stop-major and target-major propagation give different times");
+
+            LOG.info("{} of stops touched: stop-major {} msec per propagation, target-major {} msec per propagation",
+                    fractionTouched, stopMajorNanos / 1e6 / nCalls, targetMajorNanos / 1e6 / nCalls);
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+package org.opentripplanner.profile;
+
+import gnu.trove.map.TIntIntMap;
+import junit.framework.TestCase;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.analyst.scenario.ConvertToFrequency;
+import org.opentripplanner.analyst.scenario.Scenario;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import java.util.Arrays;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+/**
+ * Test that running the frequency draws of each minute in parallel gives the same results as running them in turn.
+ */
+public class RaptorWorkerTest extends TestCase {
+
+    private static ProfileRequest makeRequest (RaptorWorkerTimetable.BoardingAssumption boardingAssumption) {
+        ProfileRequest pr = new ProfileRequest();
+        pr.date = new LocalDate(2015, 6, 10);
+        pr.fromTime = 7 * 3600;
+        pr.toTime = 9 * 3600;
+        pr.fromLat = pr.toLat = 39.9621;
+        pr.fromLon = pr.toLon = -83.0007;
+        pr.accessModes = pr.egressModes = pr.directModes = new QualifiedModeSet("WALK");
+        pr.transitModes = new TraverseModeSet("TRANSIT");
+        pr.boardingAssumption = boardingAssumption;
+
+        ConvertToFrequency ctf = new ConvertToFrequency();
+        ctf.groupBy = ConvertToFrequency.ConversionGroup.ROUTE_DIRECTION;
+        ctf.routeId = new String[] { "route" };
+        ctf.windowStart = 5 * 3600;
+        ctf.windowEnd = 10 * 3600;
+
+        pr.scenario = new Scenario(0);
+        pr.scenario.modifications = Arrays.asList(ctf);
+        return pr;
+    }
+
+    private static PropagatedTimesStore run (RepeatedRaptorProfileRouter router, Graph graph, ProfileRequest pr,
+            boolean parallel, TaskStatistics ts) {
+        RaptorWorkerData data = router.raptorWorkerData;
+        TIntIntMap accessTimes = router.findInitialStops(false, data);
+        int[] nonTransitTimes = new int[data.nTargets];
+        Arrays.fill(nonTransitTimes, RaptorWorker.UNREACHED);
+
+        RaptorWorker worker = new RaptorWorker(data, pr);
+        worker.parallelDraws = parallel;
+        return worker.runRaptor(graph, accessTimes, nonTransitTimes, ts);
+    }
+
+    @Test
+    public void testParallelDraws () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        addTransit(gg);
+        link(gg);
+        gg.index(new DefaultStreetVertexIndexFactory());
+
+        for (RaptorWorkerTimetable.BoardingAssumption boardingAssumption : new RaptorWorkerTimetable.BoardingAssumption[] {
+                RaptorWorkerTimetable.BoardingAssumption.BEST_CASE, RaptorWorkerTimetable.BoardingAssumption.WORST_CASE,
+                RaptorWorkerTimetable.BoardingAssumption.RANDOM }) {
+            ProfileRequest pr = makeRequest(boardingAssumption);
+            RepeatedRaptorProfileRouter router = new RepeatedRaptorProfileRouter(gg, pr);
+            router.route();
+            assertTrue(router.raptorWorkerData.hasFrequencies);
+
+            TaskStatistics sequentialStatistics = new TaskStatistics();
+            PropagatedTimesStore sequential = run(router, gg, pr, false, sequentialStatistics);
+            TaskStatistics parallelStatistics = new TaskStatistics();
+            PropagatedTimesStore parallel = run(router, gg, pr, true, parallelStatistics);
+
+            assertTrue(sequentialStatistics.searchCount > RaptorWorker.MONTE_CARLO_COUNT_PER_MINUTE + 2);
+            assertEquals(sequentialStatistics.searchCount, parallelStatistics.searchCount);
+
+            // the extrema draws are deterministic whatever the boarding assumption, and give the minimum and maximum
+            assertTrue(Arrays.equals(sequential.mins, parallel.mins));
+            assertTrue(Arrays.equals(sequential.maxs, parallel.maxs));
+
+            // and every draw is deterministic when the boarding assumption is the best or worst case
+            if (boardingAssumption != RaptorWorkerTimetable.BoardingAssumption.RANDOM)
+                assertTrue(Arrays.equals(sequential.avgs, parallel.avgs));
+        }
+    }
+}
@@ -161,6 +161,15 @@ public class AlertPatchTest extends TestCase {
         assertEquals(expectedNotes, oneAlertPatchAlerts);
     }
 
+    /** Patches built without time periods pass null, which means they are never displayed. */
+    public void testNullTimePeriods() {
+        AlertPatch withNull = new AlertPatch();
+        withNull.setTimePeriods(null);
+        AlertPatch withEmpty = new AlertPatch();
+        withEmpty.setTimePeriods(Collections.<TimePeriod>emptyList());
+        assertEquals(withEmpty, withNull);
+    }
+
     public void testRouteNotePatch() {
         AlertPatch rnp1 = new AlertPatch();
         rnp1.setFeedId(feedId);
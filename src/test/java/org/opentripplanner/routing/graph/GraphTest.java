@@ -18,8 +18,17 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.opentripplanner.util.ArrayUtils.contains;
 
+import java.util.List;
+
 import org.junit.Test;
+import org.opentripplanner.common.TurnRestriction;
+import org.opentripplanner.common.TurnRestrictionType;
+import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
 
 public class GraphTest {
     @Test
@@ -124,4 +133,41 @@ public class GraphTest {
         assertFalse(contains (alertPatches[9], alertPatch2));
         assertFalse(contains (alertPatches[9], alertPatch3));
     }
+
+    @Test
+    public final void testTurnRestrictions() {
+        Graph graph = new Graph();
+        IntersectionVertex vertex0 = new IntersectionVertex(graph, "Vertex 0", 0, 0);
+        IntersectionVertex vertex1 = new IntersectionVertex(graph, "Vertex 1", 0, 0.001);
+        StreetEdge edge0 = new StreetEdge(vertex0, vertex1,
+                GeometryUtils.makeLineString(0, 0, 0, 0.001), "edge 0", 100,
+                StreetTraversalPermission.ALL, false);
+        StreetEdge edge1 = new StreetEdge(vertex1, vertex0,
+                GeometryUtils.makeLineString(0, 0.001, 0, 0), "edge 1", 100,
+                StreetTraversalPermission.ALL, true);
+        TurnRestriction restriction0 = new TurnRestriction(edge0, edge1,
+                TurnRestrictionType.NO_TURN, TraverseModeSet.allModes());
+        TurnRestriction restriction1 = new TurnRestriction(edge0, edge1,
+                TurnRestrictionType.ONLY_TURN, TraverseModeSet.allModes());
+
+        assertFalse(edge0.hasTurnRestrictions());
+        assertTrue(graph.getTurnRestrictions(edge0).isEmpty());
+
+        graph.addTurnRestriction(edge0, restriction0);
+        List<TurnRestriction> before = graph.getTurnRestrictions(edge0);
+        graph.addTurnRestriction(edge0, restriction1);
+        assertTrue(edge0.hasTurnRestrictions());
+        assertFalse(edge1.hasTurnRestrictions());
+        // Lists already handed out are not modified by later updates
+        assertEquals(1, before.size());
+        assertEquals(2, graph.getTurnRestrictions(edge0).size());
+        assertTrue(graph.getTurnRestrictions(edge1).isEmpty());
+
+        graph.removeTurnRestriction(edge0, restriction0);
+        assertEquals(1, graph.getTurnRestrictions(edge0).size());
+        assertTrue(graph.getTurnRestrictions(edge0).contains(restriction1));
+        graph.removeTurnRestriction(edge0, restriction1);
+        assertFalse(edge0.hasTurnRestrictions());
+        assertTrue(graph.getTurnRestrictions(edge0).isEmpty());
+    }
 }
@@ -17,6 +17,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
@@ -130,4 +132,26 @@ public class AlertPatchServiceImplTest {
         assertEquals(1, instance.getAllAlertPatches().size());
         assertTrue(instance.getAllAlertPatches().contains(alerts[0]));
     }
+
+    @Test
+    public void testExpireAndApply() {
+        AgencyAndId testTrip = new AgencyAndId("C", "C");
+        alerts[2].setTrip(testTrip);
+        alerts[3].setAgencyId("D");
+
+        AlertPatchServiceImpl instance = getAlertPatchServiceImpl();
+        instance.apply(alerts[0]);
+        Collection<AlertPatch> before = instance.getAllAlertPatches();
+
+        instance.expireAndApply(Collections.singleton(alerts[0].getId()),
+                Arrays.<AlertPatch>asList(alerts[1], alerts[2], alerts[3]));
+
+        // Collections handed out earlier are unaffected by later updates
+        assertEquals(1, before.size());
+        assertEquals(3, instance.getAllAlertPatches().size());
+        assertTrue(instance.getStopPatches(testStop).isEmpty());
+        assertTrue(instance.getRoutePatches(testRoute).isEmpty());
+        assertTrue(instance.getTripPatches(testTrip).contains(alerts[2]));
+        assertTrue(instance.getAgencyPatches("D").contains(alerts[3]));
+    }
 }
@@ -9,6 +9,8 @@ import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.vertextype.OsmVertex;
 
+import java.io.File;
+import java.io.PrintWriter;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.Map;
@@ -97,6 +99,68 @@ public class StreetSpeedSourceTest extends TestCase {
         assertTrue(Double.isNaN(snap.getSpeed(se, TraverseMode.CAR, System.currentTimeMillis())));
     }
 
+    @Test
+    public void testCompiledSnapshot () {
+        Graph g = new Graph();
+        OsmVertex v1 = new OsmVertex(g, "v1", 0, 0, 5l);
+        OsmVertex v2 = new OsmVertex(g, "v2", 0, 0.01, 6l);
+        StreetEdge se = new StreetEdge(v1, v2, null, "test", 1000, StreetTraversalPermission.CAR, false);
+        se.wayId = 10;
+        StreetEdge other = new StreetEdge(v2, v1, null, "test", 1000, StreetTraversalPermission.CAR, true);
+        other.wayId = 11;
+
+        Map<Segment, SegmentSpeedSample> speeds = Maps.newHashMap();
+        speeds.put(new Segment(10l, 5l, 6l), getSpeedSample());
+        StreetSpeedSnapshot snap = new StreetSpeedSnapshot(speeds, g);
+
+        OffsetDateTime odt = OffsetDateTime.of(2015, 6, 1, 9, 5, 0, 0, ZoneOffset.UTC);
+        assertEquals(6.1, snap.getSpeed(se, TraverseMode.CAR, odt.toInstant().toEpochMilli()), 0.1);
+        // Sunday 23:00 is the last hour of the week
+        odt = OffsetDateTime.of(2015, 6, 7, 23, 5, 0, 0, ZoneOffset.UTC);
+        assertEquals(33.3, snap.getSpeed(se, TraverseMode.CAR, odt.toInstant().toEpochMilli()), 0.1);
+        assertTrue(Double.isNaN(snap.getSpeed(other, TraverseMode.CAR, odt.toInstant().toEpochMilli())));
+        assertTrue(Double.isNaN(snap.getSpeed(se, TraverseMode.WALK, odt.toInstant().toEpochMilli())));
+
+        // an edge created after compilation falls back to the segment index
+        StreetEdge late = new StreetEdge(v1, v2, null, "late", 500, StreetTraversalPermission.CAR, false);
+        late.wayId = 10;
+        assertEquals(33.3, snap.getSpeed(late, TraverseMode.CAR, odt.toInstant().toEpochMilli()), 0.1);
+    }
+
+    @Test
+    public void testHourOfWeek () {
+        OffsetDateTime odt = OffsetDateTime.of(2015, 6, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+        assertEquals(0, SegmentSpeedSample.hourOfWeek(odt.toInstant().toEpochMilli()));
+        assertEquals(1, SegmentSpeedSample.hourOfWeek(odt.plusHours(1).toInstant().toEpochMilli()));
+        assertEquals(7 * 24 - 1, SegmentSpeedSample.hourOfWeek(odt.minusMinutes(1).toInstant().toEpochMilli()));
+        // the epoch was a Thursday
+        assertEquals(3 * 24, SegmentSpeedSample.hourOfWeek(0));
+    }
+
+    @Test
+    public void testCsvLoader () throws Exception {
+        File csv = File.createTempFile("speeds", ".csv");
+        csv.deleteOnExit();
+        try (PrintWriter pw = new PrintWriter(csv)) {
+            pw.println("way_id,start_node_id,end_node_id,hour_of_week,speed_kmh");
+            pw.println("10,5,6,,36");
+            pw.println("10,5,6,9,72");
+            pw.println("11,6,5,9,18");
+            pw.println("12,6,5,200,18");
+        }
+
+        Map<Segment, SegmentSpeedSample> samples = SegmentSpeedCsvLoader.load(csv);
+        assertEquals(2, samples.size());
+
+        OffsetDateTime odt = OffsetDateTime.of(2015, 6, 1, 9, 5, 0, 0, ZoneOffset.UTC);
+        SegmentSpeedSample sample = samples.get(new Segment(10l, 5l, 6l));
+        assertEquals(20, sample.getSpeed(odt.toInstant().toEpochMilli()), 0.01);
+        assertEquals(10, sample.getSpeed(odt.plusHours(1).toInstant().toEpochMilli()), 0.01);
+        // no average given, the mean of the hourly speeds is used
+        sample = samples.get(new Segment(11l, 6l, 5l));
+        assertEquals(5, sample.getSpeed(odt.plusHours(1).toInstant().toEpochMilli()), 0.01);
+    }
+
     /** Make a speed sample */
     private SegmentSpeedSample getSpeedSample() {
         double[] hourBins = new double[7 * 24];
@@ -0,0 +1,194 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.updater.bike_rental;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.bike_rental.BikeRentalStation;
+import org.opentripplanner.routing.bike_rental.BikeRentalStationService;
+import org.opentripplanner.routing.edgetype.StreetBikeRentalLink;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.BikeRentalStationVertex;
+import org.opentripplanner.updater.GraphUpdaterManager;
+import org.opentripplanner.util.NonLocalizedString;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Test that each poll of the bike rental updater is applied to the graph as a difference against the previous one.
+ */
+public class BikeRentalUpdaterTest extends TestCase {
+
+    private Graph graph;
+
+    private GraphUpdaterManager manager;
+
+    private BikeRentalUpdater updater;
+
+    private BikeRentalStationService service;
+
+    @Override
+    protected void setUp() throws Exception {
+        graph = FakeGraph.buildGraphNoTransit();
+        manager = new GraphUpdaterManager(graph);
+        updater = new BikeRentalUpdater();
+        updater.setGraphUpdaterManager(manager);
+        updater.configurePolling(graph, new ObjectMapper().readTree(
+                "{\"sourceType\": \"kml\", \"url\": \"file:src/test/resources/bike/NSFietsenstallingen.kml\"}"));
+        updater.setup();
+        service = graph.getService(BikeRentalStationService.class);
+    }
+
+    @Override
+    protected void tearDown() {
+        manager.stop();
+    }
+
+    private static BikeRentalStation station(String id, double x, double y, int bikes) {
+        BikeRentalStation station = new BikeRentalStation();
+        station.id = id;
+        station.name = new NonLocalizedString("Station " + id);
+        station.x = x;
+        station.y = y;
+        station.bikesAvailable = bikes;
+        station.spacesAvailable = 10 - bikes;
+        return station;
+    }
+
+    /** Apply one poll of the feed, as the updater would. */
+    private void poll(BikeRentalStation... stations) {
+        updater.new BikeRentalGraphWriterRunnable(Arrays.asList(stations)).run(graph);
+    }
+
+    private BikeRentalStationVertex vertex(String id) {
+        for (BikeRentalStation station : updater.verticesByStation.keySet()) {
+            if (station.id.equals(id))
+                return updater.verticesByStation.get(station);
+        }
+        return null;
+    }
+
+    private BikeRentalStation serviceStation(String id) {
+        for (BikeRentalStation station : service.getBikeRentalStations()) {
+            if (station.id.equals(id))
+                return station;
+        }
+        return null;
+    }
+
+    public void testAdd() {
+        int nVertices = graph.countVertices();
+        poll(station("a", -83.01, 39.99, 4));
+
+        BikeRentalStationVertex vertex = vertex("a");
+        assertNotNull(vertex);
+        assertTrue(graph.containsVertex(vertex));
+        assertTrue(vertex.getOutgoing().stream().anyMatch(e -> e instanceof StreetBikeRentalLink));
+        assertEquals(4, vertex.getBikesAvailable());
+        assertEquals(6, vertex.getSpacesAvailable());
+        assertNotNull(serviceStation("a"));
+        // the station vertex, and possibly a split vertex on the street it was linked to
+        assertTrue(graph.countVertices() > nVertices);
+    }
+
+    public void testUnchanged() {
+        poll(station("a", -83.01, 39.99, 4));
+        BikeRentalStationVertex vertex = vertex("a");
+        int nVertices = graph.countVertices();
+        int nEdges = graph.countEdges();
+
+        poll(station("a", -83.01, 39.99, 4));
+        assertSame(vertex, vertex("a"));
+        assertEquals(nVertices, graph.countVertices());
+        assertEquals(nEdges, graph.countEdges());
+    }
+
+    public void testAvailabilityAndNameChange() {
+        poll(station("a", -83.01, 39.99, 4));
+        BikeRentalStationVertex vertex = vertex("a");
+        int nVertices = graph.countVertices();
+
+        BikeRentalStation renamed = station("a", -83.01, 39.99, 7);
+        renamed.name = new NonLocalizedString("Renamed");
+        poll(renamed);
+        assertSame(vertex, vertex("a"));
+        assertEquals(7, vertex.getBikesAvailable());
+        assertEquals(3, vertex.getSpacesAvailable());
+        assertEquals("Renamed", vertex.getName());
+        assertEquals("Renamed", serviceStation("a").name.toString());
+        assertEquals(nVertices, graph.countVertices());
+    }
+
+    /** GPS jitter must not relink the station, as every relink splits the streets again. */
+    public void testSmallMove() {
+        poll(station("a", -83.01, 39.99, 4));
+        BikeRentalStationVertex vertex = vertex("a");
+        int nVertices = graph.countVertices();
+        int nEdges = graph.countEdges();
+
+        for (int i = 1; i <= 10; i++) {
+            poll(station("a", -83.01 + i * 1e-6, 39.99 - i * 1e-6, 4));
+        }
+        assertSame(vertex, vertex("a"));
+        assertEquals(nVertices, graph.countVertices());
+        assertEquals(nEdges, graph.countEdges());
+        // the position shown to users follows the feed
+        assertEquals(-83.01 + 10 * 1e-6, serviceStation("a").x, 1e-9);
+    }
+
+    /** Small moves are measured from where the station was linked, so they cannot add up unnoticed. */
+    public void testDrift() {
+        poll(station("a", -83.01, 39.99, 4));
+        BikeRentalStationVertex vertex = vertex("a");
+
+        for (int i = 1; i <= 20; i++) {
+            poll(station("a", -83.01 + i * 1e-5, 39.99, 4));
+        }
+        assertNotSame(vertex, vertex("a"));
+        assertFalse(graph.containsVertex(vertex));
+    }
+
+    public void testMove() {
+        poll(station("a", -83.01, 39.99, 4));
+        BikeRentalStationVertex vertex = vertex("a");
+
+        poll(station("a", -83.005, 39.985, 4));
+        BikeRentalStationVertex moved = vertex("a");
+        assertNotSame(vertex, moved);
+        assertFalse(graph.containsVertex(vertex));
+        assertTrue(graph.containsVertex(moved));
+        assertEquals(-83.005, moved.getX(), 1e-9);
+        assertTrue(moved.getOutgoing().stream().anyMatch(e -> e instanceof StreetBikeRentalLink));
+        assertEquals(1, service.getBikeRentalStations().size());
+    }
+
+    public void testRemove() {
+        poll(station("a", -83.01, 39.99, 4), station("b", -83.005, 39.985, 2));
+        BikeRentalStationVertex vertex = vertex("a");
+
+        poll(station("b", -83.005, 39.985, 2));
+        assertNull(vertex("a"));
+        assertFalse(graph.containsVertex(vertex));
+        assertNull(serviceStation("a"));
+        assertNotNull(serviceStation("b"));
+
+        poll();
+        assertEquals(Collections.emptySet(), updater.verticesByStation.keySet());
+        assertTrue(service.getBikeRentalStations().isEmpty());
+    }
+}